@@ -63,11 +63,14 @@ public class XtreemFSFileOutputStream extends OutputStream {
 
     @Override
     public synchronized void write(int b) throws IOException {
-        byte[] data = new byte[1];
-        data[0] = (byte) b;
         if (useBuffer) {
-            writeToBuffer(data, 0, 1);
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
         } else {
+            byte[] data = new byte[1];
+            data[0] = (byte) b;
             int writtenBytes = fileHandle.write(userCredentials, data, 1, position);
             position += writtenBytes;
         }
@@ -106,8 +109,7 @@ public class XtreemFSFileOutputStream extends OutputStream {
 
         if (useBuffer && buffer.position() > 0) {
             // If buffer has remaining content, write content to file.
-            byte[] bytesWriteToFile = flushBuffer();
-            fileHandle.write(userCredentials, bytesWriteToFile, bytesWriteToFile.length, position);
+            flushBuffer();
             buffer = null;
         }
         super.close();
@@ -116,28 +118,32 @@ public class XtreemFSFileOutputStream extends OutputStream {
     }
 
     private synchronized void writeToBuffer(byte b[], int off, int len) throws IOException {
-        if (buffer.remaining() > len) {
+        if (buffer.remaining() >= len) {
             // Write content to buffer.
             buffer.put(b, off, len);
         } else {
-            // Flush buffer and write content + last write request to file.
-            byte[] buffercontent = flushBuffer(); 
-            byte[] bytesWriteToFile = new byte[buffercontent.length + len];
-            System.arraycopy(buffercontent, 0, bytesWriteToFile, 0, buffercontent.length);
-            System.arraycopy(b, off, bytesWriteToFile, buffercontent.length, len);
-            int writtenBytes = fileHandle
-                    .write(userCredentials, bytesWriteToFile, bytesWriteToFile.length, position);
-            position += writtenBytes;
+            // Flush buffer and write the request to the buffer or, if it does not fit, directly to the file.
+            flushBuffer();
+            if (buffer.remaining() >= len) {
+                buffer.put(b, off, len);
+            } else {
+                int writtenBytes = fileHandle.write(userCredentials, b, off, len, position);
+                position += writtenBytes;
+            }
         }
     }
-    
-    private byte[] flushBuffer() {
-        int bytesInBuffer = buffer.position();
-        buffer.clear();
-        byte[] buffercontent = new byte[bytesInBuffer];
-        buffer.get(buffercontent, 0, bytesInBuffer);
+
+    /**
+     * Writes the content of the buffer to the file without copying it, and clears the buffer.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        int writtenBytes = fileHandle.write(userCredentials, buffer, buffer.remaining(), position);
+        position += writtenBytes;
         buffer.clear();
-        return buffercontent;
     }
 
 }
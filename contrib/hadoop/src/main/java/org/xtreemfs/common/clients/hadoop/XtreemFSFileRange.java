@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.clients.hadoop;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A range of a file to be read with {@link XtreemFSInputStream#readVectored(java.util.List)}.
+ */
+public class XtreemFSFileRange {
+
+    private final long offset;
+
+    private final int  length;
+
+    private ByteBuffer data;
+
+    public XtreemFSFileRange(long offset, int length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("negative offset: " + offset);
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("negative length: " + length);
+        }
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the content of the range once it has been read, or null before. The returned buffer contains exactly
+     * {@link #getLength()} bytes and may share its content with the buffers of other ranges.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    void setData(ByteBuffer data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + (offset + length) + ")";
+    }
+}
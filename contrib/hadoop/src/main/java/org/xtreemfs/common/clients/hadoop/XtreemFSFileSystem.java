@@ -17,6 +17,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +72,10 @@ public class XtreemFSFileSystem extends FileSystem {
     private boolean             useWriteBuffer;
     private int                 readBufferSize;
     private int                 writeBufferSize;
+    private ExecutorService     rangeReadExecutor;
+    private int                 rangeMergeGap;
+    private int                 maxMergedRangeSize;
+    private XtreemFSReplicaCache replicaCache;
     private Volume              defaultVolume;
     private static final int    STANDARD_DIR_PORT = 32638;
     private static final int[]  MIN_HADOOP_VERSION = { 0, 0, 0 };
@@ -223,6 +230,25 @@ public class XtreemFSFileSystem extends FileSystem {
             useWriteBuffer = false;
         }
 
+        // Ranges of vectored reads closer than the merge gap are read with a single request.
+        rangeMergeGap = conf.getInt("xtreemfs.io.vectored.mergeGap", 64 * 1024);
+        maxMergedRangeSize = conf.getInt("xtreemfs.io.vectored.maxMergedSize", 8 * 1024 * 1024);
+        int rangeReadThreads = conf.getInt("xtreemfs.io.vectored.threads", 8);
+        if (rangeReadThreads > 0) {
+            rangeReadExecutor = Executors.newFixedThreadPool(rangeReadThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "XtreemFS vectored read");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        // Replicas of files are cached to answer block location requests without contacting the MRC.
+        replicaCache = new XtreemFSReplicaCache(conf.getInt("xtreemfs.locations.cache.size", 10000),
+                conf.getLong("xtreemfs.locations.cache.ttl", 60) * 1000);
+
         // Create UserCredentials.
         if ((conf.get("xtreemfs.client.userid") != null) && (conf.get("xtreemfs.client.groupid") != null)) {
             userCredentials = UserCredentials.newBuilder().setUsername(conf.get("xtreemfs.client.userid"))
@@ -383,7 +409,7 @@ public class XtreemFSFileSystem extends FileSystem {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "Opening file %s", pathString);
         }
         return new FSDataInputStream(new XtreemFSInputStream(userCredentials, fileHandle, pathString, useReadBuffer,
-                readBufferSize, statistics));
+                readBufferSize, statistics, rangeReadExecutor, rangeMergeGap, maxMergedRangeSize));
     }
 
     @Override
@@ -417,6 +443,7 @@ public class XtreemFSFileSystem extends FileSystem {
         }
 
         final FileHandle fileHandle = xtreemfsVolume.openFile(userCredentials, pathString, flags, applyUMask(fp).toShort());
+        replicaCache.invalidate(xtreemfsVolume.getVolumeName(), pathString, false);
         return new FSDataOutputStream(new XtreemFSFileOutputStream(userCredentials, fileHandle, pathString,
                 useWriteBuffer, writeBufferSize), statistics);
     }
@@ -478,6 +505,8 @@ public class XtreemFSFileSystem extends FileSystem {
                     srcPath, destPath, e.getMessage());
             return false;
         }
+        replicaCache.invalidate(xtreemfsVolume.getVolumeName(), srcPath, true);
+        replicaCache.invalidate(xtreemfsVolume.getVolumeName(), destPath, true);
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "Renamed file/dir. src: %s, dst: %s", srcPath, destPath);
         }
@@ -498,6 +527,7 @@ public class XtreemFSFileSystem extends FileSystem {
         statistics.incrementWriteOps(1);
         Volume xtreemfsVolume = getVolumeFromPath(path);
         final String pathString = preparePath(path, xtreemfsVolume);
+        replicaCache.invalidate(xtreemfsVolume.getVolumeName(), pathString, true);
         if (isXtreemFSFile(pathString, xtreemfsVolume)) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "Deleting file %s", pathString);
@@ -635,6 +665,20 @@ public class XtreemFSFileSystem extends FileSystem {
 
         DirectoryEntries dirEntries = xtreemfsVolume.readDir(userCredentials, pathString, 0, 0, false);
         statistics.incrementLargeReadOps(1);
+
+        // Retrieve the replicas of all files with as few requests as possible.
+        final String parentPath = pathString.endsWith("/") ? pathString : pathString + "/";
+        List<String> filePaths = new ArrayList<String>(dirEntries.getEntriesCount());
+        for (DirectoryEntry entry : dirEntries.getEntriesList()) {
+            if (!isXtreemFSDirectory(entry.getStbuf())) {
+                filePaths.add(parentPath + entry.getName());
+            }
+        }
+        Map<String, Replicas> replicasOfFiles = xtreemfsVolume.listReplicas(userCredentials, filePaths);
+        for (Map.Entry<String, Replicas> entry : replicasOfFiles.entrySet()) {
+            replicaCache.put(xtreemfsVolume.getVolumeName(), entry.getKey(), entry.getValue());
+        }
+
         ArrayList<FileStatus> fileStatus = new ArrayList<FileStatus>(dirEntries.getEntriesCount() - 2);
         for (DirectoryEntry entry : dirEntries.getEntriesList()) {
             if (entry.getName().equals("..") || entry.getName().equals(".")) {
@@ -648,9 +692,11 @@ public class XtreemFSFileSystem extends FileSystem {
                         .getAtimeNs() / 1e6), new FsPermission((short) stat.getMode()), stat.getUserId(), stat
                         .getGroupId(), new Path(makeAbsolute(path), entry.getName())));
             } else {
-                Replicas replicas = xtreemfsVolume.listReplicas(userCredentials,
-                        pathString + "/" + entry.getName());
-                
+                Replicas replicas = replicasOfFiles.get(parentPath + entry.getName());
+                if (replicas == null) {
+                    replicas = getReplicas(xtreemfsVolume, parentPath + entry.getName());
+                }
+
                 // for files, set blocksize to stripeSize of the first replica
                 fileStatus.add(new FileStatus(stat.getSize(), false, replicas.getReplicasCount(),
                         replicas.getReplicas(0).getStripingPolicy().getStripeSize() * 1024, (long) (stat.getMtimeNs() / 1e6),
@@ -760,7 +806,8 @@ public class XtreemFSFileSystem extends FileSystem {
                     new FsPermission((short) stat.getMode()), stat.getUserId(), stat.getGroupId(), makeQualified(path));
         } else {
             Replicas replicas = xtreemfsVolume.listReplicas(userCredentials, pathString);
-            
+            replicaCache.put(xtreemfsVolume.getVolumeName(), pathString, replicas);
+
             // for files, set blocksize to stripeSize of the first replica
             return new FileStatus(stat.getSize(), false, replicas.getReplicasCount(),
                     replicas.getReplicas(0).getStripingPolicy().getStripeSize() * 1024, (long) (stat.getMtimeNs() / 1e6),
@@ -775,6 +822,10 @@ public class XtreemFSFileSystem extends FileSystem {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "Closing %s", XtreemFSFileSystem.class.getName());
         }
         super.close();
+        if (rangeReadExecutor != null) {
+            rangeReadExecutor.shutdownNow();
+        }
+        replicaCache.clear();
         for (Volume xtreemfsVolume : xtreemfsVolumes.values()) {
             xtreemfsVolume.close();
         }
@@ -789,8 +840,8 @@ public class XtreemFSFileSystem extends FileSystem {
         statistics.incrementReadOps(1);
         Volume xtreemfsVolume = getVolumeFromPath(file.getPath());
         String pathString = preparePath(file.getPath(), xtreemfsVolume);
-        List<StripeLocation> stripeLocations = xtreemfsVolume.getStripeLocations(userCredentials, pathString, start,
-                length);
+        List<StripeLocation> stripeLocations = xtreemfsVolume.getStripeLocations(
+                getReplicas(xtreemfsVolume, pathString), start, length);
 
         BlockLocation[] result = new BlockLocation[stripeLocations.size()];
         for (int i = 0; i < result.length; ++i) {
@@ -800,6 +851,27 @@ public class XtreemFSFileSystem extends FileSystem {
         return result;
     }
     
+    /**
+     * Returns the replicas of the file, either from the cache or from the MRC.
+     * 
+     * @param xtreemfsVolume
+     * @param pathString
+     * @return
+     * @throws IOException
+     */
+    private Replicas getReplicas(Volume xtreemfsVolume, String pathString) throws IOException {
+        Replicas replicas = replicaCache.get(xtreemfsVolume.getVolumeName(), pathString);
+        if (replicas == null) {
+            replicas = xtreemfsVolume.listReplicas(userCredentials, pathString);
+            replicaCache.put(xtreemfsVolume.getVolumeName(), pathString, replicas);
+        }
+        return replicas;
+    }
+
+    XtreemFSReplicaCache getReplicaCache() {
+        return replicaCache;
+    }
+
     /**
      * Check the configuration for a umask and apply if set.
      * 
@@ -6,9 +6,20 @@
  */
 package org.xtreemfs.common.clients.hadoop;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem.Statistics;
 import org.xtreemfs.common.libxtreemfs.FileHandle;
@@ -17,39 +28,63 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 
 /**
  * Represents an InputStream user when reading a file with HDFS.
+ * <p>
+ * Positional reads do not use or modify the state of the stream and are therefore not synchronized, so that they can
+ * be executed concurrently with each other and with sequential reads.
  */
-public class XtreemFSInputStream extends FSInputStream {
+public class XtreemFSInputStream extends FSInputStream implements ByteBufferReadable {
 
-    private long            position           = 0;
+    private long                  position           = 0;
 
     // Used by the buffer to determine the position in the file.
-    private long            bufferFilePosition = 0;
+    private long                  bufferFilePosition = 0;
 
-    private UserCredentials userCredentials;
+    private UserCredentials       userCredentials;
 
-    private String          fileName;
+    private String                fileName;
 
-    private FileHandle      fileHandle;
+    private FileHandle            fileHandle;
 
-    private Statistics      statistics;
+    private Statistics            statistics;
 
-    private boolean         useBuffer;
+    private boolean               useBuffer;
 
-    private ByteBuffer      buffer;
+    private ByteBuffer            buffer;
 
-    private boolean         EOF                = false;
-    
-    private boolean         closed;
+    private boolean               EOF                = false;
+
+    private boolean               closed;
+
+    // Used by read() if no buffer is used.
+    private final byte[]          singleByte         = new byte[1];
+
+    // Executes the reads of vectored reads in parallel; null if ranges are read sequentially.
+    private final ExecutorService rangeReadExecutor;
+
+    // Maximum gap in bytes between two ranges of a vectored read that are read with a single request.
+    private final int             rangeMergeGap;
+
+    // Maximum size in bytes of a request combining multiple ranges of a vectored read.
+    private final int             maxMergedRangeSize;
 
     public XtreemFSInputStream(UserCredentials userCredentials, FileHandle fileHandle, String fileName,
             boolean useBuffer, int bufferSize, Statistics statistics) throws IOException {
+        this(userCredentials, fileHandle, fileName, useBuffer, bufferSize, statistics, null, 0, 0);
+    }
+
+    public XtreemFSInputStream(UserCredentials userCredentials, FileHandle fileHandle, String fileName,
+            boolean useBuffer, int bufferSize, Statistics statistics, ExecutorService rangeReadExecutor,
+            int rangeMergeGap, int maxMergedRangeSize) throws IOException {
         this.userCredentials = userCredentials;
         this.fileHandle = fileHandle;
         this.fileName = fileName;
         this.statistics = statistics;
         this.useBuffer = useBuffer;
         this.closed = false;
-        
+        this.rangeReadExecutor = rangeReadExecutor;
+        this.rangeMergeGap = rangeMergeGap;
+        this.maxMergedRangeSize = maxMergedRangeSize;
+
         if (useBuffer) {
             this.buffer = ByteBuffer.allocateDirect(bufferSize);
             buffer.position(buffer.capacity());
@@ -62,6 +97,7 @@ public class XtreemFSInputStream extends FSInputStream {
         if (useBuffer) {
             this.bufferFilePosition = l;
             buffer.position(buffer.limit());
+            EOF = false;
         }
     }
 
@@ -77,20 +113,22 @@ public class XtreemFSInputStream extends FSInputStream {
 
     @Override
     public synchronized int read() throws IOException {
-        byte[] data = new byte[1];
-        int bytesRead = 0;
+        int data;
         if (useBuffer) {
-            bytesRead = readFromBuffer(data, 0, 1);
+            if (!buffer.hasRemaining() && fillBuffer() == 0) {
+                return -1;
+            }
+            data = buffer.get() & 0xFF;
         } else {
-            bytesRead = fileHandle.read(userCredentials, data, 1, position);
+            if (fileHandle.read(userCredentials, singleByte, 1, position) == 0) {
+                return -1;
+            }
+            data = singleByte[0] & 0xFF;
         }
 
-        if (bytesRead == 0) {
-            return -1;
-        }
         position += 1;
         statistics.incrementBytesRead(1);
-        return (int) (data[0] & 0xFF);
+        return data;
     }
 
     @Override
@@ -110,7 +148,24 @@ public class XtreemFSInputStream extends FSInputStream {
     }
 
     @Override
-    public synchronized int read(long position, byte[] bytes, int offset, int length) throws IOException {
+    public synchronized int read(ByteBuffer buf) throws IOException {
+        int length = buf.remaining();
+        int bytesRead = 0;
+        if (useBuffer) {
+            bytesRead = readFromBuffer(buf);
+        } else {
+            bytesRead = fileHandle.read(userCredentials, buf, length, position);
+        }
+        if ((bytesRead == 0) && (length > 0)) {
+            return -1;
+        }
+        position += bytesRead;
+        statistics.incrementBytesRead(bytesRead);
+        return bytesRead;
+    }
+
+    @Override
+    public int read(long position, byte[] bytes, int offset, int length) throws IOException {
         int bytesRead = fileHandle.read(userCredentials, bytes, offset, length, position);
         if ((bytesRead == 0) && (length > 0)) {
             return -1;
@@ -119,11 +174,107 @@ public class XtreemFSInputStream extends FSInputStream {
         return bytesRead;
     }
 
+    @Override
+    public void readFully(long position, byte[] bytes, int offset, int length) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int n = read(position + bytesRead, bytes, offset + bytesRead, length - bytesRead);
+            if (n < 0) {
+                throw new EOFException("End of file " + fileName + " reached before reading fully.");
+            }
+            bytesRead += n;
+        }
+    }
+
+    @Override
+    public void readFully(long position, byte[] bytes) throws IOException {
+        readFully(position, bytes, 0, bytes.length);
+    }
+
     @Override
     public synchronized int read(byte[] bytes) throws IOException {
         return read(bytes, 0, bytes.length);
     }
 
+    /**
+     * Reads multiple ranges of the file. Ranges that are close to each other are combined and read with a single
+     * request, and the combined requests are executed in parallel. Like positional reads, this does not use or modify
+     * the state of the stream.
+     * 
+     * When the method returns, the content of each range is available with {@link XtreemFSFileRange#getData()}.
+     * 
+     * @param ranges
+     *            the ranges to read; may overlap and do not have to be sorted
+     * @throws EOFException
+     *             if a range exceeds the end of the file
+     * @throws IOException
+     *             if reading a range failed
+     */
+    public void readVectored(List<? extends XtreemFSFileRange> ranges) throws IOException {
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        List<XtreemFSFileRange> sortedRanges = new ArrayList<XtreemFSFileRange>(ranges);
+        Collections.sort(sortedRanges, new Comparator<XtreemFSFileRange>() {
+            @Override
+            public int compare(XtreemFSFileRange r1, XtreemFSFileRange r2) {
+                return r1.getOffset() < r2.getOffset() ? -1 : (r1.getOffset() == r2.getOffset() ? 0 : 1);
+            }
+        });
+
+        // Combine ranges which overlap or are separated by a small gap only.
+        List<MergedRange> mergedRanges = new ArrayList<MergedRange>();
+        MergedRange current = null;
+        for (XtreemFSFileRange range : sortedRanges) {
+            long end = range.getOffset() + range.getLength();
+            if (current != null && range.getOffset() - current.end <= rangeMergeGap
+                    && Math.max(end, current.end) - current.offset <= maxMergedRangeSize) {
+                current.add(range);
+            } else {
+                current = new MergedRange(range);
+                mergedRanges.add(current);
+            }
+        }
+
+        if (rangeReadExecutor == null || mergedRanges.size() == 1) {
+            for (MergedRange mergedRange : mergedRanges) {
+                mergedRange.read();
+            }
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(mergedRanges.size());
+        for (final MergedRange mergedRange : mergedRanges) {
+            futures.add(rangeReadExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    mergedRange.read();
+                    return null;
+                }
+            }));
+        }
+
+        // Wait for all requests, and report the first error.
+        IOException error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading ranges of " + fileName);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(
+                            e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (closed) {
@@ -147,45 +298,111 @@ public class XtreemFSInputStream extends FSInputStream {
     }
 
     private int readFromBuffer(byte[] bytes, int offset, int length) throws IOException {
-        if (EOF || length == 0) {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            if (!buffer.hasRemaining() && fillBuffer() == 0) {
+                break;
+            }
+            int n = Math.min(buffer.remaining(), length - bytesRead);
+            buffer.get(bytes, offset + bytesRead, n);
+            bytesRead += n;
+        }
+        return bytesRead;
+    }
+
+    private int readFromBuffer(ByteBuffer buf) throws IOException {
+        int length = buf.remaining();
+        int bytesRead = 0;
+        while (bytesRead < length && !(EOF && !buffer.hasRemaining())) {
+            if (!buffer.hasRemaining()) {
+                if (length - bytesRead >= buffer.capacity()) {
+                    // Read large requests directly into the target buffer.
+                    int n = fileHandle.read(userCredentials, buf, length - bytesRead, bufferFilePosition);
+                    if (n == 0) {
+                        EOF = true;
+                    }
+                    bufferFilePosition += n;
+                    bytesRead += n;
+                    continue;
+                }
+                if (fillBuffer() == 0) {
+                    break;
+                }
+            }
+
+            int n = Math.min(buffer.remaining(), length - bytesRead);
+            ByteBuffer src = buffer.duplicate();
+            src.limit(src.position() + n);
+            buf.put(src);
+            buffer.position(buffer.position() + n);
+            bytesRead += n;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Refills the empty buffer with the file content following the buffered data.
+     * 
+     * @return the number of bytes in the buffer, which is 0 at the end of the file
+     */
+    private int fillBuffer() throws IOException {
+        if (EOF) {
             return 0;
         }
 
-        if (buffer.remaining() >= length) {
-            // Read from buffer.
-            buffer.get(bytes, offset, length);
-            return length;
+        buffer.clear();
+        int bytesRead = fileHandle.read(userCredentials, buffer, buffer.capacity(), bufferFilePosition);
+        buffer.flip();
+
+        if (bytesRead == 0) {
+            EOF = true;
         } else {
-            int bytesLeftToRead = length;
-            int newBytesOffset = offset;
-            int bytesReadFromBuffer = 0;
-
-            if (buffer.hasRemaining()) {
-                // Read remaining bytes from buffer.
-                bytesReadFromBuffer = buffer.remaining();
-                buffer.get(bytes, offset, buffer.remaining());
-                bytesLeftToRead -= bytesReadFromBuffer;
-                newBytesOffset += bytesReadFromBuffer;
-            }
+            bufferFilePosition += bytesRead;
+        }
+        return bytesRead;
+    }
 
-            // Fill buffer.
-            byte[] tmp = new byte[buffer.capacity()];
-            int bytesRead = fileHandle.read(userCredentials, tmp, 0, tmp.length, bufferFilePosition);
+    /**
+     * A set of ranges of a vectored read which are read with a single request.
+     */
+    private class MergedRange {
 
-            if (bytesRead == 0) {
-                EOF = true;
-                return bytesReadFromBuffer;
-            } else {
-                bufferFilePosition += bytesRead;
+        private final long                    offset;
+
+        private long                          end;
+
+        private final List<XtreemFSFileRange> ranges;
 
-                // Put file content in buffer.
-                buffer.clear();
-                buffer.put(tmp, 0, bytesRead);
-                buffer.position(0);
-                buffer.limit(bytesRead);
+        MergedRange(XtreemFSFileRange range) {
+            this.offset = range.getOffset();
+            this.end = range.getOffset() + range.getLength();
+            this.ranges = new ArrayList<XtreemFSFileRange>();
+            ranges.add(range);
+        }
+
+        void add(XtreemFSFileRange range) {
+            end = Math.max(end, range.getOffset() + range.getLength());
+            ranges.add(range);
+        }
+
+        void read() throws IOException {
+            ByteBuffer data = ByteBuffer.allocate((int) (end - offset));
+            while (data.hasRemaining()) {
+                if (fileHandle.read(userCredentials, data, data.remaining(), offset + data.position()) == 0) {
+                    break;
+                }
+            }
+            statistics.incrementBytesRead(data.position());
 
-                // Read left bytes from buffer.
-                return bytesReadFromBuffer + readFromBuffer(bytes, newBytesOffset, bytesLeftToRead);
+            for (XtreemFSFileRange range : ranges) {
+                int start = (int) (range.getOffset() - offset);
+                if (start + range.getLength() > data.position()) {
+                    throw new EOFException("Range " + range + " exceeds the end of file " + fileName);
+                }
+                ByteBuffer rangeData = data.duplicate();
+                rangeData.position(start);
+                rangeData.limit(start + range.getLength());
+                range.setData(rangeData.slice());
             }
         }
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.clients.hadoop;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replicas;
+
+/**
+ * Bounded LRU cache for the replicas of files, which allows to answer repeated block location requests (e.g. while
+ * computing input splits) without contacting the MRC for every file. Entries expire after a fixed time to pick up
+ * replica changes.
+ */
+class XtreemFSReplicaCache {
+
+    private static class CacheEntry {
+
+        final Replicas replicas;
+
+        final long     timeoutMs;
+
+        CacheEntry(Replicas replicas, long timeoutMs) {
+            this.replicas = replicas;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    private final LinkedHashMap<String, CacheEntry> cache;
+
+    private final long                              ttlMs;
+
+    private long                                    hits;
+
+    private long                                    misses;
+
+    /**
+     * @param maxEntries
+     *            Maximum number of cached files. A value &lt;= 0 disables the cache.
+     * @param ttlMs
+     *            Time in ms after which an entry expires.
+     */
+    XtreemFSReplicaCache(final int maxEntries, long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached replicas of the file or null, if there is no valid entry.
+     */
+    synchronized Replicas get(String volumeName, String path) {
+        String key = getKey(volumeName, path);
+        CacheEntry entry = cache.get(key);
+        if (entry != null && entry.timeoutMs < System.currentTimeMillis()) {
+            cache.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.replicas;
+    }
+
+    synchronized void put(String volumeName, String path, Replicas replicas) {
+        cache.put(getKey(volumeName, path), new CacheEntry(replicas, System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Removes the file and, if "recursive" is set, all files below the path from the cache.
+     */
+    synchronized void invalidate(String volumeName, String path, boolean recursive) {
+        String key = getKey(volumeName, path);
+        cache.remove(key);
+
+        if (recursive) {
+            String prefix = key.endsWith("/") ? key : key + "/";
+            for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        cache.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private static String getKey(String volumeName, String path) {
+        return volumeName + (path.startsWith("/") ? path : "/" + path);
+    }
+}
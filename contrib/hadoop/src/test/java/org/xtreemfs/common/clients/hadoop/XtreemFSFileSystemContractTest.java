@@ -6,11 +6,18 @@
  */
 package org.xtreemfs.common.clients.hadoop;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystemContractBaseTest;
 import org.apache.hadoop.fs.Path;
@@ -166,6 +173,111 @@ public class XtreemFSFileSystemContractTest extends FileSystemContractBaseTest {
         assertFileCreated("../path/to/file", expected);
     }
 
+    /**
+     * Tests ByteBuffer reads, positional reads and vectored reads with merged and separate ranges.
+     */
+    public void testRangedReads() throws Exception {
+        Path path = new Path("/test/rangedReads");
+        byte[] data = new byte[1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+
+        FSDataOutputStream out = fs.create(path);
+        out.write(data);
+        out.close();
+
+        FSDataInputStream in = fs.open(path);
+
+        // ByteBuffer reads use the stream position.
+        ByteBuffer buf = ByteBuffer.allocateDirect(1000);
+        in.seek(500);
+        assertEquals(1000, in.read(buf));
+        assertEquals(1500, in.getPos());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(data[500 + i], buf.get(i));
+        }
+
+        // Positional reads do not change the stream position.
+        byte[] bytes = new byte[300000];
+        in.readFully(100000, bytes);
+        assertEquals(1500, in.getPos());
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(data[100000 + i], bytes[i]);
+        }
+
+        // Vectored reads: nearby and overlapping ranges are merged, distant ranges are read in parallel.
+        List<XtreemFSFileRange> ranges = new ArrayList<XtreemFSFileRange>();
+        ranges.add(new XtreemFSFileRange(900000, 100000));
+        ranges.add(new XtreemFSFileRange(0, 100));
+        ranges.add(new XtreemFSFileRange(200, 1000));
+        ranges.add(new XtreemFSFileRange(1000, 5000));
+        ranges.add(new XtreemFSFileRange(500000, 0));
+        ((XtreemFSInputStream) in.getWrappedStream()).readVectored(ranges);
+        for (XtreemFSFileRange range : ranges) {
+            ByteBuffer rangeData = range.getData();
+            assertEquals(range.getLength(), rangeData.remaining());
+            for (int i = 0; i < range.getLength(); i++) {
+                assertEquals(data[(int) range.getOffset() + i], rangeData.get(rangeData.position() + i));
+            }
+        }
+
+        // Ranges beyond the end of the file cannot be read.
+        ranges.clear();
+        ranges.add(new XtreemFSFileRange(data.length - 10, 20));
+        try {
+            ((XtreemFSInputStream) in.getWrappedStream()).readVectored(ranges);
+            fail("EOFException expected");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        in.close();
+        fs.delete(path, false);
+    }
+
+    /**
+     * Tests that block locations of many files, as requested while planning a job, are served from the replicas
+     * retrieved by a single listStatus call.
+     */
+    public void testBlockLocationsOfManyFiles() throws Exception {
+        final int numFiles = 50;
+        Path dir = new Path("/test/blockLocations");
+        byte[] data = new byte[1000];
+        for (int i = 0; i < numFiles; i++) {
+            FSDataOutputStream out = fs.create(new Path(dir, "file" + i));
+            out.write(data);
+            out.close();
+        }
+
+        XtreemFSReplicaCache replicaCache = ((XtreemFSFileSystem) fs).getReplicaCache();
+        replicaCache.clear();
+
+        FileStatus[] files = fs.listStatus(dir);
+        assertEquals(numFiles, files.length);
+
+        long hits = replicaCache.getHits();
+        long misses = replicaCache.getMisses();
+        for (FileStatus file : files) {
+            BlockLocation[] locations = fs.getFileBlockLocations(file, 0, file.getLen());
+            assertEquals(1, locations.length);
+            assertEquals(0, locations[0].getOffset());
+            assertEquals(data.length, locations[0].getLength());
+            assertTrue(locations[0].getNames().length > 0);
+        }
+        assertEquals(hits + numFiles, replicaCache.getHits());
+        assertEquals(misses, replicaCache.getMisses());
+
+        // Deleted files are no longer served from the cache.
+        fs.delete(dir, true);
+        try {
+            fs.getFileBlockLocations(files[0], 0, files[0].getLen());
+            fail("locations of deleted file returned");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
     @Override
     protected void tearDown() throws Exception {
         super.tearDown();
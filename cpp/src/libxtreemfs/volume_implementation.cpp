@@ -987,6 +987,14 @@ xtreemfs::pbrpc::DirectoryEntries* VolumeImplementation::ReadDir(
     DirectoryEntries* dentries = static_cast<DirectoryEntries*>(
         response->response());
 
+    // Continue the next chunk after the last entry of this one, which spares
+    // the MRC from skipping all entries returned so far.
+    if (dentries->has_continuation_token()) {
+      rq.set_continuation_token(dentries->continuation_token());
+    } else {
+      rq.clear_continuation_token();
+    }
+
     // Process request and free memory.
     if (current_offset == offset) {
       // First chunk
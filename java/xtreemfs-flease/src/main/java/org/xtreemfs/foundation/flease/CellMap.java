@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.foundation.buffer.ASCIIString;
+
+/**
+ * Map from cell IDs to the state of the cells.
+ * <p>
+ * Keys and values are stored in two arrays with open addressing and linear
+ * probing, which avoids the entry object per mapping of a
+ * {@link java.util.HashMap} and keeps lookups within few cache lines. Removed
+ * entries are filled by shifting back the subsequent entries of the probe
+ * sequence, so that no tombstones accumulate.
+ * <p>
+ * Not thread-safe; must be used by a single thread only.
+ *
+ * @param <V>
+ *            type of the cell state
+ */
+public final class CellMap<V> {
+
+    private static final int   MIN_CAPACITY = 16;
+
+    /** the table is grown if it is filled beyond this fraction */
+    private static final float LOAD_FACTOR  = 0.6f;
+
+    private ASCIIString[]      keys;
+
+    private Object[]           values;
+
+    private int                size;
+
+    private int                resizeThreshold;
+
+    public CellMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize
+     *            the number of cells for which no resizing is necessary
+     */
+    public CellMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(ASCIIString cellId) {
+        final int mask = keys.length - 1;
+        for (int i = indexFor(cellId, mask);; i = (i + 1) & mask) {
+            final ASCIIString key = keys[i];
+            if (key == null)
+                return null;
+            if (key.equals(cellId))
+                return (V) values[i];
+        }
+    }
+
+    public boolean containsKey(ASCIIString cellId) {
+        return get(cellId) != null;
+    }
+
+    /**
+     * Associates a cell with a state.
+     *
+     * @return the previous state of the cell, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(ASCIIString cellId, V value) {
+        assert (cellId != null);
+        assert (value != null);
+
+        final int mask = keys.length - 1;
+        int i = indexFor(cellId, mask);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(cellId)) {
+                V prev = (V) values[i];
+                values[i] = value;
+                return prev;
+            }
+        }
+
+        keys[i] = cellId;
+        values[i] = value;
+        if (++size > resizeThreshold) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a cell.
+     *
+     * @return the state of the removed cell, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(ASCIIString cellId) {
+        final int mask = keys.length - 1;
+        int i = indexFor(cellId, mask);
+        for (;; i = (i + 1) & mask) {
+            if (keys[i] == null)
+                return null;
+            if (keys[i].equals(cellId))
+                break;
+        }
+
+        final V prev = (V) values[i];
+        size--;
+
+        // shift back subsequent entries whose probe sequence passes the gap
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            final int home = indexFor(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = null;
+
+        return prev;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a snapshot of the IDs of all cells
+     */
+    public List<ASCIIString> cellIds() {
+        List<ASCIIString> ids = new ArrayList<ASCIIString>(size);
+        for (ASCIIString key : keys) {
+            if (key != null)
+                ids.add(key);
+        }
+        return ids;
+    }
+
+    private static int indexFor(ASCIIString cellId, int mask) {
+        // spread the bits of the hash code, as the table size is a power of two
+        int h = cellId.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new ASCIIString[capacity];
+        values = new Object[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int capacity) {
+        final ASCIIString[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null)
+                continue;
+            int i = indexFor(oldKeys[j], mask);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -9,11 +9,9 @@ package org.xtreemfs.foundation.flease;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -44,6 +42,11 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
 
     public static final int TIMER_INTERVAL_IN_MS = 50;
 
+    /**
+     * resolution of the timer wheels; timers with deadlines within the same tick may be executed in any order
+     */
+    public static final int TIMER_WHEEL_TICK_IN_MS = 10;
+
     public static final boolean ENABLE_TIMEOUT_EVENTS = true;
 
     public static final boolean DISABLE_RENEW_FOR_TESTING = false;
@@ -54,9 +57,18 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
 
     private final FleaseAcceptor acceptor;
 
-    private final PriorityQueue<TimerEntry> timers;
+    /** timer events for the proposer, in local system time */
+    private final TimerWheel<FleaseMessage> timers;
+
+    /** lease timeouts of the cells, in global time */
+    private final TimerWheel<Flease> leaseTimeouts;
+
+    /** the scheduled lease timeout of each cell */
+    private final CellMap<TimerWheel.Timer<Flease>> leaseTimeoutTimers;
 
-    private final PriorityQueue<Flease> leaseTimeouts;
+    private final List<TimerWheel.Timer<FleaseMessage>> expiredTimers;
+
+    private final List<TimerWheel.Timer<Flease>> expiredLeases;
 
     private final LinkedBlockingQueue messages;
 
@@ -99,7 +111,8 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         assert (sender != null);
         assert(leaseListener != null);
 
-        timers = new PriorityQueue<TimerEntry>();
+        timers = new TimerWheel<FleaseMessage>(TIMER_WHEEL_TICK_IN_MS, System.currentTimeMillis());
+        expiredTimers = new ArrayList<TimerWheel.Timer<FleaseMessage>>();
         messages = new LinkedBlockingQueue();
         quit = false;
         this.config = config;
@@ -121,12 +134,9 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         proposer.setViewChangeListener(viewListener);
         this.sender = sender;
 
-        leaseTimeouts = new PriorityQueue<Flease>(1000, new Comparator<Flease>() {
-
-            public int compare(Flease o1, Flease o2) {
-                return (int) (o1.getLeaseTimeout_ms() - o2.getLeaseTimeout_ms());
-            }
-        });
+        leaseTimeouts = new TimerWheel<Flease>(TIMER_WHEEL_TICK_IN_MS, System.currentTimeMillis());
+        leaseTimeoutTimers = new CellMap<TimerWheel.Timer<Flease>>();
+        expiredLeases = new ArrayList<TimerWheel.Timer<Flease>>();
         if (COLLECT_STATISTICS) {
             durRequests = new AtomicReference(new LinkedList());
             durTimers = new AtomicReference(new LinkedList());
@@ -313,8 +323,8 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
             }
             leaseListener.statusChanged(cellId, newFlease);
             if (ENABLE_TIMEOUT_EVENTS) {
-                leaseTimeouts.remove(oldFlease);
-                leaseTimeouts.add(newFlease);
+                cancelLeaseTimeout(cellId);
+                leaseTimeoutTimers.put(cellId, leaseTimeouts.schedule(newFlease.getLeaseTimeout_ms(), newFlease));
             }
         }
     }
@@ -453,7 +463,7 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
                                     Flease prevLease = proposer.updatePrevLeaseForCell(rq.cellId, Flease.EMPTY_LEASE);
                                     if (prevLease != null) {
                                         //cancel the lease
-                                        leaseTimeouts.remove(prevLease);
+                                        cancelLeaseTimeout(rq.cellId);
                                     }
                                     proposer.handoverLease(rq.cellId, rq.newLeaseOwner);
                                 } catch (FleaseException ex) {
@@ -512,81 +522,68 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
     private int checkTimers() throws Throwable {
         final long now = TimeSync.getLocalSystemTime();
 
-        TimerEntry e = timers.peek();
-        if (e == null) {
-            return TIMER_INTERVAL_IN_MS;
-        }
-        if (e.getScheduledTime() <= now + TIMER_INTERVAL_IN_MS) {
-            //execute timer
-            
-            do {
-                e = timers.poll();
+        // timers created while executing timers are executed right away if they are due
+        timers.advance(now + TIMER_INTERVAL_IN_MS, expiredTimers);
+        while (!expiredTimers.isEmpty()) {
+            for (TimerWheel.Timer<FleaseMessage> e : expiredTimers) {
 
                 long rqStart;
                 if (COLLECT_STATISTICS) {
                     rqStart = System.nanoTime();
                     inTimers.incrementAndGet();
                 }
-                if (e.getScheduledTime() < now) {
+                if (e.getDeadline() < now) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.flease, this, "event sent after deadline: %s",
-                            e.message);
+                            e.getItem());
                 }
-                e.getMessage().setSendTimestamp(TimeSync.getGlobalTime());
-                proposer.processMessage(e.getMessage());
+                e.getItem().setSendTimestamp(TimeSync.getGlobalTime());
+                proposer.processMessage(e.getItem());
 
                 if (COLLECT_STATISTICS) {
                     long rqEnd = System.nanoTime();
                     durTimers.get().add(Integer.valueOf((int)(rqEnd-rqStart)));
                 }
-
-                e = timers.peek();
-                if (e == null) {
-                    return TIMER_INTERVAL_IN_MS;
-                }
-            } while (e.getScheduledTime() <= now + TIMER_INTERVAL_IN_MS);
-            
-            return (int) (e.getScheduledTime() - now);
-        } else {
-            //tell how long we have to wait
-            return (int) (e.getScheduledTime() - now);
+            }
+            expiredTimers.clear();
+            timers.advance(now + TIMER_INTERVAL_IN_MS, expiredTimers);
         }
+
+        return TIMER_INTERVAL_IN_MS;
     }
 
     private void checkLeaseTimeouts() {
         final long now = TimeSync.getGlobalTime();
         final long deadline = now + TIMER_INTERVAL_IN_MS + TimeSync.getLocalRenewInterval()+config.getToNotification_ms();
 
-        Flease f = leaseTimeouts.peek();
-        if (f == null)
-            return;
-        if (f.getLeaseTimeout_ms() <= deadline) {
-            //execute timer
-            do {
-                f = leaseTimeouts.poll();
+        leaseTimeouts.advance(deadline, expiredLeases);
+        for (TimerWheel.Timer<Flease> t : expiredLeases) {
+            final Flease f = t.getItem();
+            leaseTimeoutTimers.remove(f.getCellId());
 
-                if (Logging.isDebug()) {
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.flease, this,"lease state change: %s timed out (old lease: %s)",f.getCellId(),f.toString());
-                }
-                proposer.updatePrevLeaseForCell(f.getCellId(), f.EMPTY_LEASE);
-                leaseListener.statusChanged(f.getCellId(), Flease.EMPTY_LEASE);
-                //create restart event
-                FleaseMessage restartEvt = new FleaseMessage(FleaseMessage.MsgType.EVENT_RESTART);
-                restartEvt.setCellId(f.getCellId());
-                restartEvt.setProposalNo(proposer.getCurrentBallotNo(f.getCellId()));
-                createTimer(restartEvt, TimeSync.getLocalSystemTime() + config.getDMax());
-
-                f = leaseTimeouts.peek();
-                if (f == null) {
-                    return;
-                }
-            } while (f.getLeaseTimeout_ms() <= deadline);
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.flease, this,"lease state change: %s timed out (old lease: %s)",f.getCellId(),f.toString());
+            }
+            proposer.updatePrevLeaseForCell(f.getCellId(), Flease.EMPTY_LEASE);
+            leaseListener.statusChanged(f.getCellId(), Flease.EMPTY_LEASE);
+            //create restart event
+            FleaseMessage restartEvt = new FleaseMessage(FleaseMessage.MsgType.EVENT_RESTART);
+            restartEvt.setCellId(f.getCellId());
+            restartEvt.setProposalNo(proposer.getCurrentBallotNo(f.getCellId()));
+            createTimer(restartEvt, TimeSync.getLocalSystemTime() + config.getDMax());
+        }
+        expiredLeases.clear();
+    }
+
+    private void cancelLeaseTimeout(ASCIIString cellId) {
+        TimerWheel.Timer<Flease> t = leaseTimeoutTimers.remove(cellId);
+        if (t != null) {
+            leaseTimeouts.cancel(t);
         }
     }
 
     protected void createTimer(FleaseMessage msg, long timestamp) {
         msg.validateMessage();
-        TimerEntry e = new TimerEntry(timestamp, msg);
-        timers.add(e);
+        timers.schedule(timestamp, msg);
     }
 
     int getInRequests() {
@@ -622,34 +619,6 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         messages.add(message);
     }
 
-    private final static class TimerEntry implements Comparable {
-
-        private final long scheduledTime;
-
-        private final FleaseMessage message;
-
-        public TimerEntry(long scheduledTime, FleaseMessage message) {
-            this.scheduledTime = scheduledTime;
-            this.message = message;
-        }
-
-        /**
-         * @return the scheduledTime
-         */
-        public long getScheduledTime() {
-            return scheduledTime;
-        }
-
-        public FleaseMessage getMessage() {
-            return this.message;
-        }
-
-        public int compareTo(Object o) {
-            TimerEntry e2 = (TimerEntry) o;
-            return (int) (this.scheduledTime - e2.scheduledTime);
-        }
-    }
-
     private final static class Request {
 
         public boolean autoRenew;
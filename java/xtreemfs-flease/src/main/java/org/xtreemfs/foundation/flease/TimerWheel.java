@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel for the timers and lease timeouts of the flease
+ * stage.
+ * <p>
+ * Timers are kept in buckets of one tick each. The first level covers the next
+ * 256 ticks; each further level covers 256 times the range of the previous
+ * one. When the first level has completed a revolution, the timers of the next
+ * bucket of the second level are distributed to the first level, and so on.
+ * Scheduling and cancelling a timer takes constant time, and expiring timers
+ * takes constant time per timer, independent of the number of timers.
+ * <p>
+ * Not thread-safe; must be used by a single thread only.
+ *
+ * @param <T>
+ *            type of the objects associated with the timers
+ */
+public final class TimerWheel<T> {
+
+    private static final int  LEVEL_BITS = 8;
+
+    private static final int  NUM_SLOTS  = 1 << LEVEL_BITS;
+
+    private static final int  SLOT_MASK  = NUM_SLOTS - 1;
+
+    private static final int  NUM_LEVELS = 4;
+
+    /** the largest delay (in ticks) that fits into the wheel */
+    private static final long MAX_DELAY  = (1L << (LEVEL_BITS * NUM_LEVELS)) - 1;
+
+    /**
+     * A timer scheduled on the wheel.
+     */
+    public static final class Timer<T> {
+
+        private final long deadline;
+
+        private final T    item;
+
+        private Timer<T>   prev;
+
+        private Timer<T>   next;
+
+        private Bucket<T>  bucket;
+
+        private Timer(long deadline, T item) {
+            this.deadline = deadline;
+            this.item = item;
+        }
+
+        /**
+         * @return the time in ms at which the timer expires
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return true, if the timer has neither expired nor been cancelled
+         */
+        public boolean isScheduled() {
+            return bucket != null;
+        }
+    }
+
+    /**
+     * Doubly linked list of timers, in the order in which they were added.
+     */
+    private static final class Bucket<T> {
+
+        private Timer<T> head;
+
+        private Timer<T> tail;
+
+        void add(Timer<T> t) {
+            t.bucket = this;
+            t.next = null;
+            t.prev = tail;
+            if (tail != null)
+                tail.next = t;
+            else
+                head = t;
+            tail = t;
+        }
+
+        void remove(Timer<T> t) {
+            if (t.prev != null)
+                t.prev.next = t.next;
+            else
+                head = t.next;
+            if (t.next != null)
+                t.next.prev = t.prev;
+            else
+                tail = t.prev;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        /**
+         * Removes all timers from the bucket.
+         *
+         * @return the first timer of the former bucket contents, linked by
+         *         <code>next</code>
+         */
+        Timer<T> clear() {
+            Timer<T> first = head;
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+
+    private final long          tickMs;
+
+    private final Bucket<T>[][] wheel;
+
+    /** timers that were already due when they were scheduled */
+    private final Bucket<T>     due;
+
+    private long                currentTick;
+
+    private int                 size;
+
+    /**
+     * Creates a new timer wheel.
+     *
+     * @param tickMs
+     *            the resolution of the timers in ms
+     * @param now
+     *            the current time in ms
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, long now) {
+        assert (tickMs > 0);
+        this.tickMs = tickMs;
+        this.currentTick = now / tickMs;
+        this.wheel = new Bucket[NUM_LEVELS][NUM_SLOTS];
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                wheel[level][slot] = new Bucket<T>();
+            }
+        }
+        this.due = new Bucket<T>();
+    }
+
+    /**
+     * Schedules a timer.
+     *
+     * @param deadline
+     *            the time in ms at which the timer expires
+     * @param item
+     *            the object that is returned when the timer expires
+     * @return the timer, which can be used to cancel it
+     */
+    public Timer<T> schedule(long deadline, T item) {
+        Timer<T> t = new Timer<T>(deadline, item);
+        insert(t);
+        size++;
+        return t;
+    }
+
+    /**
+     * Cancels a timer. Nothing happens if the timer has already expired or been
+     * cancelled.
+     */
+    public void cancel(Timer<T> t) {
+        if (t.bucket != null) {
+            t.bucket.remove(t);
+            size--;
+        }
+    }
+
+    /**
+     * Advances the wheel and collects all timers that expire until the given
+     * time.
+     *
+     * @param now
+     *            the current time in ms
+     * @param expired
+     *            list to which the expired timers are added, in the order of
+     *            their expiration (with the resolution of one tick)
+     */
+    public void advance(long now, List<Timer<T>> expired) {
+
+        collect(due.clear(), expired);
+
+        final long targetTick = now / tickMs;
+        if (size == 0 && targetTick > currentTick) {
+            currentTick = targetTick;
+            return;
+        }
+
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            // move the timers of the higher levels down if the lower levels
+            // have completed a revolution
+            for (int level = 1; level < NUM_LEVELS; level++) {
+                if ((currentTick & ((1L << (LEVEL_BITS * level)) - 1)) != 0)
+                    break;
+                int slot = (int) (currentTick >>> (LEVEL_BITS * level)) & SLOT_MASK;
+                Timer<T> t = wheel[level][slot].clear();
+                while (t != null) {
+                    Timer<T> next = t.next;
+                    insert(t);
+                    t = next;
+                }
+            }
+
+            collect(wheel[0][(int) currentTick & SLOT_MASK].clear(), expired);
+            collect(due.clear(), expired);
+
+            if (size == 0) {
+                currentTick = targetTick;
+            }
+        }
+    }
+
+    /**
+     * @return the number of scheduled timers
+     */
+    public int size() {
+        return size;
+    }
+
+    private void insert(Timer<T> t) {
+        final long tick = t.deadline / tickMs;
+        final long delay = tick - currentTick;
+
+        if (delay <= 0) {
+            due.add(t);
+        } else if (delay > MAX_DELAY) {
+            // Place the timer as far away as possible, it will be re-inserted
+            // when the last level has reached its bucket.
+            wheel[NUM_LEVELS - 1][(int) ((currentTick + MAX_DELAY) >>> (LEVEL_BITS * (NUM_LEVELS - 1)))
+                    & SLOT_MASK].add(t);
+        } else {
+            int level = 0;
+            while (delay >= (1L << (LEVEL_BITS * (level + 1)))) {
+                level++;
+            }
+            wheel[level][(int) (tick >>> (LEVEL_BITS * level)) & SLOT_MASK].add(t);
+        }
+    }
+
+    private void collect(Timer<T> t, List<Timer<T>> expired) {
+        while (t != null) {
+            Timer<T> next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            size--;
+            expired.add(t);
+            t = next;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Map;
 
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.flease.CellMap;
 import org.xtreemfs.foundation.flease.FleaseConfig;
 import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
@@ -34,7 +35,7 @@ public class FleaseAcceptor {
     /**
      * Instances of the Multipaxos
      */
-    public final Map<ASCIIString, FleaseAcceptorCell> cells;
+    public final CellMap<FleaseAcceptorCell> cells;
   
     /**
      * filename to use for storing state permanantly
@@ -72,7 +73,7 @@ public class FleaseAcceptor {
     throws IOException {
         this.config = localConfig;
         
-        cells = new HashMap<ASCIIString, FleaseAcceptorCell>();
+        cells = new CellMap<FleaseAcceptorCell>();
 
         quit = false;
         
@@ -288,7 +289,7 @@ public class FleaseAcceptor {
     public Map<ASCIIString,FleaseMessage> localState() {
         Map<ASCIIString,FleaseMessage> state = new HashMap();
 
-        for (ASCIIString cellId : cells.keySet()) {
+        for (ASCIIString cellId : cells.cellIds()) {
             FleaseAcceptorCell cell = cells.get(cellId);
             FleaseMessage lrn = null;
             if (cell.isLearned())
@@ -8,12 +8,11 @@ package org.xtreemfs.foundation.flease.proposer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.flease.CellMap;
 import org.xtreemfs.foundation.flease.Flease;
 import org.xtreemfs.foundation.flease.FleaseConfig;
 import org.xtreemfs.foundation.flease.FleaseStage;
@@ -38,7 +37,7 @@ import org.xtreemfs.foundation.logging.Logging.Category;
  */
 public class FleaseProposer {
 
-    final Map<ASCIIString, FleaseProposerCell> cells;
+    final CellMap<FleaseProposerCell> cells;
 
     final FleaseConfig config;
 
@@ -66,7 +65,7 @@ public class FleaseProposer {
             LearnEventListener evListener,
             FleaseLocalQueueInterface localQueue,
             MasterEpochHandlerInterface meHandler) {
-        cells = new HashMap<ASCIIString, FleaseProposerCell>(100000);
+        cells = new CellMap<FleaseProposerCell>(100000);
         this.config = config;
         this.localAcceptor = localAcceptor;
         this.comm = comm;
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.LifeCycleListener;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.flease.Flease;
+import org.xtreemfs.foundation.flease.FleaseConfig;
+import org.xtreemfs.foundation.flease.FleaseMessageSenderInterface;
+import org.xtreemfs.foundation.flease.FleaseStage;
+import org.xtreemfs.foundation.flease.FleaseStatusListener;
+import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.flease.proposer.FleaseException;
+import org.xtreemfs.foundation.logging.Logging;
+
+/**
+ * Benchmark for the lease renewal overhead of large numbers of open cells.
+ * <p>
+ * Like {@link FleaseSim}, several flease stages are connected by a simulated
+ * network, which in this case neither loses nor delays messages. Each stage
+ * opens all cells; once the leases have been acquired, the CPU time consumed
+ * by the flease stages while renewing the leases is measured.
+ * <p>
+ * Usage: FleaseRenewalBenchmark [numCells [durationSeconds [numHosts]]]
+ */
+public class FleaseRenewalBenchmark {
+
+    private static final int OPEN_BATCH_SIZE        = 500;
+
+    private static final int OPEN_BATCH_INTERVAL_MS = 100;
+
+    public static void main(String[] args) {
+        try {
+
+            final int numCells = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+            final int durationS = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+            final int numHosts = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+            final int dmax = 500;
+            final int leaseTimeout = 15000;
+
+            Logging.start(Logging.LEVEL_WARN);
+            final TimeSync timeSync = TimeSync.initializeLocal(50);
+
+            final Communicator com = new Communicator(0, 0, 0, 0, false, 0.0, 0.0, false);
+            com.start();
+
+            final FleaseStage[] stages = new FleaseStage[numHosts];
+            final AtomicLong leaseEvents = new AtomicLong();
+            final AtomicLong leaseFailures = new AtomicLong();
+
+            List<InetSocketAddress> allPorts = new ArrayList<InetSocketAddress>(numHosts);
+            for (int i = 0; i < numHosts; i++) {
+                final int portNo = 1024 + i;
+                FleaseConfig cfg = new FleaseConfig(leaseTimeout, dmax, 500, new InetSocketAddress(portNo),
+                        "localhost:" + portNo, 5, true, 0);
+
+                stages[i] = new FleaseStage(cfg, "/tmp/xtreemfs-test", new FleaseMessageSenderInterface() {
+
+                    public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
+                        message.setSender(new InetSocketAddress("localhost", portNo));
+                        com.send(recipient.getPort(), message);
+                    }
+                }, true, new FleaseViewChangeListenerInterface() {
+
+                    public void viewIdChangeEvent(ASCIIString cellId, int viewId, boolean onProposal) {
+                    }
+                }, new FleaseStatusListener() {
+
+                    public void statusChanged(ASCIIString cellId, Flease lease) {
+                        leaseEvents.incrementAndGet();
+                    }
+
+                    public void leaseFailed(ASCIIString cellId, FleaseException error) {
+                        leaseFailures.incrementAndGet();
+                    }
+                }, null);
+                stages[i].setLifeCycleListener(new LifeCycleListener() {
+
+                    public void startupPerformed() {
+                    }
+
+                    public void shutdownPerformed() {
+                    }
+
+                    public void crashPerformed(Throwable cause) {
+                        cause.printStackTrace();
+                        System.exit(100);
+                    }
+                });
+                stages[i].start();
+                stages[i].waitForStartup();
+                allPorts.add(new InetSocketAddress("localhost", portNo));
+                com.openPort(portNo, stages[i]);
+            }
+
+            // open the cells gradually, as the messages of the first lease
+            // acquisitions would otherwise time out in the queues
+            System.out.println("opening " + numCells + " cells on " + numHosts + " hosts");
+            for (int first = 0; first < numCells; first += OPEN_BATCH_SIZE) {
+                final int num = Math.min(OPEN_BATCH_SIZE, numCells - first);
+                final ASCIIString[] cellIds = new ASCIIString[num];
+                for (int c = 0; c < num; c++) {
+                    cellIds[c] = new ASCIIString("cell" + (first + c));
+                }
+                for (int i = 0; i < numHosts; i++) {
+                    final int portNo = 1024 + i;
+                    List<InetSocketAddress> acceptors = new ArrayList<InetSocketAddress>(numHosts - 1);
+                    for (InetSocketAddress ia : allPorts) {
+                        if (ia.getPort() != portNo)
+                            acceptors.add(ia);
+                    }
+                    List<InetSocketAddress>[] cellAcceptors = new List[num];
+                    for (int c = 0; c < num; c++) {
+                        cellAcceptors[c] = acceptors;
+                    }
+                    stages[i].batchOpenCells(cellIds, cellAcceptors, false);
+                }
+                Thread.sleep(OPEN_BATCH_INTERVAL_MS);
+            }
+
+            // wait until the leases have been acquired and renewed once
+            final int warmupMs = leaseTimeout * 2;
+            System.out.println("warming up for " + warmupMs / 1000 + " s");
+            Thread.sleep(warmupMs);
+
+            final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            final long[] cpuStart = new long[numHosts];
+            for (int i = 0; i < numHosts; i++) {
+                cpuStart[i] = mx.getThreadCpuTime(stages[i].getId());
+            }
+            final long eventsStart = leaseEvents.get();
+            final long failuresStart = leaseFailures.get();
+            final long start = System.nanoTime();
+
+            System.out.println("measuring for " + durationS + " s");
+            Thread.sleep(durationS * 1000L);
+
+            final double elapsedS = (System.nanoTime() - start) / 1e9;
+            long cpuNs = 0;
+            for (int i = 0; i < numHosts; i++) {
+                cpuNs += mx.getThreadCpuTime(stages[i].getId()) - cpuStart[i];
+            }
+            final long events = leaseEvents.get() - eventsStart;
+            final long failures = leaseFailures.get() - failuresStart;
+
+            final double cpuMsPerSecond = cpuNs / 1e6 / elapsedS / numHosts;
+            System.out.println();
+            System.out.println(String.format("cells:                                %d", numCells));
+            System.out.println(String.format("hosts:                                %d", numHosts));
+            System.out.println(String.format("lease timeout:                        %d ms", leaseTimeout));
+            System.out.println(String.format("lease events:                         %d (%.1f/s)", events, events
+                / elapsedS));
+            System.out.println(String.format("lease failures:                       %d", failures));
+            System.out.println(String.format("flease CPU per host:                  %.1f ms/s", cpuMsPerSecond));
+            System.out.println(String.format("flease CPU per host per 100k cells:   %.1f ms/s", cpuMsPerSecond
+                * 100000 / numCells));
+            if (events > 0) {
+                System.out.println(String.format("flease CPU per lease event:           %.1f us", cpuNs / 1e3
+                    / events));
+            }
+
+            for (int i = 0; i < numHosts; i++) {
+                stages[i].shutdown();
+            }
+            com.shutdown();
+            timeSync.close();
+            System.exit(0);
+
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.xtreemfs.foundation.buffer.ASCIIString;
+
+public class CellMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        CellMap<String> map = new CellMap<String>();
+
+        assertNull(map.put(new ASCIIString("a"), "1"));
+        assertNull(map.put(new ASCIIString("b"), "2"));
+        assertEquals("1", map.put(new ASCIIString("a"), "3"));
+        assertEquals(2, map.size());
+
+        assertEquals("3", map.get(new ASCIIString("a")));
+        assertEquals("2", map.remove(new ASCIIString("b")));
+        assertNull(map.remove(new ASCIIString("b")));
+        assertNull(map.get(new ASCIIString("b")));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testCompareWithHashMap() throws Exception {
+        final Random rnd = new Random(42);
+        CellMap<Integer> map = new CellMap<Integer>();
+        Map<ASCIIString, Integer> reference = new HashMap<ASCIIString, Integer>();
+
+        // few distinct keys, so that long probe sequences are removed from
+        for (int i = 0; i < 200000; i++) {
+            ASCIIString key = new ASCIIString("cell" + rnd.nextInt(5000));
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                assertEquals(reference.put(key, i), map.put(key, i));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            ASCIIString key = new ASCIIString("cell" + i);
+            assertEquals(reference.get(key), map.get(key));
+        }
+        assertEquals(reference.keySet(), new HashSet<ASCIIString>(map.cellIds()));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+    private static final long START = 1000000;
+
+    private static List<Integer> advance(TimerWheel<Integer> wheel, long now) {
+        List<TimerWheel.Timer<Integer>> expired = new ArrayList<TimerWheel.Timer<Integer>>();
+        wheel.advance(now, expired);
+        List<Integer> items = new ArrayList<Integer>();
+        for (TimerWheel.Timer<Integer> t : expired) {
+            assertFalse(t.isScheduled());
+            assertTrue(t.getDeadline() <= now);
+            items.add(t.getItem());
+        }
+        return items;
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>(10, START);
+
+        wheel.schedule(START + 30, 3);
+        wheel.schedule(START + 10, 1);
+        wheel.schedule(START + 20, 2);
+        wheel.schedule(START - 10, 0);
+        assertEquals(4, wheel.size());
+
+        assertEquals(0, (int) advance(wheel, START).get(0));
+        assertEquals(2, advance(wheel, START + 25).size());
+        assertEquals(1, wheel.size());
+        assertTrue(advance(wheel, START + 29).isEmpty());
+        assertEquals(3, (int) advance(wheel, START + 30).get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>(10, START);
+
+        TimerWheel.Timer<Integer> t1 = wheel.schedule(START + 100, 1);
+        TimerWheel.Timer<Integer> t2 = wheel.schedule(START + 100, 2);
+        TimerWheel.Timer<Integer> t3 = wheel.schedule(START + 100000, 3);
+        wheel.cancel(t1);
+        wheel.cancel(t3);
+        wheel.cancel(t3);
+        assertFalse(t1.isScheduled());
+        assertTrue(t2.isScheduled());
+        assertEquals(1, wheel.size());
+
+        List<Integer> expired = advance(wheel, START + 200000);
+        assertEquals(1, expired.size());
+        assertEquals(2, (int) expired.get(0));
+    }
+
+    @Test
+    public void testRandomDeadlines() throws Exception {
+        final Random rnd = new Random(42);
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>(1, START);
+
+        // deadlines spread across all levels of the wheel
+        final int numTimers = 10000;
+        long[] deadlines = new long[numTimers];
+        for (int i = 0; i < numTimers; i++) {
+            deadlines[i] = START + (long) Math.pow(2, rnd.nextDouble() * 26);
+            wheel.schedule(deadlines[i], i);
+        }
+
+        long now = START;
+        int numExpired = 0;
+        long lastDeadline = 0;
+        while (wheel.size() > 0) {
+            final long prev = now;
+            now += 1 + (now - START) / 64;
+            for (int i : advance(wheel, now)) {
+                // timers expire in order, and not before their deadline has
+                // been passed
+                assertTrue(deadlines[i] >= lastDeadline);
+                assertTrue(deadlines[i] > prev);
+                lastDeadline = deadlines[i];
+                numExpired++;
+            }
+        }
+        assertEquals(numTimers, numExpired);
+    }
+}
@@ -113,6 +113,28 @@ public final class ReusableBuffer {
         return new ReusableBuffer(tmp.slice());
     }
 
+    /**
+     * Creates a non-reusable buffer around the next <code>length</code> bytes
+     * of a byte buffer, starting at its current position. The content is
+     * shared with the byte buffer, which may also be a direct buffer; position
+     * and limit of the byte buffer remain unchanged.
+     *
+     * @param data
+     *            the byte buffer
+     * @param length
+     *            the number of bytes to wrap
+     * @return
+     */
+    public static ReusableBuffer wrap(ByteBuffer data, int length) {
+        assert (length >= 0);
+        if (length > data.remaining())
+            throw new IllegalArgumentException("length > remaining buffer size (" + length + " > "
+                    + data.remaining() + ")");
+        ByteBuffer tmp = data.duplicate();
+        tmp.limit(tmp.position() + length);
+        return new ReusableBuffer(tmp.slice());
+    }
+
     /**
      * Creates a new view buffer. This view buffer shares the same data (i.e.
      * backing byte buffer) but has independent position, limit etc.
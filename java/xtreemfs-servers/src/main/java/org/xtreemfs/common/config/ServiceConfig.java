@@ -101,6 +101,26 @@ public class ServiceConfig extends Config {
         CAPABILITY_SECRET("capability_secret", null, String.class, true),
         CAPABILITY_TIMEOUT("capability_timeout", 600, Integer.class, false),
         RENEW_TIMED_OUT_CAPS("renew_to_caps", false, Boolean.class, false),
+        /**
+         * Duration in seconds for which clients may cache metadata between two lease renewals. Only extends caching
+         * on clients whose metadata cache TTL is shorter (120 s by default).
+         */
+        METADATA_LEASE_DURATION_S("metadata_lease.duration_s", 600, Integer.class, false),
+        /** Maximum number of changed paths remembered per volume for lease renewals. */
+        METADATA_LEASE_LOG_SIZE("metadata_lease.log_size", 4096, Integer.class, false),
+        /** Number of threads executing MRC operations; 1 executes all operations sequentially. */
+        PROCESSING_THREADS("processing_threads", 1, Integer.class, false),
+        /** Maximum number of file metadata records cached per volume for path resolution; 0 disables caching. */
+        DENTRY_CACHE_SIZE("dentry_cache.size", 16384, Integer.class, false),
+        /** Interval in ms at which coalesced file size updates are written; 0 writes them immediately. */
+        FILE_SIZE_UPDATE_FLUSH_INTERVAL("file_size_updates.flush_interval_ms", 1000, Integer.class, false),
+        /**
+         * Whether the used and blocked space of quotas is written at the file size flush interval instead of with each
+         * update. Totals lost in a crash are not recomputed.
+         */
+        DEFER_QUOTA_SPACE_UPDATES("quota.defer_space_updates", false, Boolean.class, false),
+        /** Whether file metadata is stored in packed records that can be read with a single lookup. */
+        PACKED_METADATA_RECORDS("packed_metadata_records", false, Boolean.class, false),
 
         /*
          * OSD specific configuration parameter
@@ -117,6 +137,11 @@ public class ServiceConfig extends Config {
         /** Message timeout. Maximum allowed in-transit time for a Flease message. */
         FLEASE_MESSAGE_TO_MS("flease.message_to_ms", 500, Integer.class, false),
         FLEASE_RETRIES("flease.retries", 3, Integer.class, false),
+        /**
+         * Time in ms for which Flease messages to the same OSD are collected and then sent with a single request;
+         * 0 disables batching.
+         */
+        FLEASE_BATCH_WINDOW_MS("flease.batch_window_ms", 0, Integer.class, false),
         SOCKET_SEND_BUFFER_SIZE("socket.send_buffer_size", -1, Integer.class, false),
         SOCKET_RECEIVE_BUFFER_SIZE("socket.recv_buffer_size", -1, Integer.class, false),
         VIVALDI_RECALCULATION_INTERVAL_IN_MS("vivaldi.recalculation_interval_ms", 300000, Integer.class, false),
@@ -127,6 +152,16 @@ public class ServiceConfig extends Config {
         VIVALDI_TIMER_INTERVAL_IN_MS("vivaldi.timer_interval_ms", 60000, Integer.class, false),
         STORAGE_THREADS("storage_threads", 1, Integer.class, false),
         HEALTH_CHECK("health_check", "", String.class, false),
+        /** Maximum number of objects fetched at the same time by replicas that are being reset. */
+        RWR_RESET_MAX_OBJS_IN_FLIGHT("rwr.reset.max_objs_in_flight", 64, Integer.class, false),
+        /** Maximum number of objects of a single file fetched at the same time during a replica reset. */
+        RWR_RESET_MAX_OBJS_IN_FLIGHT_PER_FILE("rwr.reset.max_objs_in_flight_per_file", 16, Integer.class, false),
+        /** Maximum number of objects fetched with a single request during a replica reset. */
+        RWR_RESET_OBJS_PER_FETCH("rwr.reset.objs_per_fetch", 8, Integer.class, false),
+        /** Maximum bandwidth in KiB/s used for fetching objects during replica resets; 0 means unlimited. */
+        RWR_RESET_MAX_BANDWIDTH_KB("rwr.reset.max_bandwidth_kb", 0, Integer.class, false),
+        /** Number of threads among which the replicated files are distributed by the RW replication stage. */
+        RWR_THREADS("rwr.threads", 1, Integer.class, false),
 
         /*
          * Benchmark specific configuration parameter
@@ -7,6 +7,7 @@
 package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
@@ -68,6 +69,34 @@ public interface FileHandle {
             int dataOffset, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Read from a file 'count' bytes starting at 'offset' into 'data'.
+     * 
+     * The data is stored in the buffer starting at its current position,
+     * which is advanced by the number of bytes read. Direct buffers are filled
+     * without intermediate copies.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param data
+     *            [out] Buffer to be filled with read data. Must have at least
+     *            'count' bytes remaining.
+     * @param count
+     *            Number of requested bytes.
+     * @param offset
+     *            Offset in bytes. At this position in the file the data will be
+     *            read.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws IOException
+     * @throws PosixErrorException
+     * 
+     * @return Number of bytes read.
+     */
+    public int read(UserCredentials userCredentials, ByteBuffer data,
+            int count, long offset) throws IOException, PosixErrorException,
+            AddressToUUIDNotFoundException;
+
     /**
      * Write to a file 'count' bytes at file offset 'offset' from 'buf'.
      * 
@@ -134,6 +163,39 @@ public interface FileHandle {
             int dataOffset, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Write to a file 'count' bytes at file offset 'offset' from 'data'.
+     * 
+     * The data is taken from the buffer starting at its current position,
+     * which is advanced by the number of bytes written. Direct buffers are
+     * passed on without intermediate copies.
+     * 
+     * @attention If asynchronous writes are enabled, the write request may
+     *            still refer to the content of 'data' after write() has
+     *            returned. In this case, the content must not be modified
+     *            before flush() or close() has been called.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param data
+     *            [in] Buffer which contains data to be written. Must have at
+     *            least 'count' bytes remaining.
+     * @param count
+     *            Number of bytes to be written from data.
+     * @param offset
+     *            Offset in bytes. At this position in the file the data will be
+     *            written.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws IOException
+     * @throws PosixErrorException
+     * 
+     * @return Number of bytes written (see @attention above).
+     */
+    public int write(UserCredentials userCredentials, ByteBuffer data,
+            int count, long offset) throws IOException, PosixErrorException,
+            AddressToUUIDNotFoundException;
+
     /**
      * Flushes pending writes and file size updates (corresponds to a fsync()
      * system call).
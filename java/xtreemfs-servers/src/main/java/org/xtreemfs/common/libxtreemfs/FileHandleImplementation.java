@@ -8,6 +8,7 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -246,17 +247,36 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
     @Override
     public int read(final UserCredentials userCredentials, final byte[] data, final int dataOffset, final int count,
             final long offset) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        return read(userCredentials, ReusableBuffer.wrap(data, dataOffset, count), count, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.FileHandle#read(org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC
+     * .UserCredentials, java.nio.ByteBuffer, int, long)
+     */
+    @Override
+    public int read(UserCredentials userCredentials, ByteBuffer data, int count, long offset) throws IOException,
+            PosixErrorException, AddressToUUIDNotFoundException {
+        int receivedData = read(userCredentials, ReusableBuffer.wrap(data, count), count, offset);
+        data.position(data.position() + receivedData);
+        return receivedData;
+    }
+
+    private int read(final UserCredentials userCredentials, final ReusableBuffer buf, final int count,
+            final long offset) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
 
         ViewCheckedOperation<Integer> operation = new ViewCheckedOperation<Integer>() {
             @Override
             Integer doOperation() throws IOException {
-                return doRead(userCredentials, data, dataOffset, count, offset);
+                return doRead(userCredentials, buf, count, offset);
             }
         };
         return operation.execute();
     }
 
-    private int doRead(UserCredentials userCredentials, byte[] data, int dataOffset, int count, long offset)
+    private int doRead(UserCredentials userCredentials, ReusableBuffer buf, int count, long offset)
             throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
         fileInfo.waitForPendingAsyncWrites();
         FileCredentials.Builder fcBuilder = FileCredentials.newBuilder();
@@ -271,7 +291,6 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         }
         FileCredentials fc = fcBuilder.setXlocs(fileInfo.getXLocSet()).build();
 
-        ReusableBuffer buf = ReusableBuffer.wrap(data, dataOffset, count);
         int receivedData = 0;
 
         if (fc.getXlocs().getReplicasCount() == 0) {
@@ -374,6 +393,21 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         return write(userCredentials, buffer, count, offset);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.FileHandle#write(org.xtreemfs.foundation.pbrpc.generatedinterfaces.
+     * RPC.UserCredentials, java.nio.ByteBuffer, int, long)
+     */
+    @Override
+    public synchronized int write(UserCredentials userCredentials, ByteBuffer data, int count, long offset)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        ReusableBuffer buffer = ReusableBuffer.wrap(data, count);
+        int writtenData = write(userCredentials, buffer, count, offset);
+        data.position(data.position() + writtenData);
+        return writtenData;
+    }
+
     private int write(final UserCredentials userCredentials, final ReusableBuffer buffer, final int count,
             final long offset) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
 
@@ -1013,29 +1047,16 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
     }
 
     protected void writeBackFileSizeAsync() throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
-        xtreemfs_update_file_sizeRequest.Builder rqBuilder = xtreemfs_update_file_sizeRequest.newBuilder();
-
-        synchronized (this) {
-            if (osdWriteResponseForAsyncWriteBack == null) {
-                return;
-            }
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "updateFileSize: %s " + "#bytes: %s",
-                        fileInfo.getPath(), osdWriteResponseForAsyncWriteBack.getSizeInBytes());
-            }
-            rqBuilder.setXcap(xcap).setOsdWriteResponse(osdWriteResponseForAsyncWriteBack.toBuilder());
+        xtreemfs_update_file_sizeRequest request = getFileSizeUpdateRequest();
+        if (request == null) {
+            return;
         }
 
-        // set close file to false because true implies synchronous call.
-        rqBuilder.setCloseFile(false);
-
         String address = uuidResolver.uuidToAddress(mrcUuidIterator.getUUID());
         InetSocketAddress server = RPCCaller.getInetSocketAddressFromAddress(address, SERVICES.MRC);
 
         RPCResponse<timestampResponse> r = mrcServiceClient.xtreemfs_update_file_size(server, authBogus,
-                userCredentialsBogus, rqBuilder.build());
-
-        final FileHandleImplementation fileHandle = this;
+                userCredentialsBogus, request);
 
         r.registerListener(new RPCResponseAvailableListener<timestampResponse>() {
 
@@ -1043,13 +1064,13 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
             public void responseAvailable(RPCResponse<timestampResponse> r) {
                 try {
                     r.get();
-                    fileInfo.asyncFileSizeUpdateResponseHandler(osdWriteResponseForAsyncWriteBack, fileHandle, true);
+                    fileSizeWrittenBack(true);
                 } catch (Exception e) {
                     if (Logging.isDebug()) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, this, "renewXcapAsync: The following "
                                 + "error occurred during the async all: ", e.getMessage());
                     }
-                    fileInfo.asyncFileSizeUpdateResponseHandler(osdWriteResponseForAsyncWriteBack, fileHandle, false);
+                    fileSizeWrittenBack(false);
                 } finally {
                     r.freeBuffers();
                 }
@@ -1057,6 +1078,37 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         });
     }
 
+    /**
+     * Returns the request for writing back the file size set by
+     * {@link #setOsdWriteResponseForAsyncWriteBack(OSDWriteResponse)}, or null if there is none.
+     */
+    protected xtreemfs_update_file_sizeRequest getFileSizeUpdateRequest() {
+        xtreemfs_update_file_sizeRequest.Builder rqBuilder = xtreemfs_update_file_sizeRequest.newBuilder();
+
+        synchronized (this) {
+            if (osdWriteResponseForAsyncWriteBack == null) {
+                return null;
+            }
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "updateFileSize: %s " + "#bytes: %s",
+                        fileInfo.getPath(), osdWriteResponseForAsyncWriteBack.getSizeInBytes());
+            }
+            rqBuilder.setXcap(xcap).setOsdWriteResponse(osdWriteResponseForAsyncWriteBack.toBuilder());
+        }
+
+        // set close file to false because true implies synchronous call.
+        rqBuilder.setCloseFile(false);
+
+        return rqBuilder.build();
+    }
+
+    /**
+     * Has to be called when the asynchronous write-back of the file size has completed.
+     */
+    protected void fileSizeWrittenBack(boolean success) {
+        fileInfo.asyncFileSizeUpdateResponseHandler(osdWriteResponseForAsyncWriteBack, this, success);
+    }
+
     protected void setOsdWriteResponseForAsyncWriteBack(OSDWriteResponse osdwr) {
         synchronized (this) {
             assert (osdWriteResponseForAsyncWriteBack == null);
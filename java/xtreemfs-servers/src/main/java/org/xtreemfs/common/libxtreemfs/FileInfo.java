@@ -379,6 +379,22 @@ public class FileInfo {
      */
     protected void writeBackFileSizeAsync() throws IOException, PosixErrorException,
             AddressToUUIDNotFoundException {
+        synchronized (osdWriteResponseLock) {
+            FileHandleImplementation fileHandle = prepareFileSizeWriteBack();
+            if (fileHandle != null) {
+                fileHandle.writeBackFileSizeAsync();
+            }
+        }
+    }
+
+    /**
+     * Prepares an asynchronous write-back of a pending file size update.
+     * 
+     * Returns a temporary {@link FileHandleImplementation} that provides the request via
+     * {@link FileHandleImplementation#getFileSizeUpdateRequest()} and has to be notified about the outcome via
+     * {@link FileHandleImplementation#fileSizeWrittenBack(boolean)}, or null if there is no pending update.
+     */
+    protected FileHandleImplementation prepareFileSizeWriteBack() {
         synchronized (osdWriteResponseLock) {
             // Only update pending file size updates.
             if (osdWriteResponse != null && osdWriteResponseStatus == FilesizeUpdateStatus.kDirty) {
@@ -387,8 +403,9 @@ public class FileInfo {
                 osdWriteResponseStatus = FilesizeUpdateStatus.kDirtyAndAsyncPending;
 
                 fileHandle.setOsdWriteResponseForAsyncWriteBack(osdWriteResponse);
-                fileHandle.writeBackFileSizeAsync();
+                return fileHandle;
             }
+            return null;
         }
     }
 
@@ -167,6 +167,23 @@ public class Helper {
      */
     public static List<StripeLocation> getStripeLocationsFromReplicas(Replicas replicas, long startSize, long length,
             UUIDResolver uuidResolver) {
+        return getStripeLocationsFromReplicas(replicas, startSize, length, uuidResolver, null);
+    }
+
+    /**
+     * Get the StripeLocations required for the Hadoop driver.
+     * 
+     * @param replicas
+     * @param startSize
+     * @param length
+     * @param uuidResolver
+     * @param hostnameCache
+     *            Cache for the hostnames of OSD addresses which is used to avoid repeated reverse lookups. May be
+     *            null.
+     * @return list of StripeLocations
+     */
+    public static List<StripeLocation> getStripeLocationsFromReplicas(Replicas replicas, long startSize, long length,
+            UUIDResolver uuidResolver, HostnameCache hostnameCache) {
         long stripeSize = replicas.getReplicas(0).getStripingPolicy().getStripeSize() * 1024L;
         long indexOfFirstStripeToConsider = (startSize / stripeSize);
         long remainingLengthOfFirstStripe = Math.min(length, stripeSize - (startSize % stripeSize));
@@ -175,13 +192,13 @@ public class Helper {
         List<StripeLocation> stripeLocations = new ArrayList<StripeLocation>(numberOfStrips);
         // add first Stripe
         List<String> uuids = Helper.getOSDUUIDsFromReplicas(replicas, indexOfFirstStripeToConsider);
-        List<String> hostnames = Helper.getOSDHostnamesFromUUIDs(uuids, uuidResolver);
+        List<String> hostnames = Helper.getOSDHostnamesFromUUIDs(uuids, uuidResolver, hostnameCache);
         stripeLocations.add(new StripeLocation(startSize, remainingLengthOfFirstStripe, uuids.toArray(new String[uuids
                 .size()]), hostnames.toArray(new String[hostnames.size()])));
 
         for (long index = indexOfFirstStripeToConsider + 1; index * stripeSize < startSize + length; index++) {
             uuids = Helper.getOSDUUIDsFromReplicas(replicas, index);
-            hostnames = Helper.getOSDHostnamesFromUUIDs(uuids, uuidResolver);
+            hostnames = Helper.getOSDHostnamesFromUUIDs(uuids, uuidResolver, hostnameCache);
             stripeLocations.add(new StripeLocation(index * stripeSize, Math.min(stripeSize, startSize + length - index
                     * stripeSize), uuids.toArray(new String[uuids.size()]), hostnames.toArray(new String[hostnames
                     .size()])));
@@ -198,6 +215,22 @@ public class Helper {
      * @return list containing the OSD hostnames as strings
      */
     public static List<String> getOSDHostnamesFromUUIDs(List<String> uuids, UUIDResolver uuidResolver) {
+        return getOSDHostnamesFromUUIDs(uuids, uuidResolver, null);
+    }
+
+    /**
+     * Returns a list containing the hostnames for the OSDs responsible for the given UUIDs.
+     * 
+     * @param uuids
+     *            List of UUIDs as strings
+     * @param uuidResolver
+     * @param hostnameCache
+     *            Cache for the hostnames of OSD addresses which is used to avoid repeated reverse lookups. May be
+     *            null.
+     * @return list containing the OSD hostnames as strings
+     */
+    public static List<String> getOSDHostnamesFromUUIDs(List<String> uuids, UUIDResolver uuidResolver,
+            HostnameCache hostnameCache) {
         ArrayList<String> names = new ArrayList<String>(uuids.size());
         
         for (String uuidString : uuids) {
@@ -205,11 +238,19 @@ public class Helper {
                 String addressString = uuidResolver.uuidToAddress(uuidString);
                 addressString = addressString.substring(0, addressString.lastIndexOf(':'));
 
-                InetAddress address = InetAddress.getByName(addressString);
-                String hostname = address.getHostName();
+                String hostname;
+                if (hostnameCache != null) {
+                    hostname = hostnameCache.getHostname(addressString);
+                } else {
+                    InetAddress address = InetAddress.getByName(addressString);
+                    hostname = address.getHostName();
+                    if (hostname.equals(address.getHostAddress())) {
+                        hostname = null;
+                    }
+                }
 
                 // Ignore entries, that can not be resolved to a hostname.
-                if (!hostname.equals(address.getHostAddress())) {
+                if (hostname != null) {
                     names.add(hostname);
                 }
                 
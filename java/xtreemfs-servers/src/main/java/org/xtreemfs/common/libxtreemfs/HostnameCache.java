@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache for reverse lookups of OSD addresses, which avoids a lookup for every stripe location. Entries
+ * expire after a TTL to pick up DNS changes. Addresses that could not be resolved to a hostname are only cached for
+ * a short time, so that a transient DNS failure does not hide the hostname for long. Lookups that throw an
+ * exception are not cached at all.
+ */
+public class HostnameCache {
+
+    /** Default maximum number of cached addresses. */
+    public static final int      DEFAULT_MAX_ENTRIES     = 1024;
+
+    /** Default time in ms for which a hostname is cached. */
+    public static final long     DEFAULT_TTL_MS          = 10 * 60 * 1000;
+
+    /** Default time in ms for which an address without hostname is cached. */
+    public static final long     DEFAULT_NEGATIVE_TTL_MS = 30 * 1000;
+
+    private static class CacheEntry {
+
+        /** The hostname, or null if the address could not be resolved to a hostname. */
+        final String hostname;
+
+        final long   timeoutMs;
+
+        CacheEntry(String hostname, long timeoutMs) {
+            this.hostname = hostname;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    private final LinkedHashMap<String, CacheEntry> cache;
+
+    private final long                              ttlMs;
+
+    private final long                              negativeTtlMs;
+
+    public HostnameCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS);
+    }
+
+    /**
+     * @param maxEntries
+     *            Maximum number of cached addresses.
+     * @param ttlMs
+     *            Time in ms after which a hostname expires.
+     * @param negativeTtlMs
+     *            Time in ms after which an address that could not be resolved to a hostname is looked up again.
+     */
+    public HostnameCache(final int maxEntries, long ttlMs, long negativeTtlMs) {
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the hostname of the address, or null if it can not be resolved to a hostname.
+     *
+     * @throws UnknownHostException
+     *             if the address is invalid.
+     */
+    public String getHostname(String address) throws UnknownHostException {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(address);
+            if (entry != null && entry.timeoutMs >= System.currentTimeMillis()) {
+                return entry.hostname;
+            }
+        }
+
+        // Do not block other lookups while resolving the address.
+        String hostname = resolve(address);
+
+        synchronized (cache) {
+            cache.put(address, new CacheEntry(hostname, System.currentTimeMillis()
+                    + (hostname == null ? negativeTtlMs : ttlMs)));
+        }
+        return hostname;
+    }
+
+    /**
+     * Returns the number of cached addresses, including expired ones.
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Performs the reverse lookup of the address. Returns null if there is no hostname for it.
+     */
+    protected String resolve(String address) throws UnknownHostException {
+        InetAddress inetAddress = InetAddress.getByName(address);
+        String hostname = inetAddress.getHostName();
+        return hostname.equals(inetAddress.getHostAddress()) ? null : hostname;
+    }
+}
@@ -9,6 +9,7 @@ package org.xtreemfs.common.libxtreemfs;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.locks.Lock;
@@ -19,6 +20,7 @@ import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntry;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Setattrs;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XAttr;
@@ -33,6 +35,17 @@ public class MetadataCache {
 
     private final long                                ttlS;
 
+    /**
+     * TTL granted by a metadata lease; 0 if no lease is held. While a lease is held, modified entries are
+     * invalidated explicitly, so that entries may be cached longer than "ttlS".
+     */
+    private volatile long                             leaseTTLs;
+
+    /**
+     * Time in seconds at which the metadata lease expires, unless it is renewed.
+     */
+    private volatile long                             leaseExpiresS;
+
     private boolean                                   enabled;
 
     /**
@@ -78,6 +91,74 @@ public class MetadataCache {
         readLock = readWriteLock.readLock();
     }
 
+    /**
+     * Returns the TTL in seconds for new or updated entries. While a metadata lease is held, entries are cached for
+     * the lease duration if it exceeds the configured TTL; a shorter lease never shortens the configured TTL, since
+     * changes are invalidated on the next renewal anyway.
+     */
+    protected long getTTL() {
+        long leaseTTL = leaseTTLs;
+        if (leaseTTL > ttlS && System.currentTimeMillis() / 1000 <= leaseExpiresS) {
+            return leaseTTL;
+        }
+        return ttlS;
+    }
+
+    /**
+     * Sets the TTL granted by a metadata lease. A TTL of 0 indicates that no lease is held. Entries that have been
+     * cached before keep their timeout, unless the lease is given up, in which case all entries are removed.
+     * 
+     * @param leaseTTLs
+     *            The lease duration in seconds.
+     * @param leaseExpiresS
+     *            The time in seconds at which the lease expires unless it is renewed.
+     */
+    protected synchronized void setLease(long leaseTTLs, long leaseExpiresS) {
+        boolean released = leaseTTLs == 0 && this.leaseTTLs != 0;
+        this.leaseExpiresS = leaseExpiresS;
+        this.leaseTTLs = leaseTTLs;
+        if (released) {
+            clear();
+        }
+    }
+
+    /**
+     * Removes all entries once the metadata lease has expired without being renewed, since modifications may have
+     * been missed since then.
+     */
+    private void expireLease() {
+        if (leaseTTLs == 0 || System.currentTimeMillis() / 1000 <= leaseExpiresS) {
+            return;
+        }
+        synchronized (this) {
+            if (leaseTTLs != 0 && System.currentTimeMillis() / 1000 > leaseExpiresS) {
+                if (Logging.isDebug()) {
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                            "MetadataCache metadata lease expired, removing all entries");
+                }
+                leaseTTLs = 0;
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    protected void clear() {
+        if (!enabled) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            cache.clear();
+            pathIndex.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * Removes MetadataCacheEntry for path from cache
      * 
@@ -206,6 +287,8 @@ public class MetadataCache {
             return null;
         }
 
+        expireLease();
+
         writeLock.lock();
         try {
             MetadataCacheEntry entry = cache.get(path);
@@ -276,7 +359,7 @@ public class MetadataCache {
 
             // set net stat object and update timeouts
             entry.setStat(stat);
-            entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
+            entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + getTTL());
             entry.setTimeoutS(entry.getStatTimeoutS());
 
             // (re-)add entry to "cache"
@@ -334,7 +417,7 @@ public class MetadataCache {
 
                 // set new Stat object and update timeouts
                 entry.setStat(newStat.build());
-                entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
+                entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + getTTL());
                 entry.setTimeoutS(entry.getStatTimeoutS());
 
                 // readd the entry in the cache
@@ -431,7 +514,7 @@ public class MetadataCache {
 
                 // update stat, timeouts and then re-add "entry" to the cache
                 entry.setStat(statBuilder.build());
-                entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
+                entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + getTTL());
                 entry.setTimeoutS(entry.getStatTimeoutS());
 
                 cache.remove(path);
@@ -495,6 +578,8 @@ public class MetadataCache {
             return null;
         }
 
+        expireLease();
+
         writeLock.lock();
         try {
             MetadataCacheEntry entry = cache.get(path);
@@ -571,6 +656,39 @@ public class MetadataCache {
         }
     }
 
+    /**
+     * Invalidates the stat entries of the given files, as well as all cached directory entries that contain them.
+     * 
+     * @param fileIds
+     *            IDs of the files, i.e. the inode numbers of their {@link Stat} objects.
+     */
+    protected void invalidateFileIds(Set<Long> fileIds) {
+        if (fileIds.isEmpty() || !enabled) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            for (MetadataCacheEntry entry : cache.values()) {
+                if (entry.getStat() != null && fileIds.contains(entry.getStat().getIno())) {
+                    entry.setStat(null);
+                    entry.setStatTimeoutS(0);
+                }
+                if (entry.getDirectoryEntries() != null) {
+                    for (DirectoryEntry dirEntry : entry.getDirectoryEntries().getEntriesList()) {
+                        if (dirEntry.hasStbuf() && fileIds.contains(dirEntry.getStbuf().getIno())) {
+                            entry.setDirectoryEntries(null);
+                            entry.setDirectoryEntriesTimeoutS(0);
+                            break;
+                        }
+                    }
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * Stores/updates DirectoryEntries in cache for path.
      * 
@@ -603,7 +721,7 @@ public class MetadataCache {
             }
 
             entry.setDirectoryEntries(dirEntries);
-            entry.setDirectoryEntriesTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
+            entry.setDirectoryEntriesTimeoutS(System.currentTimeMillis() / 1000 + getTTL());
             entry.setTimeoutS(entry.getDirectoryEntriesTimeoutS());
 
             if (created) {
@@ -699,6 +817,8 @@ public class MetadataCache {
             return new Tupel<String, Boolean>(null, xattrsCached);
         }
 
+        expireLease();
+
         writeLock.lock();
         try {
             MetadataCacheEntry entry = cache.get(path);
@@ -762,6 +882,8 @@ public class MetadataCache {
     protected Tupel<Integer, Boolean> getXAttrSize(String path, String name) {
         boolean xattrCached = false;
 
+        expireLease();
+
         writeLock.lock();
         try {
             MetadataCacheEntry entry = cache.get(path);
@@ -814,6 +936,8 @@ public class MetadataCache {
      * @return {@link listxattrResponse} or null.
      */
     protected listxattrResponse getXAttrs(String path) {
+        expireLease();
+
         writeLock.lock();
         try {
             MetadataCacheEntry entry = cache.get(path);
@@ -944,7 +1068,7 @@ public class MetadataCache {
             }
 
             entry.setXattrs(xattrs);
-            entry.setXattrTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
+            entry.setXattrTimeoutS(System.currentTimeMillis() / 1000 + getTTL());
             entry.setTimeoutS(entry.getXattrTimeoutS());
 
             // we have to remove and readd the entry. If it was not in cache we are dealing with a
@@ -50,6 +50,24 @@ public class Options {
      */
     private int           readdirChunkSize                  = 1024;
 
+    /**
+     * Maximum number of paths per bulk getattr request. Default: 256
+     */
+    private int           bulkStatChunkSize                 = 256;
+
+    /**
+     * Prefetch the extended attributes of all entries returned by readDir with bulk getattr requests. If enabled,
+     * "xtreemfs." attributes are served from the MetadataCache as well. Default: false
+     */
+    private boolean       readdirPrefetchXAttrs             = false;
+
+    /**
+     * Interval for periodic metadata lease renewals in seconds. While a lease is held, cached metadata is
+     * invalidated selectively by the MRC and may be kept for the lease duration granted by the MRC. 0 disables
+     * metadata leases. Default: 0
+     */
+    private int           metadataLeaseRenewalIntervalS     = 0;
+
     // Error Handling options.
     /**
      * How often shall a failed operation get retried? Default: 40
@@ -238,6 +256,30 @@ public class Options {
         this.readdirChunkSize = readdirChunkSize;
     }
 
+    public int getBulkStatChunkSize() {
+        return bulkStatChunkSize;
+    }
+
+    public void setBulkStatChunkSize(int bulkStatChunkSize) {
+        this.bulkStatChunkSize = bulkStatChunkSize;
+    }
+
+    public boolean isReaddirPrefetchXAttrs() {
+        return readdirPrefetchXAttrs;
+    }
+
+    public void setReaddirPrefetchXAttrs(boolean readdirPrefetchXAttrs) {
+        this.readdirPrefetchXAttrs = readdirPrefetchXAttrs;
+    }
+
+    public int getMetadataLeaseRenewalIntervalS() {
+        return metadataLeaseRenewalIntervalS;
+    }
+
+    public void setMetadataLeaseRenewalIntervalS(int metadataLeaseRenewalIntervalS) {
+        this.metadataLeaseRenewalIntervalS = metadataLeaseRenewalIntervalS;
+    }
+
     public void setPeriodicFileSizeUpdatesIntervalS(int periodicFileSizeUpdatesIntervalS) {
         this.periodicFileSizeUpdatesIntervalS = periodicFileSizeUpdatesIntervalS;
     }
@@ -7,7 +7,6 @@
 package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
-import java.util.Map.Entry;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -46,17 +45,15 @@ public class PeriodicFileSizeUpdateThread extends Thread {
                                 .getOpenFileTable().size());
             }
 
-            // Iterate over the openFileTable
-            for (Entry<Long, FileInfo> entry : volume.getOpenFileTable().entrySet()) {
-                try {
-                    entry.getValue().writeBackFileSizeAsync();
-                } catch (IOException e) {
-                    if (Logging.isDebug()) {
-                        Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                "PeriodicFileSizeUpdateThread: failed to update filesize. Reason: ",
-                                e.getMessage());
-                    }
-                } 
+            // Write back the file sizes of all files in the openFileTable at once
+            try {
+                volume.writeBackFileSizesAsync();
+            } catch (IOException e) {
+                if (Logging.isDebug()) {
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                            "PeriodicFileSizeUpdateThread: failed to update filesizes. Reason: ",
+                            e.getMessage());
+                }
             }
 
             if (Logging.isDebug()) {
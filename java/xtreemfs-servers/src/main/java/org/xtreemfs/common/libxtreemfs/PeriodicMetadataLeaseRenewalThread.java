@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Renews periodically the metadata lease of a volume and invalidates modified entries in its metadata cache.
+ */
+public class PeriodicMetadataLeaseRenewalThread extends Thread {
+
+    private VolumeImplementation volume = null;
+
+    public PeriodicMetadataLeaseRenewalThread(VolumeImplementation volume, boolean startAsDaemon) {
+        this.volume = volume;
+        setDaemon(startAsDaemon);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                volume.renewMetadataLease();
+            } catch (Exception e) {
+                if (Logging.isDebug()) {
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                            "PeriodicMetadataLeaseRenewalThread: failed to renew metadata lease. Reason: %s",
+                            e.getMessage());
+                }
+            }
+
+            try {
+                Thread.sleep(volume.getOptions().getMetadataLeaseRenewalIntervalS() * 1000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+}
@@ -340,6 +340,25 @@ public interface Volume {
             int count, boolean namesOnly) throws IOException, PosixErrorException,
             AddressToUUIDNotFoundException;
 
+    /**
+     * Retrieves the attributes and, if "includeXAttrs" is set, the list of extended attributes of all given
+     * paths with as few requests as possible and stores them in the metadata cache. Subsequent calls of
+     * getAttr() and listXAttrs() for these paths will be served from the cache.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param paths
+     *            Paths to the files/directories.
+     * @param includeXAttrs
+     *            If set to true, the extended attributes will be retrieved as well.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws {@link IOException}
+     * @throws PosixErrorException
+     */
+    public void prefetchAttrs(UserCredentials userCredentials, List<String> paths, boolean includeXAttrs)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
+
     /**
      * Returns the list of extended attributes stored for "path" (Entries may be cached).
      * 
@@ -522,6 +541,26 @@ public interface Volume {
     public Replicas listReplicas(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Returns the list of replicas of all given files with as few requests as possible.
+     * 
+     * Paths which could not be resolved, e.g. because they do not exist, refer to directories or the user lacks
+     * the permission to access them, are omitted from the result.
+     * 
+     * @param userCredentials
+     *            Username and groups of the user.
+     * @param paths
+     *            Paths to the files.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws {@link IOException}
+     * @throws PosixErrorException
+     * 
+     * @return Map from the given paths to their {@link Replicas}.
+     */
+    public Map<String, Replicas> listReplicas(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
+
     /**
      * Removes the replica of file at "path" located on the OSD with the UUID "osdUuid" (which has to be the
      * head OSD in case of striping).
@@ -638,6 +677,21 @@ public interface Volume {
             long startSize, long length) throws IOException, PosixErrorException,
             AddressToUUIDNotFoundException;
 
+    /**
+     * Returns a list of {@link StripeLocation} where each stripe of the file with the given replicas is located,
+     * without contacting the MRC. The replicas may have been obtained by {@link #listReplicas}.
+     * 
+     * @param replicas
+     *            Replicas of the file.
+     * @param startSize
+     *            Size in byte where to start collecting the {@link StripeLocation}s.
+     * @param length
+     *            The length of the part of the file where the {@link StripeLocation}s should be collected in
+     *            byte.
+     * @return {@link List} of {@link StripeLocation}
+     */
+    public List<StripeLocation> getStripeLocations(Replicas replicas, long startSize, long length);
+
     
     /**
      * Removes the user from the ACL stored in path 
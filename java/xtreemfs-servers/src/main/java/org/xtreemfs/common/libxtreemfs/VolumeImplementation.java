@@ -8,6 +8,7 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,8 +31,11 @@ import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
 import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.mrc.metadata.ReplicationPolicy;
@@ -78,13 +82,21 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.timestampResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsEntry;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_xlocsetRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_renew_metadata_leaseRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_renew_metadata_leaseResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_removeRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_removeResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_set_replica_update_policyRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.unlink_osd_Request;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
@@ -175,11 +187,34 @@ public class VolumeImplementation implements Volume, AdminVolume {
      */
     private PeriodicFileSizeUpdateThread                    fileSizeUpdateThread;
 
+    /** set if the MRC does not support bulk file size updates */
+    private volatile boolean                                bulkFileSizeUpdatesUnsupported;
+
+    /**
+     * Metadata lease renewal thread; null if metadata leases are disabled.
+     */
+    private PeriodicMetadataLeaseRenewalThread              metadataLeaseRenewalThread;
+
+    /**
+     * Epoch of the currently held metadata lease; 0 if no lease is held.
+     */
+    private long                                            metadataLeaseEpoch;
+
+    /**
+     * Sequence number of the last metadata change reported by the MRC.
+     */
+    private long                                            metadataLeaseLastSeenChange;
+
     /**
      * Maps a StripingPolicyType to a StripeTranslator. Should be filled with all possible StripingPolicys.
      */
     private final Map<StripingPolicyType, StripeTranslator> stripeTranslators;
 
+    /**
+     * Caches the hostnames of OSD addresses to avoid a reverse lookup for every stripe location.
+     */
+    private final HostnameCache                             osdHostnames;
+
     private static final String                             XTREEMFS_DEFAULT_RP      = "xtreemfs.default_rp";
 
     private static final String                             OSD_SELECTION_POLICY     = "xtreemfs.osel_policy";
@@ -208,6 +243,8 @@ public class VolumeImplementation implements Volume, AdminVolume {
         // register all stripe translators
         this.stripeTranslators = new HashMap<StripingPolicyType, StripeTranslator>();
         stripeTranslators.put(StripingPolicyType.STRIPING_POLICY_RAID0, new StripeTranslatorRaid0());
+
+        this.osdHostnames = new HostnameCache();
     }
 
     /*
@@ -244,6 +281,11 @@ public class VolumeImplementation implements Volume, AdminVolume {
         xcapRenewalThread = new PeriodicXcapRenewalThread(this, startThreadsAsDaemons);
         xcapRenewalThread.start();
 
+        if (volumeOptions.getMetadataLeaseRenewalIntervalS() > 0) {
+            metadataLeaseRenewalThread = new PeriodicMetadataLeaseRenewalThread(this, startThreadsAsDaemons);
+            metadataLeaseRenewalThread.start();
+        }
+
     }
 
     /*
@@ -257,8 +299,14 @@ public class VolumeImplementation implements Volume, AdminVolume {
         try {
             fileSizeUpdateThread.interrupt();
             xcapRenewalThread.interrupt();
+            if (metadataLeaseRenewalThread != null) {
+                metadataLeaseRenewalThread.interrupt();
+            }
             fileSizeUpdateThread.join();
             xcapRenewalThread.join();
+            if (metadataLeaseRenewalThread != null) {
+                metadataLeaseRenewalThread.join();
+            }
         } catch (InterruptedException e) {
             // TODO: Handle exception
             e.printStackTrace();
@@ -973,6 +1021,10 @@ public class VolumeImplementation implements Volume, AdminVolume {
 
         DirectoryEntries.Builder dirEntriesBuilder = DirectoryEntries.newBuilder();
 
+        // Continue each chunk after the last entry of the previous one, which spares the MRC from skipping all
+        // entries that have been returned already.
+        String continuationToken = null;
+
         // Process large requests in multiples of readdirChunkSize.
         for (int currentOffset = offset; currentOffset < offset + count; currentOffset += volumeOptions
                 .getReaddirChunkSize()) {
@@ -980,9 +1032,13 @@ public class VolumeImplementation implements Volume, AdminVolume {
             int limitDirEntriesCount = (currentOffset > offset + count) ? (currentOffset - offset - count)
                     : volumeOptions.getReaddirChunkSize();
 
-            readdirRequest request = readdirRequest.newBuilder().setPath(path).setVolumeName(volumeName)
-                    .setNamesOnly(namesOnly).setKnownEtag(0).setSeenDirectoryEntriesCount(currentOffset)
-                    .setLimitDirectoryEntriesCount(limitDirEntriesCount).build();
+            readdirRequest.Builder requestBuilder = readdirRequest.newBuilder().setPath(path)
+                    .setVolumeName(volumeName).setNamesOnly(namesOnly).setKnownEtag(0)
+                    .setSeenDirectoryEntriesCount(currentOffset).setLimitDirectoryEntriesCount(limitDirEntriesCount);
+            if (continuationToken != null) {
+                requestBuilder.setContinuationToken(continuationToken);
+            }
+            readdirRequest request = requestBuilder.build();
 
             DirectoryEntries readDirResponse = RPCCaller.<readdirRequest, DirectoryEntries> syncCall(SERVICES.MRC,
                     userCredentials,
@@ -999,6 +1055,7 @@ public class VolumeImplementation implements Volume, AdminVolume {
             assert (readDirResponse != null);
 
             dirEntriesBuilder.addAllEntries(readDirResponse.getEntriesList());
+            continuationToken = readDirResponse.hasContinuationToken() ? readDirResponse.getContinuationToken() : null;
 
             // Break if this is the last chunk.
             if (dirEntriesBuilder.getEntriesCount() < (currentOffset + volumeOptions.getReaddirChunkSize())) {
@@ -1040,9 +1097,76 @@ public class VolumeImplementation implements Volume, AdminVolume {
         if (!namesOnly && offset == 0 && result.getEntriesCount() < count) {
             metadataCache.updateDirEntries(path, result);
         }
+
+        // Fetch the extended attributes of all listed entries with bulk requests instead of one request per
+        // entry later on.
+        if (!namesOnly && volumeOptions.isReaddirPrefetchXAttrs()) {
+            List<String> entryPaths = new ArrayList<String>(minimum);
+            for (int i = 0; i < minimum; i++) {
+                String name = result.getEntries(i).getName();
+                if (!name.equals(".") && !name.equals("..")) {
+                    entryPaths.add(Helper.concatenatePath(path, name));
+                }
+            }
+            prefetchAttrs(userCredentials, entryPaths, true);
+        }
+
         return result;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#prefetchAttrs(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC.UserCredentials, java.util.List, boolean)
+     */
+    @Override
+    public void prefetchAttrs(UserCredentials userCredentials, List<String> paths, boolean includeXAttrs)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        int chunkSize = volumeOptions.getBulkStatChunkSize();
+
+        // Process large requests in multiples of bulkStatChunkSize.
+        for (int start = 0; start < paths.size(); start += chunkSize) {
+            xtreemfs_getattrsRequest request = xtreemfs_getattrsRequest.newBuilder().setVolumeName(volumeName)
+                    .addAllPaths(paths.subList(start, Math.min(start + chunkSize, paths.size())))
+                    .setIncludeXattrs(includeXAttrs).build();
+
+            xtreemfs_getattrsResponse response = RPCCaller
+                    .<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse> syncCall(SERVICES.MRC, userCredentials,
+                            authBogus, volumeOptions, uuidResolver, mrcUUIDIterator, false, request,
+                            new CallGenerator<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse>() {
+                                @Override
+                                public RPCResponse<xtreemfs_getattrsResponse> executeCall(
+                                        InetSocketAddress server, Auth authHeader, UserCredentials userCreds,
+                                        xtreemfs_getattrsRequest input) throws IOException {
+                                    return mrcServiceClient.xtreemfs_getattrs(server, authHeader, userCreds,
+                                            input);
+                                }
+                            });
+
+            assert (response != null);
+
+            for (xtreemfs_getattrsEntry entry : response.getEntriesList()) {
+                if (!entry.hasStbuf()) {
+                    // The entry could not be accessed, e.g. because it was deleted in the meantime.
+                    metadataCache.invalidate(entry.getPath());
+                    continue;
+                }
+
+                if (entry.getStbuf().getNlink() > 1) { // Do not cache hard links.
+                    metadataCache.invalidate(entry.getPath());
+                } else {
+                    metadataCache.updateStat(entry.getPath(), entry.getStbuf());
+                }
+
+                if (includeXAttrs) {
+                    metadataCache.updateXAttrs(entry.getPath(),
+                            listxattrResponse.newBuilder().addAllXattrs(entry.getXattrsList()).build());
+                }
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1190,6 +1314,14 @@ public class VolumeImplementation implements Volume, AdminVolume {
         boolean xtreemfsAttrRequest = name.substring(0, 9).equals("xtreemfs.");
 
         if (xtreemfsAttrRequest) {
+            // Attributes prefetched by readDir may be served from the cache.
+            if (volumeOptions.isReaddirPrefetchXAttrs()) {
+                String cachedValue = metadataCache.getXAttr(path, name).getFirst();
+                if (cachedValue != null) {
+                    return cachedValue;
+                }
+            }
+
             // Retrive only the value of the requested attribute, not the whole
             // list.
             getxattrRequest request = getxattrRequest.newBuilder().setVolumeName(volumeName).setPath(path)
@@ -1396,6 +1528,58 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return replicas.build();
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#listReplicas(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces .RPC.UserCredentials, java.util.List)
+     */
+    @Override
+    public Map<String, Replicas> listReplicas(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        int chunkSize = volumeOptions.getBulkStatChunkSize();
+        Map<String, Replicas> result = new HashMap<String, Replicas>();
+
+        // Process large requests in multiples of bulkStatChunkSize.
+        for (int start = 0; start < paths.size(); start += chunkSize) {
+            xtreemfs_getattrsRequest request = xtreemfs_getattrsRequest.newBuilder().setVolumeName(volumeName)
+                    .addAllPaths(paths.subList(start, Math.min(start + chunkSize, paths.size())))
+                    .setIncludeXattrs(false).setIncludeXlocset(true).build();
+
+            xtreemfs_getattrsResponse response = RPCCaller
+                    .<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse> syncCall(SERVICES.MRC, userCredentials,
+                            authBogus, volumeOptions, uuidResolver, mrcUUIDIterator, false, request,
+                            new CallGenerator<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse>() {
+                                @Override
+                                public RPCResponse<xtreemfs_getattrsResponse> executeCall(
+                                        InetSocketAddress server, Auth authHeader, UserCredentials userCreds,
+                                        xtreemfs_getattrsRequest input) throws IOException {
+                                    return mrcServiceClient.xtreemfs_getattrs(server, authHeader, userCreds,
+                                            input);
+                                }
+                            });
+
+            assert (response != null);
+
+            for (xtreemfs_getattrsEntry entry : response.getEntriesList()) {
+                // Skip entries that could not be accessed or are no regular files.
+                if (!entry.hasXlocs() || entry.getXlocs().getReplicasCount() == 0) {
+                    continue;
+                }
+
+                // Take the opportunity to update the cached attributes as well.
+                if (entry.hasStbuf() && entry.getStbuf().getNlink() <= 1) {
+                    metadataCache.updateStat(entry.getPath(), entry.getStbuf());
+                }
+
+                result.put(entry.getPath(),
+                        Replicas.newBuilder().addAllReplicas(entry.getXlocs().getReplicasList()).build());
+            }
+        }
+
+        return result;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1716,10 +1900,162 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return this.volumeOptions;
     }
 
+    /**
+     * Renews the metadata lease on this volume and invalidates all cached metadata of paths that have been
+     * modified since the last renewal. If the lease cannot be renewed, the metadata cache is cleared and falls
+     * back to the TTL configured in the options.
+     */
+    protected void renewMetadataLease() throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        xtreemfs_renew_metadata_leaseRequest request = xtreemfs_renew_metadata_leaseRequest.newBuilder()
+                .setVolumeName(volumeName).setLeaseEpoch(metadataLeaseEpoch)
+                .setLastSeenChange(metadataLeaseLastSeenChange).build();
+
+        // The lease is valid for its duration from the time it was requested at the latest.
+        long requestTimeS = System.currentTimeMillis() / 1000;
+
+        xtreemfs_renew_metadata_leaseResponse response;
+        try {
+            response = RPCCaller.<xtreemfs_renew_metadata_leaseRequest, xtreemfs_renew_metadata_leaseResponse> syncCall(
+                    SERVICES.MRC, userCredentialsBogus, authBogus, volumeOptions, uuidResolver, mrcUUIDIterator,
+                    false, request,
+                    new CallGenerator<xtreemfs_renew_metadata_leaseRequest, xtreemfs_renew_metadata_leaseResponse>() {
+                        @Override
+                        public RPCResponse<xtreemfs_renew_metadata_leaseResponse> executeCall(
+                                InetSocketAddress server, Auth authHeader, UserCredentials userCreds,
+                                xtreemfs_renew_metadata_leaseRequest input) throws IOException {
+                            return mrcServiceClient.xtreemfs_renew_metadata_lease(server, authHeader, userCreds,
+                                    input);
+                        }
+                    });
+        } catch (IOException e) {
+            // Changes may have been missed, so nothing cached can be trusted anymore.
+            metadataCache.setLease(0, 0);
+            metadataCache.clear();
+            metadataLeaseEpoch = 0;
+            throw e;
+        }
+
+        if (response.getInvalidateAll()) {
+            metadataCache.clear();
+        } else {
+            for (String path : response.getInvalidatedPathsList()) {
+                // Paths are reported with a leading slash, but may have been cached without one.
+                metadataCache.invalidatePrefix(path);
+                metadataCache.invalidatePrefix(path.substring(1));
+                String parentDir = Helper.resolveParentDirectory(path);
+                metadataCache.invalidate(parentDir);
+                metadataCache.invalidate(parentDir.substring(1));
+            }
+            // Attributes changed through open files are reported by file ID.
+            metadataCache.invalidateFileIds(new HashSet<Long>(response.getInvalidatedFileIdsList()));
+        }
+
+        metadataLeaseEpoch = response.getLeaseEpoch();
+        metadataLeaseLastSeenChange = response.getCurrentChange();
+
+        // A lease is only useful if it outlasts the renewal interval.
+        if (response.getLeaseDurationS() > volumeOptions.getMetadataLeaseRenewalIntervalS()) {
+            metadataCache.setLease(response.getLeaseDurationS(), requestTimeS + response.getLeaseDurationS());
+        } else {
+            metadataCache.setLease(0, 0);
+        }
+    }
+
     protected ConcurrentHashMap<Long, FileInfo> getOpenFileTable() {
         return this.openFileTable;
     }
 
+    /**
+     * Writes back the pending file sizes of all open files asynchronously, using a single request to the MRC.
+     * Falls back to one request per file if the MRC does not support bulk file size updates.
+     */
+    protected void writeBackFileSizesAsync() throws AddressToUUIDNotFoundException {
+
+        final List<FileHandleImplementation> fileHandles = new ArrayList<FileHandleImplementation>();
+        xtreemfs_update_file_sizesRequest.Builder request = xtreemfs_update_file_sizesRequest.newBuilder();
+
+        for (FileInfo fileInfo : openFileTable.values()) {
+            FileHandleImplementation fileHandle = fileInfo.prepareFileSizeWriteBack();
+            if (fileHandle == null) {
+                continue;
+            }
+
+            xtreemfs_update_file_sizeRequest update = fileHandle.getFileSizeUpdateRequest();
+            if (update == null) {
+                fileHandle.fileSizeWrittenBack(false);
+                continue;
+            }
+
+            if (bulkFileSizeUpdatesUnsupported) {
+                writeBackFileSizeAsync(fileHandle);
+            } else {
+                fileHandles.add(fileHandle);
+                request.addUpdates(update);
+            }
+        }
+
+        if (fileHandles.isEmpty()) {
+            return;
+        }
+
+        RPCResponse<xtreemfs_update_file_sizesResponse> r;
+        try {
+            String address = uuidResolver.uuidToAddress(mrcUUIDIterator.getUUID());
+            InetSocketAddress server = RPCCaller.getInetSocketAddressFromAddress(address, SERVICES.MRC);
+            r = mrcServiceClient.xtreemfs_update_file_sizes(server, authBogus, userCredentialsBogus, request.build());
+        } catch (IOException e) {
+            for (FileHandleImplementation fileHandle : fileHandles) {
+                fileHandle.fileSizeWrittenBack(false);
+            }
+            return;
+        }
+
+        r.registerListener(new RPCResponseAvailableListener<xtreemfs_update_file_sizesResponse>() {
+
+            @Override
+            public void responseAvailable(RPCResponse<xtreemfs_update_file_sizesResponse> r) {
+                try {
+                    xtreemfs_update_file_sizesResponse response = r.get();
+                    Set<Integer> failed = new HashSet<Integer>(response.getFailedUpdatesList());
+                    for (int i = 0; i < fileHandles.size(); i++) {
+                        fileHandles.get(i).fileSizeWrittenBack(!failed.contains(i));
+                    }
+                } catch (Exception e) {
+                    if (e instanceof PBRPCException
+                            && ((PBRPCException) e).getErrorType() == ErrorType.INVALID_PROC_ID) {
+                        // the MRC does not support bulk updates; send them one by one from now on
+                        bulkFileSizeUpdatesUnsupported = true;
+                        for (FileHandleImplementation fileHandle : fileHandles) {
+                            writeBackFileSizeAsync(fileHandle);
+                        }
+                    } else {
+                        if (Logging.isDebug()) {
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                                    "bulk file size update failed: %s", e.getMessage());
+                        }
+                        for (FileHandleImplementation fileHandle : fileHandles) {
+                            fileHandle.fileSizeWrittenBack(false);
+                        }
+                    }
+                } finally {
+                    r.freeBuffers();
+                }
+            }
+        });
+    }
+
+    private void writeBackFileSizeAsync(FileHandleImplementation fileHandle) {
+        try {
+            fileHandle.writeBackFileSizeAsync();
+        } catch (IOException e) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "failed to update filesize: %s",
+                        e.getMessage());
+            }
+            fileHandle.fileSizeWrittenBack(false);
+        }
+    }
+
     protected Auth getAuthBogus() {
         return this.authBogus;
     }
@@ -1748,7 +2084,19 @@ public class VolumeImplementation implements Volume, AdminVolume {
             long startSize, long length) throws IOException, PosixErrorException,
             AddressToUUIDNotFoundException {
         Replicas replicas = listReplicas(userCredentials, path);
-        return Helper.getStripeLocationsFromReplicas(replicas, startSize, length, uuidResolver);
+        return getStripeLocations(replicas, startSize, length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.xtreemfs.common.libxtreemfs.Volume#getStripeLocations(org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes
+     * .Replicas, long, long)
+     */
+    @Override
+    public List<StripeLocation> getStripeLocations(Replicas replicas, long startSize, long length) {
+        return Helper.getStripeLocationsFromReplicas(replicas, startSize, length, uuidResolver, osdHostnames);
     }
 
     @Override
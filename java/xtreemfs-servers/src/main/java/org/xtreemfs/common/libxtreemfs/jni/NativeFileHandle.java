@@ -39,16 +39,22 @@ public class NativeFileHandle implements FileHandle {
         return proxy.read(data, dataOffset, count, offset);
     }
 
+    @Override
     public int read(UserCredentials userCredentials, ByteBuffer data, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // UserCredentials are not used internally.
+        checkRemaining(data, count);
+        int bytesRead;
         if (data.isDirect()) {
-            return proxy.readDirect(data, count, offset);
+            // The native code uses the address of the buffer, which is the current position for a slice.
+            bytesRead = proxy.readDirect(data.slice(), count, offset);
         } else if (data.hasArray()) {
-            return proxy.read(data.array(), count, offset);
+            bytesRead = proxy.read(data.array(), data.arrayOffset() + data.position(), count, offset);
         } else {
             throw new RuntimeException("ByteBuffer has to be array backed or direct.");
         }
+        data.position(data.position() + bytesRead);
+        return bytesRead;
     }
 
     @Override
@@ -65,16 +71,29 @@ public class NativeFileHandle implements FileHandle {
         return proxy.write(data, dataOffset, count, offset);
     }
 
+    @Override
     public int write(UserCredentials userCredentials, ByteBuffer data, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // UserCredentials are not used internally.
+        checkRemaining(data, count);
+        int bytesWritten;
         if (data.isDirect()) {
-            return proxy.writeDirect(data, count, offset);
+            // The native code uses the address of the buffer, which is the current position for a slice.
+            bytesWritten = proxy.writeDirect(data.slice(), count, offset);
         } else if (data.hasArray()) {
-            return proxy.write(data.array(), count, offset);
+            bytesWritten = proxy.write(data.array(), data.arrayOffset() + data.position(), count, offset);
         } else {
             throw new RuntimeException("ByteBuffer has to be array backed or direct.");
         }
+        data.position(data.position() + bytesWritten);
+        return bytesWritten;
+    }
+
+    private static void checkRemaining(ByteBuffer data, int count) {
+        if (count > data.remaining()) {
+            throw new IllegalArgumentException("count > remaining buffer size (" + count + " > " + data.remaining()
+                    + ")");
+        }
     }
 
     @Override
@@ -16,6 +16,7 @@ import java.util.Set;
 
 import org.xtreemfs.common.libxtreemfs.FileHandle;
 import org.xtreemfs.common.libxtreemfs.Helper;
+import org.xtreemfs.common.libxtreemfs.HostnameCache;
 import org.xtreemfs.common.libxtreemfs.Volume;
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
@@ -48,6 +49,11 @@ public class NativeVolume implements Volume {
 
     protected final VolumeProxy   proxy;
 
+    /**
+     * Caches the hostnames of OSD addresses to avoid a reverse lookup for every stripe location.
+     */
+    protected final HostnameCache osdHostnames;
+
     protected static final String XTREEMFS_DEFAULT_RP      = "xtreemfs.default_rp";
     protected static final String OSD_SELECTION_POLICY     = "xtreemfs.osel_policy";
     protected static final String REPLICA_SELECTION_POLICY = "xtreemfs.rsel_policy";
@@ -63,6 +69,7 @@ public class NativeVolume implements Volume {
         this.volumeName = volumeName;
 
         this.uuidResolver = client.getUUIDResolver();
+        this.osdHostnames = new HostnameCache();
     }
 
     @Override
@@ -282,6 +289,24 @@ public class NativeVolume implements Volume {
         return proxy.listReplicas(userCredentials, path);
     }
 
+    @Override
+    public Map<String, Replicas> listReplicas(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        // The native client has no bulk xLocSet support yet; the replicas are retrieved one by one.
+        Map<String, Replicas> result = new HashMap<String, Replicas>();
+        for (String path : paths) {
+            try {
+                Replicas replicas = proxy.listReplicas(userCredentials, path);
+                if (replicas.getReplicasCount() > 0) {
+                    result.put(path, replicas);
+                }
+            } catch (PosixErrorException e) {
+                // Omit paths that can not be accessed.
+            }
+        }
+        return result;
+    }
+
     @Override
     public void removeReplica(UserCredentials userCredentials, String path, String osdUuid) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -349,6 +374,12 @@ public class NativeVolume implements Volume {
         return new ReplicationPolicyImplementation(updatePolicy, replicationFactor, replicationFlags);
     }
 
+    @Override
+    public void prefetchAttrs(UserCredentials userCredentials, List<String> paths, boolean includeXAttrs)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        // The native client has no bulk getattr support yet; attributes are retrieved on demand.
+    }
+
     @Override
     public void setReplicaUpdatePolicy(UserCredentials userCredentials, String path, String policy)
             throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
@@ -359,7 +390,12 @@ public class NativeVolume implements Volume {
     public List<StripeLocation> getStripeLocations(UserCredentials userCredentials, String path, long startSize,
             long length) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
         Replicas replicas = listReplicas(userCredentials, path);
-        return Helper.getStripeLocationsFromReplicas(replicas, startSize, length, uuidResolver);
+        return getStripeLocations(replicas, startSize, length);
+    }
+
+    @Override
+    public List<StripeLocation> getStripeLocations(Replicas replicas, long startSize, long length) {
+        return Helper.getStripeLocationsFromReplicas(replicas, startSize, length, uuidResolver, osdHostnames);
     }
 
     @Override
@@ -11,12 +11,16 @@ package org.xtreemfs.common.uuids;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.common.GlobalConstants;
 import org.xtreemfs.common.util.NetUtils;
@@ -25,18 +29,66 @@ import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.Schemes;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMappingSet;
 
 /**
  * Resolves UUID to InetSocketAddress+Protocol mappings.
+ * <p>
+ * Entries which are about to expire are renewed by the resolver thread before they expire, with as few
+ * requests to the DIR as possible: all expiring entries are fetched with bulk requests. UUIDs which are not
+ * known by the DIR are remembered for a backoff period, which is doubled with every failed lookup, so that
+ * repeated lookups of an unknown UUID do not cause a request each. Concurrent lookups of the same UUID are
+ * answered with a single request.
  * 
  * @author bjko
  */
 public final class UUIDResolver extends Thread {
     
+    /**
+     * the minimum time for which an unknown UUID is not looked up again (in ms)
+     */
+    public static final int       NEGATIVE_BACKOFF_MIN_MS = 1000;
+
+    /**
+     * the maximum time for which an unknown UUID is not looked up again (in ms)
+     */
+    public static final int       NEGATIVE_BACKOFF_MAX_MS = 60 * 1000;
+
+    /**
+     * the maximum number of UUIDs fetched with a single request
+     */
+    public static final int       MAX_UUIDS_PER_REQUEST   = 256;
+
     Map<String, UUIDCacheEntry>   cache;
+
+    /**
+     * UUIDs which could not be resolved, by UUID
+     */
+    final Map<String, NegativeCacheEntry> negativeCache;
+
+    /**
+     * lookups which are in progress, by UUID and protocol
+     */
+    private final Map<String, PendingFetch> pendingFetches;
+
+    /**
+     * UUIDs of entries which have been accessed shortly before they expire
+     */
+    private final Set<String>     refreshQueue;
+
+    /**
+     * the time before which no refreshes are scheduled after a refresh has failed
+     */
+    private volatile long         refreshRetryTime;
+
+    /**
+     * false if the DIR does not support bulk lookups
+     */
+    private volatile boolean      bulkSupported;
     
     protected transient boolean   quit;
     
@@ -55,6 +107,18 @@ public final class UUIDResolver extends Thread {
 
     protected final UserCredentials uc;
 
+    private final AtomicLong      numHits;
+
+    private final AtomicLong      numNegativeHits;
+
+    private final AtomicLong      numFetchedUUIDs;
+
+    private final AtomicLong      numRequests;
+
+    private final AtomicLong      totalRequestNanos;
+
+    private final AtomicLong      maxRequestNanos;
+
     protected UUIDResolver(DIRClient client, int cacheCleanInterval, int maxUnusedEntry, boolean singleton)
         throws IOException {
         
@@ -62,6 +126,10 @@ public final class UUIDResolver extends Thread {
         setDaemon(true);
         
         cache = new ConcurrentHashMap<String, UUIDCacheEntry>();
+        negativeCache = new ConcurrentHashMap<String, NegativeCacheEntry>();
+        pendingFetches = new HashMap<String, PendingFetch>();
+        refreshQueue = new LinkedHashSet<String>();
+        bulkSupported = true;
         quit = false;
         this.dir = client;
         this.maxUnusedEntry = maxUnusedEntry;
@@ -69,6 +137,13 @@ public final class UUIDResolver extends Thread {
         this.uc = UserCredentials.newBuilder().setUsername("uuidresolver").addGroups("xtreemfs-services").build();
         myNetworks = new ArrayList<String>();
         renewNetworks(this);
+
+        numHits = new AtomicLong();
+        numNegativeHits = new AtomicLong();
+        numFetchedUUIDs = new AtomicLong();
+        numRequests = new AtomicLong();
+        totalRequestNanos = new AtomicLong();
+        maxRequestNanos = new AtomicLong();
         
         if (singleton) {
             assert (theInstance == null);
@@ -122,14 +197,7 @@ public final class UUIDResolver extends Thread {
 
     static UUIDCacheEntry resolve(String uuid, String protocol) throws UnknownUUIDException {
         assert (theInstance != null);
-        
-        UUIDCacheEntry entry = theInstance.cache.get(uuid);
-        // check if it is still valid
-        if ((entry != null) && (entry.getValidUntil() > TimeSync.getLocalSystemTime())) {
-            entry.setLastAccess(TimeSync.getLocalSystemTime());
-            return entry;
-        }
-        return theInstance.fetchUUID(uuid, protocol);
+        return theInstance.lookup(uuid, protocol);
     } 
     
     static UUIDCacheEntry resolve(String uuid, UUIDResolver nonSingleton) throws UnknownUUIDException {
@@ -137,14 +205,62 @@ public final class UUIDResolver extends Thread {
     }
 
     static UUIDCacheEntry resolve(String uuid, String protocol, UUIDResolver nonSingleton) throws UnknownUUIDException {
+        return nonSingleton.lookup(uuid, protocol);
+    }
         
-        UUIDCacheEntry entry = nonSingleton.cache.get(uuid);
+    /**
+     * Fetches the mappings of all given UUIDs which are neither cached nor known to be unknown with bulk
+     * requests, so that a subsequent resolution of the UUIDs does not require a request each. Errors are
+     * ignored; they will occur again when the UUIDs are resolved.
+     */
+    public static void prefetch(Collection<String> uuids) {
+        UUIDResolver instance = theInstance;
+        if (instance == null || instance.dir == null) {
+            return;
+        }
+
+        final long now = TimeSync.getLocalSystemTime();
+        List<String> missing = new ArrayList<String>();
+        for (String uuid : uuids) {
+            UUIDCacheEntry entry = instance.cache.get(uuid);
+            if (entry != null && entry.getValidUntil() > now) {
+                continue;
+            }
+            NegativeCacheEntry negative = instance.negativeCache.get(uuid);
+            if (negative != null && negative.retryAfter > now) {
+                continue;
+            }
+            if (!missing.contains(uuid)) {
+                missing.add(uuid);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            instance.fetchUUIDs(missing);
+        }
+    }
+
+    UUIDCacheEntry lookup(String uuid, String protocol) throws UnknownUUIDException {
+        final long now = TimeSync.getLocalSystemTime();
+
+        UUIDCacheEntry entry = cache.get(uuid);
         // check if it is still valid
-        if ((entry != null) && (entry.getValidUntil() > TimeSync.getLocalSystemTime())) {
-            entry.setLastAccess(TimeSync.getLocalSystemTime());
+        if ((entry != null) && (entry.getValidUntil() > now)) {
+            entry.setLastAccess(now);
+            numHits.incrementAndGet();
+            if (!entry.isSticky() && entry.getValidUntil() < now + cacheCleanInterval) {
+                scheduleRefresh(uuid, now);
+            }
             return entry;
         }
-        return nonSingleton.fetchUUID(uuid, protocol);
+
+        NegativeCacheEntry negative = negativeCache.get(uuid);
+        if ((negative != null) && (negative.retryAfter > now) && negative.matches(protocol)) {
+            numNegativeHits.incrementAndGet();
+            throw new UnknownUUIDException(negative.message);
+        }
+
+        return fetchUUID(uuid, protocol);
     }
     
     UUIDCacheEntry fetchUUID(String uuid) throws UnknownUUIDException {
@@ -155,73 +271,60 @@ public final class UUIDResolver extends Thread {
         if (dir == null)
             throw new UnknownUUIDException("there is no mapping for " + uuid
                 + ". Attention: local mode enabled, no remote lookup possible.");
-        if (Logging.isDebug())
-            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "loading uuid mapping for %s", uuid);
-        try {
-            AddressMappingSet ams = dir.xtreemfs_address_mappings_get(null, GlobalConstants.AUTH_NONE, uc, uuid);
-            if (Logging.isDebug())
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "sent request to DIR");
-            if (Logging.isDebug())
-                Logging
-                        .logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "received response for %s",
-                            uuid);
-            if (ams.getMappingsCount() == 0) {
-                if (Logging.isDebug())
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "NO UUID MAPPING FOR: %s",
-                        uuid);
-                throw new UnknownUUIDException("uuid " + uuid + " is not registered at directory server");
-            }
 
-            List<AddressMapping> mappings = ams.getMappingsList();
-
-            // Iterate through the mappings and look for a matching network. Matches on the same network will be
-            // preferred to global ones.
-            AddressMapping matchingAddress = null;
-            synchronized (myNetworks) {
-                for (AddressMapping addrMapping : mappings) {
-                    final String network = addrMapping.getMatchNetwork();
-
-                    // Cache the first default network found. This will be overwritten by direct network matches.
-                    if (network.equals("*")) {
-                        if (matchingAddress == null
-                                && ((protocol == null) || addrMapping.getProtocol().equals(protocol))) {
-                            matchingAddress = addrMapping;
-                        }
-                    } else if (myNetworks.contains(network)) {
-                        // Use the first address found in the same network and stop looking for further matches.
-                        if ((protocol == null) || addrMapping.getProtocol().equals(protocol)) {
-                            matchingAddress = addrMapping;
-                            break;
-                        }
-                    }
-                }
+        // wait for a concurrent lookup of the same UUID instead of sending another request
+        final String key = PendingFetch.getKey(uuid, protocol);
+        PendingFetch fetch;
+        boolean owner = false;
+        synchronized (pendingFetches) {
+            fetch = pendingFetches.get(key);
+            if (fetch == null) {
+                fetch = new PendingFetch();
+                pendingFetches.put(key, fetch);
+                owner = true;
             }
+        }
+        if (!owner) {
+            return fetch.waitForResult(uuid);
+        }
 
-            if (matchingAddress != null) {
-                final String address = matchingAddress.getAddress();
-                final String proto = matchingAddress.getProtocol();
-                final int port = matchingAddress.getPort();
-                final long validUntil = TimeSync.getLocalSystemTime() + matchingAddress.getTtlS() * 1000;
-                final InetSocketAddress endpoint = new InetSocketAddress(address, port);
-                if (Logging.isDebug())
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "matching uuid record found for uuid "
-                            + uuid + " with network " + matchingAddress.getMatchNetwork());
-                UUIDCacheEntry e = new UUIDCacheEntry(uuid, validUntil, new Mapping(proto, endpoint, address + ":"
-                        + port));
-                cache.put(uuid, e);
-                return e;
+        try {
+            UUIDCacheEntry e = loadUUID(uuid, protocol);
+            fetch.finished(e, null);
+            return e;
+        } catch (UnknownUUIDException ex) {
+            fetch.finished(null, ex);
+            throw ex;
+        } finally {
+            synchronized (pendingFetches) {
+                pendingFetches.remove(key);
             }
+        }
+    }
 
-            if (Logging.isDebug())
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "NO UUID MAPPING FOR: %s", uuid);
-            throw new UnknownUUIDException(
-                "there is no matching entry for my network in the uuid address mapping. The service at "
-                    + uuid
-                    + " is either not reachable from this machine or the mapping entry is misconfigured.");
+    private UUIDCacheEntry loadUUID(String uuid, String protocol) throws UnknownUUIDException {
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "loading uuid mapping for %s", uuid);
+
+        AddressMappingSet ams;
+        final long start = System.nanoTime();
+        try {
+            ams = dir.xtreemfs_address_mappings_get(null, GlobalConstants.AUTH_NONE, uc, uuid);
         } catch (InterruptedException ex) {
             throw new UnknownUUIDException("cannot retrieve mapping from server due to IO error: " + ex);
         } catch (IOException ex) {
             throw new UnknownUUIDException("cannot retrieve mapping from server due to IO error: " + ex);
+        } finally {
+            requestFinished(System.nanoTime() - start, 1);
+        }
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "received response for %s", uuid);
+
+        try {
+            return createEntry(uuid, ams.getMappingsList(), protocol);
+        } catch (UnknownUUIDException ex) {
+            addNegativeEntry(uuid, protocol, ex.getMessage());
+            throw ex;
         } catch (Exception ex) {
             ex.printStackTrace();
             throw new UnknownUUIDException(
@@ -229,38 +332,292 @@ public final class UUIDResolver extends Thread {
         }
     }    
     
+    /**
+     * Fetches the mappings of the given UUIDs with bulk requests. UUIDs which are not known by the DIR are
+     * added to the negative cache and removed from the cache; entries which cannot be renewed due to errors are
+     * kept until they expire.
+     *
+     * @return false if a request failed due to an error
+     */
+    boolean fetchUUIDs(List<String> uuids) {
+        boolean success = true;
+        for (int i = 0; i < uuids.size(); i += MAX_UUIDS_PER_REQUEST) {
+            success &= fetchUUIDChunk(uuids.subList(i, Math.min(i + MAX_UUIDS_PER_REQUEST, uuids.size())));
+        }
+        return success;
+    }
+
+    private boolean fetchUUIDChunk(List<String> uuids) {
+        if (!bulkSupported) {
+            return fetchUUIDsSingly(uuids);
+        }
+
+        // UUIDs which are being looked up by other threads are skipped
+        Map<String, PendingFetch> fetches = new LinkedHashMap<String, PendingFetch>();
+        synchronized (pendingFetches) {
+            for (String uuid : uuids) {
+                String key = PendingFetch.getKey(uuid, null);
+                if (!pendingFetches.containsKey(key)) {
+                    PendingFetch fetch = new PendingFetch();
+                    pendingFetches.put(key, fetch);
+                    fetches.put(uuid, fetch);
+                }
+            }
+        }
+        if (fetches.isEmpty()) {
+            return true;
+        }
+
+        AddressMappingSet ams = null;
+        UnknownUUIDException error = null;
+        final long start = System.nanoTime();
+        try {
+            ams = dir.xtreemfs_address_mappings_get_bulk(null, GlobalConstants.AUTH_NONE, uc,
+                    new ArrayList<String>(fetches.keySet()));
+        } catch (PBRPCException ex) {
+            if (ex.getErrorType() == ErrorType.INVALID_PROC_ID) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.misc, this,
+                        "DIR does not support bulk lookups of UUIDs, looking up UUIDs one by one");
+                bulkSupported = false;
+            }
+            error = new UnknownUUIDException("cannot retrieve mapping from server due to IO error: " + ex);
+        } catch (InterruptedException ex) {
+            error = new UnknownUUIDException("cannot retrieve mapping from server due to IO error: " + ex);
+        } catch (IOException ex) {
+            error = new UnknownUUIDException("cannot retrieve mapping from server due to IO error: " + ex);
+        } finally {
+            requestFinished(System.nanoTime() - start, fetches.size());
+        }
+
+        try {
+            if (ams == null) {
+                for (PendingFetch fetch : fetches.values()) {
+                    fetch.finished(null, error);
+                }
+            } else {
+                processBulkResponse(ams, fetches);
+            }
+        } finally {
+            synchronized (pendingFetches) {
+                for (String uuid : fetches.keySet()) {
+                    pendingFetches.remove(PendingFetch.getKey(uuid, null));
+                }
+            }
+        }
+
+        if (ams != null) {
+            return true;
+        }
+        if (!bulkSupported) {
+            return fetchUUIDsSingly(uuids);
+        }
+        Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this, "cannot refresh UUID mappings: %s",
+                error.getMessage());
+        return false;
+    }
+
+    private void processBulkResponse(AddressMappingSet ams, Map<String, PendingFetch> fetches) {
+        Map<String, List<AddressMapping>> mappings = new HashMap<String, List<AddressMapping>>();
+        for (AddressMapping mapping : ams.getMappingsList()) {
+            List<AddressMapping> list = mappings.get(mapping.getUuid());
+            if (list == null) {
+                list = new ArrayList<AddressMapping>();
+                mappings.put(mapping.getUuid(), list);
+            }
+            list.add(mapping);
+        }
+
+        for (Map.Entry<String, PendingFetch> fetch : fetches.entrySet()) {
+            final String uuid = fetch.getKey();
+            List<AddressMapping> list = mappings.get(uuid);
+            try {
+                if (list == null) {
+                    throw new UnknownUUIDException("uuid " + uuid + " is not registered at directory server");
+                }
+                fetch.getValue().finished(createEntry(uuid, list, null), null);
+            } catch (UnknownUUIDException ex) {
+                addNegativeEntry(uuid, null, ex.getMessage());
+                removeEntry(uuid);
+                fetch.getValue().finished(null, ex);
+            } catch (Exception ex) {
+                fetch.getValue().finished(null, new UnknownUUIDException(
+                    "cannot retrieve mapping from server due to invalid data sent by the server: " + ex));
+            }
+        }
+    }
+
+    private boolean fetchUUIDsSingly(List<String> uuids) {
+        boolean success = true;
+        for (String uuid : uuids) {
+            try {
+                fetchUUID(uuid);
+            } catch (UnknownUUIDException ex) {
+                if (negativeCache.containsKey(uuid)) {
+                    removeEntry(uuid);
+                } else {
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
+                        "cannot refresh UIID mapping: %s", ex.toString());
+                    success = false;
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Selects the mapping which matches the local networks and the protocol, and adds it to the cache.
+     *
+     * @throws UnknownUUIDException
+     *             if none of the mappings matches
+     */
+    private UUIDCacheEntry createEntry(String uuid, List<AddressMapping> mappings, String protocol)
+        throws UnknownUUIDException {
+
+        if (mappings.size() == 0) {
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "NO UUID MAPPING FOR: %s", uuid);
+            throw new UnknownUUIDException("uuid " + uuid + " is not registered at directory server");
+        }
+
+        // Iterate through the mappings and look for a matching network. Matches on the same network will be
+        // preferred to global ones.
+        AddressMapping matchingAddress = null;
+        synchronized (myNetworks) {
+            for (AddressMapping addrMapping : mappings) {
+                final String network = addrMapping.getMatchNetwork();
+
+                // Cache the first default network found. This will be overwritten by direct network matches.
+                if (network.equals("*")) {
+                    if (matchingAddress == null && ((protocol == null) || addrMapping.getProtocol().equals(protocol))) {
+                        matchingAddress = addrMapping;
+                    }
+                } else if (myNetworks.contains(network)) {
+                    // Use the first address found in the same network and stop looking for further matches.
+                    if ((protocol == null) || addrMapping.getProtocol().equals(protocol)) {
+                        matchingAddress = addrMapping;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (matchingAddress != null) {
+            final String address = matchingAddress.getAddress();
+            final String proto = matchingAddress.getProtocol();
+            final int port = matchingAddress.getPort();
+            final long validUntil = TimeSync.getLocalSystemTime() + matchingAddress.getTtlS() * 1000;
+            final InetSocketAddress endpoint = new InetSocketAddress(address, port);
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "matching uuid record found for uuid "
+                    + uuid + " with network " + matchingAddress.getMatchNetwork());
+            UUIDCacheEntry e = new UUIDCacheEntry(uuid, validUntil, new Mapping(proto, endpoint, address + ":"
+                + port));
+
+            // renewing an entry does not count as an access
+            UUIDCacheEntry prev = cache.put(uuid, e);
+            if (prev != null && !prev.isSticky()) {
+                e.setLastAccess(prev.getLastAccess());
+            }
+            negativeCache.remove(uuid);
+            return e;
+        }
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "NO UUID MAPPING FOR: %s", uuid);
+        throw new UnknownUUIDException(
+            "there is no matching entry for my network in the uuid address mapping. The service at "
+                + uuid
+                + " is either not reachable from this machine or the mapping entry is misconfigured.");
+    }
+
+    private void removeEntry(String uuid) {
+        UUIDCacheEntry entry = cache.get(uuid);
+        if (entry != null && !entry.isSticky()) {
+            cache.remove(uuid);
+        }
+    }
+
+    private void addNegativeEntry(String uuid, String protocol, String message) {
+        final long now = TimeSync.getLocalSystemTime();
+        NegativeCacheEntry prev = negativeCache.get(uuid);
+        long backoff = prev == null ? NEGATIVE_BACKOFF_MIN_MS : Math.min(prev.backoffMs * 2,
+                NEGATIVE_BACKOFF_MAX_MS);
+        negativeCache.put(uuid, new NegativeCacheEntry(protocol, message, now + backoff, backoff));
+    }
+
+    private void scheduleRefresh(String uuid, long now) {
+        if (now < refreshRetryTime) {
+            return;
+        }
+        synchronized (refreshQueue) {
+            if (refreshQueue.add(uuid)) {
+                refreshQueue.notify();
+            }
+        }
+    }
+
+    private void requestFinished(long durationNanos, int numUUIDs) {
+        numRequests.incrementAndGet();
+        numFetchedUUIDs.addAndGet(numUUIDs);
+        totalRequestNanos.addAndGet(durationNanos);
+        long max;
+        do {
+            max = maxRequestNanos.get();
+        } while (durationNanos > max && !maxRequestNanos.compareAndSet(max, durationNanos));
+    }
+
     @Override
     public void run() {
-        List<UUIDCacheEntry> updates = new LinkedList();
         do {
+            final long now = TimeSync.getLocalSystemTime();
+
+            Set<String> updates;
+            synchronized (refreshQueue) {
+                updates = new LinkedHashSet<String>(refreshQueue);
+                refreshQueue.clear();
+            }
+
             Iterator<UUIDCacheEntry> iter = cache.values().iterator();
             while (iter.hasNext()) {
                 final UUIDCacheEntry entry = iter.next();
                 if (entry.isSticky())
                     continue;
-                if (entry.getLastAccess() + maxUnusedEntry < TimeSync.getLocalSystemTime()) {
+                if (entry.getLastAccess() + maxUnusedEntry < now) {
                     // dump entry!
                     iter.remove();
+                    updates.remove(entry.getUuid());
                     if (Logging.isDebug())
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
                             "removed entry from UUID cache: %s", entry.getUuid());
                 } else {
                     // check if update is necessary
-                    if (entry.getValidUntil() < TimeSync.getLocalSystemTime() + cacheCleanInterval) {
-                        // renew entry...
-                        try {
-                            updates.add(fetchUUID(entry.getUuid()));
-                        } catch (Exception ex) {
-                            Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
-                                "cannot refresh UIID mapping: %s", ex.toString());
-                            iter.remove();
-                        }
+                    if (entry.getValidUntil() < now + cacheCleanInterval) {
+                        updates.add(entry.getUuid());
                     }
                 }
+            }
                 
+            // forget unknown UUIDs once their backoff could not be increased any further
+            Iterator<NegativeCacheEntry> negIter = negativeCache.values().iterator();
+            while (negIter.hasNext()) {
+                if (negIter.next().retryAfter + NEGATIVE_BACKOFF_MAX_MS < now) {
+                    negIter.remove();
+                }
             }
+
+            // renew entries before they expire
+            if (!updates.isEmpty() && dir != null) {
+                if (!fetchUUIDs(new ArrayList<String>(updates))) {
+                    refreshRetryTime = TimeSync.getLocalSystemTime() + cacheCleanInterval;
+                }
+            }
+
             try {
-                sleep(cacheCleanInterval);
+                synchronized (refreshQueue) {
+                    if (refreshQueue.isEmpty() && !quit) {
+                        refreshQueue.wait(cacheCleanInterval);
+                    }
+                }
             } catch (InterruptedException ex) {
             }
         } while (!quit);
@@ -288,6 +645,7 @@ public final class UUIDResolver extends Thread {
         
         e.setSticky(true);
         theInstance.cache.put(localUUID, e);
+        theInstance.negativeCache.remove(localUUID);
     }
     
     public static void addLocalMapping(ServiceUUID uuid, int port, String protocol) {
@@ -308,6 +666,7 @@ public final class UUIDResolver extends Thread {
         
         e.setSticky(true);
         theInstance.cache.put(uuid, e);
+        theInstance.negativeCache.remove(uuid);
     }
     
     public static String getCache() {
@@ -330,8 +689,27 @@ public final class UUIDResolver extends Thread {
             }
             sb.append("\n");
         }
+        for (String uuid : theInstance.negativeCache.keySet()) {
+            sb.append(uuid);
+            sb.append(" -> UNKNOWN\n");
+        }
+        sb.append(theInstance.getResolverStatistics());
+        sb.append("\n");
         return sb.toString();
     }
+
+    /**
+     * Returns the statistics of the UUIDResolver, or null if it is not running.
+     */
+    public static Statistics getStatistics() {
+        UUIDResolver instance = theInstance;
+        return instance == null ? null : instance.getResolverStatistics();
+    }
+
+    Statistics getResolverStatistics() {
+        return new Statistics(numHits.get(), numNegativeHits.get(), numRequests.get(), numFetchedUUIDs.get(),
+            totalRequestNanos.get(), maxRequestNanos.get());
+    }
     
     public static void shutdown() {
         if (theInstance != null) {
@@ -373,4 +751,120 @@ public final class UUIDResolver extends Thread {
             }
         }
     }
+
+    /**
+     * Counters of a UUIDResolver. Requests are the requests sent to the DIR, each of which may fetch the
+     * mappings of several UUIDs.
+     */
+    public static class Statistics {
+
+        public final long numHits;
+
+        public final long numNegativeHits;
+
+        public final long numRequests;
+
+        public final long numFetchedUUIDs;
+
+        public final long totalRequestNanos;
+
+        public final long maxRequestNanos;
+
+        Statistics(long numHits, long numNegativeHits, long numRequests, long numFetchedUUIDs,
+            long totalRequestNanos, long maxRequestNanos) {
+            this.numHits = numHits;
+            this.numNegativeHits = numNegativeHits;
+            this.numRequests = numRequests;
+            this.numFetchedUUIDs = numFetchedUUIDs;
+            this.totalRequestNanos = totalRequestNanos;
+            this.maxRequestNanos = maxRequestNanos;
+        }
+
+        /**
+         * Returns the average latency of the requests to the DIR in milliseconds.
+         */
+        public double getAverageRequestLatencyMs() {
+            return numRequests == 0 ? 0 : totalRequestNanos / 1e6 / numRequests;
+        }
+
+        public double getMaxRequestLatencyMs() {
+            return maxRequestNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cache hits: %d, negative cache hits: %d, DIR requests: %d, fetched UUIDs: %d, "
+                + "request latency: avg %.2f ms, max %.2f ms", numHits, numNegativeHits, numRequests,
+                numFetchedUUIDs, getAverageRequestLatencyMs(), getMaxRequestLatencyMs());
+        }
+    }
+
+    /**
+     * A UUID which could not be resolved.
+     */
+    static class NegativeCacheEntry {
+
+        final String protocol;
+
+        final String message;
+
+        /**
+         * the time at which the UUID may be looked up again
+         */
+        final long   retryAfter;
+
+        final long   backoffMs;
+
+        NegativeCacheEntry(String protocol, String message, long retryAfter, long backoffMs) {
+            this.protocol = protocol;
+            this.message = message;
+            this.retryAfter = retryAfter;
+            this.backoffMs = backoffMs;
+        }
+
+        /**
+         * A UUID which is unknown for a protocol may be known for other protocols, but not vice versa.
+         */
+        boolean matches(String protocol) {
+            return this.protocol == null || this.protocol.equals(protocol);
+        }
+    }
+
+    /**
+     * A lookup in progress, which other threads resolving the same UUID wait for.
+     */
+    private static class PendingFetch {
+
+        private boolean              done;
+
+        private UUIDCacheEntry       entry;
+
+        private UnknownUUIDException error;
+
+        static String getKey(String uuid, String protocol) {
+            return protocol == null ? uuid : uuid + "/" + protocol;
+        }
+
+        synchronized void finished(UUIDCacheEntry entry, UnknownUUIDException error) {
+            this.entry = entry;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized UUIDCacheEntry waitForResult(String uuid) throws UnknownUUIDException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new UnknownUUIDException("interrupted while waiting for the mapping of " + uuid);
+                }
+            }
+            if (error != null) {
+                throw new UnknownUUIDException(error.getMessage());
+            }
+            return entry;
+        }
+    }
 }
@@ -8,6 +8,7 @@
 
 package org.xtreemfs.common.xloc;
 
+import org.xtreemfs.osd.replication.transferStrategies.AdaptiveBulkStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.RandomStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.RarestFirstStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.SequentialPrefetchingStrategy;
@@ -23,7 +24,8 @@ public class ReplicationFlags {
     private static final int STRATEGY_BITS = SequentialStrategy.REPLICATION_FLAG.getNumber()
                                                    | RandomStrategy.REPLICATION_FLAG.getNumber()
                                                    | SequentialPrefetchingStrategy.REPLICATION_FLAG.getNumber()
-                                                   | RarestFirstStrategy.REPLICATION_FLAG.getNumber();
+                                                   | RarestFirstStrategy.REPLICATION_FLAG.getNumber()
+                                                   | AdaptiveBulkStrategy.REPLICATION_FLAG.getNumber();
 
     private static final int OTHER_BITS    = REPL_FLAG.REPL_FLAG_IS_COMPLETE.getNumber()
                                                    | REPL_FLAG.REPL_FLAG_FULL_REPLICA.getNumber();
@@ -60,6 +62,10 @@ public class ReplicationFlags {
         return resetStrategy(flags) | RarestFirstStrategy.REPLICATION_FLAG.getNumber();
     }
 
+    public static int setAdaptiveBulkStrategy(int flags) {
+        return resetStrategy(flags) | AdaptiveBulkStrategy.REPLICATION_FLAG.getNumber();
+    }
+
     public static boolean isReplicaComplete(int flags) {
         return (flags & REPL_FLAG.REPL_FLAG_IS_COMPLETE.getNumber()) == REPL_FLAG.REPL_FLAG_IS_COMPLETE.getNumber();
     }
@@ -88,6 +94,10 @@ public class ReplicationFlags {
         return resetOther(flags) == RarestFirstStrategy.REPLICATION_FLAG.getNumber();
     }
 
+    public static boolean isAdaptiveBulkStrategy(int flags) {
+        return resetOther(flags) == AdaptiveBulkStrategy.REPLICATION_FLAG.getNumber();
+    }
+
     public static boolean containsStrategy(int flags) {
         return (resetOther(flags) > 0);
     }
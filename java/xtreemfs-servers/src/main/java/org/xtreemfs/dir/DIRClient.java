@@ -11,6 +11,8 @@ package org.xtreemfs.dir;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.xtreemfs.foundation.TimeServerClient;
 import org.xtreemfs.foundation.logging.Logging;
@@ -25,13 +27,18 @@ import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMappingSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Configuration;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceChanges;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.addressMappingGetBulkRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.addressMappingSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.configurationSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.globalTimeSGetResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceGetByTypeIfModifiedRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceRegisterResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceWatchRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceClient;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 
 /**
  * DIR Client with automatic fail-over and redirect support. All operations are
@@ -81,6 +88,11 @@ public class DIRClient implements TimeServerClient {
      */
     protected final UserCredentials     user;
     
+    /**
+     * False, if the DIR does not support conditional queries for services.
+     */
+    protected volatile boolean          getByTypeIfModifiedSupported = true;
+    
     /**
      * Initializes the DIRClient.
      * 
@@ -123,6 +135,24 @@ public class DIRClient implements TimeServerClient {
         return response;
     }
     
+    /**
+     * Returns the address mappings of the given UUIDs with a single request. Mappings of unknown UUIDs are
+     * omitted. DIRs which do not support the request respond with INVALID_PROC_ID, which is thrown as a
+     * PBRPCException.
+     */
+    public AddressMappingSet xtreemfs_address_mappings_get_bulk(InetSocketAddress server, final Auth authHeader,
+            final UserCredentials userCreds, final List<String> uuids) throws IOException, InterruptedException {
+        final addressMappingGetBulkRequest request = addressMappingGetBulkRequest.newBuilder().addAllUuids(uuids)
+                .build();
+        AddressMappingSet response = (AddressMappingSet) syncCall(new CallGenerator() {
+            @Override
+            public RPCResponse executeCall(DIRServiceClient client, InetSocketAddress server) throws IOException {
+                return client.xtreemfs_address_mappings_get_bulk(server, authHeader, userCreds, request);
+            }
+        }, maxRetries);
+        return response;
+    }
+    
     public void xtreemfs_address_mappings_remove(InetSocketAddress server, final Auth authHeader,
             final UserCredentials userCreds, final String uuid) throws IOException, InterruptedException {
         xtreemfs_address_mappings_remove(server, authHeader, userCreds, uuid, maxRetries);
@@ -257,6 +287,122 @@ public class DIRClient implements TimeServerClient {
         return response;
     }
     
+    /**
+     * Returns the services of the given type like
+     * {@link #xtreemfs_service_get_by_type(InetSocketAddress, Auth, UserCredentials, ServiceType)}, but avoids
+     * transferring the services if they have not changed since <code>known</code> was fetched. In this case,
+     * <code>known</code> is returned with the "seconds_since_last_update" attributes advanced to the current time
+     * of the DIR.
+     * 
+     * @param known
+     *            the result of a previous call for the same type, or null
+     */
+    public ServiceSet xtreemfs_service_get_by_type_if_modified(InetSocketAddress server, final Auth authHeader,
+            final UserCredentials userCreds, final ServiceType type, ServiceSet known) throws IOException,
+            InterruptedException {
+        if (known == null || !known.hasRegistryVersion() || !getByTypeIfModifiedSupported) {
+            return xtreemfs_service_get_by_type(server, authHeader, userCreds, type, maxRetries);
+        }
+        
+        final serviceGetByTypeIfModifiedRequest request = serviceGetByTypeIfModifiedRequest.newBuilder()
+                .setType(type).setKnownRegistryVersion(known.getRegistryVersion()).build();
+        ServiceSet response;
+        try {
+            response = (ServiceSet) syncCall(new CallGenerator() {
+                @Override
+                public RPCResponse executeCall(DIRServiceClient client, InetSocketAddress server)
+                        throws IOException {
+                    return client.xtreemfs_service_get_by_type_if_modified(server, authHeader, userCreds, request);
+                }
+            }, maxRetries);
+        } catch (PBRPCException ex) {
+            if (ex.getErrorType() != ErrorType.INVALID_PROC_ID) {
+                throw ex;
+            }
+            Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                    "DIR does not support conditional service queries, falling back to full queries");
+            getByTypeIfModifiedSupported = false;
+            return xtreemfs_service_get_by_type(server, authHeader, userCreds, type, maxRetries);
+        }
+        
+        if (!response.getNotModified()) {
+            return response;
+        }
+        
+        ServiceSet.Builder services = known.toBuilder();
+        advanceSecondsSinceLastUpdate(services, response.getTimestampS() - known.getTimestampS());
+        return services.setRegistryVersion(response.getRegistryVersion()).setTimestampS(response.getTimestampS())
+                .build();
+    }
+    
+    /**
+     * Waits until the services of the given type have changed since <code>known</code> was fetched, and
+     * returns the updated services. If nothing has changed within <code>timeoutMs</code>, <code>known</code> is
+     * returned with the "seconds_since_last_update" attributes advanced to the current time of the DIR.
+     * <p>
+     * A {@link PBRPCException} with {@link ErrorType#INVALID_PROC_ID} is thrown if the DIR does not support
+     * watches; the caller has to poll the DIR in this case.
+     * 
+     * @param known
+     *            the result of a previous call of this method or
+     *            {@link #xtreemfs_service_get_by_type(InetSocketAddress, Auth, UserCredentials, ServiceType)} for
+     *            the same type, or null
+     * @param batchDelayMs
+     *            time the DIR collects further changes after the first change
+     * @param timeoutMs
+     *            time after which the DIR responds if nothing has changed; has to be shorter than the request
+     *            timeout of the RPC client
+     */
+    public ServiceSet xtreemfs_service_watch(InetSocketAddress server, final Auth authHeader,
+            final UserCredentials userCreds, final ServiceType type, ServiceSet known, int batchDelayMs,
+            int timeoutMs) throws IOException, InterruptedException {
+        
+        final serviceWatchRequest request = serviceWatchRequest.newBuilder().setType(type)
+                .setKnownRegistryVersion(known == null ? 0 : known.getRegistryVersion())
+                .setBatchDelayMs(batchDelayMs).setTimeoutMs(timeoutMs).build();
+        ServiceChanges changes = (ServiceChanges) syncCall(new CallGenerator() {
+            @Override
+            public RPCResponse executeCall(DIRServiceClient client, InetSocketAddress server) throws IOException {
+                return client.xtreemfs_service_watch(server, authHeader, userCreds, request);
+            }
+        }, maxRetries);
+        
+        if (changes.getFull() || known == null) {
+            return ServiceSet.newBuilder().addAllServices(changes.getServicesList())
+                    .setRegistryVersion(changes.getRegistryVersion()).setTimestampS(changes.getTimestampS()).build();
+        }
+        
+        // apply the changes to the known services, ordered by UUID like on the DIR
+        ServiceSet.Builder unchanged = known.toBuilder();
+        advanceSecondsSinceLastUpdate(unchanged, changes.getTimestampS() - known.getTimestampS());
+        Map<String, Service> services = new TreeMap<String, Service>();
+        for (Service service : unchanged.getServicesList()) {
+            services.put(service.getUuid(), service);
+        }
+        for (String uuid : changes.getRemovedUuidsList()) {
+            services.remove(uuid);
+        }
+        for (Service service : changes.getServicesList()) {
+            services.put(service.getUuid(), service);
+        }
+        
+        return ServiceSet.newBuilder().addAllServices(services.values())
+                .setRegistryVersion(changes.getRegistryVersion()).setTimestampS(changes.getTimestampS()).build();
+    }
+    
+    /**
+     * Advances the "seconds_since_last_update" attributes of the services by the time elapsed on the DIR.
+     */
+    private static void advanceSecondsSinceLastUpdate(ServiceSet.Builder services, long elapsedS) {
+        for (Service.Builder service : services.getServicesBuilderList()) {
+            for (KeyValuePair.Builder kvp : service.getDataBuilder().getDataBuilderList()) {
+                if (kvp.getKey().equals(ServiceRegistryCache.SECONDS_SINCE_LAST_UPDATE)) {
+                    kvp.setValue(Long.toString(Long.parseLong(kvp.getValue()) + elapsedS));
+                }
+            }
+        }
+    }
+    
     public serviceRegisterResponse xtreemfs_service_register(InetSocketAddress server, final Auth authHeader,
             final UserCredentials userCreds, final Service service) throws IOException, InterruptedException {
         return xtreemfs_service_register(server, authHeader, userCreds, service, maxRetries);
@@ -375,6 +521,10 @@ public class DIRClient implements TimeServerClient {
                 case ERRNO:
                     throw ex;
                     
+                case INVALID_PROC_ID:
+                    // the DIR does not support the operation, which will not change after a failover
+                    throw ex;
+                    
                 default: {
                     lastException = ex;
                     if (numTries <= maxRetries) {
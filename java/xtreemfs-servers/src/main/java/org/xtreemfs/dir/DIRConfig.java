@@ -146,6 +146,13 @@ public class DIRConfig extends ServiceConfig {
         return (String)parameter.get(Parameter.SENDMAIL_BIN);
     }
     
+    /**
+     * @return true, if the database is replicated by the BabuDB replication plugin
+     */
+    public boolean isDatabaseReplicated() {
+        return readOptionalString("babudb.plugin.0", null) != null;
+    }
+    
     /**
      * @return the mirror DIRs
      */
@@ -39,16 +39,19 @@ import org.xtreemfs.dir.operations.DIROperation;
 import org.xtreemfs.dir.operations.DeleteAddressMappingOperation;
 import org.xtreemfs.dir.operations.DeregisterServiceOperation;
 import org.xtreemfs.dir.operations.GetAddressMappingOperation;
+import org.xtreemfs.dir.operations.GetAddressMappingsBulkOperation;
 import org.xtreemfs.dir.operations.GetConfigurationOperation;
 import org.xtreemfs.dir.operations.GetGlobalTimeOperation;
 import org.xtreemfs.dir.operations.GetServiceByNameOperation;
 import org.xtreemfs.dir.operations.GetServiceByUuidOperation;
+import org.xtreemfs.dir.operations.GetServicesByTypeIfModifiedOperation;
 import org.xtreemfs.dir.operations.GetServicesByTypeOperation;
 import org.xtreemfs.dir.operations.RegisterServiceOperation;
 import org.xtreemfs.dir.operations.ServiceOfflineOperation;
 import org.xtreemfs.dir.operations.SetAddressMappingOperation;
 import org.xtreemfs.dir.operations.SetConfigurationOperation;
 import org.xtreemfs.dir.operations.UpdateVivaldiClientOperation;
+import org.xtreemfs.dir.operations.WatchServicesOperation;
 import org.xtreemfs.foundation.CrashReporter;
 import org.xtreemfs.foundation.LifeCycleListener;
 import org.xtreemfs.foundation.LifeCycleThread;
@@ -123,6 +126,16 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
     
     private VivaldiClientMap vivaldiClientMap;
     
+    /**
+     * in-memory copy of the service registry, or null if the registry has to be read from the database
+     */
+    private volatile ServiceRegistryCache         serviceRegistry;
+    
+    /**
+     * pending watches for changes of the service registry, or null if the registry is not cached
+     */
+    private volatile ServiceWatchManager          serviceWatches;
+    
     public DIRRequestDispatcher(final DIRConfig config, final BabuDBConfig dbsConfig) throws IOException,
         BabuDBException {
         super("DIR RqDisp");
@@ -235,10 +248,18 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         
         //notify listener about further ServiceRecords which are already in the database on initialization
         try {
-            for (ServiceRecord sRec : this.getServices().getList()) {
+            ServiceRecords services = this.getServices();
+            for (ServiceRecord sRec : services.getList()) {
                 this.notifyServiceRegistred(sRec.getUuid(),sRec.getName() ,sRec.getType().toString(), "", "", 0, 0,
                         sRec.getLast_updated_s(), 0, 0, 0);
             }
+            
+            // Changes replicated from other DIRs do not pass the operations which update the cache, and
+            // requests to DIRs which are no master have to be redirected by the database.
+            if (!config.isDatabaseReplicated()) {
+                serviceRegistry = new ServiceRegistryCache(services.getList());
+                serviceWatches = new ServiceWatchManager(serviceRegistry);
+            }
         } catch (Exception ex) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this, ": %s",
             ex.getMessage());
@@ -320,6 +341,9 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         if (statusServer != null) {
             statusServer.shutdown();
         }
+        if (serviceWatches != null) {
+            serviceWatches.shutdown();
+        }
         server.shutdown();
         server.waitForShutdown();
         database.shutdown();
@@ -348,6 +372,9 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         op = new GetAddressMappingOperation(this);
         registry.put(op.getProcedureId(), op);
         
+        op = new GetAddressMappingsBulkOperation(this);
+        registry.put(op.getProcedureId(), op);
+        
         op = new SetAddressMappingOperation(this);
         registry.put(op.getProcedureId(), op);
         
@@ -366,6 +393,12 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         op = new GetServicesByTypeOperation(this);
         registry.put(op.getProcedureId(), op);
         
+        op = new GetServicesByTypeIfModifiedOperation(this);
+        registry.put(op.getProcedureId(), op);
+        
+        op = new WatchServicesOperation(this);
+        registry.put(op.getProcedureId(), op);
+        
         op = new GetServiceByNameOperation(this);
         registry.put(op.getProcedureId(), op);
         
@@ -382,6 +415,21 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         registry.put(op.getProcedureId(), op);
     }
     
+    /**
+     * Returns the in-memory copy of the service registry, or null if the registry has to be read from the
+     * database.
+     */
+    public ServiceRegistryCache getServiceRegistryCache() {
+        return serviceRegistry;
+    }
+    
+    /**
+     * Returns the pending watches for changes of the service registry, or null if watches are not supported.
+     */
+    public ServiceWatchManager getServiceWatchManager() {
+        return serviceWatches;
+    }
+    
     public Database getDirDatabase() throws BabuDBException {
         return database.getDatabaseManager().getDatabase(DB_NAME);
     }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.xtreemfs.dir.data.ServiceRecord;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceChanges;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+
+/**
+ * In-memory copy of the service registry (INDEX_ID_SERVREG), which is indexed by service type. The cache is
+ * loaded from the database once and is then updated by the operations which modify the registry, after their
+ * changes have been written to the database.
+ * <p>
+ * Each service type has a version, which is increased whenever a service of the type is registered, changed or
+ * deregistered; the version of {@link ServiceType#SERVICE_TYPE_MIXED} is increased on every change. The
+ * versions start at the time the cache was loaded, so that versions known by clients are not reused after the
+ * DIR has been restarted.
+ * <p>
+ * The most recent changes are kept in a log, so that callers which know an earlier version can be sent the
+ * changes since this version instead of all services.
+ */
+public class ServiceRegistryCache {
+
+    /**
+     * Is notified after services of a type have changed. The listener is not called while the cache is locked.
+     */
+    public interface ChangeListener {
+        public void servicesChanged(ServiceType type);
+    }
+
+    private static class Change {
+        final String      uuid;
+
+        final ServiceType type;
+
+        /** version of the type after the change */
+        final long        typeVersion;
+
+        /** version of all services after the change */
+        final long        mixedVersion;
+
+        Change(String uuid, ServiceType type, long typeVersion, long mixedVersion) {
+            this.uuid = uuid;
+            this.type = type;
+            this.typeVersion = typeVersion;
+            this.mixedVersion = mixedVersion;
+        }
+    }
+
+    public static final String                         SECONDS_SINCE_LAST_UPDATE = "seconds_since_last_update";
+
+    /** the maximum number of changes kept in the log */
+    public static final int                            MAX_LOGGED_CHANGES        = 16 * 1024;
+
+    /** all services by UUID, in the order of the database index */
+    private final Map<String, Service>                 services;
+
+    private final Map<ServiceType, Map<String, Service>> servicesByType;
+
+    private final Map<ServiceType, Long>               versions;
+
+    private final long                                 initialVersion;
+
+    private final Deque<Change>                        changes;
+
+    /**
+     * the versions up to which changes have been dropped from the log; changes since earlier versions are
+     * unknown
+     */
+    private final Map<ServiceType, Long>               truncatedVersions;
+
+    private volatile ChangeListener                    listener;
+
+    public ServiceRegistryCache(Iterable<ServiceRecord> records) {
+        services = new TreeMap<String, Service>();
+        servicesByType = new EnumMap<ServiceType, Map<String, Service>>(ServiceType.class);
+        versions = new EnumMap<ServiceType, Long>(ServiceType.class);
+        initialVersion = System.currentTimeMillis() * 1000;
+        changes = new ArrayDeque<Change>();
+        truncatedVersions = new EnumMap<ServiceType, Long>(ServiceType.class);
+
+        for (ServiceRecord record : records) {
+            put(record);
+        }
+
+        // callers cannot know any of the versions created while loading
+        changes.clear();
+        for (ServiceType type : ServiceType.values()) {
+            truncatedVersions.put(type, getVersion(type));
+        }
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds or replaces a service after it has been written to the database.
+     */
+    public void put(ServiceRecord record) {
+        // the attribute is computed for each request
+        record.getData().remove(SECONDS_SINCE_LAST_UPDATE);
+        Service service = record.getService();
+
+        ServiceType prevType = null;
+        synchronized (this) {
+            Service prev = services.put(service.getUuid(), service);
+            if (prev != null && prev.getType() != service.getType()) {
+                prevType = prev.getType();
+                getServicesOfType(prevType).remove(prev.getUuid());
+                increaseVersion(prevType, prev.getUuid());
+            }
+            getServicesOfType(service.getType()).put(service.getUuid(), service);
+            increaseVersion(service.getType(), service.getUuid());
+        }
+
+        if (prevType != null) {
+            notifyListener(prevType);
+        }
+        notifyListener(service.getType());
+    }
+
+    /**
+     * Removes a service after it has been deleted from the database.
+     */
+    public void remove(String uuid) {
+        Service prev;
+        synchronized (this) {
+            prev = services.remove(uuid);
+            if (prev != null) {
+                getServicesOfType(prev.getType()).remove(uuid);
+                increaseVersion(prev.getType(), uuid);
+            }
+        }
+
+        if (prev != null) {
+            notifyListener(prev.getType());
+        }
+    }
+
+    public synchronized Service get(String uuid) {
+        return services.get(uuid);
+    }
+
+    /**
+     * Returns the current version of the services of the given type.
+     */
+    public synchronized long getVersion(ServiceType type) {
+        Long version = versions.get(type);
+        return version == null ? initialVersion : version;
+    }
+
+    /**
+     * Returns all services of the given type, or all services if the type is
+     * {@link ServiceType#SERVICE_TYPE_MIXED}. The set contains the version of the services.
+     *
+     * @param nowS
+     *            the current time in seconds, used to compute the "seconds_since_last_update" attribute
+     */
+    public synchronized ServiceSet getServices(ServiceType type, long nowS) {
+        Map<String, Service> selected = type == ServiceType.SERVICE_TYPE_MIXED ? services : getServicesOfType(type);
+
+        ServiceSet.Builder set = ServiceSet.newBuilder();
+        for (Service service : selected.values()) {
+            set.addServices(withSecondsSinceLastUpdate(service, nowS));
+        }
+        set.setRegistryVersion(getVersion(type));
+        set.setTimestampS(nowS);
+        return set.build();
+    }
+
+    /**
+     * Returns the services of the given type which have changed since the given version.
+     * 
+     * @return the changes, which contain all services of the type if the changes since the version are not
+     *         known; or null if the services have not changed
+     */
+    public synchronized ServiceChanges getChanges(ServiceType type, long knownVersion, long nowS) {
+        long version = getVersion(type);
+        if (knownVersion == version) {
+            return null;
+        }
+
+        ServiceChanges.Builder result = ServiceChanges.newBuilder().setRegistryVersion(version).setTimestampS(nowS);
+
+        if (knownVersion > version || knownVersion < truncatedVersions.get(type)) {
+            result.setFull(true);
+            result.addAllServices(getServices(type, nowS).getServicesList());
+            return result.build();
+        }
+
+        // collect the services which have changed since the known version; the log is ordered by version
+        Set<String> changed = new TreeSet<String>();
+        Iterator<Change> iter = changes.descendingIterator();
+        while (iter.hasNext()) {
+            Change change = iter.next();
+            if (type == ServiceType.SERVICE_TYPE_MIXED) {
+                if (change.mixedVersion <= knownVersion) {
+                    break;
+                }
+            } else if (change.type != type) {
+                continue;
+            } else if (change.typeVersion <= knownVersion) {
+                break;
+            }
+            changed.add(change.uuid);
+        }
+
+        result.setFull(false);
+        for (String uuid : changed) {
+            Service service = services.get(uuid);
+            if (service != null && (type == ServiceType.SERVICE_TYPE_MIXED || service.getType() == type)) {
+                result.addServices(withSecondsSinceLastUpdate(service, nowS));
+            } else {
+                result.addRemovedUuids(uuid);
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * Returns all services with the given name.
+     */
+    public synchronized ServiceSet getServicesByName(String name, long nowS) {
+        ServiceSet.Builder set = ServiceSet.newBuilder();
+        for (Service service : services.values()) {
+            if (service.getName().equals(name)) {
+                set.addServices(withSecondsSinceLastUpdate(service, nowS));
+            }
+        }
+        return set.build();
+    }
+
+    public synchronized int size() {
+        return services.size();
+    }
+
+    static Service withSecondsSinceLastUpdate(Service service, long nowS) {
+        KeyValuePair kvp = KeyValuePair.newBuilder().setKey(SECONDS_SINCE_LAST_UPDATE)
+                .setValue(Long.toString(nowS - service.getLastUpdatedS())).build();
+        return service.toBuilder().setData(service.getData().toBuilder().addData(kvp)).build();
+    }
+
+    private Map<String, Service> getServicesOfType(ServiceType type) {
+        Map<String, Service> map = servicesByType.get(type);
+        if (map == null) {
+            map = new TreeMap<String, Service>();
+            servicesByType.put(type, map);
+        }
+        return map;
+    }
+
+    private void increaseVersion(ServiceType type, String uuid) {
+        long typeVersion = getVersion(type) + 1;
+        long mixedVersion = getVersion(ServiceType.SERVICE_TYPE_MIXED) + 1;
+        versions.put(type, typeVersion);
+        versions.put(ServiceType.SERVICE_TYPE_MIXED, mixedVersion);
+
+        changes.addLast(new Change(uuid, type, typeVersion, mixedVersion));
+        if (changes.size() > MAX_LOGGED_CHANGES) {
+            Change dropped = changes.removeFirst();
+            truncatedVersions.put(dropped.type, dropped.typeVersion);
+            truncatedVersions.put(ServiceType.SERVICE_TYPE_MIXED, dropped.mixedVersion);
+        }
+    }
+
+    private void notifyListener(ServiceType type) {
+        ChangeListener l = listener;
+        if (l != null) {
+            l.servicesChanged(type);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceChanges;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+
+/**
+ * Holds the pending xtreemfs_service_watch requests. A watch is answered as soon as services of the watched
+ * type have changed since the version known by the caller, or without changes after its timeout. Changes
+ * which occur within the batch delay of a watch after the first change are sent with the same response, so
+ * that frequent updates (e.g. heartbeats of many OSDs) do not cause a response for each update.
+ */
+public class ServiceWatchManager implements ServiceRegistryCache.ChangeListener {
+
+    /** the maximum number of pending watches; further watches are rejected */
+    public static final int            MAX_PENDING_WATCHES = 10 * 1000;
+
+    /** the maximum time a watch is held */
+    public static final int            MAX_TIMEOUT_MS      = 60 * 1000;
+
+    private static class Watch {
+        final DIRRequest  rq;
+
+        final ServiceType type;
+
+        final long        knownVersion;
+
+        final int         batchDelayMs;
+
+        TimerTask         timeoutTask;
+
+        TimerTask         flushTask;
+
+        Watch(DIRRequest rq, ServiceType type, long knownVersion, int batchDelayMs) {
+            this.rq = rq;
+            this.type = type;
+            this.knownVersion = knownVersion;
+            this.batchDelayMs = batchDelayMs;
+        }
+    }
+
+    private final ServiceRegistryCache cache;
+
+    private final List<Watch>          pending;
+
+    private final Timer                timer;
+
+    public ServiceWatchManager(ServiceRegistryCache cache) {
+        this.cache = cache;
+        this.pending = new ArrayList<Watch>();
+        this.timer = new Timer("DIR service watches", true);
+        cache.setChangeListener(this);
+    }
+
+    /**
+     * Answers the request immediately if the services have changed since the known version, or holds it
+     * until they change.
+     */
+    public synchronized void addWatch(DIRRequest rq, ServiceType type, long knownVersion, int batchDelayMs,
+            int timeoutMs) {
+
+        ServiceChanges changes = cache.getChanges(type, knownVersion, System.currentTimeMillis() / 1000l);
+        if (changes != null) {
+            rq.sendSuccess(changes);
+            return;
+        }
+
+        if (pending.size() >= MAX_PENDING_WATCHES) {
+            rq.sendError(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EAGAIN, "too many pending service watches");
+            return;
+        }
+
+        final Watch watch = new Watch(rq, type, knownVersion, Math.max(0, Math.min(batchDelayMs, MAX_TIMEOUT_MS)));
+        watch.timeoutTask = new TimerTask() {
+            @Override
+            public void run() {
+                respond(watch);
+            }
+        };
+        pending.add(watch);
+        timer.schedule(watch.timeoutTask, Math.max(0, Math.min(timeoutMs, MAX_TIMEOUT_MS)));
+    }
+
+    @Override
+    public synchronized void servicesChanged(ServiceType type) {
+        for (final Watch watch : pending) {
+            if (watch.flushTask != null
+                || (watch.type != type && watch.type != ServiceType.SERVICE_TYPE_MIXED)) {
+                continue;
+            }
+
+            watch.flushTask = new TimerTask() {
+                @Override
+                public void run() {
+                    respond(watch);
+                }
+            };
+            timer.schedule(watch.flushTask, watch.batchDelayMs);
+        }
+    }
+
+    public synchronized int getNumPendingWatches() {
+        return pending.size();
+    }
+
+    public synchronized void shutdown() {
+        timer.cancel();
+        pending.clear();
+    }
+
+    private synchronized void respond(Watch watch) {
+        if (!pending.remove(watch)) {
+            // already answered
+            return;
+        }
+        watch.timeoutTask.cancel();
+        if (watch.flushTask != null) {
+            watch.flushTask.cancel();
+        }
+
+        long now = System.currentTimeMillis() / 1000l;
+        ServiceChanges changes = cache.getChanges(watch.type, watch.knownVersion, now);
+        if (changes == null) {
+            changes = ServiceChanges.newBuilder().setRegistryVersion(watch.knownVersion).setFull(false)
+                    .setTimestampS(now).build();
+        }
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
+                    "answering service watch with %d changed and %d removed services",
+                    changes.getServicesCount(), changes.getRemovedUuidsCount());
+        }
+        watch.rq.sendSuccess(changes);
+    }
+}
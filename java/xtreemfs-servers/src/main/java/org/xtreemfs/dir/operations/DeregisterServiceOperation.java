@@ -13,6 +13,7 @@ import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.dir.DIRRequest;
 import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceRegistryCache;
 import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceDeregisterRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceConstants;
@@ -39,7 +40,7 @@ public class DeregisterServiceOperation extends DIROperation {
     
     @Override
     public void startRequest(DIRRequest rq) {
-        serviceDeregisterRequest request = (serviceDeregisterRequest) rq.getRequestMessage();
+        final serviceDeregisterRequest request = (serviceDeregisterRequest) rq.getRequestMessage();
         
         DatabaseInsertGroup ig = database.createInsertGroup();
         ig.addDelete(DIRRequestDispatcher.INDEX_ID_SERVREG, request.getUuid().getBytes());
@@ -47,6 +48,10 @@ public class DeregisterServiceOperation extends DIROperation {
             
             @Override
             Object execute(Object result, DIRRequest rq) throws Exception {
+                ServiceRegistryCache cache = master.getServiceRegistryCache();
+                if (cache != null) {
+                    cache.remove(request.getUuid());
+                }
                 return result;
             }
         });
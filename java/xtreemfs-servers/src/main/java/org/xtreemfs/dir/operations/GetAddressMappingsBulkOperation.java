@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir.operations;
+
+import java.util.List;
+
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.dir.DIRRequest;
+import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.data.AddressMappingRecords;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMappingSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.addressMappingGetBulkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceConstants;
+
+import com.google.protobuf.Message;
+
+/**
+ * Returns the address mappings of several UUIDs, which are looked up one after another.
+ */
+public class GetAddressMappingsBulkOperation extends DIROperation {
+
+    /** the maximum number of UUIDs that can be resolved with a single request */
+    public static final int MAX_UUIDS_PER_REQUEST = 1024;
+
+    private final Database  database;
+
+    public GetAddressMappingsBulkOperation(DIRRequestDispatcher master) throws BabuDBException {
+        super(master);
+        database = master.getDirDatabase();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return DIRServiceConstants.PROC_ID_XTREEMFS_ADDRESS_MAPPINGS_GET_BULK;
+    }
+
+    @Override
+    public void startRequest(DIRRequest rq) {
+        addressMappingGetBulkRequest request = (addressMappingGetBulkRequest) rq.getRequestMessage();
+
+        List<String> uuids = request.getUuidsList();
+        if (uuids.size() > MAX_UUIDS_PER_REQUEST) {
+            rq.sendError(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, "at most " + MAX_UUIDS_PER_REQUEST
+                + " UUIDs can be resolved with a single request");
+            return;
+        }
+        if (uuids.isEmpty()) {
+            requestFinished(AddressMappingSet.getDefaultInstance(), rq);
+            return;
+        }
+
+        lookup(uuids, 0, AddressMappingSet.newBuilder(), rq);
+    }
+
+    private void lookup(final List<String> uuids, final int index, final AddressMappingSet.Builder result,
+            DIRRequest rq) {
+
+        final boolean last = index == uuids.size() - 1;
+        database.lookup(DIRRequestDispatcher.INDEX_ID_ADDRMAPS, uuids.get(index).getBytes(), rq).registerListener(
+                new DBRequestListener<byte[], AddressMappingSet>(last) {
+
+                    @Override
+                    AddressMappingSet execute(byte[] data, DIRRequest rq) throws Exception {
+                        if (data != null) {
+                            result.addAllMappings(new AddressMappingRecords(ReusableBuffer.wrap(data))
+                                    .getAddressMappingSet().getMappingsList());
+                        }
+
+                        if (last) {
+                            return result.build();
+                        }
+                        lookup(uuids, index + 1, result, rq);
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    public boolean isAuthRequired() {
+        return false;
+    }
+
+    @Override
+    protected Message getRequestMessagePrototype() {
+        return addressMappingGetBulkRequest.getDefaultInstance();
+    }
+
+    @Override
+    void requestFinished(Object result, DIRRequest rq) {
+        rq.sendSuccess((AddressMappingSet) result);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir.operations;
+
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.dir.DIRRequest;
+import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceRegistryCache;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceGetByTypeIfModifiedRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceConstants;
+
+import com.google.protobuf.Message;
+
+/**
+ * Returns the services of a type like {@link GetServicesByTypeOperation}, unless the registry version known by
+ * the client is still current. In this case, an empty set which is marked as not modified is returned.
+ * <p>
+ * Without a {@link ServiceRegistryCache} (i.e. if the DIR database is replicated), the registry is not versioned
+ * and all services are returned.
+ */
+public class GetServicesByTypeIfModifiedOperation extends DIROperation {
+    
+    private final Database database;
+    
+    public GetServicesByTypeIfModifiedOperation(DIRRequestDispatcher master) throws BabuDBException {
+        super(master);
+        database = master.getDirDatabase();
+    }
+    
+    @Override
+    public int getProcedureId() {
+        return DIRServiceConstants.PROC_ID_XTREEMFS_SERVICE_GET_BY_TYPE_IF_MODIFIED;
+    }
+    
+    @Override
+    public void startRequest(DIRRequest rq) {
+        final serviceGetByTypeIfModifiedRequest request = (serviceGetByTypeIfModifiedRequest) rq
+                .getRequestMessage();
+        
+        ServiceRegistryCache cache = master.getServiceRegistryCache();
+        if (cache != null) {
+            long now = System.currentTimeMillis() / 1000l;
+            long version = cache.getVersion(request.getType());
+            if (request.getKnownRegistryVersion() == version) {
+                requestFinished(ServiceSet.newBuilder().setNotModified(true).setRegistryVersion(version)
+                        .setTimestampS(now).build(), rq);
+            } else {
+                requestFinished(cache.getServices(request.getType(), now), rq);
+            }
+            return;
+        }
+        
+        database.prefixLookup(DIRRequestDispatcher.INDEX_ID_SERVREG, new byte[0], rq).registerListener(
+                new DBRequestListener<ResultSet<byte[], byte[]>, ServiceSet>(true) {
+                    
+                    @Override
+                    ServiceSet execute(ResultSet<byte[], byte[]> result, DIRRequest rq) throws Exception {
+                        return GetServicesByTypeOperation.getServices(result, request.getType());
+                    }
+                });
+    }
+    
+    @Override
+    public boolean isAuthRequired() {
+        return false;
+    }
+    
+    @Override
+    protected Message getRequestMessagePrototype() {
+        return serviceGetByTypeIfModifiedRequest.getDefaultInstance();
+    }
+    
+    @Override
+    void requestFinished(Object result, DIRRequest rq) {
+        rq.sendSuccess((ServiceSet) result);
+    }
+    
+}
@@ -8,6 +8,7 @@
 
 package org.xtreemfs.dir.operations;
 
+import java.io.IOException;
 import java.util.Map.Entry;
 
 import org.xtreemfs.babudb.api.database.Database;
@@ -15,6 +16,7 @@ import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.dir.DIRRequest;
 import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceRegistryCache;
 import org.xtreemfs.dir.data.ServiceRecord;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
@@ -46,33 +48,45 @@ public class GetServicesByTypeOperation extends DIROperation {
     public void startRequest(DIRRequest rq) {
         final serviceGetByTypeRequest request = (serviceGetByTypeRequest) rq.getRequestMessage();
         
+        ServiceRegistryCache cache = master.getServiceRegistryCache();
+        if (cache != null) {
+            requestFinished(cache.getServices(request.getType(), System.currentTimeMillis() / 1000l), rq);
+            return;
+        }
+        
         database.prefixLookup(DIRRequestDispatcher.INDEX_ID_SERVREG, new byte[0], rq).registerListener(
                 new DBRequestListener<ResultSet<byte[], byte[]>, ServiceSet>(true) {
                     
                     @Override
                     ServiceSet execute(ResultSet<byte[], byte[]> result, DIRRequest rq) throws Exception {
-                        
-                        ServiceSet.Builder services = ServiceSet.newBuilder();
-                        long now = System.currentTimeMillis() / 1000l;
-                        
-                        while (result.hasNext()) {
-                            Entry<byte[], byte[]> e = result.next();
-                            ServiceRecord servEntry = new ServiceRecord(ReusableBuffer.wrap(e.getValue()));
-                            
-                            if ((request.getType() == ServiceType.SERVICE_TYPE_MIXED)
-                                    || (servEntry.getType() == request.getType())) {
-                                long secondsSinceLastUpdate = now - servEntry.getLast_updated_s();
-                                servEntry.getData().put("seconds_since_last_update",
-                                        Long.toString(secondsSinceLastUpdate));
-                                services.addServices(servEntry.getService());
-                            }
-                            
-                        }
-                        return services.build();
+                        return getServices(result, request.getType());
                     }
                 });
     }
     
+    /**
+     * Selects the services of the given type from the service registry index.
+     */
+    static ServiceSet getServices(ResultSet<byte[], byte[]> result, ServiceType type) throws IOException {
+        
+        ServiceSet.Builder services = ServiceSet.newBuilder();
+        long now = System.currentTimeMillis() / 1000l;
+        
+        while (result.hasNext()) {
+            Entry<byte[], byte[]> e = result.next();
+            ServiceRecord servEntry = new ServiceRecord(ReusableBuffer.wrap(e.getValue()));
+            
+            if ((type == ServiceType.SERVICE_TYPE_MIXED) || (servEntry.getType() == type)) {
+                long secondsSinceLastUpdate = now - servEntry.getLast_updated_s();
+                servEntry.getData().put(ServiceRegistryCache.SECONDS_SINCE_LAST_UPDATE,
+                        Long.toString(secondsSinceLastUpdate));
+                services.addServices(servEntry.getService());
+            }
+            
+        }
+        return services.build();
+    }
+    
     @Override
     public boolean isAuthRequired() {
         return false;
@@ -16,6 +16,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.common.HeartbeatThread;
 import org.xtreemfs.dir.DIRRequest;
 import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceRegistryCache;
 import org.xtreemfs.dir.data.ServiceRecord;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
@@ -134,6 +135,7 @@ public class RegisterServiceOperation extends DIROperation {
                         newRecData.remove(HeartbeatThread.DO_NOT_SET_LAST_UPDATED);
                         newRec.setData(newRecData);
 
+                        final ServiceRecord insertedRec = newRec;
                         byte[] newData = new byte[newRec.getSize()];
                         newRec.serialize(ReusableBuffer.wrap(newData));
                         database.singleInsert(DIRRequestDispatcher.INDEX_ID_SERVREG,
@@ -142,6 +144,10 @@ public class RegisterServiceOperation extends DIROperation {
 
                                     @Override
                                     Long execute(Object result, DIRRequest rq) throws Exception {
+                                        ServiceRegistryCache cache = master.getServiceRegistryCache();
+                                        if (cache != null) {
+                                            cache.put(insertedRec);
+                                        }
 
                                         return version;
                                     }
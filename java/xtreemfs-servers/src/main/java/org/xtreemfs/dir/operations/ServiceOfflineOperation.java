@@ -12,6 +12,7 @@ import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.dir.DIRRequest;
 import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceRegistryCache;
 import org.xtreemfs.dir.data.ServiceRecord;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
@@ -49,7 +50,7 @@ public class ServiceOfflineOperation extends DIROperation {
                     Object execute(byte[] result, DIRRequest rq) throws Exception {
                         if (result != null) {
                             ReusableBuffer buf = ReusableBuffer.wrap(result);
-                            ServiceRecord dbData = new ServiceRecord(buf);
+                            final ServiceRecord dbData = new ServiceRecord(buf);
                             
                             dbData.setLast_updated_s(0);
                             dbData.setVersion(dbData.getVersion() + 1);
@@ -61,6 +62,10 @@ public class ServiceOfflineOperation extends DIROperation {
                                 
                                 @Override
                                 Object execute(Object result, DIRRequest rq) throws Exception {
+                                    ServiceRegistryCache cache = master.getServiceRegistryCache();
+                                    if (cache != null) {
+                                        cache.put(dbData);
+                                    }
                                     return null;
                                 }
                             });
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir.operations;
+
+import org.xtreemfs.dir.DIRRequest;
+import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.dir.ServiceWatchManager;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceChanges;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceWatchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceConstants;
+
+import com.google.protobuf.Message;
+
+/**
+ * Holds the request until the services of the watched type have changed, see {@link ServiceWatchManager}.
+ */
+public class WatchServicesOperation extends DIROperation {
+    
+    public WatchServicesOperation(DIRRequestDispatcher master) {
+        super(master);
+    }
+    
+    @Override
+    public int getProcedureId() {
+        return DIRServiceConstants.PROC_ID_XTREEMFS_SERVICE_WATCH;
+    }
+    
+    @Override
+    public void startRequest(DIRRequest rq) {
+        serviceWatchRequest request = (serviceWatchRequest) rq.getRequestMessage();
+        
+        ServiceWatchManager watches = master.getServiceWatchManager();
+        if (watches == null) {
+            // the caller has to poll the DIR instead
+            rq.sendError(ErrorType.INVALID_PROC_ID, POSIXErrno.POSIX_ERROR_EINVAL,
+                    "service watches are not supported if the DIR database is replicated");
+            return;
+        }
+        
+        watches.addWatch(rq, request.getType(), request.getKnownRegistryVersion(), request.getBatchDelayMs(),
+                request.getTimeoutMs());
+    }
+    
+    @Override
+    public boolean isAuthRequired() {
+        return false;
+    }
+    
+    @Override
+    protected Message getRequestMessagePrototype() {
+        return serviceWatchRequest.getDefaultInstance();
+    }
+    
+    @Override
+    void requestFinished(Object result, DIRRequest rq) {
+        rq.sendSuccess((ServiceChanges) result);
+    }
+    
+}
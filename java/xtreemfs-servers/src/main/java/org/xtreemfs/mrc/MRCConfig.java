@@ -66,7 +66,14 @@ public class MRCConfig extends ServiceConfig {
             Parameter.MAX_CLIENT_Q,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
-            Parameter.FLEASE_LEASE_TIMEOUT_MS
+            Parameter.FLEASE_LEASE_TIMEOUT_MS,
+            Parameter.METADATA_LEASE_DURATION_S,
+            Parameter.METADATA_LEASE_LOG_SIZE,
+            Parameter.PROCESSING_THREADS,
+            Parameter.DENTRY_CACHE_SIZE,
+            Parameter.FILE_SIZE_UPDATE_FLUSH_INTERVAL,
+            Parameter.DEFER_QUOTA_SPACE_UPDATES,
+            Parameter.PACKED_METADATA_RECORDS
             };
     /*
      * @formatter:on
@@ -141,6 +148,34 @@ public class MRCConfig extends ServiceConfig {
         return (Integer) parameter.get(Parameter.CAPABILITY_TIMEOUT);
     }
 
+    public int getMetadataLeaseDurationS() {
+        return (Integer) parameter.get(Parameter.METADATA_LEASE_DURATION_S);
+    }
+
+    public int getMetadataLeaseLogSize() {
+        return (Integer) parameter.get(Parameter.METADATA_LEASE_LOG_SIZE);
+    }
+
+    public int getProcessingThreads() {
+        return (Integer) parameter.get(Parameter.PROCESSING_THREADS);
+    }
+
+    public int getDentryCacheSize() {
+        return (Integer) parameter.get(Parameter.DENTRY_CACHE_SIZE);
+    }
+
+    public int getFileSizeUpdateFlushInterval() {
+        return (Integer) parameter.get(Parameter.FILE_SIZE_UPDATE_FLUSH_INTERVAL);
+    }
+
+    public boolean isDeferQuotaSpaceUpdates() {
+        return (Boolean) parameter.get(Parameter.DEFER_QUOTA_SPACE_UPDATES);
+    }
+
+    public boolean isPackedMetadataRecords() {
+        return (Boolean) parameter.get(Parameter.PACKED_METADATA_RECORDS);
+    }
+
     /**
      * @return the renewTimedOutCaps
      */
@@ -22,8 +22,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.common.HeartbeatThread;
 import org.xtreemfs.common.HeartbeatThread.ServiceDataGenerator;
 import org.xtreemfs.common.auth.AuthenticationProvider;
@@ -68,8 +73,10 @@ import org.xtreemfs.mrc.metadata.StripingPolicy;
 import org.xtreemfs.mrc.osdselection.OSDStatusManager;
 import org.xtreemfs.mrc.quota.QuotaManager;
 import org.xtreemfs.mrc.quota.VoucherManager;
+import org.xtreemfs.mrc.stages.FileSizeUpdateFlushThread;
 import org.xtreemfs.mrc.stages.OnCloseReplicationThread;
 import org.xtreemfs.mrc.stages.ProcessingStage;
+import org.xtreemfs.mrc.stages.RecursiveDeletionManager;
 import org.xtreemfs.mrc.stages.XLocSetCoordinator;
 import org.xtreemfs.mrc.utils.Converter;
 import org.xtreemfs.mrc.utils.MRCHelper;
@@ -117,6 +124,9 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
     private final OnCloseReplicationThread onCloseReplicationThread;
 
+    /** writes deferred file sizes to the database; null if disabled */
+    private final FileSizeUpdateFlushThread fileSizeFlushThread;
+
     private final VolumeManager            volumeManager;
 
     private final FileAccessManager        fileAccessManager;
@@ -131,12 +141,22 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
     
     private final XLocSetCoordinator       xLocSetCoordinator;
 
+    private final RecursiveDeletionManager recursiveDeletionManager;
+
     private final QuotaManager          mrcQuotaManager;
 
     private final VoucherManager        mrcVoucherManager;
 
+    private final MetadataLeaseManager     metadataLeaseManager;
+
     private final long                     initTimeMS;
 
+    /**
+     * completes requests whose database updates have become durable; null if
+     * the database log is written asynchronously
+     */
+    private final ExecutorService          dbCompletionExecutor;
+
     public MRCRequestDispatcher(final MRCConfig config, final BabuDBConfig dbConfig) throws Exception {
         initTimeMS = System.currentTimeMillis();
         
@@ -218,10 +238,32 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
         procStage = new ProcessingStage(this);
 
+        recursiveDeletionManager = new RecursiveDeletionManager(this);
+
         mrcQuotaManager = new QuotaManager();
         mrcVoucherManager = new VoucherManager(mrcQuotaManager);
 
         volumeManager = new BabuDBVolumeManager(this, dbConfig);
+
+        metadataLeaseManager = new MetadataLeaseManager(initTimeMS, config.getMetadataLeaseLogSize(),
+                config.getMetadataLeaseDurationS(), volumeManager);
+
+        // with a synchronous database log, updates are acknowledged by the
+        // disk logger, which flushes all pending log entries at once and then
+        // notifies their listeners; responses are sent by a separate thread,
+        // so that the next flush is not delayed until all responses of the
+        // previous one have been sent
+        if (dbConfig.getSyncMode() != SyncMode.ASYNC) {
+            dbCompletionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DBCompletion");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else
+            dbCompletionExecutor = null;
         fileAccessManager = new FileAccessManager(volumeManager, policyContainer);
 
         statusListener = new ArrayList<MRCStatusListener>();
@@ -343,6 +385,16 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         onCloseReplicationThread = new OnCloseReplicationThread(this);
         onCloseReplicationThread.setLifeCycleListener(this);
 
+        if (config.getFileSizeUpdateFlushInterval() > 0) {
+            fileSizeFlushThread = new FileSizeUpdateFlushThread(this, config.getFileSizeUpdateFlushInterval());
+            fileSizeFlushThread.setLifeCycleListener(this);
+
+            // quota space usage may be written by the flush thread if
+            // configured, unless each update has to be replicated
+            mrcQuotaManager.setDeferPersistence(config.isDeferQuotaSpaceUpdates() && !replicated);
+        } else
+            fileSizeFlushThread = null;
+
         if (replicated) {
             mrcMonitor = new MRCStatusManager(this);
             mrcMonitor.setLifeCycleListener(this);
@@ -364,10 +416,18 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
         procStage.shutdown();
         
+        if (fileSizeFlushThread != null)
+            fileSizeFlushThread.shutdown();
+
         xLocSetCoordinator.shutdown();
 
+        recursiveDeletionManager.shutdown();
+
         volumeManager.shutdown();
 
+        if (dbCompletionExecutor != null)
+            dbCompletionExecutor.shutdown();
+
         if (statusServer != null) {
             statusServer.shutdown();
         }
@@ -420,6 +480,11 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
             onCloseReplicationThread.start();
             onCloseReplicationThread.waitForStartup();
 
+            if (fileSizeFlushThread != null) {
+                fileSizeFlushThread.start();
+                fileSizeFlushThread.waitForStartup();
+            }
+
             serverStage.start();
             serverStage.waitForStartup();
 
@@ -462,12 +527,24 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
         procStage.shutdown();
         procStage.waitForShutdown();
+
+        // write all deferred file sizes before shutting down the database
+        if (fileSizeFlushThread != null) {
+            fileSizeFlushThread.shutdown();
+            fileSizeFlushThread.waitForShutdown();
+            fileSizeFlushThread.flush(true);
+        }
         
         xLocSetCoordinator.shutdown();
         xLocSetCoordinator.waitForShutdown();
 
+        recursiveDeletionManager.shutdown();
+
         volumeManager.shutdown();
 
+        if (dbCompletionExecutor != null)
+            dbCompletionExecutor.shutdown();
+
         statusServer.shutdown();
     }
 
@@ -557,6 +634,11 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
         else {
             assert (request.getResponse() != null);
+
+            // record metadata changes for clients holding a metadata lease
+            metadataLeaseManager.requestExecuted(rpcRequest.getHeader().getRequestHeader().getProcId(),
+                    request.getRequestArgs());
+
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "sending response for request %d",
                                    request.getRPCRequest().getHeader().getCallId());
@@ -838,12 +920,32 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
         if (request.getError() == null)
             request.setError(ErrorType.INTERNAL_SERVER_ERROR, error.getMessage());
-        requestFinished(request);
+        completeRequest(request);
     }
 
     @Override
     public void finished(Object result, Object context) {
-        requestFinished((MRCRequest) context);
+        completeRequest((MRCRequest) context);
+    }
+
+    private void completeRequest(final MRCRequest request) {
+
+        if (dbCompletionExecutor == null) {
+            requestFinished(request);
+            return;
+        }
+
+        try {
+            dbCompletionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    requestFinished(request);
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+            // the MRC is shutting down
+            requestFinished(request);
+        }
     }
 
     public void addStatusListener(MRCStatusListener listener) {
@@ -942,6 +1044,10 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         return xLocSetCoordinator;
     }
 
+    public RecursiveDeletionManager getRecursiveDeletionManager() {
+        return recursiveDeletionManager;
+    }
+
     public ProcessingStage getProcStage() {
         return procStage;
     }
@@ -960,6 +1066,13 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         return mrcVoucherManager;
     }
 
+    /**
+     * @return the metadataLeaseManager
+     */
+    public MetadataLeaseManager getMetadataLeaseManager() {
+        return metadataLeaseManager;
+    }
+
     /**
      * The hashCode is based on the UUID and the system time when {@link MRCRequestDispatcher} was initialized. <br>
      * It will be unique between different MRCs and instances on the same MRC.
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.mrc.utils.MRCHelper.GlobalFileIdResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.fsetattrRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.linkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.mkdirRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.openRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.removexattrRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.renameRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.rmdirRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.setattrRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.setxattrRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.symlinkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_renew_metadata_leaseResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursiveRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceConstants;
+
+/**
+ * Keeps track of metadata changes on each volume, so that clients holding a
+ * metadata lease can selectively invalidate their caches when renewing the
+ * lease. Changes of path-addressed metadata are recorded by path; changes made
+ * through an open file (fsetattr, ftruncate, file size updates) are recorded
+ * by file ID.
+ * <p>
+ * For each volume, the most recent change of each path and file ID is
+ * recorded together with a sequence number, up to a bounded number of paths
+ * and file IDs. Clients that have fallen behind the oldest recorded change, or
+ * that have obtained their lease from a different MRC instance (as indicated
+ * by the epoch), are told to drop their entire cache.
+ */
+public class MetadataLeaseManager {
+
+    private static final class ChangeLog {
+
+        /**
+         * the sequence number of the most recent change of each path (String)
+         * or file ID (Long), in the order of the changes
+         */
+        private final LinkedHashMap<Object, Long> changes;
+
+        private final int                         maxSize;
+
+        /** sequence number of the most recent change; 0 if none */
+        private long                              lastSeqNo;
+
+        /** sequence number of the most recent change that has been discarded */
+        private long                              discardedSeqNo;
+
+        ChangeLog(int maxSize) {
+            this.changes = new LinkedHashMap<Object, Long>();
+            this.maxSize = maxSize;
+        }
+
+        synchronized void add(Object key) {
+            lastSeqNo++;
+
+            // move the key to the end
+            changes.remove(key);
+            changes.put(key, lastSeqNo);
+
+            if (changes.size() > maxSize) {
+                Iterator<Long> it = changes.values().iterator();
+                discardedSeqNo = it.next();
+                it.remove();
+            }
+        }
+
+        /**
+         * Adds all paths and file IDs changed after <code>seqNo</code> to the
+         * given sets. Returns the sequence number of the most recent change,
+         * or -1 if the changes are no longer available.
+         */
+        synchronized long getChangesSince(long seqNo, Set<String> paths, Set<Long> fileIds) {
+
+            if (seqNo > lastSeqNo || seqNo < discardedSeqNo)
+                return -1;
+
+            for (Map.Entry<Object, Long> change : changes.entrySet()) {
+                if (change.getValue() <= seqNo)
+                    continue;
+                if (change.getKey() instanceof String)
+                    paths.add((String) change.getKey());
+                else
+                    fileIds.add((Long) change.getKey());
+            }
+
+            return lastSeqNo;
+        }
+
+        synchronized long getLastSeqNo() {
+            return lastSeqNo;
+        }
+    }
+
+    private final Map<String, ChangeLog> logs;
+
+    private final long                   epoch;
+
+    private final int                    logSize;
+
+    private final int                    leaseDurationS;
+
+    private final VolumeManager          volumeManager;
+
+    /**
+     * Creates a new lease manager.
+     *
+     * @param epoch
+     *            an identifier that changes whenever the MRC is restarted,
+     *            e.g. the start time
+     * @param logSize
+     *            the number of paths and file IDs remembered per volume
+     * @param leaseDurationS
+     *            the lease duration in seconds handed out to clients
+     * @param volumeManager
+     *            the volume manager, which is needed to record changes by
+     *            file ID
+     */
+    public MetadataLeaseManager(long epoch, int logSize, int leaseDurationS, VolumeManager volumeManager) {
+        this.logs = new HashMap<String, ChangeLog>();
+        this.epoch = epoch;
+        this.logSize = Math.max(1, logSize);
+        this.leaseDurationS = leaseDurationS;
+        this.volumeManager = volumeManager;
+    }
+
+    /**
+     * Records that the metadata of the given path has been changed.
+     *
+     * @param volumeName
+     *            the name of the volume
+     * @param path
+     *            the path, relative to the volume root
+     */
+    public void recordChange(String volumeName, String path) {
+        getLog(volumeName).add(normalize(path));
+    }
+
+    /**
+     * Records that the metadata of the file with the given ID has been
+     * changed.
+     *
+     * @param volumeName
+     *            the name of the volume
+     * @param fileId
+     *            the file ID, local to the volume
+     */
+    public void recordChange(String volumeName, long fileId) {
+        getLog(volumeName).add(fileId);
+    }
+
+    /**
+     * Records the paths or files modified by a successfully executed request,
+     * if the request modifies metadata.
+     *
+     * @param procId
+     *            the procedure ID of the request
+     * @param args
+     *            the request arguments
+     */
+    public void requestExecuted(int procId, Object args) {
+
+        switch (procId) {
+
+        case MRCServiceConstants.PROC_ID_OPEN: {
+            openRequest rq = (openRequest) args;
+            final int mask = SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                    | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber();
+            if ((rq.getFlags() & mask) != 0)
+                recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_MKDIR: {
+            mkdirRequest rq = (mkdirRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_SYMLINK: {
+            symlinkRequest rq = (symlinkRequest) args;
+            recordChange(rq.getVolumeName(), rq.getLinkPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_LINK: {
+            linkRequest rq = (linkRequest) args;
+            recordChange(rq.getVolumeName(), rq.getTargetPath());
+            recordChange(rq.getVolumeName(), rq.getLinkPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_UNLINK: {
+            unlinkRequest rq = (unlinkRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_RMDIR: {
+            rmdirRequest rq = (rmdirRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_XTREEMFS_RMDIR_RECURSIVE: {
+            // the subtree is deleted asynchronously once the request has been
+            // accepted; recording its root invalidates all cached entries in it
+            xtreemfs_rmdir_recursiveRequest rq = (xtreemfs_rmdir_recursiveRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_RENAME: {
+            renameRequest rq = (renameRequest) args;
+            recordChange(rq.getVolumeName(), rq.getSourcePath());
+            recordChange(rq.getVolumeName(), rq.getTargetPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_SETATTR: {
+            setattrRequest rq = (setattrRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_SETXATTR: {
+            setxattrRequest rq = (setxattrRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_REMOVEXATTR: {
+            removexattrRequest rq = (removexattrRequest) args;
+            recordChange(rq.getVolumeName(), rq.getPath());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_FSETATTR: {
+            fsetattrRequest rq = (fsetattrRequest) args;
+            recordChange(rq.getCap());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_FTRUNCATE: {
+            recordChange((XCap) args);
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_XTREEMFS_UPDATE_FILE_SIZE: {
+            xtreemfs_update_file_sizeRequest rq = (xtreemfs_update_file_sizeRequest) args;
+            recordChange(rq.getXcap());
+            break;
+        }
+        case MRCServiceConstants.PROC_ID_XTREEMFS_UPDATE_FILE_SIZES: {
+            xtreemfs_update_file_sizesRequest rq = (xtreemfs_update_file_sizesRequest) args;
+            for (xtreemfs_update_file_sizeRequest update : rq.getUpdatesList())
+                recordChange(update.getXcap());
+            break;
+        }
+        default:
+            // request does not modify metadata
+        }
+    }
+
+    /**
+     * Records a change of the file the capability has been issued for.
+     */
+    private void recordChange(XCap cap) {
+        try {
+            GlobalFileIdResolver idRes = new GlobalFileIdResolver(cap.getFileId());
+            String volumeName = getVolumeName(idRes.getVolumeId());
+            if (volumeName != null)
+                recordChange(volumeName, idRes.getLocalFileId());
+        } catch (Exception exc) {
+            // the request has been executed, so the file ID is valid unless
+            // the volume has been deleted in the meantime
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
+                "could not record change of file %s: %s", cap.getFileId(), exc.getMessage());
+        }
+    }
+
+    /**
+     * Returns the name of the volume with the given ID.
+     */
+    protected String getVolumeName(String volumeId) throws Exception {
+        return volumeManager.getStorageManager(volumeId).getVolumeInfo().getName();
+    }
+
+    /**
+     * Renews a client's metadata lease on a volume.
+     *
+     * @param volumeName
+     *            the name of the volume
+     * @param clientEpoch
+     *            the lease epoch known to the client
+     * @param lastSeenChange
+     *            the sequence number of the last change known to the client
+     * @return the renewed lease, including all paths and file IDs modified
+     *         since <code>lastSeenChange</code>
+     */
+    public xtreemfs_renew_metadata_leaseResponse renewLease(String volumeName, long clientEpoch,
+            long lastSeenChange) {
+
+        ChangeLog log = getLog(volumeName);
+        Set<String> paths = new LinkedHashSet<String>();
+        Set<Long> fileIds = new LinkedHashSet<Long>();
+
+        long current = clientEpoch == epoch ? log.getChangesSince(lastSeenChange, paths, fileIds) : -1;
+        boolean invalidateAll = current == -1;
+        if (invalidateAll)
+            current = log.getLastSeqNo();
+
+        xtreemfs_renew_metadata_leaseResponse.Builder resp = xtreemfs_renew_metadata_leaseResponse.newBuilder()
+                .setLeaseEpoch(epoch).setCurrentChange(current).setLeaseDurationS(leaseDurationS)
+                .setInvalidateAll(invalidateAll);
+        for (String path : paths)
+            resp.addInvalidatedPaths(path);
+        for (Long fileId : fileIds)
+            resp.addInvalidatedFileIds(fileId);
+
+        return resp.build();
+    }
+
+    /**
+     * Discards all recorded changes of a volume, e.g. after the volume has
+     * been deleted.
+     *
+     * @param volumeName
+     *            the name of the volume
+     */
+    public void volumeDeleted(String volumeName) {
+        synchronized (logs) {
+            logs.remove(volumeName);
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getLeaseDurationS() {
+        return leaseDurationS;
+    }
+
+    private ChangeLog getLog(String volumeName) {
+        synchronized (logs) {
+            ChangeLog log = logs.get(volumeName);
+            if (log == null) {
+                log = new ChangeLog(logSize);
+                logs.put(volumeName, log);
+            }
+            return log;
+        }
+    }
+
+    private static String normalize(String path) {
+
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/')
+            start++;
+        while (end > start && path.charAt(end - 1) == '/')
+            end--;
+
+        return "/" + path.substring(start, end);
+    }
+
+}
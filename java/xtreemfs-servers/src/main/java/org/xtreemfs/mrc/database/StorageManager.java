@@ -45,6 +45,25 @@ public interface StorageManager {
      */
     public static final String SYS_ATTR_KEY_PREFIX = "xtreemfs.";
     
+    /**
+     * record format in which the FC and RC metadata of each file are stored
+     * in separate records
+     */
+    public static final byte   RECORD_FORMAT_SEPARATE = 0;
+    
+    /**
+     * record format in which metadata is written in packed records, while
+     * existing records may still be stored separately; indicates an
+     * incomplete conversion
+     */
+    public static final byte   RECORD_FORMAT_PACKING  = 1;
+    
+    /**
+     * record format in which the FC and RC metadata of each file are stored in
+     * a single packed record
+     */
+    public static final byte   RECORD_FORMAT_PACKED   = 2;
+    
     // file ID counter operations
     
     public long getNextFileId() throws DatabaseException;
@@ -68,6 +87,45 @@ public interface StorageManager {
     
     public void dumpDB(BufferedWriter xmlWriter) throws DatabaseException, IOException;
     
+    /**
+     * Returns the number of indices in which the records of the volume are
+     * stored.
+     */
+    public int getNumIndices();
+    
+    /**
+     * Returns all records of an index as raw key-value pairs, in key order.
+     * This is used for binary dumps, which do not depend on the structure of
+     * the records.
+     * 
+     * @param index
+     *            the index, between 0 and {@link #getNumIndices()} - 1
+     * @return an iterator over all records, each of which is represented by
+     *         an array containing the key and the value
+     * @throws DatabaseException
+     *             if an error occurs
+     */
+    public DatabaseResultSet<byte[][]> getRecords(int index) throws DatabaseException;
+    
+    /**
+     * Adds a raw record that has been retrieved from a binary dump to an
+     * update.
+     * 
+     * @param index
+     *            the index
+     * @param key
+     *            the key of the record
+     * @param value
+     *            the value of the record; <code>null</code> deletes the
+     *            record
+     * @param update
+     *            the update
+     * @throws DatabaseException
+     *             if an error occurs
+     */
+    public void restoreRecord(int index, byte[] key, byte[] value, AtomicDBUpdate update)
+        throws DatabaseException;
+    
     // handling volumes
     
     public VolumeInfo getVolumeInfo();
@@ -114,6 +172,87 @@ public interface StorageManager {
     
     public void setMetadata(FileMetadata metadata, byte type, AtomicDBUpdate update) throws DatabaseException;
     
+    /**
+     * Records a new size of a file without writing it to the database. The
+     * size is reflected by all metadata subsequently retrieved from the storage
+     * manager, and it is written to the database with the next invocation of
+     * {@link #flushFileSizes(AtomicDBUpdate)}. Only sizes that refer to the
+     * file's current truncate epoch and exceed its current size can be
+     * deferred.
+     * 
+     * @param file
+     *            the current metadata of the file
+     * @param newSize
+     *            the new file size
+     * @param time
+     *            the new change and modification time
+     * @return <code>true</code>, if the size has been recorded;
+     *         <code>false</code>, if it has to be written to the database
+     *         directly (e.g. because deferred updates are disabled)
+     * @throws DatabaseException
+     */
+    public boolean setFileSizeDeferred(FileMetadata file, long newSize, int time) throws DatabaseException;
+    
+    /**
+     * Adds all deferred file sizes, together with the resulting change of the
+     * volume size, to the given update.
+     * 
+     * @param update
+     *            the update
+     * @return the number of records added to the update
+     * @throws DatabaseException
+     */
+    public int flushFileSizes(AtomicDBUpdate update) throws DatabaseException;
+    
+    /**
+     * Checks whether any deferred file sizes have not yet been flushed.
+     */
+    public boolean hasDeferredFileSizes();
+    
+    /**
+     * Checks whether a deferred size of the given file has not yet been
+     * flushed.
+     * 
+     * @param fileId
+     *            the file ID
+     */
+    public boolean hasDeferredFileSize(long fileId);
+    
+    /**
+     * Returns the format in which file metadata records are stored.
+     * 
+     * @return one of {@link #RECORD_FORMAT_SEPARATE},
+     *         {@link #RECORD_FORMAT_PACKING} and {@link #RECORD_FORMAT_PACKED}
+     */
+    public byte getRecordFormat();
+    
+    /**
+     * Sets the format in which file metadata records are written. Records are
+     * written in the new format as soon as this method returns; existing
+     * records have to be converted by rewriting them with
+     * {@link #setMetadata(FileMetadata, byte, AtomicDBUpdate)} (type -1).
+     * Records in either format can always be read. Packed records cannot be
+     * converted back, except by means of a database dump.
+     * 
+     * @param format
+     *            the new record format
+     * @param update
+     *            the update
+     * @throws DatabaseException
+     *             if the format would be changed back to separate records
+     */
+    public void setRecordFormat(byte format, AtomicDBUpdate update) throws DatabaseException;
+    
+    /**
+     * Reloads the format in which file metadata records are written from the
+     * database, e.g. after raw records have been restored by means of
+     * {@link #restoreRecord(int, byte[], byte[], AtomicDBUpdate)}.
+     * 
+     * @throws DatabaseException
+     *             if an error occurs
+     */
+    public void reloadRecordFormat() throws DatabaseException;
+    
     public void setDefaultStripingPolicy(long fileId, org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy defaultSp,
         AtomicDBUpdate update) throws DatabaseException;
 
@@ -201,6 +340,25 @@ public interface StorageManager {
     
     public DatabaseResultSet<FileMetadata> getChildren(long parentId, int seen, int num) throws DatabaseException;
     
+    /**
+     * Returns the children of a directory that follow a given child in the
+     * directory's sort order. Unlike {@link #getChildren(long, int, int)}, this
+     * does not require skipping the children returned before, so that large
+     * directories can be listed in chunks in linear time.
+     * 
+     * @param parentId
+     *            the ID of the directory
+     * @param lastChildName
+     *            the name of the last child returned before, or
+     *            <code>null</code> to start with the first child
+     * @param num
+     *            the maximum number of children to return
+     * @return the children
+     * @throws DatabaseException
+     */
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String lastChildName, int num)
+        throws DatabaseException;
+    
     // handling snapshots
     
     public void createSnapshot(String snapName, long parentId, String dirName, boolean recursive)
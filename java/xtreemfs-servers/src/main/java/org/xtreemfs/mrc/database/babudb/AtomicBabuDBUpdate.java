@@ -8,6 +8,12 @@
 
 package org.xtreemfs.mrc.database.babudb;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
@@ -25,18 +31,35 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
     
     private Object                          context;
     
+    private DentryCache                     dentryCache;
+    
+    /** keys of all modified file index entries, if a cache is used */
+    private List<byte[]>                    fileKeys;
+    
+    /** values of all modified volume index entries */
+    private Map<ByteBuffer, byte[]>         volumeValues;
+    
     // private List<Object[]> updates;
     //    
     // private String dbName;
     
     public AtomicBabuDBUpdate(Database database, DatabaseRequestListener<Object> listener, Object context)
         throws BabuDBException {
+        this(database, listener, context, null);
+    }
+    
+    public AtomicBabuDBUpdate(Database database, DatabaseRequestListener<Object> listener, Object context,
+        DentryCache dentryCache) throws BabuDBException {
         
         ig = database.createInsertGroup();
         
         this.database = database;
         this.listener = listener;
         this.context = context;
+        this.dentryCache = dentryCache;
+        
+        if (dentryCache != null)
+            fileKeys = new LinkedList<byte[]>();
         
         // updates = new LinkedList<Object[]>();
         // this.dbName = dbName;
@@ -46,6 +69,37 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
     public void addUpdate(Object... update) {
         ig.addInsert((Integer) update[0], (byte[]) update[1], (byte[]) update[2]);
         // updates.add(update);
+        
+        // invalidate cached records right away, so that they are no longer
+        // returned while the update is pending
+        if (dentryCache != null && (Integer) update[0] == BabuDBStorageManager.FILE_INDEX) {
+            byte[] key = (byte[]) update[1];
+            fileKeys.add(key);
+            invalidate(key);
+        }
+        
+        // remember modified volume-wide values, so that multiple
+        // modifications within the same update are accumulated
+        if ((Integer) update[0] == BabuDBStorageManager.VOLUME_INDEX) {
+            if (volumeValues == null)
+                volumeValues = new HashMap<ByteBuffer, byte[]>();
+            volumeValues.put(ByteBuffer.wrap((byte[]) update[1]), (byte[]) update[2]);
+        }
+    }
+    
+    /**
+     * Checks whether a volume index entry has been modified by this update.
+     */
+    boolean hasVolumeValue(byte[] key) {
+        return volumeValues != null && volumeValues.containsKey(ByteBuffer.wrap(key));
+    }
+    
+    /**
+     * Returns the value that has been assigned to a volume index entry by
+     * this update.
+     */
+    byte[] getVolumeValue(byte[] key) {
+        return volumeValues.get(ByteBuffer.wrap(key));
     }
     
     @Override
@@ -54,16 +108,57 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
             
             // checkDBConsistency();
             
-            if (listener != null) {
-                database.insert(ig, context).registerListener(listener);
-            } else
-                database.insert(ig, context).get();
+            if (dentryCache == null || fileKeys.isEmpty()) {
+                
+                if (listener != null) {
+                    database.insert(ig, context).registerListener(listener);
+                } else
+                    database.insert(ig, context).get();
+                
+            } else {
+                
+                // invalidate the cached records again once the update has
+                // been applied, in case they have been reloaded in the
+                // meantime
+                if (listener != null) {
+                    database.insert(ig, context).registerListener(new DatabaseRequestListener<Object>() {
+                        
+                        @Override
+                        public void finished(Object result, Object context) {
+                            invalidateAll();
+                            listener.finished(result, context);
+                        }
+                        
+                        @Override
+                        public void failed(BabuDBException error, Object context) {
+                            invalidateAll();
+                            listener.failed(error, context);
+                        }
+                    });
+                } else {
+                    try {
+                        database.insert(ig, context).get();
+                    } finally {
+                        invalidateAll();
+                    }
+                }
+            }
             
         } catch (Exception exc) {
             throw new DatabaseException(exc);
         }
     }
     
+    private void invalidateAll() {
+        for (byte[] key : fileKeys)
+            invalidate(key);
+    }
+    
+    private void invalidate(byte[] key) {
+        // keys consist of the parent ID, the file name and the record type
+        dentryCache.invalidate(ByteBuffer.wrap(key).getLong(), new String(key, 8, key.length - 9));
+    }
+    
     public String toString() {
         return ig.toString();
     }
@@ -19,6 +19,7 @@ import org.xtreemfs.babudb.api.database.DatabaseRO;
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.common.quota.QuotaConstants;
+import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DBAccessResultListener;
 import org.xtreemfs.mrc.database.DatabaseException;
@@ -31,6 +32,7 @@ import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.ACLIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.FileVoucherClientInfoIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.OwnerType;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.QuotaInfo;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.RecordIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.XAttrIterator;
 import org.xtreemfs.mrc.metadata.ACLEntry;
 import org.xtreemfs.mrc.metadata.BufferBackedACLEntry;
@@ -190,6 +192,18 @@ public class BabuDBSnapshotStorageManager implements StorageManager {
 
     }
 
+    @Override
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String lastChildName, int num)
+        throws DatabaseException {
+
+        try {
+            return BabuDBStorageHelper.getChildren(database, parentId, lastChildName, num);
+        } catch (Exception exc) {
+            throw new DatabaseException(exc);
+        }
+
+    }
+
     @Override
     public StripingPolicy getDefaultStripingPolicy(long fileId) throws DatabaseException {
 
@@ -709,6 +723,26 @@ public class BabuDBSnapshotStorageManager implements StorageManager {
         DBAdminHelper.dumpVolume(xmlWriter, this);
     }
 
+    @Override
+    public int getNumIndices() {
+        return ALL_INDICES.length;
+    }
+
+    @Override
+    public DatabaseResultSet<byte[][]> getRecords(int index) throws DatabaseException {
+        try {
+            return new RecordIterator(database.prefixLookup(index, new byte[0], null).get());
+        } catch (BabuDBException exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
+    @Override
+    public void restoreRecord(int index, byte[] key, byte[] value, AtomicDBUpdate update)
+            throws DatabaseException {
+        throwException();
+    }
+
     @Override
     public String[] getAllSnapshots() throws DatabaseException {
         throwException();
@@ -827,6 +861,49 @@ public class BabuDBSnapshotStorageManager implements StorageManager {
         throwException();
     }
 
+    @Override
+    public boolean setFileSizeDeferred(FileMetadata file, long newSize, int time) throws DatabaseException {
+        throwException();
+        return false;
+    }
+
+    @Override
+    public int flushFileSizes(AtomicDBUpdate update) throws DatabaseException {
+        // snapshots are read-only and thus never have pending file sizes
+        return 0;
+    }
+
+    @Override
+    public boolean hasDeferredFileSizes() {
+        return false;
+    }
+
+    @Override
+    public boolean hasDeferredFileSize(long fileId) {
+        return false;
+    }
+
+    @Override
+    public byte getRecordFormat() {
+        try {
+            byte[] format = database.lookup(VOLUME_INDEX, BabuDBStorageManager.RECORD_FORMAT_KEY, null).get();
+            return format == null ? RECORD_FORMAT_SEPARATE : format[0];
+        } catch (BabuDBException exc) {
+            Logging.logError(Logging.LEVEL_ERROR, this, exc);
+            return RECORD_FORMAT_SEPARATE;
+        }
+    }
+
+    @Override
+    public void setRecordFormat(byte format, AtomicDBUpdate update) throws DatabaseException {
+        throwException();
+    }
+
+    @Override
+    public void reloadRecordFormat() throws DatabaseException {
+        // the record format is always read from the snapshot
+    }
+
     @Override
     public void setXAttr(long fileId, String uid, String key, byte[] value, AtomicDBUpdate update)
             throws DatabaseException {
@@ -67,6 +67,27 @@ public class BabuDBStorageHelper {
             remaining = num;
         }
         
+        public ChildrenIterator(DatabaseRO database, ResultSet<byte[], byte[]> it, String skipFileName, int num) {
+            
+            this.database = database;
+            this.it = it;
+            
+            this.keyBufs = new byte[BufferBackedFileMetadata.NUM_BUFFERS][];
+            this.valBufs = new byte[BufferBackedFileMetadata.NUM_BUFFERS][];
+            
+            // skip all entries of the given file; the first entry of the
+            // following file is retained as the next entry
+            while (it.hasNext()) {
+                Entry<byte[], byte[]> entry = it.next();
+                if (!skipFileName.equals(new String(entry.getKey(), 8, entry.getKey().length - 9))) {
+                    next = entry;
+                    break;
+                }
+            }
+            
+            remaining = num;
+        }
+        
         @Override
         public boolean hasNext() {
             return (next != null || it.hasNext()) && remaining > 0;
@@ -91,6 +112,15 @@ public class BabuDBStorageHelper {
                 
                 keyBufs[currType] = next.getKey();
                 valBufs[currType] = next.getValue();
+                
+                // a packed record contains the FC metadata as well
+                if (currType == FileMetadata.RC_METADATA && BufferBackedFileMetadata.isPackedRecord(next.getValue())) {
+                    byte[][] unpacked = BufferBackedFileMetadata.unpack(next.getValue());
+                    keyBufs[FileMetadata.FC_METADATA] = createFCKey(next.getKey());
+                    valBufs[FileMetadata.FC_METADATA] = unpacked[FileMetadata.FC_METADATA];
+                    valBufs[FileMetadata.RC_METADATA] = unpacked[FileMetadata.RC_METADATA];
+                }
+                
                 next = null;
                 
                 prevFileName = currFileName;
@@ -148,6 +178,36 @@ public class BabuDBStorageHelper {
         
     }
     
+    static class RecordIterator implements DatabaseResultSet<byte[][]> {
+        
+        private final ResultSet<byte[], byte[]> it;
+        
+        public RecordIterator(ResultSet<byte[], byte[]> it) {
+            this.it = it;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+        
+        @Override
+        public byte[][] next() {
+            Entry<byte[], byte[]> next = it.next();
+            return new byte[][] { next.getKey(), next.getValue() };
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void destroy() {
+            it.free();
+        }
+    }
+    
     static class XAttrIterator implements DatabaseResultSet<XAttr> {
         
         private final ResultSet<byte[], byte[]> it;
@@ -706,6 +766,21 @@ public class BabuDBStorageHelper {
     
     public static BufferBackedFileMetadata getMetadata(DatabaseRO database, long parentId, String fileName)
         throws BabuDBException {
+        return getMetadata(database, parentId, fileName, null);
+    }
+    
+    public static BufferBackedFileMetadata getMetadata(DatabaseRO database, long parentId, String fileName,
+        DentryCache cache) throws BabuDBException {
+        
+        if (cache != null) {
+            BufferBackedFileMetadata cached = cache.get(parentId, fileName);
+            if (cached != null)
+                return cached;
+        }
+        
+        // the version has to be obtained before reading the database, so as
+        // to detect concurrent modifications
+        long cacheVersion = cache == null ? 0 : cache.getVersion();
         
         byte[] rcKey = BabuDBStorageHelper.createFileKey(parentId, fileName, FileMetadata.RC_METADATA);
         byte[] rcValue = database.lookup(BabuDBStorageManager.FILE_INDEX, rcKey, null).get();
@@ -717,11 +792,25 @@ public class BabuDBStorageHelper {
                 return resolveLink(database, rcValue, fileName);
             
             byte[] fcKey = BabuDBStorageHelper.createFileKey(parentId, fileName, FileMetadata.FC_METADATA);
-            byte[] fcValue = database.lookup(BabuDBStorageManager.FILE_INDEX, fcKey, null).get();
+            byte[] fcValue;
+            
+            // a packed record contains the FC metadata as well, so that no
+            // further lookup is necessary
+            if (BufferBackedFileMetadata.isPackedRecord(rcValue)) {
+                byte[][] unpacked = BufferBackedFileMetadata.unpack(rcValue);
+                fcValue = unpacked[FileMetadata.FC_METADATA];
+                rcValue = unpacked[FileMetadata.RC_METADATA];
+            } else
+                fcValue = database.lookup(BabuDBStorageManager.FILE_INDEX, fcKey, null).get();
             
             byte[][] keyBufs = new byte[][] { fcKey, rcKey };
             byte[][] valBufs = new byte[][] { fcValue, rcValue };
             
+            // hard links are not cached, as their metadata is stored in the
+            // file ID index
+            if (cache != null)
+                cache.put(parentId, fileName, keyBufs, valBufs, cacheVersion);
+            
             return new BufferBackedFileMetadata(keyBufs, valBufs, BabuDBStorageManager.FILE_INDEX);
         }
 
@@ -739,7 +828,21 @@ public class BabuDBStorageHelper {
         if (value == null)
             return -1;
         
-        return ByteBuffer.wrap(value).getLong(1);
+        int rcOffset = BufferBackedFileMetadata.isPackedRecord(value) ? BufferBackedFileMetadata
+                .getPackedRCOffset(value) : 0;
+        
+        return ByteBuffer.wrap(value).getLong(rcOffset + 1);
+    }
+    
+    /**
+     * Derives the key of the FC metadata of a file from the key of its RC
+     * metadata.
+     */
+    public static byte[] createFCKey(byte[] rcKey) {
+        byte[] fcKey = new byte[rcKey.length];
+        System.arraycopy(rcKey, 0, fcKey, 0, rcKey.length - 1);
+        fcKey[fcKey.length - 1] = FileMetadata.FC_METADATA;
+        return fcKey;
     }
     
     public static byte getType(byte[] key, int index) {
@@ -810,6 +913,22 @@ public class BabuDBStorageHelper {
         return new ChildrenIterator(database, it, from, num);
     }
     
+    public static ChildrenIterator getChildren(DatabaseRO database, long parentId, String lastChildName, int num)
+        throws BabuDBException {
+        
+        if (lastChildName == null)
+            return getChildren(database, parentId, 0, num);
+        
+        // start the lookup at the last child, so that none of the children
+        // preceding it have to be read
+        byte[] from = BabuDBStorageHelper.createFileKey(parentId, lastChildName, (byte) -1);
+        byte[] to = BabuDBStorageHelper.createFilePrefixKey(parentId + 1);
+        ResultSet<byte[], byte[]> it = database.rangeLookup(BabuDBStorageManager.FILE_INDEX, from, to, null)
+                .get();
+        
+        return new ChildrenIterator(database, it, lastChildName, num);
+    }
+    
     public static void getNestedFiles(List<FileMetadata> files, Database database, long dirId,
         boolean recursive) throws BabuDBException {
         
@@ -32,6 +32,7 @@ import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DBAccessResultListener;
 import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
 import org.xtreemfs.mrc.database.DatabaseResultSet;
 import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeChangeListener;
@@ -40,6 +41,7 @@ import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.ACLIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.FileVoucherClientInfoIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.OwnerType;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.QuotaInfo;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.RecordIterator;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.XAttrIterator;
 import org.xtreemfs.mrc.metadata.ACLEntry;
 import org.xtreemfs.mrc.metadata.BufferBackedACLEntry;
@@ -84,6 +86,8 @@ public class BabuDBStorageManager implements StorageManager {
 
     public static final byte[] NUM_DIRS_KEY = {'d'};
 
+    public static final byte[] RECORD_FORMAT_KEY = {'r'};
+
     public static final String FILE_VOUCHER_KEY_IDENTIFER = "v";           // TODO(baerhold) copy to
     // Snapshot
 
@@ -140,6 +144,15 @@ public class BabuDBStorageManager implements StorageManager {
 
     private final BabuDBVolumeInfo volume;
 
+    /** cache for file metadata, or null if no caching takes place */
+    private volatile DentryCache dentryCache;
+
+    /** file sizes not yet written to the database, or null if disabled */
+    private volatile PendingFileSizes pendingFileSizes;
+
+    /** the format in which file metadata records are written */
+    private volatile byte recordFormat;
+
     /**
      * Instantiates a storage manager by loading an existing volume database.
      *
@@ -155,6 +168,8 @@ public class BabuDBStorageManager implements StorageManager {
 
         volume = new BabuDBVolumeInfo();
         volume.init(this);
+
+        recordFormat = loadRecordFormat();
     }
 
     /**
@@ -173,6 +188,8 @@ public class BabuDBStorageManager implements StorageManager {
 
         volume = new BabuDBVolumeInfo();
         volume.init(this);
+
+        recordFormat = loadRecordFormat();
     }
 
     /**
@@ -253,12 +270,142 @@ public class BabuDBStorageManager implements StorageManager {
             throws DatabaseException {
         try {
             return new AtomicBabuDBUpdate(database, listener == null ? null : new BabuDBRequestListenerWrapper<Object>(
-                    listener), context);
+                    listener), context, dentryCache);
+        } catch (BabuDBException exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
+    /**
+     * Enables caching of file metadata for path resolution.
+     *
+     * @param dentryCache the cache, or <code>null</code> to disable caching
+     */
+    public void setDentryCache(DentryCache dentryCache) {
+        this.dentryCache = dentryCache;
+    }
+
+    public DentryCache getDentryCache() {
+        return dentryCache;
+    }
+
+    /**
+     * Enables or disables deferred file size updates.
+     *
+     * @param enabled if <code>true</code>, file size updates of open files are
+     *                collected in memory until {@link #flushFileSizes(AtomicDBUpdate)}
+     *                is invoked
+     */
+    public void setDeferFileSizes(boolean enabled) {
+        if (enabled) {
+            if (pendingFileSizes == null)
+                pendingFileSizes = new PendingFileSizes();
+        } else
+            pendingFileSizes = null;
+    }
+
+    public PendingFileSizes getPendingFileSizes() {
+        return pendingFileSizes;
+    }
+
+    @Override
+    public boolean setFileSizeDeferred(FileMetadata file, long newSize, int time) {
+        PendingFileSizes pending = pendingFileSizes;
+        return pending != null && pending.add(file, newSize, time);
+    }
+
+    @Override
+    public int flushFileSizes(AtomicDBUpdate update) throws DatabaseException {
+
+        PendingFileSizes pending = pendingFileSizes;
+        if (pending == null || pending.isEmpty())
+            return 0;
+
+        long volumeSizeDiff = pending.getVolumeSizeDiff();
+        Map<Long, PendingFileSizes.Entry> sizes = pending.drain();
+
+        int count = 0;
+        for (Entry<Long, PendingFileSizes.Entry> entry : sizes.entrySet()) {
+
+            // skip files that have been deleted or whose size has been
+            // written in the meantime
+            FileMetadata file = loadMetadata(entry.getKey());
+            PendingFileSizes.Entry size = entry.getValue();
+            if (file == null || file.getEpoch() != size.getEpoch() || file.getSize() >= size.getSize())
+                continue;
+
+            file.setSize(size.getSize());
+            file.setCtime(size.getTime());
+            file.setMtime(size.getTime());
+            setMetadata(file, FileMetadata.FC_METADATA, update);
+            count++;
+        }
+
+        if (volumeSizeDiff != 0) {
+            updateVolumeSize(volumeSizeDiff, update);
+            count++;
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean hasDeferredFileSizes() {
+        PendingFileSizes pending = pendingFileSizes;
+        return pending != null && !pending.isEmpty();
+    }
+
+    @Override
+    public boolean hasDeferredFileSize(long fileId) {
+        PendingFileSizes pending = pendingFileSizes;
+        return pending != null && pending.contains(fileId);
+    }
+
+    @Override
+    public byte getRecordFormat() {
+        return recordFormat;
+    }
+
+    @Override
+    public void setRecordFormat(byte format, AtomicDBUpdate update) throws DatabaseException {
+
+        if (format < recordFormat)
+            throw new DatabaseException("packed metadata records cannot be converted back",
+                    ExceptionType.NOT_ALLOWED);
+
+        update.addUpdate(VOLUME_INDEX, RECORD_FORMAT_KEY, new byte[]{format});
+        recordFormat = format;
+    }
+
+    @Override
+    public void reloadRecordFormat() throws DatabaseException {
+        recordFormat = loadRecordFormat();
+    }
+
+    private byte loadRecordFormat() throws DatabaseException {
+        try {
+            byte[] format = database.lookup(VOLUME_INDEX, RECORD_FORMAT_KEY, null).get();
+            return format == null ? RECORD_FORMAT_SEPARATE : format[0];
+
         } catch (BabuDBException exc) {
             throw new DatabaseException(exc);
         }
     }
 
+    /**
+     * Adds the main metadata of a file to the file index, either as a packed
+     * record or as separate FC and RC records.
+     */
+    private void addFileRecords(BufferBackedFileMetadata fileMetadata, AtomicDBUpdate update) {
+        if (recordFormat != RECORD_FORMAT_SEPARATE)
+            update.addUpdate(FILE_INDEX, fileMetadata.getRCMetadata().getKey(), fileMetadata.getPackedValue());
+        else {
+            update.addUpdate(FILE_INDEX, fileMetadata.getFCMetadataKey(), fileMetadata.getFCMetadataValue());
+            update.addUpdate(FILE_INDEX, fileMetadata.getRCMetadata().getKey(), fileMetadata.getRCMetadata()
+                    .getValue());
+        }
+    }
+
     @Override
     public ACLEntry createACLEntry(long fileId, String entity, short rights) {
         return new BufferBackedACLEntry(fileId, entity, rights);
@@ -332,8 +479,7 @@ public class BabuDBStorageManager implements StorageManager {
                 fileId, atime, ctime, mtime, perms, w32Attrs, (short) 1);
 
         // update main metadata in the file index
-        update.addUpdate(FILE_INDEX, fileMetadata.getFCMetadataKey(), fileMetadata.getFCMetadataValue());
-        update.addUpdate(FILE_INDEX, fileMetadata.getRCMetadata().getKey(), fileMetadata.getRCMetadata().getValue());
+        addFileRecords(fileMetadata, update);
 
         // add an entry to the file ID index
         update.addUpdate(FILE_ID_INDEX, BabuDBStorageHelper.createFileIdIndexKey(fileId, (byte) 3),
@@ -357,8 +503,7 @@ public class BabuDBStorageManager implements StorageManager {
                 fileId, atime, ctime, mtime, size, perms, w32Attrs, (short) 1, epoch, issEpoch, readOnly);
 
         // update main metadata in the file index
-        update.addUpdate(FILE_INDEX, fileMetadata.getFCMetadataKey(), fileMetadata.getFCMetadataValue());
-        update.addUpdate(FILE_INDEX, fileMetadata.getRCMetadata().getKey(), fileMetadata.getRCMetadata().getValue());
+        addFileRecords(fileMetadata, update);
 
         // add an entry to the file ID index
         update.addUpdate(FILE_ID_INDEX, BabuDBStorageHelper.createFileIdIndexKey(fileId, (byte) 3),
@@ -384,8 +529,7 @@ public class BabuDBStorageManager implements StorageManager {
         update.addUpdate(XATTRS_INDEX, lt.getKeyBuf(), lt.getValBuf());
 
         // update main metadata in the file index
-        update.addUpdate(FILE_INDEX, fileMetadata.getFCMetadataKey(), fileMetadata.getFCMetadataValue());
-        update.addUpdate(FILE_INDEX, fileMetadata.getRCMetadata().getKey(), fileMetadata.getRCMetadata().getValue());
+        addFileRecords(fileMetadata, update);
 
         // add an entry to the file ID index
         update.addUpdate(FILE_ID_INDEX, BabuDBStorageHelper.createFileIdIndexKey(fileId, (byte) 3),
@@ -436,6 +580,7 @@ public class BabuDBStorageManager implements StorageManager {
 
             // retrieve the file metadata
             BufferBackedFileMetadata file = BabuDBStorageHelper.getMetadata(database, parentId, fileName);
+            applyPendingFileSize(file);
 
             // check whether there is only one link remaining
             short newLinkCount = (short) (file.getLinkCount() - 1);
@@ -496,6 +641,10 @@ public class BabuDBStorageManager implements StorageManager {
                     updateCount(NUM_FILES_KEY, false, update);
                 }
 
+                PendingFileSizes pending = pendingFileSizes;
+                if (pending != null)
+                    pending.remove(file.getId());
+
             }
 
             return file.getLinkCount();
@@ -539,7 +688,19 @@ public class BabuDBStorageManager implements StorageManager {
     public DatabaseResultSet<FileMetadata> getChildren(long parentId, int seen, int num) throws DatabaseException {
 
         try {
-            return BabuDBStorageHelper.getChildren(database, parentId, seen, num);
+            return applyPendingFileSizes(BabuDBStorageHelper.getChildren(database, parentId, seen, num));
+        } catch (Exception exc) {
+            throw new DatabaseException(exc);
+        }
+
+    }
+
+    @Override
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String lastChildName, int num)
+        throws DatabaseException {
+
+        try {
+            return applyPendingFileSizes(BabuDBStorageHelper.getChildren(database, parentId, lastChildName, num));
         } catch (Exception exc) {
             throw new DatabaseException(exc);
         }
@@ -783,6 +944,14 @@ public class BabuDBStorageManager implements StorageManager {
 
     @Override
     public FileMetadata getMetadata(long fileId) throws DatabaseException {
+        return applyPendingFileSize(loadMetadata(fileId));
+    }
+
+    /**
+     * Loads the metadata of a file from the database, disregarding pending
+     * file sizes.
+     */
+    private FileMetadata loadMetadata(long fileId) throws DatabaseException {
 
         try {
 
@@ -808,7 +977,7 @@ public class BabuDBStorageManager implements StorageManager {
                     long parentId = ByteBuffer.wrap(curr.getValue()).getLong();
                     String fileName = new String(curr.getValue(), 8, curr.getValue().length - 8);
 
-                    return getMetadata(parentId, fileName);
+                    return BabuDBStorageHelper.getMetadata(database, parentId, fileName, dentryCache);
                 }
 
                 valBufs[type] = curr.getValue();
@@ -835,7 +1004,7 @@ public class BabuDBStorageManager implements StorageManager {
     public FileMetadata getMetadata(final long parentId, final String fileName) throws DatabaseException {
 
         try {
-            return BabuDBStorageHelper.getMetadata(database, parentId, fileName);
+            return applyPendingFileSize(BabuDBStorageHelper.getMetadata(database, parentId, fileName, dentryCache));
         } catch (BabuDBException exc) {
             throw new DatabaseException(exc);
         }
@@ -965,7 +1134,8 @@ public class BabuDBStorageManager implements StorageManager {
 
             long parentId = 0;
             for (int i = 0; i < md.length; i++) {
-                md[i] = BabuDBStorageHelper.getMetadata(database, parentId, path.getComp(i));
+                md[i] = applyPendingFileSize(BabuDBStorageHelper.getMetadata(database, parentId, path.getComp(i),
+                        dentryCache));
                 if (md[i] == null || i < md.length - 1 && !md[i].isDirectory()) {
                     md[i] = null;
                     return md;
@@ -1129,8 +1299,22 @@ public class BabuDBStorageManager implements StorageManager {
         assert (metadata instanceof BufferBackedFileMetadata);
         BufferBackedFileMetadata md = (BufferBackedFileMetadata) metadata;
 
+        // the written record either includes or supersedes the pending size
+        PendingFileSizes pending = pendingFileSizes;
+        if (pending != null && type != FileMetadata.RC_METADATA)
+            pending.remove(metadata.getId());
+
         int index = md.getIndexId();
-        if (type == -1)
+
+        // packed records are always written as a whole; a conversion of
+        // separate records (type -1) requires the FC record to be removed
+        if (recordFormat != RECORD_FORMAT_SEPARATE && index == FILE_INDEX) {
+            update.addUpdate(FILE_INDEX, md.getRCMetadata().getKey(), md.getPackedValue());
+            if (type == -1)
+                update.addUpdate(FILE_INDEX, md.getFCMetadataKey(), null);
+        }
+
+        else if (type == -1)
             for (byte i = 0; i < BufferBackedFileMetadata.NUM_BUFFERS; i++) {
                 byte[] valBuf = md.getValueBuffer(i);
                 assert (valBuf != null);
@@ -1179,6 +1363,13 @@ public class BabuDBStorageManager implements StorageManager {
     public void createSnapshot(String snapName, long parentId, String dirName, boolean recursive)
             throws DatabaseException {
 
+        // make sure that the snapshot reflects all accepted file sizes
+        if (hasDeferredFileSizes()) {
+            AtomicDBUpdate update = createAtomicDBUpdate(null, null);
+            flushFileSizes(update);
+            update.execute();
+        }
+
         try {
 
             // determine the prefixes for the snapshot
@@ -1304,9 +1495,29 @@ public class BabuDBStorageManager implements StorageManager {
         DBAdminHelper.dumpVolume(xmlWriter, this);
     }
 
+    @Override
+    public int getNumIndices() {
+        return ALL_INDICES.length;
+    }
+
+    @Override
+    public DatabaseResultSet<byte[][]> getRecords(int index) throws DatabaseException {
+        try {
+            return new RecordIterator(database.prefixLookup(index, new byte[0], null).get());
+        } catch (BabuDBException exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
+    @Override
+    public void restoreRecord(int index, byte[] key, byte[] value, AtomicDBUpdate update) {
+        update.addUpdate(index, key, value);
+    }
+
     protected void updateVolumeSize(long diff, AtomicDBUpdate update) throws DatabaseException {
 
-        long newSize = getVolumeSize() + diff;
+        byte[] pending = getPendingVolumeValue(VOL_SIZE_KEY, update);
+        long newSize = (pending != null ? ByteBuffer.wrap(pending).getLong(0) : getStoredVolumeSize()) + diff;
 
         byte[] sizeBytes = new byte[8];
         ByteBuffer.wrap(sizeBytes).putLong(0, newSize);
@@ -1315,6 +1526,11 @@ public class BabuDBStorageManager implements StorageManager {
     }
 
     protected long getVolumeSize() throws DatabaseException {
+        PendingFileSizes pending = pendingFileSizes;
+        return getStoredVolumeSize() + (pending == null ? 0 : pending.getVolumeSizeDiff());
+    }
+
+    private long getStoredVolumeSize() throws DatabaseException {
         try {
             byte[] sizeBytes = BabuDBStorageHelper.getVolumeMetadata(database, VOL_SIZE_KEY);
             return ByteBuffer.wrap(sizeBytes).getLong(0);
@@ -1362,7 +1578,9 @@ public class BabuDBStorageManager implements StorageManager {
     private void updateCount(byte[] key, boolean increment, AtomicDBUpdate update) throws DatabaseException {
 
         try {
-            byte[] countBytes = BabuDBStorageHelper.getVolumeMetadata(database, key);
+            byte[] countBytes = getPendingVolumeValue(key, update);
+            countBytes = countBytes != null ? countBytes.clone() : BabuDBStorageHelper.getVolumeMetadata(
+                    database, key);
             ByteBuffer countBuf = ByteBuffer.wrap(countBytes);
             countBuf.putLong(0, countBuf.getLong() + (increment ? 1 : -1));
 
@@ -1372,6 +1590,20 @@ public class BabuDBStorageManager implements StorageManager {
         }
     }
 
+    /**
+     * Returns the value that has been assigned to a volume index entry by an
+     * update that has not been executed yet, so that multiple modifications
+     * within the same update are accumulated rather than overwritten.
+     *
+     * @return the value, or <code>null</code> if the update does not modify
+     *         the entry
+     */
+    private byte[] getPendingVolumeValue(byte[] key, AtomicDBUpdate update) {
+        if (!(update instanceof AtomicBabuDBUpdate) || !((AtomicBabuDBUpdate) update).hasVolumeValue(key))
+            return null;
+        return ((AtomicBabuDBUpdate) update).getVolumeValue(key);
+    }
+
     private void initCount(byte[] key, AtomicDBUpdate update) {
 
         byte[] countBytes = new byte[Long.SIZE / 8];
@@ -1380,4 +1612,39 @@ public class BabuDBStorageManager implements StorageManager {
 
         update.addUpdate(VOLUME_INDEX, key, countBytes);
     }
-}
\ No newline at end of file
+    private FileMetadata applyPendingFileSize(FileMetadata file) {
+        PendingFileSizes pending = pendingFileSizes;
+        return pending == null ? file : pending.apply(file);
+    }
+
+    private DatabaseResultSet<FileMetadata> applyPendingFileSizes(final DatabaseResultSet<FileMetadata> children) {
+
+        final PendingFileSizes pending = pendingFileSizes;
+        if (pending == null || pending.getSize() == 0)
+            return children;
+
+        return new DatabaseResultSet<FileMetadata>() {
+
+            @Override
+            public boolean hasNext() {
+                return children.hasNext();
+            }
+
+            @Override
+            public FileMetadata next() {
+                return pending.apply(children.next());
+            }
+
+            @Override
+            public void remove() {
+                children.remove();
+            }
+
+            @Override
+            public void destroy() {
+                children.destroy();
+            }
+        };
+    }
+
+}
@@ -52,6 +52,7 @@ import org.xtreemfs.mrc.database.VolumeInfo;
 import org.xtreemfs.mrc.database.VolumeManager;
 import org.xtreemfs.mrc.metadata.ACLEntry;
 import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.DBAdminHelper;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
 
@@ -65,6 +66,9 @@ public class BabuDBVolumeManager implements VolumeManager {
     
     private static final String                    VERSION_KEY           = "v";
     
+    /** number of metadata records converted per update */
+    private static final int                       CONVERSION_BATCH_SIZE = 1024;
+    
     /** the volume database */
     private BabuDB                                 database;
     
@@ -84,6 +88,15 @@ public class BabuDBVolumeManager implements VolumeManager {
     
     private final AtomicBoolean                    waitLock;
     
+    /** number of cached file metadata records per volume; 0 if disabled */
+    private final int                              dentryCacheSize;
+    
+    /** whether file size updates of open files are collected in memory */
+    private final boolean                          deferFileSizes;
+    
+    /** whether file metadata is stored in packed records */
+    private final boolean                          packedRecords;
+    
     public BabuDBVolumeManager(MRCRequestDispatcher master, BabuDBConfig dbconfig) {
         initialized = new AtomicBoolean(false);
         volsById = Collections.synchronizedMap(new HashMap<String, StorageManager>());
@@ -91,6 +104,17 @@ public class BabuDBVolumeManager implements VolumeManager {
         listeners = new LinkedList<VolumeChangeListener>();
         config = dbconfig;
         waitLock = new AtomicBoolean(false);
+        
+        // caching is not possible if the database is replicated, as
+        // replicated updates bypass the storage managers
+        dentryCacheSize = dbconfig.getPlugins().size() > 0 ? 0 : master.getConfig().getDentryCacheSize();
+        
+        // likewise, pending file sizes would be lost on a fail-over
+        deferFileSizes = dbconfig.getPlugins().size() == 0
+            && master.getConfig().getFileSizeUpdateFlushInterval() > 0;
+        
+        // packed records cannot be read by older replicas
+        packedRecords = dbconfig.getPlugins().size() == 0 && master.getConfig().isPackedMetadataRecords();
     }
     
     /*
@@ -188,6 +212,8 @@ public class BabuDBVolumeManager implements VolumeManager {
                 }
         }
         
+        if (packedRecords)
+            convertRecords(volsById.get(volumeId));
     }
     
     @Override
@@ -395,7 +421,55 @@ public class BabuDBVolumeManager implements VolumeManager {
     
     @Override
     public Map<String, Object> getDBStatus() {
-        return database == null ? null : database.getRuntimeState();
+        
+        if (database == null)
+            return null;
+        
+        Map<String, Object> status = new HashMap<String, Object>(database.getRuntimeState());
+        if (dentryCacheSize > 0) {
+            
+            long hits = 0;
+            long misses = 0;
+            long size = 0;
+            synchronized (volsById) {
+                for (StorageManager sMan : volsById.values()) {
+                    DentryCache cache = ((BabuDBStorageManager) sMan).getDentryCache();
+                    if (cache != null) {
+                        hits += cache.getHits();
+                        misses += cache.getMisses();
+                        size += cache.getSize();
+                    }
+                }
+            }
+            
+            status.put("mrc.dentryCache.hits", hits);
+            status.put("mrc.dentryCache.misses", misses);
+            status.put("mrc.dentryCache.hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            status.put("mrc.dentryCache.entries", size);
+        }
+        
+        if (deferFileSizes) {
+            
+            long pending = 0;
+            long updates = 0;
+            long flushed = 0;
+            synchronized (volsById) {
+                for (StorageManager sMan : volsById.values()) {
+                    PendingFileSizes sizes = ((BabuDBStorageManager) sMan).getPendingFileSizes();
+                    if (sizes != null) {
+                        pending += sizes.getSize();
+                        updates += sizes.getNumUpdates();
+                        flushed += sizes.getNumFlushed();
+                    }
+                }
+            }
+            
+            status.put("mrc.fileSizeUpdates.pending", pending);
+            status.put("mrc.fileSizeUpdates.deferred", updates);
+            status.put("mrc.fileSizeUpdates.flushed", flushed);
+        }
+        
+        return status;
     }
     
     private void initDB(DatabaseManager dbMan, SnapshotManager snapMan) throws DatabaseException {
@@ -518,8 +592,16 @@ public class BabuDBVolumeManager implements VolumeManager {
                 continue;
             
             BabuDBStorageManager sMan = new BabuDBStorageManager(dbMan, snapMan, dbEntry.getValue());
+            if (dentryCacheSize > 0)
+                sMan.setDentryCache(new DentryCache(dentryCacheSize));
+            sMan.setDeferFileSizes(deferFileSizes);
             VolumeInfo vol = sMan.getVolumeInfo();
             
+            // complete interrupted conversions in any case
+            if ((packedRecords && sMan.getRecordFormat() != StorageManager.RECORD_FORMAT_PACKED)
+                || sMan.getRecordFormat() == StorageManager.RECORD_FORMAT_PACKING)
+                convertRecords(sMan);
+            
             volsById.put(vol.getId(), sMan);
             volsByName.put(vol.getName(), sMan);
             
@@ -568,6 +650,9 @@ public class BabuDBVolumeManager implements VolumeManager {
             
             BabuDBStorageManager sMan = new BabuDBStorageManager(dbMan, database.getSnapshotManager(),
                     dbMan.getDatabase(volumeId));
+            if (dentryCacheSize > 0)
+                sMan.setDentryCache(new DentryCache(dentryCacheSize));
+            sMan.setDeferFileSizes(deferFileSizes);
             
             VolumeInfo vol = sMan.getVolumeInfo();
             
@@ -583,6 +668,18 @@ public class BabuDBVolumeManager implements VolumeManager {
         
     }
     
+    private void convertRecords(StorageManager sMan) throws DatabaseException {
+        
+        if (sMan == null)
+            return;
+        
+        long count = DBAdminHelper.convertToPackedRecords(sMan, CONVERSION_BATCH_SIZE);
+        if (count > 0)
+            Logging.logMessage(Logging.LEVEL_INFO, Category.storage, this,
+                    "converted %d metadata records of volume '%s' to packed records", count, sMan.getVolumeInfo()
+                            .getName());
+    }
+    
     private void deregisterVolume(String volumeId) {
         
         // deregister the volumes if necessary
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.database.babudb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xtreemfs.mrc.metadata.BufferBackedFileMetadata;
+
+/**
+ * Bounded LRU cache for the raw metadata records of the files in a volume,
+ * indexed by parent directory ID and file name. It spares path resolution from
+ * looking up each path component in the database.
+ * <p>
+ * The cache is kept consistent by invalidating entries whenever the
+ * corresponding records are modified by an {@link AtomicBabuDBUpdate}, both
+ * when the modification is added to the update and when it has been applied to
+ * the database. To prevent records that are being read concurrently with a
+ * modification from being cached, each load has to obtain a version number
+ * before reading the database; records are only cached if no invalidation has
+ * taken place in the meantime.
+ * <p>
+ * Cached buffers are never handed out directly, so that modifications of the
+ * returned metadata objects do not affect the cache.
+ */
+public class DentryCache {
+
+    private static final class Key {
+
+        final long   parentId;
+
+        final String fileName;
+
+        Key(long parentId, String fileName) {
+            this.parentId = parentId;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return parentId == other.parentId && fileName.equals(other.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (parentId ^ (parentId >>> 32)) * 31 + fileName.hashCode();
+        }
+    }
+
+    private final LinkedHashMap<Key, byte[][][]> cache;
+
+    private long                                 version;
+
+    private long                                 hits;
+
+    private long                                 misses;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            the maximum number of cached records
+     */
+    public DentryCache(final int maxEntries) {
+        this.cache = new LinkedHashMap<Key, byte[][][]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[][][]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached metadata of a file, or <code>null</code> if no record
+     * is cached.
+     */
+    public BufferBackedFileMetadata get(long parentId, String fileName) {
+
+        byte[][][] entry;
+        synchronized (this) {
+            entry = cache.get(new Key(parentId, fileName));
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+
+        // the constructor copies the buffers
+        return new BufferBackedFileMetadata(entry[0], entry[1], BabuDBStorageManager.FILE_INDEX);
+    }
+
+    /**
+     * Returns the current version, which has to be obtained before loading a
+     * record from the database that is supposed to be cached.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches the record of a file, provided that no invalidation has taken
+     * place since <code>loadVersion</code> was obtained.
+     */
+    public synchronized void put(long parentId, String fileName, byte[][] keyBufs, byte[][] valBufs,
+            long loadVersion) {
+
+        if (loadVersion != version)
+            return;
+
+        cache.put(new Key(parentId, fileName), new byte[][][] { keyBufs, valBufs });
+    }
+
+    /**
+     * Removes the record of a file from the cache.
+     */
+    public synchronized void invalidate(long parentId, String fileName) {
+        version++;
+        cache.remove(new Key(parentId, fileName));
+    }
+
+    public synchronized void clear() {
+        version++;
+        cache.clear();
+    }
+
+    public synchronized int getSize() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.database.babudb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xtreemfs.mrc.metadata.FileMetadata;
+
+/**
+ * File size updates of a volume that have been accepted but not yet written to
+ * the database.
+ * <p>
+ * Clients holding files open for writing periodically report the sizes of
+ * these files. Instead of persisting each report in a separate database
+ * update, reports are coalesced in memory per file, so that only the largest
+ * size of the current truncate epoch is kept. The sizes are applied to all
+ * metadata retrieved from the storage manager until they are written to the
+ * database in a single batched update.
+ * <p>
+ * The volume size is tracked accordingly: the difference between the volume
+ * size including all pending file sizes and the volume size stored in the
+ * database is accumulated until the next flush.
+ */
+public class PendingFileSizes {
+
+    /**
+     * A pending file size.
+     */
+    public static final class Entry {
+
+        private final long size;
+
+        private final int  epoch;
+
+        private final int  time;
+
+        Entry(long size, int epoch, int time) {
+            this.size = size;
+            this.epoch = epoch;
+            this.time = time;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getEpoch() {
+            return epoch;
+        }
+
+        public int getTime() {
+            return time;
+        }
+    }
+
+    private Map<Long, Entry> sizes;
+
+    private long             volumeSizeDiff;
+
+    private long             numUpdates;
+
+    private long             numFlushed;
+
+    public PendingFileSizes() {
+        this.sizes = new HashMap<Long, Entry>();
+    }
+
+    /**
+     * Records a new file size. The size is only recorded if it refers to the
+     * current epoch of the file and exceeds the file's current size.
+     *
+     * @param file
+     *            the current metadata of the file, including any pending size
+     * @param size
+     *            the new size
+     * @param time
+     *            the new change and modification time
+     * @return <code>true</code>, if the size has been recorded
+     */
+    public synchronized boolean add(FileMetadata file, long size, int time) {
+
+        if (size <= file.getSize())
+            return false;
+
+        volumeSizeDiff += size - file.getSize();
+        sizes.put(file.getId(), new Entry(size, file.getEpoch(), time));
+        numUpdates++;
+
+        return true;
+    }
+
+    /**
+     * Applies the pending size of a file, if any, to its metadata.
+     *
+     * @param file
+     *            the metadata as stored in the database; may be
+     *            <code>null</code>
+     * @return the given metadata object
+     */
+    public FileMetadata apply(FileMetadata file) {
+
+        if (file == null || file.isDirectory())
+            return file;
+
+        Entry entry;
+        synchronized (this) {
+            if (sizes.isEmpty())
+                return file;
+            entry = sizes.get(file.getId());
+        }
+
+        // ignore sizes that have been superseded by a newer epoch
+        if (entry != null && entry.epoch == file.getEpoch() && entry.size > file.getSize()) {
+            file.setSize(entry.size);
+            file.setCtime(entry.time);
+            file.setMtime(entry.time);
+        }
+
+        return file;
+    }
+
+    /**
+     * Discards the pending size of a file. This is necessary when the file's
+     * size-related metadata is written to the database, as it then either
+     * includes the pending size or supersedes it.
+     */
+    public synchronized void remove(long fileId) {
+        if (!sizes.isEmpty())
+            sizes.remove(fileId);
+    }
+
+    /**
+     * Returns the difference between the volume size including all pending
+     * file sizes and the volume size stored in the database.
+     */
+    public synchronized long getVolumeSizeDiff() {
+        return volumeSizeDiff;
+    }
+
+    /**
+     * Removes and returns all pending file sizes. The volume size difference
+     * has to be obtained beforehand; it is reset as well.
+     */
+    public synchronized Map<Long, Entry> drain() {
+
+        Map<Long, Entry> result = sizes;
+        numFlushed += result.size();
+
+        sizes = new HashMap<Long, Entry>();
+        volumeSizeDiff = 0;
+
+        return result;
+    }
+
+    /**
+     * Checks whether a size of the given file is pending.
+     */
+    public synchronized boolean contains(long fileId) {
+        return sizes.containsKey(fileId);
+    }
+
+    public synchronized boolean isEmpty() {
+        return sizes.isEmpty() && volumeSizeDiff == 0;
+    }
+
+    public synchronized int getSize() {
+        return sizes.size();
+    }
+
+    /**
+     * Returns the total number of file size updates recorded.
+     */
+    public synchronized long getNumUpdates() {
+        return numUpdates;
+    }
+
+    /**
+     * Returns the total number of file sizes written to the database.
+     */
+    public synchronized long getNumFlushed() {
+        return numFlushed;
+    }
+
+}
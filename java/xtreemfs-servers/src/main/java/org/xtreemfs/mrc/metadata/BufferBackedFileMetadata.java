@@ -22,6 +22,17 @@ public class BufferBackedFileMetadata implements FileMetadata {
     
     protected static final int     FC_SIZE     = 12;
     
+    /**
+     * type tag of a packed record, i.e. a value that is stored under the key
+     * of the RC metadata and contains both the FC and the RC metadata, so that
+     * the complete metadata of a file can be retrieved with a single lookup;
+     * packed records are laid out as follows: type tag (1 byte), length of FC
+     * metadata (1 byte), FC metadata, RC metadata
+     */
+    public static final byte       PACKED_RECORD    = 3;
+    
+    protected static final int     PACKED_FC_OFFSET = 2;
+    
     private final ByteBuffer       fcKeyBuf;
     
     private final ByteBuffer       fcValBuf;
@@ -325,6 +336,62 @@ public class BufferBackedFileMetadata implements FileMetadata {
         return indexId;
     }
     
+    /**
+     * Returns a packed record containing the FC and RC metadata.
+     * 
+     * @return the packed record
+     */
+    public byte[] getPackedValue() {
+        
+        byte[] fcVal = fcValBuf.array();
+        byte[] rcVal = rcMetadata.getValue();
+        
+        byte[] packed = new byte[PACKED_FC_OFFSET + fcVal.length + rcVal.length];
+        packed[0] = PACKED_RECORD;
+        packed[1] = (byte) fcVal.length;
+        System.arraycopy(fcVal, 0, packed, PACKED_FC_OFFSET, fcVal.length);
+        System.arraycopy(rcVal, 0, packed, PACKED_FC_OFFSET + fcVal.length, rcVal.length);
+        
+        return packed;
+    }
+    
+    /**
+     * Checks whether a value stored under the key of the RC metadata is a
+     * packed record.
+     */
+    public static boolean isPackedRecord(byte[] rcValue) {
+        return rcValue != null && rcValue.length > 0 && rcValue[0] == PACKED_RECORD;
+    }
+    
+    /**
+     * Returns the offset of the RC metadata in a packed record.
+     */
+    public static int getPackedRCOffset(byte[] packed) {
+        return PACKED_FC_OFFSET + (packed[1] & 0xFF);
+    }
+    
+    /**
+     * Splits a packed record into its FC and RC metadata.
+     * 
+     * @param packed
+     *            the packed record
+     * @return an array containing the FC metadata at index
+     *         {@link FileMetadata#FC_METADATA} and the RC metadata at index
+     *         {@link FileMetadata#RC_METADATA}
+     */
+    public static byte[][] unpack(byte[] packed) {
+        
+        int rcOffset = getPackedRCOffset(packed);
+        
+        byte[][] valBufs = new byte[NUM_BUFFERS][];
+        valBufs[FC_METADATA] = new byte[rcOffset - PACKED_FC_OFFSET];
+        valBufs[RC_METADATA] = new byte[packed.length - rcOffset];
+        System.arraycopy(packed, PACKED_FC_OFFSET, valBufs[FC_METADATA], 0, valBufs[FC_METADATA].length);
+        System.arraycopy(packed, rcOffset, valBufs[RC_METADATA], 0, valBufs[RC_METADATA].length);
+        
+        return valBufs;
+    }
+    
     public String toString() {
         
         String s = (isDirectory() ? "dir" : "file") + " id=" + getId() + " name=" + getFileName() + " mode="
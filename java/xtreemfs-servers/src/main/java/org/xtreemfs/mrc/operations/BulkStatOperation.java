@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.metadata.XLocList;
+import org.xtreemfs.mrc.utils.Converter;
+import org.xtreemfs.mrc.utils.MRCHelper;
+import org.xtreemfs.mrc.utils.Path;
+import org.xtreemfs.mrc.utils.PathResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replicas;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XAttr;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsEntry;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsResponse;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Returns the attributes and, optionally, the extended attributes and xLocSets
+ * of multiple files or directories of a volume with a single request. Errors
+ * concerning individual entries (e.g. nonexisting files or insufficient
+ * permissions) are reported per entry and do not cause the whole request to
+ * fail.
+ */
+public class BulkStatOperation extends MRCOperation {
+
+    public BulkStatOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        final xtreemfs_getattrsRequest rqArgs = (xtreemfs_getattrsRequest) rq.getRequestArgs();
+
+        final VolumeManager vMan = master.getVolumeManager();
+        final FileAccessManager faMan = master.getFileAccessManager();
+
+        validateContext(rq);
+
+        final StorageManager sMan = vMan.getStorageManagerByName(rqArgs.getVolumeName());
+        final VolumeInfo volume = sMan.getVolumeInfo();
+
+        xtreemfs_getattrsResponse.Builder result = xtreemfs_getattrsResponse.newBuilder();
+
+        for (String path : rqArgs.getPathsList()) {
+
+            xtreemfs_getattrsEntry.Builder entry = xtreemfs_getattrsEntry.newBuilder().setPath(path);
+
+            try {
+
+                Path p = new Path(rqArgs.getVolumeName(), path);
+                PathResolver res = new PathResolver(sMan, p);
+
+                // check whether the path prefix is searchable
+                faMan.checkSearchPermission(sMan, res, rq.getDetails().userId, rq.getDetails().superUser,
+                        rq.getDetails().groupIds);
+
+                // check whether file exists
+                res.checkIfFileDoesNotExist();
+
+                FileMetadata file = res.getFile();
+
+                entry.setStbuf(MRCHelper.createStat(faMan, sMan, volume, file, rq.getDetails().userId,
+                        rq.getDetails().groupIds));
+
+                if (rqArgs.getIncludeXattrs()) {
+                    Map<String, byte[]> attrs = MRCHelper.getXAttrs(master, sMan, faMan, res.toString(), file,
+                            rq.getDetails().userId);
+                    for (Entry<String, byte[]> attr : attrs.entrySet())
+                        entry.addXattrs(XAttr.newBuilder().setName(attr.getKey())
+                                .setValue(new String(attr.getValue()))
+                                .setValueBytes(ByteString.copyFrom(attr.getValue())));
+                }
+
+                if (rqArgs.getIncludeXlocset() && !file.isDirectory() && sMan.getSoftlinkTarget(file.getId()) == null)
+                    entry.setXlocs(getXLocSet(rq, rqArgs, volume, file, p.toString()));
+
+            } catch (UserException exc) {
+
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
+                            "could not retrieve attributes of '%s': %s", path, exc.getMessage());
+
+                entry.clearStbuf();
+                entry.clearXattrs();
+                entry.clearXlocs();
+                entry.setPosixErrno(exc.getErrno().getNumber());
+            }
+
+            result.addEntries(entry);
+        }
+
+        // set the response
+        rq.setResponse(result.build());
+        finishRequest(rq);
+    }
+
+    private XLocSet getXLocSet(MRCRequest rq, xtreemfs_getattrsRequest rqArgs, VolumeInfo volume,
+            FileMetadata file, String path) {
+
+        XLocList xLocList = file.getXLocList();
+        assert (xLocList != null);
+        XLocSet.Builder xLocSetBuilder = Converter.xLocListToXLocSet(xLocList);
+
+        // sort the replicas according to the replica selection policy
+        Replicas sortedRepls = master.getOSDStatusManager().getSortedReplicaList(volume.getId(),
+                ((InetSocketAddress) rq.getRPCRequest().getSenderAddress()).getAddress(), rqArgs.getCoordinates(),
+                xLocSetBuilder.getReplicasList(), xLocList, path);
+        if (sortedRepls != null) {
+            xLocSetBuilder.clearReplicas();
+            xLocSetBuilder.addAllReplicas(sortedRepls.getReplicasList());
+        }
+        xLocSetBuilder.setReadOnlyFileSize(file.getSize());
+
+        return xLocSetBuilder.build();
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DBAccessResultListener;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.MRCHelper.GlobalFileIdResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesResponse;
+
+/**
+ * Updates the sizes of multiple open files with a single request. Clients use
+ * it to periodically report the sizes of all files they are writing to.
+ * <p>
+ * Sizes are collected in memory where possible (see
+ * {@link StorageManager#setFileSizeDeferred(FileMetadata, long, int)}); all
+ * other modifications are combined in a single database update per volume.
+ * Updates that cannot be applied (e.g. because the capability has expired or
+ * the file has been deleted) are reported in the response and do not affect
+ * the remaining updates. Closing files is not supported by this operation.
+ */
+public class BulkUpdateFileSizeOperation extends MRCOperation {
+
+    public BulkUpdateFileSizeOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        // the updated files may belong to different volumes
+        return true;
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        // perform master redirect if necessary
+        if (master.getReplMasterUUID() != null
+            && !master.getReplMasterUUID().equals(master.getConfig().getUUID().toString()))
+            throw new DatabaseException(ExceptionType.REDIRECT);
+
+        final xtreemfs_update_file_sizesRequest rqArgs = (xtreemfs_update_file_sizesRequest) rq.getRequestArgs();
+
+        final CompletionListener listener = new CompletionListener(master);
+        final Map<String, AtomicDBUpdate> updates = new HashMap<String, AtomicDBUpdate>();
+        final Map<String, Boolean> modified = new HashMap<String, Boolean>();
+
+        xtreemfs_update_file_sizesResponse.Builder result = xtreemfs_update_file_sizesResponse.newBuilder();
+
+        for (int i = 0; i < rqArgs.getUpdatesCount(); i++) {
+
+            xtreemfs_update_file_sizeRequest fsUpdate = rqArgs.getUpdates(i);
+
+            try {
+
+                if (fsUpdate.getCloseFile())
+                    throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL,
+                        "files cannot be closed by bulk file size updates");
+
+                Capability cap = new Capability(fsUpdate.getXcap(), master.getConfig().getCapabilitySecret());
+
+                // check whether the capability has a valid signature
+                if (!cap.hasValidSignature())
+                    throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, cap + " does not have a valid signature");
+
+                // check whether the capability has expired
+                if (cap.hasExpired())
+                    throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, cap + " has expired");
+
+                // parse volume and file ID from global file ID
+                GlobalFileIdResolver idRes = new GlobalFileIdResolver(cap.getFileId());
+
+                StorageManager sMan = master.getVolumeManager().getStorageManager(idRes.getVolumeId());
+
+                FileMetadata file = sMan.getMetadata(idRes.getLocalFileId());
+                if (file == null)
+                    throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "file '" + cap.getFileId()
+                        + "' does not exist");
+
+                AtomicDBUpdate update = updates.get(idRes.getVolumeId());
+                if (update == null) {
+                    update = sMan.createAtomicDBUpdate(listener, rq);
+                    updates.put(idRes.getVolumeId(), update);
+                }
+
+                if (UpdateFileSizeOperation.updateFileSize(sMan, cap.getFileId(), file,
+                    fsUpdate.getOsdWriteResponse(), true, update))
+                    modified.put(idRes.getVolumeId(), Boolean.TRUE);
+
+            } catch (UserException exc) {
+
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
+                        "could not apply file size update #%d: %s", i, exc.getMessage());
+
+                result.addFailedUpdates(i);
+            }
+        }
+
+        // set the response
+        rq.setResponse(result.build());
+
+        List<AtomicDBUpdate> pending = new ArrayList<AtomicDBUpdate>();
+        for (String volumeId : modified.keySet())
+            pending.add(updates.get(volumeId));
+
+        if (pending.isEmpty()) {
+            finishRequest(rq);
+            return;
+        }
+
+        listener.expect(pending.size());
+        for (AtomicDBUpdate update : pending)
+            update.execute();
+        listener.finished(null, rq);
+    }
+
+    /**
+     * Sends the response once the updates of all volumes have been applied.
+     */
+    private static final class CompletionListener implements DBAccessResultListener<Object> {
+
+        private final DBAccessResultListener<Object> master;
+
+        /** pending updates, plus one until all updates have been executed */
+        private final AtomicInteger                  pending;
+
+        private final AtomicBoolean                  failed;
+
+        CompletionListener(DBAccessResultListener<Object> master) {
+            this.master = master;
+            this.pending = new AtomicInteger(1);
+            this.failed = new AtomicBoolean();
+        }
+
+        void expect(int numUpdates) {
+            pending.addAndGet(numUpdates);
+        }
+
+        @Override
+        public void finished(Object result, Object context) {
+            if (pending.decrementAndGet() == 0 && !failed.get())
+                master.finished(result, context);
+        }
+
+        @Override
+        public void failed(Throwable error, Object context) {
+            pending.decrementAndGet();
+            if (failed.compareAndSet(false, true))
+                master.failed(error, context);
+        }
+    }
+
+}
@@ -28,6 +28,11 @@ public class CheckpointOperation extends MRCOperation {
     public CheckpointOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) {
@@ -43,6 +43,11 @@ public class CreateVolumeOperation extends MRCOperation {
     public CreateVolumeOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(final MRCRequest rq) throws Throwable {
@@ -33,6 +33,11 @@ public class DeleteVolumeOperation extends MRCOperation {
     public DeleteVolumeOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(final MRCRequest rq) throws Throwable {
@@ -72,7 +77,8 @@ public class DeleteVolumeOperation extends MRCOperation {
         try {
             master.getVolumeManager().deleteVolume(volume.getId(), master, rq);
 
-            master.notifyVolumeDeleted();   
+            master.notifyVolumeDeleted();
+            master.getMetadataLeaseManager().volumeDeleted(volume.getName());
         } finally {
             master.resumeHeartbeatThread();
         }
@@ -11,6 +11,7 @@ package org.xtreemfs.mrc.operations;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -27,6 +28,7 @@ import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeInfo;
 import org.xtreemfs.mrc.database.VolumeManager;
 import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.BinaryDBDump;
 import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_dump_restore_databaseRequest;
 
@@ -36,15 +38,21 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_dump_restore_database
  */
 public class DumpDBOperation extends MRCOperation {
     
+    /** the size in bytes after which a new chunk of a binary dump is started */
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    
     class DumpWriter extends Thread {
         
         private File                 dumpFile;
         
         private List<StorageManager> sManList;
         
-        public DumpWriter(List<StorageManager> sManList, File dumpFile) {
+        private boolean              binary;
+        
+        public DumpWriter(List<StorageManager> sManList, File dumpFile, boolean binary) {
             this.dumpFile = dumpFile;
             this.sManList = sManList;
+            this.binary = binary;
         }
         
         public void run() {
@@ -52,6 +60,13 @@ public class DumpDBOperation extends MRCOperation {
             File df = new File(dumpFile + ".inprogress");
             
             try {
+                
+                if (binary) {
+                    BinaryDBDump.dump(sManList, df, Runtime.getRuntime().availableProcessors(), MAX_CHUNK_SIZE);
+                    rename(df);
+                    return;
+                }
+                
                 BufferedWriter xmlWriter = new BufferedWriter(new FileWriter(df));
                 xmlWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
                 xmlWriter.write("<filesystem dbversion=\"" + VersionManagement.getMrcDataVersion() + "\">\n");
@@ -67,7 +82,7 @@ public class DumpDBOperation extends MRCOperation {
                 xmlWriter.write("</filesystem>\n");
                 xmlWriter.close();
                 
-                df.renameTo(dumpFile);
+                rename(df);
                 
             } catch (Exception exc) {
                 Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
@@ -76,11 +91,22 @@ public class DumpDBOperation extends MRCOperation {
             }
         }
         
+        private void rename(File df) throws IOException {
+            if (!df.renameTo(dumpFile))
+                throw new IOException("could not rename " + df + " to " + dumpFile
+                    + "; the dump has been left in " + df);
+        }
+        
     }
     
     public DumpDBOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -108,6 +134,9 @@ public class DumpDBOperation extends MRCOperation {
 
             for (StorageManager sMan : sManColl) {
                 
+                // make sure that the snapshot reflects the current space usage
+                master.getMrcQuotaManager().flushSpaceUsage(sMan);
+                
                 FileMetadata rootDir = sMan.getMetadata(1);
                 try {
                     vMan.createSnapshot(sMan.getVolumeInfo().getId(), ".dump", 0, rootDir, true);
@@ -125,7 +154,7 @@ public class DumpDBOperation extends MRCOperation {
             }
             
             // write the dump asynchronously
-            DumpWriter dw = new DumpWriter(storageManagers, new File(rqArgs.getDumpFile()));
+            DumpWriter dw = new DumpWriter(storageManagers, new File(rqArgs.getDumpFile()), rqArgs.getBinary());
             dw.start();
         }
         
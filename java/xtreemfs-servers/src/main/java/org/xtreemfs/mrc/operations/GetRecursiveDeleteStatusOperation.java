@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.stages.RecursiveDeletionManager.Task;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursive_statusRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursive_statusResponse;
+
+/**
+ * Returns the progress of a recursive deletion. The status of a task can only
+ * be retrieved by the user who started it, or by a superuser.
+ */
+public class GetRecursiveDeleteStatusOperation extends MRCOperation {
+
+    public GetRecursiveDeleteStatusOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        final xtreemfs_rmdir_recursive_statusRequest rqArgs = (xtreemfs_rmdir_recursive_statusRequest) rq
+                .getRequestArgs();
+
+        validateContext(rq);
+
+        Task task = master.getRecursiveDeletionManager().getTask(rqArgs.getTaskId());
+        if (task == null)
+            throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "recursive deletion #" + rqArgs.getTaskId()
+                + " does not exist");
+
+        if (!rq.getDetails().superUser && !task.getUserId().equals(rq.getDetails().userId))
+            throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, "recursive deletion #" + rqArgs.getTaskId()
+                + " has been started by a different user");
+
+        // the finished flag is read first, so that the counters reported
+        // along with a finished task are final
+        xtreemfs_rmdir_recursive_statusResponse.Builder result = xtreemfs_rmdir_recursive_statusResponse
+                .newBuilder().setFinished(task.isFinished()).setDeletedFiles(task.getDeletedFiles())
+                .setDeletedDirs(task.getDeletedDirs()).setFailedEntries(task.getFailedEntries())
+                .setPendingOsdDeletions(task.getPendingOSDDeletions())
+                .setFailedOsdDeletions(task.getFailedOSDDeletions());
+        if (task.getError() != null)
+            result.setError(task.getError());
+
+        // set the response
+        rq.setResponse(result.build());
+        finishRequest(rq);
+    }
+
+}
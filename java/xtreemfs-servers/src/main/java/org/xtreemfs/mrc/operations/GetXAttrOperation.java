@@ -33,6 +33,11 @@ public class GetXAttrOperation extends MRCOperation {
     public GetXAttrOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -61,8 +66,8 @@ public class GetXAttrOperation extends MRCOperation {
         
         byte[] value = null;
         if (rqArgs.getName().startsWith("xtreemfs."))
-            value = MRCHelper.getSysAttrValue(master.getConfig(), sMan, master.getOSDStatusManager(), faMan,
-                res.toString(), file, rqArgs.getName().substring(9)).getBytes();
+            value = MRCHelper.getSysAttrValue(master.getConfig(), sMan, master.getOSDStatusManager(),
+                master.getMrcQuotaManager(), faMan, res.toString(), file, rqArgs.getName().substring(9)).getBytes();
         else {
             
             // first, try to fetch an individual user attribute
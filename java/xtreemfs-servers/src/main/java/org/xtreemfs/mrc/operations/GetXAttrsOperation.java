@@ -8,21 +8,16 @@
 
 package org.xtreemfs.mrc.operations;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.xtreemfs.mrc.MRCRequest;
 import org.xtreemfs.mrc.MRCRequestDispatcher;
 import org.xtreemfs.mrc.ac.FileAccessManager;
-import org.xtreemfs.mrc.database.DatabaseResultSet;
 import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeManager;
 import org.xtreemfs.mrc.metadata.FileMetadata;
-import org.xtreemfs.mrc.metadata.XAttr;
 import org.xtreemfs.mrc.utils.MRCHelper;
-import org.xtreemfs.mrc.utils.MRCHelper.SysAttrs;
 import org.xtreemfs.mrc.utils.Path;
 import org.xtreemfs.mrc.utils.PathResolver;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.listxattrRequest;
@@ -39,6 +34,11 @@ public class GetXAttrsOperation extends MRCOperation {
     public GetXAttrsOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -65,47 +65,8 @@ public class GetXAttrsOperation extends MRCOperation {
         // retrieve and prepare the metadata to return
         FileMetadata file = res.getFile();
         
-        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
-        
-        DatabaseResultSet<XAttr> myAttrs = sMan.getXAttrs(file.getId(), rq.getDetails().userId);
-        DatabaseResultSet<XAttr> globalAttrs = sMan.getXAttrs(file.getId(), StorageManager.GLOBAL_ID);
-        
-        // include global attributes
-        while (globalAttrs.hasNext()) {
-            XAttr attr = globalAttrs.next();
-            attrs.put(attr.getKey(), attr.getValue());
-        }
-        globalAttrs.destroy();
-        
-        // include individual user attributes
-        while (myAttrs.hasNext()) {
-            XAttr attr = myAttrs.next();
-            attrs.put(attr.getKey(), attr.getValue());
-        }
-        myAttrs.destroy();
-        
-        // include system attributes
-        for (SysAttrs attr : SysAttrs.values()) {
-            String key = "xtreemfs." + attr.toString();
-            String value = MRCHelper.getSysAttrValue(master.getConfig(), sMan, master.getOSDStatusManager(), faMan,
-                    res.toString(), file, attr.toString());
-            if (!value.equals(""))
-                attrs.put(key, value.getBytes());
-        }
-        
-        // if file ID is root volume
-        if (file.getId() == 1) {
-            
-            // include policy attributes
-            List<String> policyAttrNames = MRCHelper.getSpecialAttrNames(sMan, MRCHelper.POLICY_ATTR_PREFIX);
-            for (String attr : policyAttrNames)
-                attrs.put(attr, sMan.getXAttr(1, StorageManager.SYSTEM_UID, attr));
-            
-            // include volume attributes
-            List<String> volAttrAttrNames = MRCHelper.getSpecialAttrNames(sMan, MRCHelper.VOL_ATTR_PREFIX);
-            for (String attr : volAttrAttrNames)
-                attrs.put(attr, sMan.getXAttr(1, StorageManager.SYSTEM_UID, attr));
-        }
+        Map<String, byte[]> attrs = MRCHelper.getXAttrs(master, sMan, faMan, res.toString(), file,
+                rq.getDetails().userId);
         
         listxattrResponse.Builder result = listxattrResponse.newBuilder();
         for (Entry<String, byte[]> attr : attrs.entrySet()) {
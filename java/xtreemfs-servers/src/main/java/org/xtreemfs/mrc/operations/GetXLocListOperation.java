@@ -35,6 +35,11 @@ public class GetXLocListOperation extends MRCOperation {
     public GetXLocListOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -38,6 +38,11 @@ public class GetXLocSetOperation extends MRCOperation {
     public GetXLocSetOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
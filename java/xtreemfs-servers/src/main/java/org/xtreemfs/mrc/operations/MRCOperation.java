@@ -52,6 +52,30 @@ public abstract class MRCOperation {
                 "Tried to start internal request on non internal operation.");
     }
 
+    /**
+     * Indicates whether the given request only reads metadata of the volume it
+     * refers to. If the MRC is configured with more than one processing
+     * thread, read-only requests on the same volume may be executed
+     * concurrently.
+     * 
+     * @param rq
+     *            the request with parsed arguments
+     * @return true, if the request does not modify any metadata
+     */
+    public boolean isReadOnly(MRCRequest rq) {
+        return false;
+    }
+    
+    /**
+     * Indicates whether the operation affects state beyond the volume its
+     * request refers to, such as the set of volumes or the database as a
+     * whole. Such operations are never executed concurrently with other
+     * operations.
+     */
+    public boolean affectsAllVolumes() {
+        return false;
+    }
+    
     /**
      * Parses the request arguments.
      * 
@@ -63,6 +63,33 @@ public class OpenOperation extends MRCOperation {
          */
     }
     
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        
+        final openRequest rqArgs = (openRequest) rq.getRequestArgs();
+        
+        // opening a file for writing or updating its access time modifies
+        // the file's metadata
+        final int writeFlags = FileAccessManager.O_CREAT | FileAccessManager.O_TRUNC | FileAccessManager.O_WRONLY
+            | FileAccessManager.O_RDWR | FileAccessManager.O_APPEND;
+        if ((rqArgs.getFlags() & writeFlags) != 0 || !master.getConfig().isNoAtime())
+            return false;
+        
+        // opening a file whose xLocSet change was interrupted by a crash of
+        // the MRC recovers the xLocSet; since such locks can only have been
+        // left by a previous MRC instance, a lock that is not present now
+        // cannot appear before the request is executed
+        try {
+            Path path = new Path(rqArgs.getVolumeName(), rqArgs.getPath());
+            StorageManager sMan = master.getVolumeManager().getStorageManagerByName(path.getComp(0));
+            FileMetadata file = new PathResolver(sMan, path).getFile();
+            return file == null || !master.getXLocSetCoordinator().getXLocSetLock(file, sMan).hasCrashed();
+        } catch (Exception exc) {
+            // the request fails without modifying any metadata
+            return true;
+        }
+    }
+    
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
         
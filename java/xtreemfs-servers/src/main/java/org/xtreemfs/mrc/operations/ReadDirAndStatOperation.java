@@ -25,11 +25,9 @@ import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeInfo;
 import org.xtreemfs.mrc.database.VolumeManager;
 import org.xtreemfs.mrc.metadata.FileMetadata;
-import org.xtreemfs.mrc.metadata.XLocList;
 import org.xtreemfs.mrc.utils.MRCHelper;
 import org.xtreemfs.mrc.utils.Path;
 import org.xtreemfs.mrc.utils.PathResolver;
-import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntry;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
@@ -44,6 +42,12 @@ public class ReadDirAndStatOperation extends MRCOperation {
     public ReadDirAndStatOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        // the access time of the directory is updated unless disabled
+        return master.getConfig().isNoAtime();
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -145,12 +149,22 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 dirContent.addEntries(entry);
             }
             
-            // get all children
-            DatabaseResultSet<FileMetadata> it = sMan.getChildren(res.getFile().getId(), seenEntries - 2, numEntries
-                - dirContent.getEntriesCount());
+            // get all children; if a continuation token was provided, resume
+            // the listing after the last child returned before, instead of
+            // skipping all children that have been seen
+            int numChildren = numEntries - dirContent.getEntriesCount();
+            String lastChildName = rqArgs.hasContinuationToken() && rqArgs.getContinuationToken().length() > 0 ? rqArgs
+                    .getContinuationToken() : null;
+            DatabaseResultSet<FileMetadata> it = lastChildName != null ? sMan.getChildren(res.getFile().getId(),
+                lastChildName, numChildren) : sMan.getChildren(res.getFile().getId(), seenEntries - 2, numChildren);
+            
+            int count = 0;
             while (it.hasNext()) {
                 
                 FileMetadata child = it.next();
+                lastChildName = child.getFileName();
+                count++;
+                
                 if (child.getFileName().equals("")) {
                     Logging.logMessage(Logging.LEVEL_WARN, this, "WARNING: found nested %s w/ empty name", child
                             .isDirectory() ? "directory" : "file");
@@ -165,6 +179,11 @@ public class ReadDirAndStatOperation extends MRCOperation {
             }
             it.destroy();
             
+            // if the listing was truncated, allow the client to continue
+            // after the last returned child
+            if (count > 0 && count == numChildren)
+                dirContent.setContinuationToken(lastChildName);
+            
         }
         
         // set the response
@@ -176,34 +195,7 @@ public class ReadDirAndStatOperation extends MRCOperation {
     private Stat getStat(StorageManager sMan, FileAccessManager faMan, MRCRequest rq, VolumeInfo volume,
         FileMetadata file) throws DatabaseException, MRCException {
         
-        // FIXME: merge w/ 'stat' operation
-        
-        String linkTarget = sMan.getSoftlinkTarget(file.getId());
-        int mode = faMan.getPosixAccessMode(sMan, file, rq.getDetails().userId, rq.getDetails().groupIds);
-        mode |= linkTarget != null ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFLNK.getNumber()
-            : file.isDirectory() ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFDIR.getNumber()
-                : ((file.getPerms() & GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO.getNumber()) != 0) ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO
-                        .getNumber()
-                    : GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFREG.getNumber();
-        long size = linkTarget != null ? linkTarget.length() : file.isDirectory() ? 0 : file.getSize();
-        int blkSize = 0;
-        if ((linkTarget == null) && (!file.isDirectory())) {
-            XLocList xlocList = file.getXLocList();
-            if ((xlocList != null) && (xlocList.getReplicaCount() > 0))
-                blkSize = xlocList.getReplica(0).getStripingPolicy().getStripeSize() * 1024;
-        }
-        
-        final long newEtag = file.getMtime() + file.getCtime();
-        
-        Stat stat = Stat.newBuilder().setDev(volume.getId().hashCode()).setIno(file.getId()).setMode(mode)
-                .setNlink(file.getLinkCount()).setUserId(file.getOwnerId()).setGroupId(
-                    file.getOwningGroupId()).setSize(size).setAtimeNs((long) file.getAtime() * (long) 1e9)
-                .setCtimeNs((long) file.getCtime() * (long) 1e9).setMtimeNs(
-                    (long) file.getMtime() * (long) 1e9).setBlksize(blkSize).setTruncateEpoch(
-                    file.isDirectory() ? 0 : file.getEpoch()).setAttributes((int) file.getW32Attrs())
-                .setEtag(newEtag).build();
-        
-        return stat;
+        return MRCHelper.createStat(faMan, sMan, volume, file, rq.getDetails().userId, rq.getDetails().groupIds);
     }
     
     public static void main(String[] args) throws Exception {
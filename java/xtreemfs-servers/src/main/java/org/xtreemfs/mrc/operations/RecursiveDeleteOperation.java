@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import java.net.InetSocketAddress;
+
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.stages.RecursiveDeletionManager;
+import org.xtreemfs.mrc.utils.Path;
+import org.xtreemfs.mrc.utils.PathResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursiveRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursiveResponse;
+
+/**
+ * Starts deleting a directory including all nested files and directories. The
+ * deletion is carried out asynchronously by the
+ * {@link RecursiveDeletionManager}; the response contains the ID of the task,
+ * which can be used to retrieve its progress.
+ * <p>
+ * The permissions required to delete the directory itself are checked before
+ * the task is started, the permissions required to delete nested entries are
+ * checked while the tree is traversed.
+ */
+public class RecursiveDeleteOperation extends MRCOperation {
+
+    public RecursiveDeleteOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        // perform master redirect if necessary
+        if (master.getReplMasterUUID() != null
+            && !master.getReplMasterUUID().equals(master.getConfig().getUUID().toString()))
+            throw new DatabaseException(ExceptionType.REDIRECT);
+
+        final xtreemfs_rmdir_recursiveRequest rqArgs = (xtreemfs_rmdir_recursiveRequest) rq.getRequestArgs();
+
+        final FileAccessManager faMan = master.getFileAccessManager();
+
+        validateContext(rq);
+
+        Path p = new Path(rqArgs.getVolumeName(), rqArgs.getPath());
+        if (p.getCompCount() == 1)
+            throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, "the root directory of a volume cannot be deleted");
+
+        final StorageManager sMan = master.getVolumeManager().getStorageManagerByName(p.getComp(0));
+        final PathResolver res = new PathResolver(sMan, p);
+
+        // check whether the path prefix is searchable
+        faMan.checkSearchPermission(sMan, res, rq.getDetails().userId, rq.getDetails().superUser,
+            rq.getDetails().groupIds);
+
+        // check whether the parent directory grants write access
+        faMan.checkPermission(FileAccessManager.O_WRONLY, sMan, res.getParentDir(), 0, rq.getDetails().userId,
+            rq.getDetails().superUser, rq.getDetails().groupIds);
+
+        // check whether the directory exists
+        res.checkIfFileDoesNotExist();
+
+        FileMetadata dir = res.getFile();
+        if (!dir.isDirectory())
+            throw new UserException(POSIXErrno.POSIX_ERROR_ENOTDIR, "'" + p + "' is not a directory");
+
+        // check whether the directory itself can be deleted
+        faMan.checkPermission(FileAccessManager.NON_POSIX_RM_MV_IN_DIR, sMan, dir, res.getParentDirId(),
+            rq.getDetails().userId, rq.getDetails().superUser, rq.getDetails().groupIds);
+
+        // check whether the entries of the directory can be listed and removed
+        faMan.checkPermission(FileAccessManager.O_WRONLY, sMan, dir, 0, rq.getDetails().userId,
+            rq.getDetails().superUser, rq.getDetails().groupIds);
+        faMan.checkPermission(FileAccessManager.NON_POSIX_SEARCH, sMan, dir, 0, rq.getDetails().userId,
+            rq.getDetails().superUser, rq.getDetails().groupIds);
+
+        long taskId = master.getRecursiveDeletionManager().startDeletion(sMan, dir, res.getParentDir(),
+            res.getParentsParentId(), rq.getDetails().userId, rq.getDetails().superUser,
+            rq.getDetails().groupIds,
+            ((InetSocketAddress) rq.getRPCRequest().getSenderAddress()).getAddress().getHostAddress());
+
+        // set the response
+        rq.setResponse(xtreemfs_rmdir_recursiveResponse.newBuilder().setTaskId(taskId).build());
+        finishRequest(rq);
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_renew_metadata_leaseRequest;
+
+/**
+ * Renews a client's metadata lease on a volume. The response contains all
+ * paths that have been modified since the last renewal, so that the client can
+ * selectively invalidate its metadata cache.
+ */
+public class RenewMetadataLeaseOperation extends MRCOperation {
+
+    public RenewMetadataLeaseOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public boolean isReadOnly(MRCRequest rq) {
+        return true;
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        final xtreemfs_renew_metadata_leaseRequest rqArgs = (xtreemfs_renew_metadata_leaseRequest) rq
+                .getRequestArgs();
+
+        validateContext(rq);
+
+        // check whether the volume exists
+        master.getVolumeManager().getStorageManagerByName(rqArgs.getVolumeName());
+
+        rq.setResponse(master.getMetadataLeaseManager().renewLease(rqArgs.getVolumeName(), rqArgs.getLeaseEpoch(),
+                rqArgs.getLastSeenChange()));
+        finishRequest(rq);
+    }
+
+}
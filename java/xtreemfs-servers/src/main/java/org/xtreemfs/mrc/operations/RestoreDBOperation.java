@@ -29,6 +29,7 @@ import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.mrc.utils.BinaryDBDump;
 import org.xtreemfs.mrc.utils.DBAdminHelper;
 import org.xtreemfs.mrc.utils.DBAdminHelper.DBRestoreState;
 import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
@@ -40,9 +41,17 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_dump_restore_database
  */
 public class RestoreDBOperation extends MRCOperation {
     
+    /** the number of records inserted per update when restoring a binary dump */
+    private static final int RESTORE_BATCH_SIZE = 1000;
+    
     public RestoreDBOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -70,9 +79,21 @@ public class RestoreDBOperation extends MRCOperation {
                     POSIXErrno.POSIX_ERROR_EPERM,
                     "Restoring from a dump is only possible on an MRC with no database. Please delete the existing MRC database on the server and restart the MRC!");
             
+            File dumpFile = new File(rqArgs.getDumpFile());
+            if (BinaryDBDump.isBinaryDump(dumpFile)) {
+                
+                BinaryDBDump.restore(vMan, master.getFileAccessManager(), dumpFile, Runtime.getRuntime()
+                        .availableProcessors(), RESTORE_BATCH_SIZE);
+                
+                // set the response
+                rq.setResponse(emptyResponse.getDefaultInstance());
+                finishRequest(rq);
+                return;
+            }
+            
             SAXParserFactory spf = SAXParserFactory.newInstance();
             SAXParser sp = spf.newSAXParser();
-            sp.parse(new File(rqArgs.getDumpFile()), new DefaultHandler() {
+            sp.parse(dumpFile, new DefaultHandler() {
                 
                 private DBRestoreState state;
                 
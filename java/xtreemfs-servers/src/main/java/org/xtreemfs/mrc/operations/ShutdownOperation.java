@@ -27,6 +27,11 @@ public class ShutdownOperation extends MRCOperation {
     public ShutdownOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean affectsAllVolumes() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
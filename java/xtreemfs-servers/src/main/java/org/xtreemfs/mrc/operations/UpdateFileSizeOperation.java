@@ -37,6 +37,7 @@ import org.xtreemfs.mrc.utils.Converter;
 import org.xtreemfs.mrc.utils.MRCHelper;
 import org.xtreemfs.mrc.utils.MRCHelper.GlobalFileIdResolver;
 import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
 
@@ -83,58 +84,16 @@ public class UpdateFileSizeOperation extends MRCOperation {
         
         AtomicDBUpdate update = sMan.createAtomicDBUpdate(master, rq);
         
-        // update the file size if necessary
-        if (rqArgs.getOsdWriteResponse().hasSizeInBytes()) {
-            
-            if (file.isReadOnly())
-                throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, "file '" + cap.getFileId()
-                    + "' is read-only");
-            
-            if (!rqArgs.getOsdWriteResponse().hasTruncateEpoch())
-                throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL,
-                    "missing truncate epoch in OSDWriteResponse");
-            
-            long newFileSize = rqArgs.getOsdWriteResponse().getSizeInBytes();
-            int epochNo = rqArgs.getOsdWriteResponse().getTruncateEpoch();
-            
-            // only accept valid file size updates
-            if (epochNo >= file.getEpoch()) {
-                
-                boolean epochChanged = epochNo > file.getEpoch();
-                
-                // accept any file size in a new epoch but only larger file
-                // sizes in the current epoch
-                if (epochChanged || newFileSize > file.getSize()) {
-                    
-                    long oldFileSize = file.getSize();
-                    int time = (int) (TimeSync.getGlobalTime() / 1000);
-                    
-                    file.setSize(newFileSize);
-                    file.setEpoch(epochNo);
-                    file.setCtime(time);
-                    file.setMtime(time);
-                    
-                    sMan.setMetadata(file, FileMetadata.FC_METADATA, update);
-                    
-                    if (epochChanged)
-                        sMan.setMetadata(file, FileMetadata.RC_METADATA, update);
-                    
-                    // update the volume size
-                    sMan.getVolumeInfo().updateVolumeSize(newFileSize - oldFileSize, update);
-                }
-
-                else if (Logging.isDebug())
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
-                        "received update for outdated file size: " + newFileSize + ", current file size="
-                            + file.getSize());
-            }
-
-            else {
-                if (Logging.isDebug())
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
-                        "received file size update w/ outdated epoch: " + epochNo + ", current epoch="
-                            + file.getEpoch());
-            }
+        // update the file size if necessary; single updates are sent on
+        // close, fsync and flush and are thus always written through
+        boolean modified = updateFileSize(sMan, cap.getFileId(), file, rqArgs.getOsdWriteResponse(), false,
+            update);
+        
+        // make sure that a size collected in memory from a bulk update is
+        // persisted as well, as the client considers it durable afterwards
+        if (!modified && sMan.hasDeferredFileSize(file.getId())) {
+            sMan.setMetadata(file, FileMetadata.FC_METADATA, update);
+            modified = true;
         }
         
         // check if file is closed and on-close replication is required
@@ -236,6 +195,7 @@ public class UpdateFileSizeOperation extends MRCOperation {
             }
             
             sMan.setMetadata(file, FileMetadata.RC_METADATA, update);
+            modified = true;
             
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "added %d replicas",
@@ -256,8 +216,95 @@ public class UpdateFileSizeOperation extends MRCOperation {
         // set the response
         rq.setResponse(emptyResponse.getDefaultInstance());
         
-        update.execute();
+        if (modified)
+            update.execute();
+        else
+            finishRequest(rq);
+        
+    }
+    
+    /**
+     * Applies a file size update received from an OSD to the metadata of a
+     * file. Updates are only accepted for the file's current or a newer
+     * truncate epoch; within the current epoch, only larger sizes are
+     * accepted.
+     * 
+     * @param sMan
+     *            the storage manager of the file's volume
+     * @param fileId
+     *            the global ID of the file
+     * @param file
+     *            the file's metadata
+     * @param osdWriteResponse
+     *            the OSD write response containing the new size
+     * @param deferrable
+     *            if <code>true</code>, a larger size in the current epoch may
+     *            be collected in memory instead of being added to the update
+     * @param update
+     *            the database update
+     * @return <code>true</code>, if the update has been modified
+     * @throws DatabaseException
+     * @throws UserException
+     */
+    static boolean updateFileSize(StorageManager sMan, String fileId, FileMetadata file,
+        OSDWriteResponse osdWriteResponse, boolean deferrable, AtomicDBUpdate update) throws DatabaseException,
+        UserException {
+        
+        if (!osdWriteResponse.hasSizeInBytes())
+            return false;
+        
+        if (file.isReadOnly())
+            throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, "file '" + fileId + "' is read-only");
+        
+        if (!osdWriteResponse.hasTruncateEpoch())
+            throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "missing truncate epoch in OSDWriteResponse");
+        
+        long newFileSize = osdWriteResponse.getSizeInBytes();
+        int epochNo = osdWriteResponse.getTruncateEpoch();
+        
+        // only accept valid file size updates
+        if (epochNo < file.getEpoch()) {
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, UpdateFileSizeOperation.class,
+                    "received file size update w/ outdated epoch: " + epochNo + ", current epoch="
+                        + file.getEpoch());
+            return false;
+        }
+        
+        boolean epochChanged = epochNo > file.getEpoch();
+        
+        // accept any file size in a new epoch but only larger file sizes in
+        // the current epoch
+        if (!epochChanged && newFileSize <= file.getSize()) {
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, UpdateFileSizeOperation.class,
+                    "received update for outdated file size: " + newFileSize + ", current file size="
+                        + file.getSize());
+            return false;
+        }
+        
+        int time = (int) (TimeSync.getGlobalTime() / 1000);
+        
+        // epoch changes are always written immediately
+        if (deferrable && !epochChanged && sMan.setFileSizeDeferred(file, newFileSize, time))
+            return false;
+        
+        long oldFileSize = file.getSize();
+        
+        file.setSize(newFileSize);
+        file.setEpoch(epochNo);
+        file.setCtime(time);
+        file.setMtime(time);
+        
+        sMan.setMetadata(file, FileMetadata.FC_METADATA, update);
+        
+        if (epochChanged)
+            sMan.setMetadata(file, FileMetadata.RC_METADATA, update);
+        
+        // update the volume size
+        sMan.getVolumeInfo().updateVolumeSize(newFileSize - oldFileSize, update);
         
+        return true;
     }
     
 }
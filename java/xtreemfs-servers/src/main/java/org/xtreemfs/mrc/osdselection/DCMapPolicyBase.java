@@ -19,13 +19,14 @@ import java.util.Properties;
 import org.xtreemfs.foundation.LRUCache;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 
 /**
  * Base class for policies that use datacenter maps.
  * 
  * @author bjko, stender
  */
-public abstract class DCMapPolicyBase implements OSDSelectionPolicy {
+public abstract class DCMapPolicyBase implements LocationBasedOSDSelectionPolicy {
     
     public static final String                CONFIG_FILE_PATH = "/etc/xos/xtreemfs/datacentermap";
     
@@ -177,21 +178,34 @@ public abstract class DCMapPolicyBase implements OSDSelectionPolicy {
         if(!initialized)
             return -1;
         
-        Integer cached = matchingDCcache.get(addr);
-        if (cached == null) {
-            for (int i = 0; i < matchers.length; i++) {
-                for (int j = 0; j < matchers[i].length; j++) {
-                    if (matchers[i][j].matches(addr)) {
-                        matchingDCcache.put(addr, i);
-                        return i;
+        // location keys may be computed concurrently with OSD selection
+        synchronized (matchingDCcache) {
+            Integer cached = matchingDCcache.get(addr);
+            if (cached == null) {
+                for (int i = 0; i < matchers.length; i++) {
+                    for (int j = 0; j < matchers[i].length; j++) {
+                        if (matchers[i][j].matches(addr)) {
+                            matchingDCcache.put(addr, i);
+                            return i;
+                        }
                     }
                 }
+                matchingDCcache.put(addr, -1);
+                return -1;
+            } else {
+                return cached;
             }
-            matchingDCcache.put(addr, -1);
-            return -1;
-        } else {
-            return cached;
         }
     }
     
+    @Override
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords) {
+        
+        // the distance to each OSD only depends on the client's datacenter
+        if (clientIP instanceof Inet4Address)
+            return getMatchingDC((Inet4Address) clientIP);
+        
+        return clientIP;
+    }
+    
 }
@@ -8,15 +8,18 @@
 
 package org.xtreemfs.mrc.osdselection;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
+
 /**
  * Base class for policies that use datacenter maps.
  * 
  * @author bjko, stender
  */
-public abstract class FQDNPolicyBase implements OSDSelectionPolicy {
+public abstract class FQDNPolicyBase implements LocationBasedOSDSelectionPolicy {
     
     /**
      * Counts the number of consecutive matching components in the given domain
@@ -47,6 +50,11 @@ public abstract class FQDNPolicyBase implements OSDSelectionPolicy {
         return match;
     }
     
+    @Override
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords) {
+        return clientIP;
+    }
+    
     private static String[] tokenizeAndReverseDN(String dn) {
         
         List<Integer> dots = new ArrayList<Integer>();
@@ -32,7 +32,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSD.OSDHealthResult;
  * 
  * @author stender
  */
-public class FilterDefaultPolicy implements OSDSelectionPolicy {
+public class FilterDefaultPolicy implements StaticOSDSelectionPolicy {
     
     public static final short       POLICY_ID           = (short) OSDSelectionPolicyType.OSD_SELECTION_POLICY_FILTER_DEFAULT
                                                                 .getNumber();
@@ -31,7 +31,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
  * 
  * @author stender
  */
-public class FilterFQDNPolicy implements OSDSelectionPolicy {
+public class FilterFQDNPolicy implements StaticOSDSelectionPolicy {
     
     public static final short   POLICY_ID = (short) OSDSelectionPolicyType.OSD_SELECTION_POLICY_FILTER_FQDN
                                                   .getNumber();
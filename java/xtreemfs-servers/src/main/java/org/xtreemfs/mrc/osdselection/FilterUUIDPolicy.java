@@ -30,7 +30,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
  *
  * @author stender, seibert
  */
-public class FilterUUIDPolicy implements OSDSelectionPolicy {
+public class FilterUUIDPolicy implements StaticOSDSelectionPolicy {
 
     public static final short POLICY_ID = (short) OSDSelectionPolicyType
             .OSD_SELECTION_POLICY_FILTER_UUID
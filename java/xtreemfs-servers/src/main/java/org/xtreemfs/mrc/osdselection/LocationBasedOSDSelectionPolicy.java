@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.osdselection;
+
+import java.net.InetAddress;
+
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
+
+/**
+ * Interface for deterministic policies whose results depend on the location
+ * of the client, but not on the file or the time of the request. The results
+ * of such policies are cached per client location.
+ */
+public interface LocationBasedOSDSelectionPolicy extends OSDSelectionPolicy {
+
+    /**
+     * Returns a key that identifies the location of a client as far as it is
+     * relevant for the policy. For the same set of OSDs and the same number of
+     * requested OSDs, clients with equal keys have to be assigned the same
+     * list of OSDs.
+     *
+     * @param clientIP     the client's IP address
+     * @param clientCoords the client's Vivaldi coordinates
+     * @return the location key, which may be <code>null</code> if the result
+     *         does not depend on the client's location
+     */
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords);
+
+}
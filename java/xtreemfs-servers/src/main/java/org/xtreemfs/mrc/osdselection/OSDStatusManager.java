@@ -10,15 +10,19 @@ package org.xtreemfs.mrc.osdselection;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xtreemfs.common.KeyValuePairs;
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.mrc.MRCRequestDispatcher;
 import org.xtreemfs.mrc.database.DatabaseException;
@@ -36,6 +40,11 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
  * 定期检查每个卷的合适OSD
  *
  * Checks regularly for suitable OSDs for each volume.
+ * <p>
+ * The known OSDs are kept as an immutable snapshot that is replaced whenever
+ * a new list of OSDs has been received, so that OSD selection does not
+ * require any global locking. The candidate OSDs of each volume are
+ * recomputed from each new snapshot.
  * 
  * @author bjko
  */
@@ -47,6 +56,24 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
      */
     private int                                checkIntervalMillis = 1000 * 5;
     
+    /**
+     * Time in ms the DIR collects further OSD changes before it answers a
+     * watch.
+     */
+    static final int                           WATCH_BATCH_DELAY_MS = 1000;
+    
+    /**
+     * Time in ms after which the DIR answers a watch if no OSD has changed;
+     * has to be shorter than the RPC timeout of the MRC.
+     */
+    static final int                           WATCH_TIMEOUT_MS     = 10 * 1000;
+    
+    /**
+     * True, if the DIR supports watching the OSDs; the OSDs are polled
+     * otherwise.
+     */
+    private boolean                            watchOSDs            = true;
+    
     /**
      * 与该线程一起注册的卷列表
      * A list of volumes registered with the thread.
@@ -58,13 +85,13 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
      *
      * The latest set of all known OSDs fetched from the Directory Service.
      */
-    private ServiceSet.Builder                 knownOSDs;
+    private volatile ServiceSet                knownOSDs;
     
     /**
      * 根据uuid排序的osd map
      * A map containing all known OSDs sorted by their UUIDs.
      */
-    private final Map<String, Service>               knownOSDMap;
+    private volatile Map<String, Service>      knownOSDMap;
     
     /**
      * 退出线程标志
@@ -84,9 +111,9 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         
         this.master = master;
         
-        volumeMap = new HashMap<String, VolumeOSDFilter>();
-        knownOSDs = ServiceSet.newBuilder();
-        knownOSDMap = new HashMap<String, Service>();
+        volumeMap = new ConcurrentHashMap<String, VolumeOSDFilter>();
+        knownOSDs = ServiceSet.getDefaultInstance();
+        knownOSDMap = Collections.emptyMap();
         
         int interval = master.getConfig().getOsdCheckInterval();
         checkIntervalMillis = 1000 * interval;
@@ -98,9 +125,10 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         final String volId = volume.getId();
         VolumeOSDFilter vol = volumeMap.get(volId);
         
-        if (vol == null) {
-            vol = new VolumeOSDFilter(master, knownOSDMap);
-            volumeMap.put(volId, vol);
+        boolean newVolume = vol == null;
+        if (newVolume) {
+            vol = new VolumeOSDFilter(master);
+            vol.updateOSDs(knownOSDs, knownOSDMap);
         }
         
         try {
@@ -109,6 +137,9 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
             Logging.logError(Logging.LEVEL_ERROR, this, e);
         }
         
+        if (newVolume)
+            volumeMap.put(volId, vol);
+        
         this.notifyAll();
     }
     
@@ -150,8 +181,9 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         
         // initially fetch the list of OSDs from the Directory Service
         try {
-            knownOSDs = master.getDirClient().xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
-                RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD).toBuilder();
+            evaluateResponse(master.getDirClient().xtreemfs_service_get_by_type(null,
+                RPCAuthentication.authNone, RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD)
+                    .toBuilder());
         } catch (Throwable exc) {
             this.notifyCrashed(exc);
         }
@@ -164,10 +196,38 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         
         while (!quit) {
             
+            if (watchOSDs) {
+                try {
+                    // wait until the DIR reports changes of the OSDs
+                    ServiceSet osds = master.getDirClient().xtreemfs_service_watch(null,
+                        RPCAuthentication.authNone, RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD,
+                        knownOSDs, WATCH_BATCH_DELAY_MS, WATCH_TIMEOUT_MS);
+                    
+                    evaluateResponse(osds.toBuilder());
+                    continue;
+                    
+                } catch (PBRPCException ex) {
+                    if (ex.getErrorType() == ErrorType.INVALID_PROC_ID) {
+                        Logging.logMessage(Logging.LEVEL_INFO, Category.misc, this,
+                            "DIR does not support watching OSDs, polling every %d s", checkIntervalMillis / 1000);
+                        watchOSDs = false;
+                    } else if (!quit)
+                        Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, OutputUtils
+                                .stackTraceToString(ex));
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Exception exc) {
+                    // poll the DIR once before watching again
+                    if (!quit)
+                        Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, OutputUtils
+                                .stackTraceToString(exc));
+                }
+            }
+            
             synchronized (this) {
                 try {
                     this
-                            .wait(knownOSDs == null || knownOSDs.getServicesCount() == 0 ? checkIntervalMillis / 2
+                            .wait(knownOSDs.getServicesCount() == 0 ? checkIntervalMillis / 2
                                 : checkIntervalMillis);
                 } catch (InterruptedException ex) {
                     break;
@@ -180,15 +240,17 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
             try {
                 // 请求目录中已注册OSD的列表
                 // request list of registered OSDs from Directory
-                // Service
-                knownOSDs = master.getDirClient().xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
-                            RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD).toBuilder();
+                // Service; the OSDs are only transferred if they have
+                // changed since the last request
+                ServiceSet.Builder osds = master.getDirClient().xtreemfs_service_get_by_type_if_modified(null,
+                    RPCAuthentication.authNone, RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD,
+                    knownOSDs).toBuilder();
                 
                 Logging
                         .logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
                             "... received OSD list from DIR");
                 
-                evaluateResponse(knownOSDs);
+                evaluateResponse(osds);
                 
             } catch (InterruptedException ex) {
                 break;
@@ -217,7 +279,7 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
      *            the number of requested OSDs
      * @return a list of feasible OSDs
      */
-    public synchronized ServiceSet.Builder getUsableOSDs(String volumeId, InetAddress clientIP,
+    public ServiceSet.Builder getUsableOSDs(String volumeId, InetAddress clientIP,
         VivaldiCoordinates clientCoords, XLocList currentXLoc, int numOSDs, String path) {
         
         VolumeOSDFilter vol = volumeMap.get(volumeId);
@@ -228,8 +290,7 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         }
         
         // return a set of OSDs
-        ServiceSet.Builder result = vol.filterByOSDSelectionPolicy(knownOSDs,
-                                                                   clientIP,
+        ServiceSet.Builder result = vol.filterByOSDSelectionPolicy(clientIP,
                                                                    clientCoords,
                                                                    currentXLoc,
                                                                    numOSDs,
@@ -238,7 +299,7 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         return result;
     }
     
-    public synchronized ServiceSet.Builder getUsableOSDs(String volumeId) {
+    public ServiceSet.Builder getUsableOSDs(String volumeId) {
         
         VolumeOSDFilter vol = volumeMap.get(volumeId);
         if (vol == null) {
@@ -248,10 +309,10 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         }
         
         // return a set of OSDs
-        return vol.filterByOSDSelectionPolicy(knownOSDs);
+        return vol.filterByOSDSelectionPolicy();
     }
     
-    public synchronized Replicas getSortedReplicaList(String volumeId, InetAddress clientIP,
+    public Replicas getSortedReplicaList(String volumeId, InetAddress clientIP,
         VivaldiCoordinates clientCoords, List<Replica> repls, XLocList xLocList, String path) {
         
         VolumeOSDFilter vol = volumeMap.get(volumeId);
@@ -284,14 +345,22 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "%s", osd.getUuid());
             }
         
-        // update the list of known OSDs
-        this.knownOSDs = knownOSDs;
-        knownOSDMap.clear();
-        for (Service osd : knownOSDs.getServicesList())
-            knownOSDMap.put(osd.getUuid(), osd);
+        // replace the snapshot of known OSDs
+        ServiceSet osds = knownOSDs.build();
+        Map<String, Service> osdMap = new HashMap<String, Service>();
+        for (Service osd : osds.getServicesList())
+            osdMap.put(osd.getUuid(), osd);
+        osdMap = Collections.unmodifiableMap(osdMap);
+        
+        this.knownOSDs = osds;
+        this.knownOSDMap = osdMap;
+        
+        // precompute the candidate OSDs of all volumes
+        for (VolumeOSDFilter vol : volumeMap.values())
+            vol.updateOSDs(osds, osdMap);
     }
     
-    public synchronized Service getOSDService(String uuid) {
+    public Service getOSDService(String uuid) {
         return knownOSDMap.get(uuid);
     }
     
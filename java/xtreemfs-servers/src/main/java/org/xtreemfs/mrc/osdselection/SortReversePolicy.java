@@ -17,7 +17,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 /**
  * Reverses the list of replicas. Mainly used internally in unit tests.
  */
-public class SortReversePolicy implements OSDSelectionPolicy {
+public class SortReversePolicy implements LocationBasedOSDSelectionPolicy {
 
     public static final short POLICY_ID = (short) OSDSelectionPolicyType.OSD_SELECTION_POLICY_SORT_REVERSE.getNumber();
 
@@ -40,6 +40,12 @@ public class SortReversePolicy implements OSDSelectionPolicy {
         return allOSDs;
     }
 
+    @Override
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords) {
+        // the order does not depend on the client
+        return null;
+    }
+
     @Override
     public void setAttribute(String key, String value) {
         // don't accept any attributes
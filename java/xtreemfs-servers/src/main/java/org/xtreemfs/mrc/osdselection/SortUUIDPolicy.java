@@ -19,7 +19,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 /**
  * Sorts the list of OSDs based on their UUID. This is mainly used by internal tests.
  */
-public class SortUUIDPolicy implements OSDSelectionPolicy {
+public class SortUUIDPolicy implements LocationBasedOSDSelectionPolicy {
 
     public static final short POLICY_ID = (short) OSDSelectionPolicyType.OSD_SELECTION_POLICY_SORT_UUID.getNumber();
 
@@ -51,6 +51,12 @@ public class SortUUIDPolicy implements OSDSelectionPolicy {
         return allOSDs;
     }
 
+    @Override
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords) {
+        // the order does not depend on the client
+        return null;
+    }
+
     @Override
     public void setAttribute(String key, String value) {
         // don't accept any attributes
@@ -9,6 +9,7 @@
 package org.xtreemfs.mrc.osdselection;
 
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,11 +26,17 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
  * 
  * @author Juan González (BSC)
  */
-public class SortVivaldiPolicy implements OSDSelectionPolicy {
+public class SortVivaldiPolicy implements LocationBasedOSDSelectionPolicy {
     
     public static final short POLICY_ID = (short) OSDSelectionPolicyType.OSD_SELECTION_POLICY_SORT_VIVALDI
                                                 .getNumber();
     
+    /**
+     * Edge length of the square regions of the Vivaldi coordinate space in
+     * which clients are assigned the same order of OSDs.
+     */
+    public static final double VIVALDI_REGION_SIZE = 10.0;
+    
     public ServiceSet.Builder getOSDs(ServiceSet.Builder allOSDs,
                                       InetAddress clientIP,
                                       VivaldiCoordinates clientCoords,
@@ -116,4 +123,15 @@ public class SortVivaldiPolicy implements OSDSelectionPolicy {
         // No attribute defined yet
     }
     
+    public Object getLocationKey(InetAddress clientIP, VivaldiCoordinates clientCoords) {
+        
+        if (clientCoords == null)
+            return null;
+        
+        // clients in the same region are close enough to each other to
+        // share a sorted list of OSDs
+        return Arrays.asList(Math.round(clientCoords.getXCoordinate() / VIVALDI_REGION_SIZE), Math
+                .round(clientCoords.getYCoordinate() / VIVALDI_REGION_SIZE));
+    }
+    
 }
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.osdselection;
+
+/**
+ * Marker interface for policies that select OSDs solely based on the OSDs'
+ * own properties and the policy attributes. For requests that do not refer to
+ * an existing X-Locations list, <code>getOSDs(allOSDs, ...)</code> has to
+ * return the same OSDs as <code>getOSDs(allOSDs)</code>.
+ * <p>
+ * The results of such policies can be computed in advance whenever the set of
+ * known OSDs changes, instead of being computed for each request.
+ */
+public interface StaticOSDSelectionPolicy extends OSDSelectionPolicy {
+
+}
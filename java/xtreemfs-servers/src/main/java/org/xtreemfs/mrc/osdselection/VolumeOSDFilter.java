@@ -9,9 +9,12 @@
 package org.xtreemfs.mrc.osdselection;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -34,42 +37,114 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 
 /**
  * Volume and policy record.
+ * <p>
+ * OSD selection is based on immutable snapshots of the known OSDs. Whenever a
+ * new snapshot is provided, the leading {@link StaticOSDSelectionPolicy
+ * static} policies of the volume's OSD selection policy are evaluated in
+ * advance, so that requests only have to apply the remaining policies to the
+ * resulting candidates. If all remaining policies are
+ * {@link LocationBasedOSDSelectionPolicy location-based}, their results are
+ * cached per client location until the next snapshot is provided.
+ * <p>
+ * Cached results and the OSDs returned for requests without context are
+ * retrieved without locking. As policies are not required to be thread-safe,
+ * all other evaluations of the volume's policies are serialized.
  */
 public class VolumeOSDFilter {
 
-    private final MRCRequestDispatcher           master;
+    /**
+     * maximum number of OSD lists cached per volume
+     */
+    private static final int MAX_CACHED_RESULTS = 1024;
+
+    /**
+     * OSDs derived from a snapshot of all known OSDs.
+     */
+    private static final class Candidates {
+
+        /**
+         * all known OSDs
+         */
+        final ServiceSet                                  knownOSDs;
+
+        /**
+         * map containing all known OSDs
+         */
+        final Map<String, Service>                        knownOSDMap;
+
+        /**
+         * OSDs selected by the leading static OSD selection policies
+         */
+        final ServiceSet                                  filteredOSDs;
+
+        /**
+         * OSDs selected by the complete OSD selection policy without context
+         */
+        final ServiceSet                                  usableOSDs;
+
+        /**
+         * OSDs selected by the complete OSD selection policy, by location
+         */
+        final ConcurrentHashMap<List<Object>, ServiceSet> sortedOSDs;
+
+        Candidates(ServiceSet knownOSDs, Map<String, Service> knownOSDMap, ServiceSet filteredOSDs,
+            ServiceSet usableOSDs) {
+            this.knownOSDs = knownOSDs;
+            this.knownOSDMap = knownOSDMap;
+            this.filteredOSDs = filteredOSDs;
+            this.usableOSDs = usableOSDs;
+            this.sortedOSDs = new ConcurrentHashMap<List<Object>, ServiceSet>();
+        }
+    }
+
+    private final MRCRequestDispatcher                        master;
 
     /**
      * volume ID
      */
-    private String                         volId;
+    private String                                            volId;
 
     /**
      * OSD selection policy
      */
-    private short[]                        osdPolicy;
+    private short[]                                           osdPolicy;
 
     /**
      * replica selection policy
      */
-    private short[]                        replPolicy;
+    private short[]                                           replPolicy;
 
     /**
      * map containing instances of all OSD policies
      */
-    private Map<Short, OSDSelectionPolicy> policyMap;
+    private Map<Short, OSDSelectionPolicy>                    policyMap;
+
+    /**
+     * number of leading static policies in the OSD selection policy
+     */
+    private int                                               numStaticPolicies;
+
+    /**
+     * the non-static policies in the OSD selection policy, if all of them
+     * are location-based; <code>null</code>, otherwise
+     */
+    private volatile List<LocationBasedOSDSelectionPolicy>    locationPolicies;
 
     /**
-     * map containing all known OSDs
+     * the current candidate OSDs
      */
-    private final Map<String, Service>           knownOSDMap;
+    private volatile Candidates                               candidates;
 
-    public VolumeOSDFilter(MRCRequestDispatcher master, Map<String, Service> knownOSDMap) {
+    public VolumeOSDFilter(MRCRequestDispatcher master) {
         this.master = master;
-        this.knownOSDMap = knownOSDMap;
+        this.osdPolicy = new short[0];
+        this.replPolicy = new short[0];
+        this.policyMap = new HashMap<Short, OSDSelectionPolicy>();
+        this.candidates = new Candidates(ServiceSet.getDefaultInstance(), Collections
+                .<String, Service> emptyMap(), ServiceSet.getDefaultInstance(), ServiceSet.getDefaultInstance());
     }
 
-    public void init(VolumeInfo volume) throws DatabaseException {
+    public synchronized void init(VolumeInfo volume) throws DatabaseException {
 
         this.volId = volume.getId();
         this.osdPolicy = volume.getOsdPolicy();
@@ -101,6 +176,29 @@ public class VolumeOSDFilter {
             }
         }
 
+        // determine which parts of the OSD selection policy can be evaluated
+        // in advance or cached
+        numStaticPolicies = 0;
+        while (numStaticPolicies < osdPolicy.length) {
+            OSDSelectionPolicy policy = policyMap.get(osdPolicy[numStaticPolicies]);
+            if (policy != null && !(policy instanceof StaticOSDSelectionPolicy))
+                break;
+            numStaticPolicies++;
+        }
+
+        List<LocationBasedOSDSelectionPolicy> locPolicies = new ArrayList<LocationBasedOSDSelectionPolicy>();
+        for (int i = numStaticPolicies; i < osdPolicy.length; i++) {
+            OSDSelectionPolicy policy = policyMap.get(osdPolicy[i]);
+            if (policy == null || policy instanceof StaticOSDSelectionPolicy)
+                continue;
+            if (!(policy instanceof LocationBasedOSDSelectionPolicy)) {
+                locPolicies = null;
+                break;
+            }
+            locPolicies.add((LocationBasedOSDSelectionPolicy) policy);
+        }
+        locationPolicies = locPolicies;
+
         // get all policy attributes
 
         try {
@@ -110,7 +208,7 @@ public class VolumeOSDFilter {
             while (xattrs.hasNext()) {
                 XAttr xattr = xattrs.next();
                 if (xattr.getKey().startsWith(MRCHelper.XTREEMFS_POLICY_ATTR_PREFIX)) {
-                    setAttribute(xattr.getKey(), new String(xattr.getValue()));
+                    applyAttribute(xattr.getKey(), new String(xattr.getValue()));
                 }
             }
 
@@ -121,9 +219,15 @@ public class VolumeOSDFilter {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, OutputUtils.stackTraceToString(exc));
         }
 
+        updateOSDs(candidates.knownOSDs, candidates.knownOSDMap);
+    }
+
+    public synchronized void setAttribute(String key, String value) {
+        applyAttribute(key, value);
+        updateOSDs(candidates.knownOSDs, candidates.knownOSDMap);
     }
 
-    public void setAttribute(String key, String value) {
+    private void applyAttribute(String key, String value) {
 
         assert (key.startsWith(MRCHelper.XTREEMFS_POLICY_ATTR_PREFIX));
         key = key.substring(MRCHelper.XTREEMFS_POLICY_ATTR_PREFIX.length());
@@ -151,47 +255,115 @@ public class VolumeOSDFilter {
 
     }
 
-    public ServiceSet.Builder filterByOSDSelectionPolicy(ServiceSet.Builder knownOSDs, InetAddress clientIP,
-            VivaldiCoordinates clientCoords, XLocList currentXLoc, int numOSDs, String path) {
+    /**
+     * Recomputes the candidate OSDs of the volume from a new snapshot of all
+     * known OSDs. Previously cached results are discarded.
+     *
+     * @param knownOSDs
+     *            all known OSDs
+     * @param knownOSDMap
+     *            an immutable map containing all known OSDs by their UUIDs
+     */
+    public synchronized void updateOSDs(ServiceSet knownOSDs, Map<String, Service> knownOSDMap) {
 
-        ServiceSet.Builder result = ServiceSet.newBuilder().addAllServices(knownOSDs.getServicesList());
-        for (short id : osdPolicy) {
-            OSDSelectionPolicy policy = policyMap.get(id);
-            if (policy == null) {
-                Logging.logMessage(Logging.LEVEL_ERROR, Category.proc, this,
-                        "could not find OSD selection policy with ID=%d, will be ignored", id);
-                continue;
-            }
+        ServiceSet.Builder filtered = knownOSDs.toBuilder();
+        for (int i = 0; i < numStaticPolicies; i++) {
+            OSDSelectionPolicy policy = getOSDPolicy(osdPolicy[i]);
+            if (policy != null)
+                filtered = policy.getOSDs(filtered);
+        }
+        ServiceSet filteredOSDs = filtered.build();
 
-            result = policy.getOSDs(result, clientIP, clientCoords,
-                                    currentXLoc, numOSDs, path);
+        ServiceSet.Builder usable = filteredOSDs.toBuilder();
+        for (int i = numStaticPolicies; i < osdPolicy.length; i++) {
+            OSDSelectionPolicy policy = getOSDPolicy(osdPolicy[i]);
+            if (policy != null)
+                usable = policy.getOSDs(usable);
         }
 
-        return result;
+        candidates = new Candidates(knownOSDs, knownOSDMap, filteredOSDs, usable.build());
     }
 
-    public ServiceSet.Builder filterByOSDSelectionPolicy(ServiceSet.Builder knownOSDs) {
+    public ServiceSet.Builder filterByOSDSelectionPolicy(InetAddress clientIP, VivaldiCoordinates clientCoords,
+            XLocList currentXLoc, int numOSDs, String path) {
 
-        ServiceSet.Builder result = ServiceSet.newBuilder().addAllServices(knownOSDs.getServicesList());
-        for (short id : osdPolicy) {
+        // static policies may exclude the OSDs of the current XLoc list, so
+        // the complete policy has to be evaluated in this case
+        if (currentXLoc != null) {
+            synchronized (this) {
+                return applyOSDPolicies(candidates.knownOSDs.toBuilder(), 0, clientIP, clientCoords, currentXLoc,
+                        numOSDs, path);
+            }
+        }
 
-            OSDSelectionPolicy policy = policyMap.get(id);
+        // check whether a result has been cached for the client's location
+        Candidates cand = candidates;
+        List<LocationBasedOSDSelectionPolicy> locPolicies = locationPolicies;
+        List<Object> locationKey = null;
+        if (locPolicies != null) {
 
-            if (policy == null) {
-                Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
-                        "could not find OSD selection policy with ID %d, will be ignored", id);
-                continue;
-            }
+            locationKey = new ArrayList<Object>(locPolicies.size() + 1);
+            for (LocationBasedOSDSelectionPolicy policy : locPolicies)
+                locationKey.add(policy.getLocationKey(clientIP, clientCoords));
+            locationKey.add(numOSDs);
+
+            ServiceSet cached = cand.sortedOSDs.get(locationKey);
+            if (cached != null)
+                return cached.toBuilder();
+        }
 
-            result = policy.getOSDs(result);
+        ServiceSet.Builder result;
+        synchronized (this) {
+
+            // the candidates or policies may have changed in the meantime
+            if (locPolicies != locationPolicies)
+                locationKey = null;
+            cand = candidates;
+
+            result = applyOSDPolicies(cand.filteredOSDs.toBuilder(), numStaticPolicies, clientIP, clientCoords,
+                    null, numOSDs, path);
+        }
+
+        if (locationKey != null) {
+            if (cand.sortedOSDs.size() >= MAX_CACHED_RESULTS)
+                cand.sortedOSDs.clear();
+            cand.sortedOSDs.put(locationKey, result.build());
         }
 
         return result;
     }
 
+    public ServiceSet.Builder filterByOSDSelectionPolicy() {
+        return candidates.usableOSDs.toBuilder();
+    }
+
+    private ServiceSet.Builder applyOSDPolicies(ServiceSet.Builder osds, int firstPolicy, InetAddress clientIP,
+            VivaldiCoordinates clientCoords, XLocList currentXLoc, int numOSDs, String path) {
+
+        for (int i = firstPolicy; i < osdPolicy.length; i++) {
+            OSDSelectionPolicy policy = getOSDPolicy(osdPolicy[i]);
+            if (policy != null)
+                osds = policy.getOSDs(osds, clientIP, clientCoords, currentXLoc, numOSDs, path);
+        }
+
+        return osds;
+    }
+
+    private OSDSelectionPolicy getOSDPolicy(short id) {
+
+        OSDSelectionPolicy policy = policyMap.get(id);
+        if (policy == null)
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.proc, this,
+                    "could not find OSD selection policy with ID=%d, will be ignored", id);
+
+        return policy;
+    }
+
     public Replicas sortByReplicaSelectionPolicy(InetAddress clientIP, VivaldiCoordinates clientCoords,
             List<Replica> unsortedRepls, XLocList xLocList, String path) {
 
+        Map<String, Service> knownOSDMap = candidates.knownOSDMap;
+
         // head OSD -> replica
         Map<String, Replica> replMap = new HashMap<String, Replica>();
 
@@ -221,17 +393,19 @@ public class VolumeOSDFilter {
         }
 
         // sort the list of head OSDs according to the policy
-        for (short id : replPolicy) {
-            OSDSelectionPolicy policy = policyMap.get(id);
+        synchronized (this) {
+            for (short id : replPolicy) {
+                OSDSelectionPolicy policy = policyMap.get(id);
+
+                if (policy == null) {
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
+                            "could not find Replica selection policy with ID %d, will be ignored", id);
+                    continue;
+                }
 
-            if (policy == null) {
-                Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
-                        "could not find Replica selection policy with ID %d, will be ignored", id);
-                continue;
+                headOSDServiceSetBuilder = policy.getOSDs(headOSDServiceSetBuilder, clientIP, clientCoords,
+                        xLocList, headOSDServiceSetBuilder.getServicesCount(), path);
             }
-
-            headOSDServiceSetBuilder = policy.getOSDs(headOSDServiceSetBuilder, clientIP, clientCoords,
-                    xLocList, headOSDServiceSetBuilder.getServicesCount(), path);
         }
 
         // arrange the resulting list of replicas in the same order as the list
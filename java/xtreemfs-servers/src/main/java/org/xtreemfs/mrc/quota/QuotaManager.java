@@ -6,11 +6,13 @@
  */
 package org.xtreemfs.mrc.quota;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.mrc.MRCException;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeManager;
 
@@ -19,7 +21,9 @@ import org.xtreemfs.mrc.database.VolumeManager;
  */
 public class QuotaManager {
 
-    private final Map<String, VolumeQuotaManager> volQuotaManMap = new HashMap<String, VolumeQuotaManager>();
+    private final Map<String, VolumeQuotaManager> volQuotaManMap = new ConcurrentHashMap<String, VolumeQuotaManager>();
+
+    private volatile boolean                      deferPersistence;
 
     /**
      * 
@@ -42,7 +46,7 @@ public class QuotaManager {
         }
     }
 
-    public void addVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
+    public synchronized void addVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
 
         String volumeId = volumeQuotaManager.getVolumeId();
         if (!volQuotaManMap.containsKey(volumeId)) {
@@ -58,15 +62,16 @@ public class QuotaManager {
 
     public VolumeQuotaManager getVolumeQuotaManagerById(String volumeId) throws MRCException {
 
-        if (volQuotaManMap.containsKey(volumeId)) {
-            return volQuotaManMap.get(volumeId);
+        VolumeQuotaManager volumeQuotaManager = volQuotaManMap.get(volumeId);
+        if (volumeQuotaManager != null) {
+            return volumeQuotaManager;
         } else {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "Return VolumeQuotaManager for volumeId: " + volumeId);
             throw new MRCException("There's no VolumeQuotaManager registered for the volumeId " + volumeId);
         }
     }
 
-    public void removeVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
+    public synchronized void removeVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
 
         String volumeId = volumeQuotaManager.getVolumeId();
         if (volQuotaManMap.containsKey(volumeId)) {
@@ -79,6 +84,78 @@ public class QuotaManager {
         }
     }
 
+    /**
+     * Enables or disables deferred persistence of the used and blocked space for all current and future volume quota
+     * managers. If enabled, modified space usage has to be written to the database by means of
+     * {@link #flushSpaceUsage(String, AtomicDBUpdate)}.
+     * 
+     * @param deferPersistence
+     */
+    public void setDeferPersistence(boolean deferPersistence) {
+        this.deferPersistence = deferPersistence;
+        for (VolumeQuotaManager volumeQuotaManager : volQuotaManMap.values()) {
+            volumeQuotaManager.setDeferPersistence(deferPersistence);
+        }
+    }
+
+    public boolean isDeferPersistence() {
+        return deferPersistence;
+    }
+
+    /**
+     * Checks whether the space usage of any volume has been modified since the last flush.
+     */
+    public boolean hasDirtySpaceUsage() {
+        for (VolumeQuotaManager volumeQuotaManager : volQuotaManMap.values()) {
+            if (volumeQuotaManager.hasDirtySpaceUsage()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the modified space usage of a volume to the given update.
+     * 
+     * @param volumeId
+     * @param update
+     * @return the number of modified accounts added to the update
+     * @throws DatabaseException
+     */
+    public int flushSpaceUsage(String volumeId, AtomicDBUpdate update) throws DatabaseException {
+        VolumeQuotaManager volumeQuotaManager = volQuotaManMap.get(volumeId);
+        return volumeQuotaManager == null ? 0 : volumeQuotaManager.flushSpaceUsage(update);
+    }
+
+    /**
+     * Synchronously writes the modified space usage of a volume to the database, e.g. before a snapshot of the volume
+     * is created.
+     * 
+     * @param storageManager
+     * @throws DatabaseException
+     */
+    public void flushSpaceUsage(StorageManager storageManager) throws DatabaseException {
+        VolumeQuotaManager volumeQuotaManager = volQuotaManMap.get(storageManager.getVolumeInfo().getId());
+        if (volumeQuotaManager != null && volumeQuotaManager.hasDirtySpaceUsage()) {
+            AtomicDBUpdate update = storageManager.createAtomicDBUpdate(null, null);
+            volumeQuotaManager.flushSpaceUsage(update);
+            update.execute();
+        }
+    }
+
+    /**
+     * Returns the volume quota manager of a volume, provided that it tracks the space usage of the given storage
+     * manager. This is not the case for snapshots of the volume.
+     * 
+     * @param storageManager
+     * @return the volume quota manager, or <code>null</code>
+     */
+    public VolumeQuotaManager getVolumeQuotaManager(StorageManager storageManager) {
+        VolumeQuotaManager volumeQuotaManager = volQuotaManMap.get(storageManager.getVolumeInfo().getId());
+        return volumeQuotaManager != null && volumeQuotaManager.getVolStorageManager() == storageManager ? volumeQuotaManager
+                : null;
+    }
+
     @Override
     public String toString() {
         return "MRCQuotaManager [volQuotaManMap=" + volQuotaManMap + "]";
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.quota;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.xtreemfs.common.quota.QuotaConstants;
+
+/**
+ * The used and blocked space of a volume, a user or a group, as tracked by a
+ * {@link VolumeQuotaManager}. Accounts are initialized from the database and
+ * modified under their own monitor, so that modifications of different
+ * accounts do not have to be serialized, while the check of the quota against
+ * the sum of used and blocked space cannot interleave with a modification of
+ * the same account.
+ * <p>
+ * Modified accounts are marked dirty until they have been written to the
+ * database.
+ */
+final class SpaceAccount {
+
+    enum Type {
+        VOLUME, USER, GROUP
+    }
+
+    private final Type          type;
+
+    private final String        id;
+
+    private volatile long       usedSpace;
+
+    private volatile long       blockedSpace;
+
+    private final AtomicBoolean dirty;
+
+    /**
+     * set once the blocked space has been modified; it is only stored if
+     * necessary
+     */
+    private volatile boolean    blockedSpaceModified;
+
+    SpaceAccount(Type type, String id, long usedSpace, long blockedSpace) {
+        this.type = type;
+        this.id = id;
+        this.usedSpace = usedSpace;
+        this.blockedSpace = blockedSpace;
+        this.dirty = new AtomicBoolean();
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the ID of the user or group, or <code>null</code> for the volume
+     * account.
+     */
+    String getId() {
+        return id;
+    }
+
+    long getUsedSpace() {
+        return usedSpace;
+    }
+
+    long getBlockedSpace() {
+        return blockedSpace;
+    }
+
+    boolean isBlockedSpaceModified() {
+        return blockedSpaceModified;
+    }
+
+    /**
+     * Adds a difference to the used space.
+     *
+     * @return the new used space
+     */
+    synchronized long addUsedSpace(long difference) {
+        return usedSpace += difference;
+    }
+
+    /**
+     * Adds a difference to the blocked space.
+     *
+     * @return the new blocked space
+     */
+    synchronized long addBlockedSpace(long difference) {
+        blockedSpaceModified = true;
+        return blockedSpace += difference;
+    }
+
+    /**
+     * Blocks the given amount of space, provided that the sum of used and
+     * blocked space does not exceed the quota afterwards.
+     *
+     * @return <code>true</code>, if the space has been blocked
+     */
+    synchronized boolean tryBlockSpace(long amount, long quota) {
+
+        if (quota != QuotaConstants.UNLIMITED_QUOTA && usedSpace + blockedSpace + amount > quota)
+            return false;
+
+        blockedSpaceModified = true;
+        blockedSpace += amount;
+        return true;
+    }
+
+    /**
+     * Marks the account dirty and adds it to the given queue, unless it has
+     * already been marked dirty.
+     */
+    void markDirty(Queue<SpaceAccount> dirtyAccounts) {
+        if (dirty.compareAndSet(false, true))
+            dirtyAccounts.add(this);
+    }
+
+    /**
+     * Clears the dirty flag. Has to be invoked before the account's values
+     * are retrieved for writing them to the database, so that concurrent
+     * modifications cause the account to be marked dirty again.
+     */
+    void clearDirty() {
+        dirty.set(false);
+    }
+
+    @Override
+    public String toString() {
+        return "SpaceAccount [type=" + type + ", id=" + id + ", usedSpace=" + usedSpace + ", blockedSpace="
+            + blockedSpace + "]";
+    }
+
+}
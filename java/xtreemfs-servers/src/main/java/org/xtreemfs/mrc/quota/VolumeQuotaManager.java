@@ -6,6 +6,11 @@
  */
 package org.xtreemfs.mrc.quota;
 
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.xtreemfs.common.quota.QuotaConstants;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
@@ -14,12 +19,21 @@ import org.xtreemfs.mrc.UserException;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.OwnerType;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageHelper.QuotaInfo;
 import org.xtreemfs.mrc.quota.Voucher.VoucherType;
 
 /**
  * This class contains all relevant information regarding the quota of an volume.
  * 
  * It also allocates resources for requesting parties and blocks them, until they get freed.
+ * 
+ * The used and blocked space of the volume and its users and groups is kept in memory in {@link SpaceAccount}s, which
+ * are loaded from the database on first access and modified atomically, so that requests of different users and groups
+ * do not have to be serialized. Space is blocked by means of a compare-and-set on each affected account, which fails
+ * if a concurrent request has consumed the space in the meantime. If persistence is deferred, modified accounts are
+ * written to the database in batches by means of {@link #flushSpaceUsage(AtomicDBUpdate)}; otherwise, they are written
+ * with the update of the request that modified them.
  */
 public class VolumeQuotaManager {
 
@@ -33,10 +47,17 @@ public class VolumeQuotaManager {
 
     private final String              volumeId;
 
-    private long                      volumeQuota             = 0;
-    private long                      volumeVoucherSize       = 0;
-    private long                      volumeDefaultUserQuota  = 0;
-    private long                      volumeDefaultGroupQuota = 0;
+    private volatile long             volumeQuota             = 0;
+    private volatile long             volumeVoucherSize       = 0;
+    private volatile long             volumeDefaultUserQuota  = 0;
+    private volatile long             volumeDefaultGroupQuota = 0;
+
+    private volatile SpaceAccount     volumeAccount;
+    private final ConcurrentHashMap<String, SpaceAccount> userAccounts;
+    private final ConcurrentHashMap<String, SpaceAccount> groupAccounts;
+    private final Queue<SpaceAccount> dirtyAccounts;
+
+    private volatile boolean          deferPersistence;
 
     /**
      * Creates the volume quota manager and register at the mrc quota manager. Add a change listener to the volume info
@@ -51,6 +72,11 @@ public class VolumeQuotaManager {
         this.volStorageManager = volStorageManager;
         this.volumeId = volumeId;
 
+        this.userAccounts = new ConcurrentHashMap<String, SpaceAccount>();
+        this.groupAccounts = new ConcurrentHashMap<String, SpaceAccount>();
+        this.dirtyAccounts = new ConcurrentLinkedQueue<SpaceAccount>();
+        this.deferPersistence = mrcQuotaManager.isDeferPersistence();
+
         mrcQuotaManager.addVolumeQuotaManager(this);
 
         quotaChangeListener = new QuotaChangeListener(this);
@@ -94,35 +120,85 @@ public class VolumeQuotaManager {
      * @return
      * @throws UserException
      */
-    private synchronized Voucher getVoucher(QuotaFileInformation quotaFileInformation, boolean test,
-            AtomicDBUpdate update) throws UserException {
+    private Voucher getVoucher(QuotaFileInformation quotaFileInformation, boolean test, AtomicDBUpdate update)
+            throws UserException {
 
         int replicaCount = quotaFileInformation.getReplicaCount();
-        QuotaInformation quotaInformation = getAndApplyQuotaInformation(quotaFileInformation, !test, update);
-        long freeSpace = quotaInformation.getFreeSpace();
 
-        long voucherSize = volumeVoucherSize;
-        Voucher voucher = new Voucher(VoucherType.LIMITED, voucherSize);
+        for (;;) {
+
+            QuotaInformation quotaInformation = getAndApplyQuotaInformation(quotaFileInformation, !test, update);
+            long freeSpace = quotaInformation.getFreeSpace();
+
+            long voucherSize = volumeVoucherSize;
+            Voucher voucher = new Voucher(VoucherType.LIMITED, voucherSize);
+
+            if (quotaInformation.getVolumeQuota() == QuotaConstants.UNLIMITED_QUOTA
+                    && quotaInformation.getUserQuota() == QuotaConstants.UNLIMITED_QUOTA
+                    && quotaInformation.getGroupQuota() == QuotaConstants.UNLIMITED_QUOTA) {
+                // no quota set at all: unlimited voucher
+                voucher.setVoucherType(VoucherType.UNLIMITED);
+            } else if (freeSpace / replicaCount <= 0) { // negative if the quota has been reduced
+                voucher.setVoucherType(VoucherType.NONE);
+                voucher.setEnforcedQuotaName(quotaInformation.getQuotaType());
+            } else if ((replicaCount * voucherSize) > freeSpace) {
+                voucherSize = freeSpace / replicaCount;
+                voucher.setVoucherSize(voucherSize);
+            }
+
+            // save voucherSize as blocked, if it isn't just a check; retry if concurrent requests have blocked the
+            // space in the meantime
+            if (test || voucher.getVoucherType() != VoucherType.LIMITED
+                    || blockSpace(quotaFileInformation, quotaInformation, replicaCount * voucherSize, update)) {
+                return voucher;
+            }
+        }
+    }
+
+    /**
+     * Blocks space for the volume and the file's owner and owner group, if none of their quotas is exceeded
+     * afterwards.
+     * 
+     * @return true, if the space has been blocked
+     */
+    private boolean blockSpace(QuotaFileInformation quotaFileInformation, QuotaInformation quotaInformation,
+            long blockedSpace, AtomicDBUpdate update) throws UserException {
+
+        SpaceAccount[] accounts = new SpaceAccount[3];
+        long[] quotas = new long[3];
+        int count = 0;
+
+        if (quotaInformation.getVolumeQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+            accounts[count] = getVolumeAccount();
+            quotas[count++] = quotaInformation.getVolumeQuota();
+        }
+        if (quotaInformation.getUserQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+            accounts[count] = getAccount(SpaceAccount.Type.USER, quotaFileInformation.getOwnerId());
+            quotas[count++] = quotaInformation.getUserQuota();
+        }
+        if (quotaInformation.getGroupQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+            accounts[count] = getAccount(SpaceAccount.Type.GROUP, quotaFileInformation.getOwnerGroupId());
+            quotas[count++] = quotaInformation.getGroupQuota();
+        }
 
-        if (quotaInformation.getVolumeQuota() == QuotaConstants.UNLIMITED_QUOTA
-                && quotaInformation.getUserQuota() == QuotaConstants.UNLIMITED_QUOTA
-                && quotaInformation.getGroupQuota() == QuotaConstants.UNLIMITED_QUOTA) {
-            // no quota set at all: unlimited voucher
-            voucher.setVoucherType(VoucherType.UNLIMITED);
-        } else if (freeSpace / replicaCount == 0) { // can't get negative
-            voucher.setVoucherType(VoucherType.NONE);
-            voucher.setEnforcedQuotaName(quotaInformation.getQuotaType());
-        } else if ((replicaCount * voucherSize) > freeSpace) {
-            voucherSize = freeSpace / replicaCount;
-            voucher.setVoucherSize(voucherSize);
+        for (int i = 0; i < count; i++) {
+            if (!accounts[i].tryBlockSpace(blockedSpace, quotas[i])) {
+                // undo the blocks that have succeeded
+                for (int j = 0; j < i; j++) {
+                    accounts[j].addBlockedSpace(-blockedSpace);
+                }
+                return false;
+            }
         }
 
-        // save voucherSize as blocked, if it isn't just a check
-        if (!test && voucher.getVoucherType() == VoucherType.LIMITED) {
-            updateSpaceUsage(quotaFileInformation, quotaInformation, 0, replicaCount * voucherSize, update);
+        for (int i = 0; i < count; i++) {
+            persist(accounts[i], update);
+
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId + ") blocked "
+                    + blockedSpace + " for " + accounts[i]);
         }
 
-        return voucher;
+        return true;
     }
 
     /**
@@ -137,7 +213,7 @@ public class VolumeQuotaManager {
      *            unused blocked space
      * @throws UserException
      */
-    public synchronized void updateSpaceUsage(QuotaFileInformation quotaFileInformation, long fileSizeDifference,
+    public void updateSpaceUsage(QuotaFileInformation quotaFileInformation, long fileSizeDifference,
             long blockedSpaceDifference, AtomicDBUpdate update) throws UserException {
 
         QuotaInformation quotaInformation = getAndApplyQuotaInformation(quotaFileInformation, true, update);
@@ -146,7 +222,7 @@ public class VolumeQuotaManager {
 
     }
 
-    public synchronized void updateSpaceUsage(QuotaFileInformation quotaFileInformation,
+    public void updateSpaceUsage(QuotaFileInformation quotaFileInformation,
             QuotaInformation quotaInformation, long filesizeDifference, long blockedSpaceDifference,
             AtomicDBUpdate update) throws UserException {
 
@@ -156,29 +232,35 @@ public class VolumeQuotaManager {
                 update);
     }
 
-    public synchronized void updateVolumeSpaceUsage(QuotaInformation quotaInformation, long filesizeDifference,
+    public void updateVolumeSpaceUsage(QuotaInformation quotaInformation, long filesizeDifference,
             long blockedSpaceDifference, AtomicDBUpdate update) throws UserException {
         try {
-            if (filesizeDifference != 0) {
-                long volumeUsedSpace = quotaInformation.getVolumeUsedSpace() + filesizeDifference;
-                checkNegativeValue(volumeUsedSpace, "volume", true);
-                volStorageManager.setVolumeUsedSpace(volumeUsedSpace, update);
+            SpaceAccount account = getVolumeAccount();
 
-                Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
-                        + ") changed volume used space by: " + filesizeDifference + " to: " + volumeUsedSpace);
-            }
-
-            if (blockedSpaceDifference != 0) {
-                if (quotaInformation.getVolumeQuota() != QuotaConstants.UNLIMITED_QUOTA) {
-                    long volumeBlockedSpace = quotaInformation.getVolumeBlockedSpace() + blockedSpaceDifference;
-                    checkNegativeValue(volumeBlockedSpace, "volume", false);
-                    volStorageManager.setVolumeBlockedSpace(volumeBlockedSpace, update);
+            // the used space may only change along with the blocked space, so that quota checks of concurrent
+            // requests see both or neither
+            synchronized (account) {
+                if (filesizeDifference != 0) {
+                    long volumeUsedSpace = account.addUsedSpace(filesizeDifference);
+                    checkNegativeValue(volumeUsedSpace, "volume", true);
 
                     Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
-                            + ") changed volume blocked space by: " + blockedSpaceDifference + " to: "
-                            + volumeBlockedSpace);
+                            + ") changed volume used space by: " + filesizeDifference + " to: " + volumeUsedSpace);
+                }
+
+                if (blockedSpaceDifference != 0) {
+                    if (quotaInformation.getVolumeQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+                        long volumeBlockedSpace = account.addBlockedSpace(blockedSpaceDifference);
+                        checkNegativeValue(volumeBlockedSpace, "volume", false);
+
+                        Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
+                                + ") changed volume blocked space by: " + blockedSpaceDifference + " to: "
+                                + volumeBlockedSpace);
+                    }
                 }
             }
+
+            persist(account, update);
         } catch (DatabaseException e) {
             Logging.logError(Logging.LEVEL_ERROR, "An error occurred during the interaction with the database!", e);
 
@@ -187,32 +269,38 @@ public class VolumeQuotaManager {
         }
     }
 
-    public synchronized void updateUserSpaceUsage(QuotaFileInformation quotaFileInformation,
+    public void updateUserSpaceUsage(QuotaFileInformation quotaFileInformation,
             QuotaInformation quotaInformation, long filesizeDifference, long blockedSpaceDifference,
             AtomicDBUpdate update) throws UserException {
 
         String ownerId = quotaFileInformation.getOwnerId();
         try {
-            if (filesizeDifference != 0) {
-                long userUsedSpace = quotaInformation.getUserUsedSpace() + filesizeDifference;
-                checkNegativeValue(userUsedSpace, "ownerId: " + ownerId, true);
-                volStorageManager.setUserUsedSpace(ownerId, userUsedSpace, update);
+            SpaceAccount account = getAccount(SpaceAccount.Type.USER, ownerId);
 
-                Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId + ") changed owner ("
-                        + ownerId + ") used space by: " + filesizeDifference + " to: " + userUsedSpace);
-            }
+            // the used space may only change along with the blocked space, so that quota checks of concurrent
+            // requests see both or neither
+            synchronized (account) {
+                if (filesizeDifference != 0) {
+                    long userUsedSpace = account.addUsedSpace(filesizeDifference);
+                    checkNegativeValue(userUsedSpace, "ownerId: " + ownerId, true);
 
-            if (blockedSpaceDifference != 0) {
-                if (quotaInformation.getUserQuota() != QuotaConstants.UNLIMITED_QUOTA) {
-                    long userBlockedSpace = quotaInformation.getUserBlockedSpace() + blockedSpaceDifference;
-                    checkNegativeValue(userBlockedSpace, "ownerId: " + ownerId, false);
-                    volStorageManager.setUserBlockedSpace(ownerId, userBlockedSpace, update);
+                    Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId + ") changed owner ("
+                            + ownerId + ") used space by: " + filesizeDifference + " to: " + userUsedSpace);
+                }
 
-                    Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
-                            + ") changed owner (" + ownerId + ") blocked space by: " + blockedSpaceDifference + " to: "
-                            + userBlockedSpace);
+                if (blockedSpaceDifference != 0) {
+                    if (quotaInformation.getUserQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+                        long userBlockedSpace = account.addBlockedSpace(blockedSpaceDifference);
+                        checkNegativeValue(userBlockedSpace, "ownerId: " + ownerId, false);
+
+                        Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
+                                + ") changed owner (" + ownerId + ") blocked space by: " + blockedSpaceDifference
+                                + " to: " + userBlockedSpace);
+                    }
                 }
             }
+
+            persist(account, update);
         } catch (DatabaseException e) {
             Logging.logError(Logging.LEVEL_ERROR, "An error occurred during the interaction with the database!", e);
 
@@ -221,33 +309,39 @@ public class VolumeQuotaManager {
         }
     }
 
-    public synchronized void updateGroupSpaceUsage(QuotaFileInformation quotaFileInformation,
+    public void updateGroupSpaceUsage(QuotaFileInformation quotaFileInformation,
             QuotaInformation quotaInformation, long filesizeDifference, long blockedSpaceDifference,
             AtomicDBUpdate update) throws UserException {
 
         String ownerGroupId = quotaFileInformation.getOwnerGroupId();
         try {
-            if (filesizeDifference != 0) {
-                long groupUsedSpace = quotaInformation.getGroupUsedSpace() + filesizeDifference;
-                checkNegativeValue(groupUsedSpace, "ownerGroupId: " + ownerGroupId, true);
-                volStorageManager.setGroupUsedSpace(ownerGroupId, groupUsedSpace, update);
-
-                Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
-                        + ") changed owner group (" + ownerGroupId + ") used space by: " + filesizeDifference + " to: "
-                        + groupUsedSpace);
-            }
+            SpaceAccount account = getAccount(SpaceAccount.Type.GROUP, ownerGroupId);
 
-            if (blockedSpaceDifference != 0) {
-                if (quotaInformation.getGroupQuota() != QuotaConstants.UNLIMITED_QUOTA) {
-                    long groupBlockedSpace = quotaInformation.getGroupBlockedSpace() + blockedSpaceDifference;
-                    checkNegativeValue(groupBlockedSpace, "ownerGroupId: " + ownerGroupId, false);
-                    volStorageManager.setGroupBlockedSpace(ownerGroupId, groupBlockedSpace, update);
+            // the used space may only change along with the blocked space, so that quota checks of concurrent
+            // requests see both or neither
+            synchronized (account) {
+                if (filesizeDifference != 0) {
+                    long groupUsedSpace = account.addUsedSpace(filesizeDifference);
+                    checkNegativeValue(groupUsedSpace, "ownerGroupId: " + ownerGroupId, true);
 
                     Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
-                            + ") changed owner group (" + ownerGroupId + ") blocked space by: "
-                            + blockedSpaceDifference + " to: " + groupBlockedSpace);
+                            + ") changed owner group (" + ownerGroupId + ") used space by: " + filesizeDifference
+                            + " to: " + groupUsedSpace);
+                }
+
+                if (blockedSpaceDifference != 0) {
+                    if (quotaInformation.getGroupQuota() != QuotaConstants.UNLIMITED_QUOTA) {
+                        long groupBlockedSpace = account.addBlockedSpace(blockedSpaceDifference);
+                        checkNegativeValue(groupBlockedSpace, "ownerGroupId: " + ownerGroupId, false);
+
+                        Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
+                                + ") changed owner group (" + ownerGroupId + ") blocked space by: "
+                                + blockedSpaceDifference + " to: " + groupBlockedSpace);
+                    }
                 }
             }
+
+            persist(account, update);
         } catch (DatabaseException e) {
             Logging.logError(Logging.LEVEL_ERROR, "An error occurred during the interaction with the database!", e);
 
@@ -265,7 +359,7 @@ public class VolumeQuotaManager {
      * @param update
      * @throws UserException
      */
-    public synchronized void addReplica(QuotaFileInformation quotaFileInformation, long filesize, long blockedSpace,
+    public void addReplica(QuotaFileInformation quotaFileInformation, long filesize, long blockedSpace,
             AtomicDBUpdate update) throws UserException {
 
         Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
@@ -291,7 +385,7 @@ public class VolumeQuotaManager {
      * @param update
      * @throws UserException
      */
-    public synchronized void transferOwnerSpace(QuotaFileInformation quotaFileInformation, String newOwnerId,
+    public void transferOwnerSpace(QuotaFileInformation quotaFileInformation, String newOwnerId,
             long filesize, long blockedSpace, AtomicDBUpdate update) throws UserException {
 
         Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
@@ -329,7 +423,7 @@ public class VolumeQuotaManager {
      * @param update
      * @throws UserException
      */
-    public synchronized void transferOwnerGroupSpace(QuotaFileInformation quotaFileInformation, String newOwnerGroupId,
+    public void transferOwnerGroupSpace(QuotaFileInformation quotaFileInformation, String newOwnerGroupId,
             long filesize, long blockedSpace, AtomicDBUpdate update) throws UserException {
 
         Logging.logMessage(Logging.LEVEL_DEBUG, this, "VolumeQuotaManager(" + volumeId
@@ -389,12 +483,14 @@ public class VolumeQuotaManager {
         }
 
         try {
-            long volumeUsedSpace = volStorageManager.getVolumeUsedSpace();
+            SpaceAccount account = getVolumeAccount();
+
+            long volumeUsedSpace = account.getUsedSpace();
             quotaInformation.setVolumeUsedSpace(volumeUsedSpace);
 
             // check volume quota
             if (volumeQuota != QuotaConstants.UNLIMITED_QUOTA) {
-                long volumeBlockedSpace = volStorageManager.getVolumeBlockedSpace();
+                long volumeBlockedSpace = account.getBlockedSpace();
                 quotaInformation.setVolumeBlockedSpace(volumeBlockedSpace);
 
                 long volumeFreeSpace = volumeQuota - (volumeUsedSpace + volumeBlockedSpace);
@@ -437,11 +533,13 @@ public class VolumeQuotaManager {
                 userQuotaDefined = true;
             }
 
-            long userUsedSpace = volStorageManager.getUserUsedSpace(ownerId);
+            SpaceAccount account = getAccount(SpaceAccount.Type.USER, ownerId);
+
+            long userUsedSpace = account.getUsedSpace();
             quotaInformation.setUserUsedSpace(userUsedSpace);
 
             if (userQuota != QuotaConstants.UNLIMITED_QUOTA) {
-                long userBlockedSpace = volStorageManager.getUserBlockedSpace(ownerId);
+                long userBlockedSpace = account.getBlockedSpace();
                 quotaInformation.setUserBlockedSpace(userBlockedSpace);
 
                 long userFreeSpace = userQuota - (userUsedSpace + userBlockedSpace);
@@ -490,11 +588,13 @@ public class VolumeQuotaManager {
                 groupQuotaDefined = true;
             }
 
-            long groupUsedSpace = volStorageManager.getGroupUsedSpace(ownerGroupId);
+            SpaceAccount account = getAccount(SpaceAccount.Type.GROUP, ownerGroupId);
+
+            long groupUsedSpace = account.getUsedSpace();
             quotaInformation.setGroupUsedSpace(groupUsedSpace);
 
             if (groupQuota != QuotaConstants.UNLIMITED_QUOTA) {
-                long groupBlockedSpace = volStorageManager.getGroupBlockedSpace(ownerGroupId);
+                long groupBlockedSpace = account.getBlockedSpace();
                 quotaInformation.setGroupBlockedSpace(groupBlockedSpace);
 
                 long groupFreeSpace = groupQuota - (groupUsedSpace + groupBlockedSpace);
@@ -520,6 +620,184 @@ public class VolumeQuotaManager {
         return quotaInformation;
     }
 
+    /**
+     * Returns the space account of the volume, which is loaded from the database on first access.
+     */
+    private SpaceAccount getVolumeAccount() throws UserException {
+
+        SpaceAccount account = volumeAccount;
+        if (account == null) {
+            synchronized (this) {
+                account = volumeAccount;
+                if (account == null) {
+                    try {
+                        account = new SpaceAccount(SpaceAccount.Type.VOLUME, null,
+                                volStorageManager.getVolumeUsedSpace(), volStorageManager.getVolumeBlockedSpace());
+                    } catch (DatabaseException e) {
+                        Logging.logError(Logging.LEVEL_ERROR,
+                                "An error occurred during the interaction with the database!", e);
+
+                        throw new UserException(POSIXErrno.POSIX_ERROR_EIO,
+                                "An error occurred during the interaction with the database!");
+                    }
+                    volumeAccount = account;
+                }
+            }
+        }
+
+        return account;
+    }
+
+    /**
+     * Returns the space account of a user or group, which is loaded from the database on first access.
+     */
+    private SpaceAccount getAccount(SpaceAccount.Type type, String id) throws UserException {
+
+        ConcurrentHashMap<String, SpaceAccount> accounts = type == SpaceAccount.Type.USER ? userAccounts : groupAccounts;
+
+        SpaceAccount account = accounts.get(id);
+        if (account == null) {
+
+            // accounts are only modified once they have been added to the map, so concurrent loads yield the same
+            // values
+            try {
+                if (type == SpaceAccount.Type.USER) {
+                    account = new SpaceAccount(type, id, volStorageManager.getUserUsedSpace(id),
+                            volStorageManager.getUserBlockedSpace(id));
+                } else {
+                    account = new SpaceAccount(type, id, volStorageManager.getGroupUsedSpace(id),
+                            volStorageManager.getGroupBlockedSpace(id));
+                }
+            } catch (DatabaseException e) {
+                Logging.logError(Logging.LEVEL_ERROR, "An error occurred during the interaction with the database!", e);
+
+                throw new UserException(POSIXErrno.POSIX_ERROR_EIO,
+                        "An error occurred during the interaction with the database!");
+            }
+
+            SpaceAccount previous = accounts.putIfAbsent(id, account);
+            if (previous != null) {
+                account = previous;
+            }
+        }
+
+        return account;
+    }
+
+    /**
+     * Writes a modified account to the database, or marks it dirty if persistence is deferred.
+     */
+    private void persist(SpaceAccount account, AtomicDBUpdate update) throws DatabaseException {
+        if (deferPersistence) {
+            account.markDirty(dirtyAccounts);
+        } else {
+            write(account, update);
+        }
+    }
+
+    private void write(SpaceAccount account, AtomicDBUpdate update) throws DatabaseException {
+
+        // write a consistent pair of values
+        boolean writeBlockedSpace;
+        long usedSpace;
+        long blockedSpace;
+        synchronized (account) {
+            writeBlockedSpace = account.isBlockedSpaceModified();
+            usedSpace = account.getUsedSpace();
+            blockedSpace = account.getBlockedSpace();
+        }
+
+        switch (account.getType()) {
+        case VOLUME:
+            volStorageManager.setVolumeUsedSpace(usedSpace, update);
+            if (writeBlockedSpace) {
+                volStorageManager.setVolumeBlockedSpace(blockedSpace, update);
+            }
+            break;
+        case USER:
+            volStorageManager.setUserUsedSpace(account.getId(), usedSpace, update);
+            if (writeBlockedSpace) {
+                volStorageManager.setUserBlockedSpace(account.getId(), blockedSpace, update);
+            }
+            break;
+        case GROUP:
+            volStorageManager.setGroupUsedSpace(account.getId(), usedSpace, update);
+            if (writeBlockedSpace) {
+                volStorageManager.setGroupBlockedSpace(account.getId(), blockedSpace, update);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Adds all accounts that have been modified since the last invocation to the given update.
+     * 
+     * @param update
+     * @return the number of accounts added to the update
+     * @throws DatabaseException
+     */
+    public int flushSpaceUsage(AtomicDBUpdate update) throws DatabaseException {
+
+        int count = 0;
+        for (SpaceAccount account = dirtyAccounts.poll(); account != null; account = dirtyAccounts.poll()) {
+            account.clearDirty();
+            write(account, update);
+            count++;
+        }
+
+        return count;
+    }
+
+    public boolean hasDirtySpaceUsage() {
+        return !dirtyAccounts.isEmpty();
+    }
+
+    /**
+     * Enables or disables deferred persistence. If enabled, modified space usage is only written to the database by
+     * {@link #flushSpaceUsage(AtomicDBUpdate)}.
+     */
+    public void setDeferPersistence(boolean deferPersistence) {
+        this.deferPersistence = deferPersistence;
+    }
+
+    /**
+     * Returns the current used space of the volume, or of a user or group if <code>ownerType</code> is not
+     * <code>null</code>.
+     */
+    public long getUsedSpace(OwnerType ownerType, String ownerId) throws UserException {
+        return getAccount(ownerType, ownerId).getUsedSpace();
+    }
+
+    /**
+     * Returns the current blocked space of the volume, or of a user or group if <code>ownerType</code> is not
+     * <code>null</code>.
+     */
+    public long getBlockedSpace(OwnerType ownerType, String ownerId) throws UserException {
+        return getAccount(ownerType, ownerId).getBlockedSpace();
+    }
+
+    /**
+     * Replaces the used and blocked space in a map of owner quota information, as obtained from the database, with the
+     * current values of all loaded accounts.
+     */
+    public void applySpaceUsage(OwnerType ownerType, Map<String, Map<String, Long>> ownerQuotaInfo) {
+
+        for (Map.Entry<String, Map<String, Long>> entry : ownerQuotaInfo.entrySet()) {
+            SpaceAccount account = (ownerType == OwnerType.USER ? userAccounts : groupAccounts).get(entry.getKey());
+            if (account != null) {
+                entry.getValue().put(QuotaInfo.USED.getValueAsString(), account.getUsedSpace());
+                entry.getValue().put(QuotaInfo.BLOCKED.getValueAsString(), account.getBlockedSpace());
+            }
+        }
+    }
+
+    private SpaceAccount getAccount(OwnerType ownerType, String ownerId) throws UserException {
+        if (ownerType == null) {
+            return getVolumeAccount();
+        }
+        return getAccount(ownerType == OwnerType.USER ? SpaceAccount.Type.USER : SpaceAccount.Type.GROUP, ownerId);
+    }
+
     /**
      * Checks, whether a value is negative and iff so, a warning will be logged which type of space and whose space got
      * negative.
@@ -542,7 +820,7 @@ public class VolumeQuotaManager {
      * 
      * @throws Exception
      */
-    public synchronized void delete() throws Exception {
+    public void delete() throws Exception {
         mrcQuotaManager.removeVolumeQuotaManager(this);
     }
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.stages;
+
+import java.util.Collection;
+
+import org.xtreemfs.foundation.LifeCycleThread;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DBAccessResultListener;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.quota.QuotaManager;
+
+/**
+ * Periodically writes the file sizes that have been collected in memory by the
+ * storage managers to the database, together with the used and blocked space
+ * that has been accounted in memory by the quota manager. Each volume's
+ * pending modifications are written in a single batched update.
+ * <p>
+ * Flushes are executed as internal callbacks in the context of the processing
+ * stage, so that they do not interleave with other operations.
+ */
+public class FileSizeUpdateFlushThread extends LifeCycleThread {
+
+    private final MRCRequestDispatcher master;
+
+    private final int                  intervalMs;
+
+    private volatile boolean           quit;
+
+    public FileSizeUpdateFlushThread(MRCRequestDispatcher master, int intervalMs) {
+        super("FSizeFlushThr");
+        this.master = master;
+        this.intervalMs = intervalMs;
+    }
+
+    public void shutdown() {
+        this.quit = true;
+        this.interrupt();
+    }
+
+    public void run() {
+
+        notifyStarted();
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.lifecycle, this, "FileSizeUpdateFlushThread started");
+
+        try {
+            while (!quit) {
+
+                Thread.sleep(intervalMs);
+
+                if (hasDeferredFileSizes() || master.getMrcQuotaManager().hasDirtySpaceUsage())
+                    master.getProcStage().enqueueInternalCallbackOperation(new InternalCallbackInterface() {
+                        @Override
+                        public void execute() throws Throwable {
+                            flush(false);
+                        }
+                    });
+            }
+        } catch (InterruptedException ex) {
+            // shutdown
+        }
+
+        notifyStopped();
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.lifecycle, this, "FileSizeUpdateFlushThread finished");
+    }
+
+    /**
+     * Writes all pending file sizes and space usage to the database. Must either be invoked in
+     * the context of the processing stage or after the processing stage has
+     * been shut down.
+     *
+     * @param sync
+     *            if <code>true</code>, the method returns when all updates
+     *            have been applied
+     */
+    public void flush(boolean sync) {
+
+        Collection<StorageManager> sMans = master.getVolumeManager().getStorageManagers();
+        if (sMans == null)
+            return;
+
+        QuotaManager quotaMan = master.getMrcQuotaManager();
+
+        for (StorageManager sMan : sMans) {
+
+            final String volumeName = sMan.getVolumeInfo().getName();
+            try {
+
+                AtomicDBUpdate update = sMan.createAtomicDBUpdate(sync ? null
+                    : new DBAccessResultListener<Object>() {
+
+                        @Override
+                        public void finished(Object result, Object context) {
+                            // nothing to do
+                        }
+
+                        @Override
+                        public void failed(Throwable error, Object context) {
+                            Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                                "could not write file sizes of volume '%s': %s", volumeName, error);
+                        }
+                    }, null);
+
+                int count = sMan.hasDeferredFileSizes() ? sMan.flushFileSizes(update) : 0;
+                int quotaCount = quotaMan.flushSpaceUsage(sMan.getVolumeInfo().getId(), update);
+                if (count + quotaCount == 0)
+                    continue;
+
+                update.execute();
+
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                        "flushed %d file size records and %d space usage records of volume '%s'", count,
+                        quotaCount, volumeName);
+
+            } catch (Exception exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "could not write file sizes of volume '%s'", volumeName);
+                Logging.logError(Logging.LEVEL_ERROR, this, exc);
+            }
+        }
+    }
+
+    private boolean hasDeferredFileSizes() {
+
+        Collection<StorageManager> sMans = master.getVolumeManager().getStorageManagers();
+        if (sMans != null)
+            for (StorageManager sMan : sMans)
+                if (sMan.hasDeferredFileSizes())
+                    return true;
+
+        return false;
+    }
+
+}
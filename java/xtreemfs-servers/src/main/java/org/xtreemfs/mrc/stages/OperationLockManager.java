@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.stages;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Admits MRC operations for concurrent execution while preserving the
+ * guarantees of a sequential execution.
+ * <p>
+ * Each operation either refers to a single volume or to the MRC as a whole.
+ * Volume operations are shared (read-only) or exclusive (mutating). Shared
+ * operations on the same volume may run concurrently, whereas an exclusive
+ * operation runs alone on its volume. Global operations run alone on the MRC.
+ * Conflicting operations are executed in the order in which they were
+ * submitted, so that e.g. the updates of a single client are applied in
+ * order; non-conflicting operations may overtake each other.
+ * <p>
+ * Operations are executed by the given executor. At most
+ * <code>maxConcurrentOperations</code> operations are handed to the executor
+ * at a time, so that ordering decisions are made as late as possible.
+ */
+public class OperationLockManager {
+
+    private static final class Operation implements Runnable {
+
+        /** name of the volume, or null for global operations */
+        final String               volume;
+
+        final boolean              shared;
+
+        final Runnable             task;
+
+        final OperationLockManager lockMan;
+
+        Operation(OperationLockManager lockMan, String volume, boolean shared, Runnable task) {
+            this.lockMan = lockMan;
+            this.volume = volume;
+            this.shared = shared;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Throwable exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.stage, this, "operation failed: %s", exc);
+                Logging.logError(Logging.LEVEL_ERROR, this, exc);
+            } finally {
+                lockMan.operationFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Operations running on a volume.
+     */
+    private static final class VolumeLock {
+
+        int     numShared;
+
+        boolean exclusive;
+    }
+
+    private final Executor                executor;
+
+    private final int                     maxConcurrentOperations;
+
+    private final LinkedList<Operation>   pending;
+
+    private final Map<String, VolumeLock> locks;
+
+    private int                           numRunning;
+
+    private boolean                       globalRunning;
+
+    /**
+     * Creates a new lock manager.
+     *
+     * @param executor
+     *            the executor running the admitted operations
+     * @param maxConcurrentOperations
+     *            the maximum number of operations admitted at the same time,
+     *            typically the number of threads of the executor
+     */
+    public OperationLockManager(Executor executor, int maxConcurrentOperations) {
+        this.executor = executor;
+        this.maxConcurrentOperations = Math.max(1, maxConcurrentOperations);
+        this.pending = new LinkedList<Operation>();
+        this.locks = new HashMap<String, VolumeLock>();
+    }
+
+    /**
+     * Executes an operation as soon as it does not conflict with any running
+     * or previously submitted operation.
+     *
+     * @param volume
+     *            the name of the volume the operation refers to, or
+     *            <code>null</code> if the operation has to be executed
+     *            exclusively on the MRC
+     * @param shared
+     *            <code>true</code> if the operation only reads the volume
+     * @param task
+     *            the operation
+     */
+    public synchronized void execute(String volume, boolean shared, Runnable task) {
+        pending.add(new Operation(this, volume, shared, task));
+        admit();
+    }
+
+    /**
+     * Returns the number of operations waiting for admission.
+     */
+    public synchronized int getNumPendingOperations() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of currently executed operations.
+     */
+    public synchronized int getNumRunningOperations() {
+        return numRunning;
+    }
+
+    private synchronized void operationFinished(Operation op) {
+
+        numRunning--;
+        if (op.volume == null) {
+            globalRunning = false;
+        } else {
+            VolumeLock lock = locks.get(op.volume);
+            if (op.shared)
+                lock.numShared--;
+            else
+                lock.exclusive = false;
+            if (lock.numShared == 0 && !lock.exclusive)
+                locks.remove(op.volume);
+        }
+
+        admit();
+    }
+
+    /**
+     * Admits all pending operations that neither conflict with a running
+     * operation nor with a pending operation submitted before them.
+     */
+    private void admit() {
+
+        if (globalRunning)
+            return;
+
+        // volumes with pending operations that have not been admitted; TRUE
+        // if blocked for all operations, FALSE if only for exclusive ones
+        Map<String, Boolean> blocked = null;
+
+        for (Iterator<Operation> it = pending.iterator(); it.hasNext() && numRunning < maxConcurrentOperations;) {
+
+            Operation op = it.next();
+
+            // global operations wait for all operations submitted before them
+            // and block all operations submitted after them
+            if (op.volume == null) {
+                if (numRunning == 0 && blocked == null) {
+                    it.remove();
+                    globalRunning = true;
+                    start(op);
+                }
+                return;
+            }
+
+            Boolean blockedForAll = blocked == null ? null : blocked.get(op.volume);
+            VolumeLock lock = locks.get(op.volume);
+
+            boolean admissible;
+            if (op.shared)
+                admissible = blockedForAll != Boolean.TRUE && (lock == null || !lock.exclusive);
+            else
+                admissible = blockedForAll == null && lock == null;
+
+            if (admissible) {
+                it.remove();
+                if (lock == null) {
+                    lock = new VolumeLock();
+                    locks.put(op.volume, lock);
+                }
+                if (op.shared)
+                    lock.numShared++;
+                else
+                    lock.exclusive = true;
+                start(op);
+
+            } else {
+                if (blocked == null)
+                    blocked = new HashMap<String, Boolean>();
+                if (!op.shared)
+                    blocked.put(op.volume, Boolean.TRUE);
+                else if (blockedForAll == null)
+                    blocked.put(op.volume, Boolean.FALSE);
+            }
+        }
+    }
+
+    private void start(Operation op) {
+        numRunning++;
+        executor.execute(op);
+    }
+
+}
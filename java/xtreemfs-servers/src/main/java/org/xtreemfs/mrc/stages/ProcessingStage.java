@@ -11,6 +11,10 @@ package org.xtreemfs.mrc.stages;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.auth.AuthenticationException;
 import org.xtreemfs.common.auth.UserCredentials;
@@ -32,6 +36,8 @@ import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
 import org.xtreemfs.mrc.operations.AccessOperation;
 import org.xtreemfs.mrc.operations.AddReplicaOperation;
+import org.xtreemfs.mrc.operations.BulkStatOperation;
+import org.xtreemfs.mrc.operations.BulkUpdateFileSizeOperation;
 import org.xtreemfs.mrc.operations.CheckFileListOperation;
 import org.xtreemfs.mrc.operations.CheckpointOperation;
 import org.xtreemfs.mrc.operations.ClearVouchersOperation;
@@ -44,6 +50,7 @@ import org.xtreemfs.mrc.operations.DeleteVolumeOperation;
 import org.xtreemfs.mrc.operations.DumpDBOperation;
 import org.xtreemfs.mrc.operations.FSetAttrOperation;
 import org.xtreemfs.mrc.operations.GetFileCredentialsOperation;
+import org.xtreemfs.mrc.operations.GetRecursiveDeleteStatusOperation;
 import org.xtreemfs.mrc.operations.GetLocalVolumesOperation;
 import org.xtreemfs.mrc.operations.GetSuitableOSDsOperation;
 import org.xtreemfs.mrc.operations.GetXAttrOperation;
@@ -57,9 +64,11 @@ import org.xtreemfs.mrc.operations.MoveOperation;
 import org.xtreemfs.mrc.operations.OpenOperation;
 import org.xtreemfs.mrc.operations.ReadDirAndStatOperation;
 import org.xtreemfs.mrc.operations.ReadLinkOperation;
+import org.xtreemfs.mrc.operations.RecursiveDeleteOperation;
 import org.xtreemfs.mrc.operations.RemoveReplicaOperation;
 import org.xtreemfs.mrc.operations.RemoveXAttrOperation;
 import org.xtreemfs.mrc.operations.RenewCapabilityAndVoucherOperation;
+import org.xtreemfs.mrc.operations.RenewMetadataLeaseOperation;
 import org.xtreemfs.mrc.operations.RenewOperation;
 import org.xtreemfs.mrc.operations.ReselectOSDsOperation;
 import org.xtreemfs.mrc.operations.RestoreDBOperation;
@@ -72,9 +81,12 @@ import org.xtreemfs.mrc.operations.StatFSOperation;
 import org.xtreemfs.mrc.operations.StatOperation;
 import org.xtreemfs.mrc.operations.TruncateOperation;
 import org.xtreemfs.mrc.operations.UpdateFileSizeOperation;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceConstants;
 
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
 
 /**
  * 处理状态机，根据不同的状态，处理不同的请求
@@ -95,13 +107,55 @@ public class ProcessingStage extends MRCStage {
     
     private final boolean                    statisticsEnabled         = true;
     
+    /**
+     * executes operations if more than one processing thread is configured,
+     * <code>null</code> otherwise
+     */
+    private final ExecutorService            workers;
+    
+    /**
+     * orders the operations executed by the workers
+     */
+    private final OperationLockManager       lockManager;
+    
     public ProcessingStage(MRCRequestDispatcher master) {
+        this(master, master.getConfig().getProcessingThreads());
+    }
+    
+    /**
+     * Creates a new processing stage.
+     * 
+     * @param master
+     *            the request dispatcher
+     * @param numThreads
+     *            the number of threads executing operations; if greater than
+     *            one, read-only operations on a volume are executed
+     *            concurrently, and mutating operations are serialized per
+     *            volume
+     */
+    public ProcessingStage(MRCRequestDispatcher master, int numThreads) {
         super("ProcSt");
         this.master = master;
         
         operations = new HashMap<Integer, MRCOperation>();
         installOperations();
         
+        if (numThreads > 1) {
+            final AtomicInteger threadNo = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ProcSt-" + threadNo.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            lockManager = new OperationLockManager(workers, numThreads);
+        } else {
+            workers = null;
+            lockManager = null;
+        }
+        
         if (statisticsEnabled) {
             // initialize operations counter
             _opCountMap = new HashMap<Integer, Integer>();
@@ -161,12 +215,33 @@ public class ProcessingStage extends MRCStage {
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_GET_XLOCSET, new GetXLocSetOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RESELECT_OSDS, new ReselectOSDsOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_CLEAR_VOUCHERS, new ClearVouchersOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_GETATTRS, new BulkStatOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RENEW_METADATA_LEASE, new RenewMetadataLeaseOperation(
+                master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_UPDATE_FILE_SIZES, new BulkUpdateFileSizeOperation(
+                master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RMDIR_RECURSIVE, new RecursiveDeleteOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RMDIR_RECURSIVE_STATUS,
+                new GetRecursiveDeleteStatusOperation(master));
     }
     
     public Map<Integer, Integer> get_opCountMap() {
         return _opCountMap;
     }
     
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (workers != null)
+            workers.shutdown();
+    }
+    
+    @Override
+    public int getQueueLength() {
+        return lockManager == null ? super.getQueueLength() : super.getQueueLength()
+            + lockManager.getNumPendingOperations();
+    }
+    
 //    public String getOpName(int opId) {
 //        String opName = operations.get(opId).getClass().getSimpleName();
 //        return (opName.charAt(0) + "").toLowerCase() + opName.substring(0, opName.length() - "Operation".length()).substring(1);
@@ -186,10 +261,20 @@ public class ProcessingStage extends MRCStage {
     }
     
     @Override
-    protected void processInternalRequest(StageMethod method) {
+    protected void processInternalRequest(final StageMethod method) {
         switch (method.getStageMethod()) {
         case STAGEOP_INTERNAL_CALLBACK:
-            executeInternalCallback(method);
+            if (lockManager == null) {
+                executeInternalCallback(method);
+            } else {
+                // internal callbacks may access any volume
+                lockManager.execute(null, false, new Runnable() {
+                    @Override
+                    public void run() {
+                        executeInternalCallback(method);
+                    }
+                });
+            }
             break;
         default:
             Logging.logMessage(Logging.LEVEL_WARN, Category.stage, this,
@@ -203,7 +288,7 @@ public class ProcessingStage extends MRCStage {
      * @param method
      *            stagemethod to execute
      */
-    private void parseAndExecute(StageMethod method) {
+    private void parseAndExecute(final StageMethod method) {
         
         final MRCRequest rq = method.getRq();
         final RPCServerRequest rpcRequest = rq.getRPCRequest();
@@ -273,9 +358,66 @@ public class ProcessingStage extends MRCStage {
             return;
         }
         
-        execute(op, method);
+        if (lockManager == null) {
+            execute(op, method);
+        } else {
+            final String volumeName = op.affectsAllVolumes() ? null : getVolumeName(rq);
+            lockManager.execute(volumeName, volumeName != null && op.isReadOnly(rq), new Runnable() {
+                @Override
+                public void run() {
+                    execute(op, method);
+                }
+            });
+        }
 
     }
+    
+    /**
+     * Determines the name of the volume a request refers to, either by its
+     * volume name or by the ID of the file it refers to.
+     * 
+     * @param rq
+     *            the request with parsed arguments
+     * @return the volume name, or <code>null</code> if the request does not
+     *         refer to a known volume
+     */
+    private String getVolumeName(MRCRequest rq) {
+        
+        final Message args = rq.getRequestArgs();
+        if (args == null)
+            return null;
+        
+        final Descriptor desc = args.getDescriptorForType();
+        
+        FieldDescriptor field = desc.findFieldByName("volume_name");
+        if (field != null && args.hasField(field))
+            return (String) args.getField(field);
+        
+        String fileId = null;
+        field = desc.findFieldByName("file_id");
+        if (field != null && !field.isRepeated() && args.hasField(field))
+            fileId = (String) args.getField(field);
+        else {
+            for (String capField : new String[] { "xcap", "cap" }) {
+                field = desc.findFieldByName(capField);
+                if (field != null && args.hasField(field) && args.getField(field) instanceof XCap) {
+                    fileId = ((XCap) args.getField(field)).getFileId();
+                    break;
+                }
+            }
+        }
+        
+        int index = fileId == null ? -1 : fileId.indexOf(':');
+        if (index == -1)
+            return null;
+        
+        try {
+            return master.getVolumeManager().getStorageManager(fileId.substring(0, index)).getVolumeInfo()
+                    .getName();
+        } catch (Exception exc) {
+            return null;
+        }
+    }
 
     /**
      * Execute an operation
@@ -0,0 +1,694 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.stages;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.libxtreemfs.Helper;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DBAccessResultListener;
+import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.metadata.XLocList;
+import org.xtreemfs.mrc.quota.QuotaFileInformation;
+import org.xtreemfs.mrc.utils.Converter;
+import org.xtreemfs.mrc.utils.MRCHelper;
+import org.xtreemfs.pbrpc.generatedinterfaces.Common.emptyResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+
+/**
+ * Deletes directory trees on behalf of clients.
+ * <p>
+ * A tree is deleted in a depth-first traversal that is split into batches.
+ * Each batch lists and deletes up to {@link #BATCH_SIZE} entries in a single
+ * database update; it is executed as an internal callback of the processing
+ * stage, so that regular requests are interleaved with the deletion. Entries
+ * that may not be deleted by the requesting user are skipped, together with
+ * their ancestors.
+ * <p>
+ * Once the metadata of a batch has been deleted, the contents of the deleted
+ * files are deleted on the OSDs. Deletions are queued per OSD, and only a
+ * limited number of requests per OSD are in flight at any time. If too many
+ * OSD deletions of a task are pending, the task is suspended until the OSDs
+ * have caught up. Failed OSD deletions are counted but not retried; the
+ * remaining objects can be removed with the OSD cleanup tool.
+ * <p>
+ * Tasks are only kept in memory. If the MRC is restarted, a partially deleted
+ * tree remains and can be deleted by starting a new task.
+ */
+public class RecursiveDeletionManager {
+
+    /** the maximum number of entries deleted per database update */
+    public static final int                           BATCH_SIZE                 = 1000;
+
+    /** the number of pending OSD deletions at which a task is suspended */
+    public static final int                           MAX_PENDING_OSD_DELETIONS  = 10000;
+
+    /** the maximum number of deletion requests in flight per OSD */
+    public static final int                           MAX_OSD_REQUESTS_IN_FLIGHT = 16;
+
+    /** the time for which the status of a finished task is retained */
+    public static final long                          TASK_RETENTION_MS          = 60 * 60 * 1000;
+
+    private final MRCRequestDispatcher                master;
+
+    private final AtomicLong                          nextTaskId;
+
+    private final Map<Long, Task>                     tasks;
+
+    private final ConcurrentHashMap<String, OSDQueue> osdQueues;
+
+    /** sends OSD deletions, which may block while resolving OSD addresses */
+    private final ExecutorService                     osdExecutor;
+
+    public RecursiveDeletionManager(MRCRequestDispatcher master) {
+        this.master = master;
+        this.nextTaskId = new AtomicLong(1);
+        this.tasks = new ConcurrentHashMap<Long, Task>();
+        this.osdQueues = new ConcurrentHashMap<String, OSDQueue>();
+        this.osdExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RmdirOSDDel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void shutdown() {
+        osdExecutor.shutdownNow();
+    }
+
+    /**
+     * Starts deleting a directory tree. Permissions on the directory itself
+     * must have been checked by the caller.
+     *
+     * @param sMan
+     *            the storage manager of the volume
+     * @param dir
+     *            the directory to delete
+     * @param parentDir
+     *            the parent directory, whose timestamps are updated once the
+     *            directory has been deleted
+     * @param parentsParentId
+     *            the ID of the parent directory's parent
+     * @param userId
+     *            the user on whose behalf the tree is deleted
+     * @param superUser
+     *            whether the user is a superuser
+     * @param groupIds
+     *            the user's groups
+     * @param clientAddress
+     *            the address of the client, which is included in the deletion
+     *            capabilities
+     * @return the ID of the task
+     */
+    public long startDeletion(StorageManager sMan, FileMetadata dir, FileMetadata parentDir, long parentsParentId,
+        String userId, boolean superUser, List<String> groupIds, String clientAddress) {
+
+        purgeTasks();
+
+        final Task task = new Task(nextTaskId.getAndIncrement(), sMan, dir, parentDir, parentsParentId, userId,
+            superUser, groupIds, clientAddress);
+        tasks.put(task.id, task);
+
+        if (Logging.isInfo())
+            Logging.logMessage(Logging.LEVEL_INFO, Category.proc, this,
+                "started recursive deletion #%d of directory %d in volume '%s'", task.id, dir.getId(), task.volume
+                        .getName());
+
+        scheduleBatch(task);
+        return task.id;
+    }
+
+    /**
+     * Returns a task, or <code>null</code> if it does not exist or has been
+     * purged.
+     */
+    public Task getTask(long taskId) {
+        purgeTasks();
+        return tasks.get(taskId);
+    }
+
+    private void purgeTasks() {
+        long now = TimeSync.getLocalSystemTime();
+        for (Iterator<Task> it = tasks.values().iterator(); it.hasNext();) {
+            long finishTime = it.next().getFinishTime();
+            if (finishTime != 0 && now - finishTime > TASK_RETENTION_MS)
+                it.remove();
+        }
+    }
+
+    private void scheduleBatch(final Task task) {
+        master.getProcStage().enqueueInternalCallbackOperation(new InternalCallbackInterface() {
+            @Override
+            public void execute() throws Throwable {
+                processBatch(task);
+            }
+        });
+    }
+
+    /**
+     * Deletes the next batch of entries. Invoked in the context of the
+     * processing stage.
+     */
+    private void processBatch(final Task task) {
+
+        final List<OSDDeletion> osdDeletions = new ArrayList<OSDDeletion>();
+        final int[] counts = new int[3];
+
+        // IDs of hard-linked files of which a link is deleted in this batch
+        final Set<Long> linkedFiles = new HashSet<Long>();
+
+        try {
+
+            final FileAccessManager faMan = master.getFileAccessManager();
+            final StorageManager sMan = task.sMan;
+            final int time = (int) (TimeSync.getGlobalTime() / 1000);
+
+            AtomicDBUpdate update = sMan.createAtomicDBUpdate(new DBAccessResultListener<Object>() {
+
+                @Override
+                public void finished(Object result, Object context) {
+                    batchCompleted(task, counts, osdDeletions);
+                }
+
+                @Override
+                public void failed(Throwable error, Object context) {
+                    task.abort(error.toString());
+                    Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                        "recursive deletion #%d failed: %s", task.id, error);
+                }
+            }, null);
+
+            int numEntries = 0;
+            int budget = BATCH_SIZE;
+            boolean full = false;
+            while (budget > 0 && !task.stack.isEmpty()) {
+
+                Frame frame = task.stack.getLast();
+                long dirId = frame.dir.getId();
+                int limit = budget;
+                int n = 0;
+                Frame next = null;
+
+                DatabaseResultSet<FileMetadata> children = sMan.getChildren(dirId, frame.lastChildName, limit);
+                try {
+                    while (children.hasNext()) {
+
+                        FileMetadata child = children.next();
+
+                        // the link count written when deleting a link is
+                        // derived from the stored one, which does not
+                        // reflect the deletions of the current batch; a
+                        // further link to the same file is therefore
+                        // deleted in the next batch
+                        if (!child.isDirectory() && child.getLinkCount() > 1
+                            && !linkedFiles.add(child.getId())) {
+                            full = true;
+                            break;
+                        }
+
+                        frame.lastChildName = child.getFileName();
+                        n++;
+                        budget--;
+
+                        try {
+
+                            // check whether the entry may be removed from
+                            // the directory and, in case of a directory,
+                            // whether its entries may be listed and removed
+                            faMan.checkPermission(FileAccessManager.NON_POSIX_RM_MV_IN_DIR, sMan, child, dirId,
+                                task.userId, task.superUser, task.groupIds);
+                            if (child.isDirectory()) {
+                                faMan.checkPermission(FileAccessManager.O_WRONLY, sMan, child, 0, task.userId,
+                                    task.superUser, task.groupIds);
+                                faMan.checkPermission(FileAccessManager.NON_POSIX_SEARCH, sMan, child, 0,
+                                    task.userId, task.superUser, task.groupIds);
+                                next = new Frame(child, dirId);
+                                break;
+                            }
+
+                            // remove the file size from the quota manager
+                            XLocList xloc = child.getXLocList();
+                            if (child.getSize() > 0 && xloc != null && child.getLinkCount() == 1)
+                                master.getMrcVoucherManager().deleteFile(
+                                    new QuotaFileInformation(task.volume.getId(), child), update);
+
+                        } catch (UserException exc) {
+                            frame.incomplete = true;
+                            counts[2]++;
+                            continue;
+                        }
+
+                        sMan.delete(dirId, child.getFileName(), update);
+                        numEntries++;
+                        counts[0]++;
+
+                        if (child.getLinkCount() > 1)
+                            MRCHelper.updateFileTimes(dirId, child, false, true, false, sMan, time, update);
+                        else if (child.getXLocList() != null)
+                            addOSDDeletions(task, child, osdDeletions);
+                    }
+                } finally {
+                    children.destroy();
+                }
+
+                if (full)
+                    break;
+
+                // descend into a subdirectory
+                if (next != null) {
+                    task.stack.addLast(next);
+                    continue;
+                }
+
+                // all entries of the directory have been processed
+                if (n < limit) {
+
+                    task.stack.removeLast();
+
+                    // if an entry could not be deleted, neither can the
+                    // directory and its ancestors
+                    if (frame.incomplete) {
+                        if (!task.stack.isEmpty())
+                            task.stack.getLast().incomplete = true;
+                        continue;
+                    }
+
+                    sMan.delete(frame.parentId, frame.dir.getFileName(), update);
+                    numEntries++;
+                    counts[1]++;
+
+                    // update the POSIX timestamps of the directory's parent
+                    // once the entire tree has been deleted
+                    if (task.stack.isEmpty()) {
+                        FileMetadata parentDir = sMan.getMetadata(task.parentDirId);
+                        if (parentDir != null)
+                            MRCHelper.updateFileTimes(task.parentsParentId, parentDir, false, true, true, sMan,
+                                time, update);
+                    }
+                }
+            }
+
+            if (numEntries > 0)
+                update.execute();
+            else
+                batchCompleted(task, counts, osdDeletions);
+
+        } catch (Exception exc) {
+            task.abort(exc.toString());
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.proc, this, "recursive deletion #%d failed",
+                task.id);
+            Logging.logError(Logging.LEVEL_ERROR, this, exc);
+        }
+    }
+
+    private void addOSDDeletions(Task task, FileMetadata file, List<OSDDeletion> osdDeletions) {
+
+        XLocList xloc = file.getXLocList();
+        if (xloc.getReplicaCount() == 0)
+            return;
+
+        String fileId = MRCHelper.createGlobalFileId(task.volume, file);
+        XLocSet xLocSet = Converter.xLocListToXLocSet(xloc).build();
+
+        // the head OSD of each replica deletes the objects on all OSDs of
+        // the replica
+        for (int i = 0; i < xLocSet.getReplicasCount(); i++)
+            osdDeletions.add(new OSDDeletion(task, fileId, file.getEpoch(), xLocSet, Helper.getOSDUUIDFromXlocSet(
+                xLocSet, i, 0)));
+    }
+
+    private void batchCompleted(Task task, int[] counts, List<OSDDeletion> osdDeletions) {
+
+        boolean next = task.batchCompleted(counts[0], counts[1], counts[2], osdDeletions.size());
+
+        for (OSDDeletion deletion : osdDeletions)
+            enqueue(deletion);
+
+        if (next)
+            scheduleBatch(task);
+        else if (task.isFinished() && Logging.isInfo())
+            Logging.logMessage(Logging.LEVEL_INFO, Category.proc, this, "finished recursive deletion #%d: %s",
+                task.id, task);
+    }
+
+    private void enqueue(OSDDeletion deletion) {
+
+        OSDQueue queue = osdQueues.get(deletion.osdUUID);
+        if (queue == null) {
+            queue = new OSDQueue(deletion.osdUUID);
+            OSDQueue existing = osdQueues.putIfAbsent(deletion.osdUUID, queue);
+            if (existing != null)
+                queue = existing;
+        }
+
+        synchronized (queue) {
+            queue.queue.add(deletion);
+        }
+
+        scheduleSend(queue);
+    }
+
+    private void scheduleSend(final OSDQueue queue) {
+        try {
+            osdExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(queue);
+                }
+            });
+        } catch (Exception exc) {
+            // the manager has been shut down
+        }
+    }
+
+    /**
+     * Sends queued deletions to an OSD, as long as the maximum number of
+     * requests in flight has not been reached.
+     */
+    private void send(final OSDQueue queue) {
+
+        for (;;) {
+
+            final OSDDeletion deletion;
+            synchronized (queue) {
+                if (queue.inFlight >= MAX_OSD_REQUESTS_IN_FLIGHT || queue.queue.isEmpty())
+                    return;
+                deletion = queue.queue.removeFirst();
+                queue.inFlight++;
+            }
+
+            try {
+
+                // the capability is created when the request is sent, so
+                // that it cannot expire while the deletion is queued
+                VolumeInfo volume = deletion.task.volume;
+                Capability cap = new Capability(deletion.fileId, FileAccessManager.NON_POSIX_DELETE, master
+                        .getConfig().getCapabilityTimeout(), Integer.MAX_VALUE, deletion.task.clientAddress,
+                    deletion.epoch, false, !volume.isSnapshotsEnabled() ? SnapConfig.SNAP_CONFIG_SNAPS_DISABLED
+                        : volume.isSnapVolume() ? SnapConfig.SNAP_CONFIG_ACCESS_SNAP
+                            : SnapConfig.SNAP_CONFIG_ACCESS_CURRENT, volume.getCreationTime(), master.getConfig()
+                            .getCapabilitySecret());
+                FileCredentials creds = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(
+                    deletion.xLocSet).build();
+
+                RPCResponse<emptyResponse> response = master.getOSDClient().unlink(
+                    new ServiceUUID(queue.osdUUID).getAddress(), RPCAuthentication.authNone,
+                    RPCAuthentication.userService, creds, deletion.fileId);
+
+                response.registerListener(new RPCResponseAvailableListener<emptyResponse>() {
+                    @Override
+                    public void responseAvailable(RPCResponse<emptyResponse> r) {
+                        boolean success = true;
+                        try {
+                            r.get();
+                        } catch (Exception exc) {
+                            success = false;
+                            if (Logging.isDebug())
+                                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                                    "could not delete file %s on OSD %s: %s", deletion.fileId, queue.osdUUID, exc);
+                        } finally {
+                            r.freeBuffers();
+                        }
+                        osdDeletionCompleted(queue, deletion, success);
+                    }
+                });
+
+            } catch (Exception exc) {
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                        "could not delete file %s on OSD %s: %s", deletion.fileId, queue.osdUUID, exc);
+                osdDeletionCompleted(queue, deletion, false);
+            }
+        }
+    }
+
+    private void osdDeletionCompleted(OSDQueue queue, OSDDeletion deletion, boolean success) {
+
+        synchronized (queue) {
+            queue.inFlight--;
+        }
+
+        if (deletion.task.osdDeletionCompleted(success))
+            scheduleBatch(deletion.task);
+
+        if (deletion.task.isFinished() && Logging.isInfo())
+            Logging.logMessage(Logging.LEVEL_INFO, Category.proc, this, "finished recursive deletion #%d: %s",
+                deletion.task.id, deletion.task);
+
+        scheduleSend(queue);
+    }
+
+    /**
+     * The state of a recursive deletion.
+     */
+    public static final class Task {
+
+        private final long              id;
+
+        private final StorageManager    sMan;
+
+        private final VolumeInfo        volume;
+
+        private final long              parentDirId;
+
+        private final long              parentsParentId;
+
+        private final String            userId;
+
+        private final boolean           superUser;
+
+        private final List<String>      groupIds;
+
+        private final String            clientAddress;
+
+        /** the directories on the path to the current one */
+        private final LinkedList<Frame> stack;
+
+        private long                    deletedFiles;
+
+        private long                    deletedDirs;
+
+        private long                    failedEntries;
+
+        private long                    pendingOSDDeletions;
+
+        private long                    failedOSDDeletions;
+
+        private boolean                 metadataDeleted;
+
+        private boolean                 suspended;
+
+        private String                  error;
+
+        private long                    finishTime;
+
+        Task(long id, StorageManager sMan, FileMetadata dir, FileMetadata parentDir, long parentsParentId,
+            String userId, boolean superUser, List<String> groupIds, String clientAddress) {
+            this.id = id;
+            this.sMan = sMan;
+            this.volume = sMan.getVolumeInfo();
+            this.parentDirId = parentDir.getId();
+            this.parentsParentId = parentsParentId;
+            this.userId = userId;
+            this.superUser = superUser;
+            this.groupIds = groupIds;
+            this.clientAddress = clientAddress;
+            this.stack = new LinkedList<Frame>();
+            this.stack.add(new Frame(dir, parentDir.getId()));
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public synchronized long getDeletedFiles() {
+            return deletedFiles;
+        }
+
+        public synchronized long getDeletedDirs() {
+            return deletedDirs;
+        }
+
+        public synchronized long getFailedEntries() {
+            return failedEntries;
+        }
+
+        public synchronized long getPendingOSDDeletions() {
+            return pendingOSDDeletions;
+        }
+
+        public synchronized long getFailedOSDDeletions() {
+            return failedOSDDeletions;
+        }
+
+        public synchronized String getError() {
+            return error;
+        }
+
+        public synchronized boolean isFinished() {
+            return metadataDeleted && pendingOSDDeletions == 0;
+        }
+
+        synchronized long getFinishTime() {
+            return finishTime;
+        }
+
+        /**
+         * Records the results of a batch.
+         *
+         * @return <code>true</code>, if the next batch should be scheduled
+         */
+        synchronized boolean batchCompleted(int files, int dirs, int failed, int osdDeletions) {
+
+            deletedFiles += files;
+            deletedDirs += dirs;
+            failedEntries += failed;
+            pendingOSDDeletions += osdDeletions;
+
+            if (stack.isEmpty()) {
+                metadataDeleted = true;
+                checkFinished();
+                return false;
+            }
+
+            if (pendingOSDDeletions > MAX_PENDING_OSD_DELETIONS) {
+                suspended = true;
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Records the result of an OSD deletion.
+         *
+         * @return <code>true</code>, if the task has been suspended and
+         *         should be resumed
+         */
+        synchronized boolean osdDeletionCompleted(boolean success) {
+
+            pendingOSDDeletions--;
+            if (!success)
+                failedOSDDeletions++;
+            checkFinished();
+
+            if (suspended && pendingOSDDeletions <= MAX_PENDING_OSD_DELETIONS / 2) {
+                suspended = false;
+                return true;
+            }
+
+            return false;
+        }
+
+        synchronized void abort(String error) {
+            this.error = error;
+            metadataDeleted = true;
+            checkFinished();
+        }
+
+        private void checkFinished() {
+            if (metadataDeleted && pendingOSDDeletions == 0 && finishTime == 0)
+                finishTime = TimeSync.getLocalSystemTime();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "deletedFiles=" + deletedFiles + ", deletedDirs=" + deletedDirs + ", failedEntries="
+                + failedEntries + ", pendingOSDDeletions=" + pendingOSDDeletions + ", failedOSDDeletions="
+                + failedOSDDeletions + (error == null ? "" : ", error=" + error);
+        }
+    }
+
+    private static final class Frame {
+
+        final FileMetadata dir;
+
+        final long         parentId;
+
+        /** the name of the last entry processed */
+        String             lastChildName;
+
+        /** set if an entry of the directory could not be deleted */
+        boolean            incomplete;
+
+        Frame(FileMetadata dir, long parentId) {
+            this.dir = dir;
+            this.parentId = parentId;
+        }
+    }
+
+    private static final class OSDDeletion {
+
+        final Task    task;
+
+        final String  fileId;
+
+        final int     epoch;
+
+        final XLocSet xLocSet;
+
+        final String  osdUUID;
+
+        OSDDeletion(Task task, String fileId, int epoch, XLocSet xLocSet, String osdUUID) {
+            this.task = task;
+            this.fileId = fileId;
+            this.epoch = epoch;
+            this.xLocSet = xLocSet;
+            this.osdUUID = osdUUID;
+        }
+    }
+
+    private static final class OSDQueue {
+
+        final String                  osdUUID;
+
+        final LinkedList<OSDDeletion> queue;
+
+        int                           inFlight;
+
+        OSDQueue(String osdUUID) {
+            this.osdUUID = osdUUID;
+            this.queue = new LinkedList<OSDDeletion>();
+        }
+    }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xtreemfs.common.quota.QuotaConstants;
+import org.xtreemfs.foundation.VersionManagement;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+
+/**
+ * Creates and restores binary database dumps.
+ * <p>
+ * Unlike an XML dump, a binary dump contains the raw records of all volumes.
+ * It is a directory with a set of chunk files, each of which contains a range
+ * of records from one index of one volume, and a manifest that lists the
+ * volumes and their chunks. Since chunks are independent of each other, they
+ * are written and restored in parallel; restoring a chunk only requires a
+ * constant amount of memory, as records are inserted in batches while the
+ * chunk is being read. The manifest is written last, so that incomplete dumps
+ * are recognized.
+ * <p>
+ * As the records are not interpreted, binary dumps can only be restored by an
+ * MRC with the same database version. XML dumps have to be used to migrate a
+ * database to a different version.
+ */
+public class BinaryDBDump {
+
+    /** the name of the manifest file in a binary dump */
+    public static final String MANIFEST_FILE = "MANIFEST";
+
+    /** "XFSDUMP1" */
+    private static final long  MAGIC         = 0x58465344554D5031L;
+
+    private static final int   END_OF_CHUNK  = -1;
+
+    private static final int   BUFFER_SIZE   = 1024 * 1024;
+
+    /**
+     * Checks whether a dump is a binary dump.
+     */
+    public static boolean isBinaryDump(File dump) {
+        return new File(dump, MANIFEST_FILE).isFile();
+    }
+
+    /**
+     * Writes a binary dump of a set of volumes.
+     *
+     * @param sMans
+     *            the storage managers of the volumes; they should refer to
+     *            snapshots, so that the dump is consistent
+     * @param dumpDir
+     *            the directory in which the dump is created
+     * @param numThreads
+     *            the number of chunks written in parallel
+     * @param maxChunkSize
+     *            the size in bytes after which a new chunk is started
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws DatabaseException
+     *             if an error occurs while reading the records
+     */
+    public static void dump(List<StorageManager> sMans, final File dumpDir, int numThreads,
+        final long maxChunkSize) throws IOException, DatabaseException {
+
+        if (!dumpDir.mkdirs() && !dumpDir.isDirectory())
+            throw new IOException("could not create dump directory " + dumpDir);
+
+        // dump all indices of all volumes in parallel
+        List<List<Future<List<String>>>> chunks = new ArrayList<List<Future<List<String>>>>(sMans.size());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+
+            for (final StorageManager sMan : sMans) {
+
+                List<Future<List<String>>> volChunks = new ArrayList<Future<List<String>>>(sMan.getNumIndices());
+                for (int i = 0; i < sMan.getNumIndices(); i++) {
+                    final int index = i;
+                    volChunks.add(executor.submit(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() throws Exception {
+                            return dumpIndex(sMan, index, dumpDir, maxChunkSize);
+                        }
+                    }));
+                }
+                chunks.add(volChunks);
+            }
+
+            // wait until all chunks have been written successfully; if a
+            // chunk fails, no manifest is written
+            List<List<String>> chunkNames = new ArrayList<List<String>>(sMans.size());
+            for (List<Future<List<String>>> volChunks : chunks) {
+                List<String> names = new LinkedList<String>();
+                for (Future<List<String>> f : volChunks)
+                    names.addAll(getResult(f));
+                chunkNames.add(names);
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+                dumpDir, MANIFEST_FILE))));
+            try {
+                out.writeLong(MAGIC);
+                out.writeLong(VersionManagement.getMrcDataVersion());
+                out.writeInt(sMans.size());
+
+                for (int i = 0; i < sMans.size(); i++) {
+
+                    VolumeInfo vol = sMans.get(i).getVolumeInfo();
+                    out.writeUTF(vol.getId());
+                    out.writeUTF(vol.getName());
+                    out.writeShort(vol.getAcPolicyId());
+
+                    out.writeInt(chunkNames.get(i).size());
+                    for (String chunk : chunkNames.get(i))
+                        out.writeUTF(chunk);
+                }
+
+            } finally {
+                out.close();
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Restores a binary dump. All volumes contained in the dump are created.
+     *
+     * @param vMan
+     *            the volume manager
+     * @param faMan
+     *            the file access manager
+     * @param dumpDir
+     *            the directory containing the dump
+     * @param numThreads
+     *            the number of chunks restored in parallel
+     * @param batchSize
+     *            the number of records inserted per database update
+     * @throws UserException
+     *             if the dump cannot be restored by this MRC
+     * @throws DatabaseException
+     *             if an error occurs while inserting the records
+     * @throws IOException
+     *             if an I/O error occurs or the dump is corrupted
+     */
+    public static void restore(VolumeManager vMan, FileAccessManager faMan, File dumpDir, int numThreads,
+        final int batchSize) throws UserException, DatabaseException, IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dumpDir,
+            MANIFEST_FILE))));
+
+        List<StorageManager> sMans = new ArrayList<StorageManager>();
+        List<Future<Long>> results = new LinkedList<Future<Long>>();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+        try {
+
+            if (in.readLong() != MAGIC)
+                throw new IOException("invalid manifest in binary dump " + dumpDir);
+
+            long dbVersion = in.readLong();
+            if (dbVersion != VersionManagement.getMrcDataVersion())
+                throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "binary dump has database version "
+                    + dbVersion + ", which differs from the current version "
+                    + VersionManagement.getMrcDataVersion() + "; please restore from an XML dump");
+
+            int numVolumes = in.readInt();
+            for (int i = 0; i < numVolumes; i++) {
+
+                String volumeId = in.readUTF();
+                String volumeName = in.readUTF();
+                short acPolicy = in.readShort();
+
+                // create the volume and remove all records that have been
+                // created along with it, as they will be restored from the
+                // dump
+                vMan.createVolume(faMan, volumeId, volumeName, acPolicy, "", "", null, 0,
+                    QuotaConstants.UNLIMITED_QUOTA, new LinkedList<KeyValuePair>());
+                final StorageManager sMan = vMan.getStorageManager(volumeId);
+                clear(sMan);
+                sMans.add(sMan);
+
+                int numChunks = in.readInt();
+                for (int j = 0; j < numChunks; j++) {
+                    final File chunk = new File(dumpDir, in.readUTF());
+                    results.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            return restoreChunk(sMan, chunk, batchSize);
+                        }
+                    }));
+                }
+            }
+
+            long count = 0;
+            for (Future<Long> f : results)
+                count += getResult(f);
+
+            // reload all volume-wide values from the database, including the
+            // format of the restored records, before the volumes are used
+            for (StorageManager sMan : sMans) {
+                sMan.reloadRecordFormat();
+                sMan.getVolumeInfo().reload();
+            }
+
+            Logging.logMessage(Logging.LEVEL_INFO, Category.storage, BinaryDBDump.class,
+                "restored %d records of %d volumes from binary dump %s", count, numVolumes, dumpDir);
+
+        } finally {
+            executor.shutdownNow();
+            in.close();
+        }
+    }
+
+    private static List<String> dumpIndex(StorageManager sMan, int index, File dumpDir, long maxChunkSize)
+        throws IOException, DatabaseException {
+
+        List<String> chunks = new LinkedList<String>();
+        DataOutputStream out = null;
+        long chunkSize = 0;
+        long count = 0;
+
+        DatabaseResultSet<byte[][]> it = sMan.getRecords(index);
+        try {
+
+            while (it.hasNext()) {
+
+                // start a new chunk if necessary
+                if (out == null || chunkSize >= maxChunkSize) {
+
+                    if (out != null)
+                        closeChunk(out, count);
+
+                    String name = sMan.getVolumeInfo().getId() + "." + index + "." + chunks.size();
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dumpDir,
+                        name)), BUFFER_SIZE));
+                    out.writeLong(MAGIC);
+                    out.writeInt(index);
+
+                    chunks.add(name);
+                    chunkSize = 0;
+                    count = 0;
+                }
+
+                byte[][] record = it.next();
+                out.writeInt(record[0].length);
+                out.write(record[0]);
+                out.writeInt(record[1].length);
+                out.write(record[1]);
+
+                chunkSize += 8 + record[0].length + record[1].length;
+                count++;
+            }
+
+            if (out != null) {
+                closeChunk(out, count);
+                out = null;
+            }
+
+        } finally {
+            it.destroy();
+            if (out != null)
+                out.close();
+        }
+
+        return chunks;
+    }
+
+    private static void closeChunk(DataOutputStream out, long count) throws IOException {
+        out.writeInt(END_OF_CHUNK);
+        out.writeLong(count);
+        out.close();
+    }
+
+    private static long restoreChunk(StorageManager sMan, File chunk, int batchSize) throws IOException,
+        DatabaseException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(chunk), BUFFER_SIZE));
+        try {
+
+            if (in.readLong() != MAGIC)
+                throw new IOException("invalid chunk " + chunk);
+            int index = in.readInt();
+
+            AtomicDBUpdate update = null;
+            int numUpdates = 0;
+            long count = 0;
+
+            for (;;) {
+
+                int keyLength = in.readInt();
+                if (keyLength == END_OF_CHUNK)
+                    break;
+
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+
+                if (update == null)
+                    update = sMan.createAtomicDBUpdate(null, null);
+                sMan.restoreRecord(index, key, value, update);
+                count++;
+
+                if (++numUpdates == batchSize) {
+                    update.execute();
+                    update = null;
+                    numUpdates = 0;
+                }
+            }
+
+            if (update != null)
+                update.execute();
+
+            if (in.readLong() != count)
+                throw new IOException("incomplete chunk " + chunk);
+
+            return count;
+
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void clear(StorageManager sMan) throws DatabaseException {
+
+        AtomicDBUpdate update = sMan.createAtomicDBUpdate(null, null);
+
+        for (int i = 0; i < sMan.getNumIndices(); i++) {
+
+            List<byte[]> keys = new LinkedList<byte[]>();
+            DatabaseResultSet<byte[][]> it = sMan.getRecords(i);
+            while (it.hasNext())
+                keys.add(it.next()[0]);
+            it.destroy();
+
+            for (byte[] key : keys)
+                sMan.restoreRecord(i, key, null, update);
+        }
+
+        update.execute();
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, DatabaseException {
+
+        try {
+            return future.get();
+
+        } catch (InterruptedException exc) {
+            throw new IOException("interrupted while waiting for chunks");
+
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IOException)
+                throw (IOException) exc.getCause();
+            if (exc.getCause() instanceof DatabaseException)
+                throw (DatabaseException) exc.getCause();
+            throw new DatabaseException(exc.getCause());
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ package org.xtreemfs.mrc.utils;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -413,6 +414,89 @@ public class DBAdminHelper {
         }
     }
 
+    /**
+     * Converts the file metadata records of a volume to packed records, which
+     * allow the complete metadata of a file to be retrieved with a single
+     * database lookup. The conversion is carried out in a sequence of
+     * synchronous updates. If it is interrupted, it can be resumed by invoking
+     * this method again.
+     * 
+     * @param sMan
+     *            the volume's storage manager
+     * @param batchSize
+     *            the maximum number of records converted per update
+     * @return the number of converted records
+     * @throws DatabaseException
+     *             if an error occurs while accessing the database
+     */
+    public static long convertToPackedRecords(StorageManager sMan, int batchSize) throws DatabaseException {
+
+        if (sMan.getRecordFormat() == StorageManager.RECORD_FORMAT_PACKED)
+            return 0;
+
+        // from now on, all modified records are written in the packed format
+        AtomicDBUpdate update = sMan.createAtomicDBUpdate(null, null);
+        sMan.setRecordFormat(StorageManager.RECORD_FORMAT_PACKING, update);
+        update.execute();
+
+        update = sMan.createAtomicDBUpdate(null, null);
+        sMan.setMetadata(sMan.getMetadata(1), (byte) -1, update);
+        update.execute();
+        long count = 1;
+
+        // convert all nested records, one batch of directory entries at a
+        // time
+        LinkedList<Long> dirs = new LinkedList<Long>();
+        dirs.add(1L);
+        while (!dirs.isEmpty()) {
+
+            long dirId = dirs.removeFirst();
+            String lastChildName = null;
+
+            for (;;) {
+
+                List<FileMetadata> children = new ArrayList<FileMetadata>();
+                DatabaseResultSet<FileMetadata> it = sMan.getChildren(dirId, lastChildName, batchSize);
+                while (it.hasNext())
+                    children.add(it.next());
+                it.destroy();
+
+                if (children.isEmpty())
+                    break;
+
+                update = sMan.createAtomicDBUpdate(null, null);
+                int numUpdates = 0;
+                for (FileMetadata child : children) {
+
+                    if (child.isDirectory())
+                        dirs.add(child.getId());
+
+                    // hard links are stored in the file ID index, which is
+                    // not affected by the conversion
+                    if (child.getLinkCount() > 1)
+                        continue;
+
+                    sMan.setMetadata(child, (byte) -1, update);
+                    numUpdates++;
+                }
+
+                if (numUpdates > 0)
+                    update.execute();
+                count += numUpdates;
+
+                if (children.size() < batchSize)
+                    break;
+                lastChildName = children.get(children.size() - 1).getFileName();
+            }
+        }
+
+        update = sMan.createAtomicDBUpdate(null, null);
+        sMan.setRecordFormat(StorageManager.RECORD_FORMAT_PACKED, update);
+        update.execute();
+
+        return count;
+    }
+
     private static void dumpQuotas(BufferedWriter xmlWriter, StorageManager sMan) throws IOException, DatabaseException {
 
         xmlWriter.write("<quotas>\n");
@@ -51,12 +51,16 @@ import org.xtreemfs.mrc.metadata.XLoc;
 import org.xtreemfs.mrc.metadata.XLocList;
 import org.xtreemfs.mrc.operations.SetReplicaUpdatePolicyOperation;
 import org.xtreemfs.mrc.osdselection.OSDStatusManager;
+import org.xtreemfs.mrc.quota.QuotaManager;
+import org.xtreemfs.mrc.quota.VolumeQuotaManager;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 
 public class MRCHelper {
 
@@ -377,8 +381,8 @@ public class MRCHelper {
     }
 
     public static String getSysAttrValue(MRCConfig config, StorageManager sMan, OSDStatusManager osdMan,
-            FileAccessManager faMan, String path, FileMetadata file, String keyString) throws DatabaseException,
-            UserException, JSONException {
+            QuotaManager quotaMan, FileAccessManager faMan, String path, FileMetadata file, String keyString)
+            throws DatabaseException, UserException, JSONException {
 
         if (keyString.startsWith(POLICY_ATTR_PREFIX + "."))
             return getPolicyValue(sMan, keyString);
@@ -411,6 +415,9 @@ public class MRCHelper {
 
         if (key != null) {
 
+            // the quota manager holds the current space usage of the volume, which may not have been written yet
+            VolumeQuotaManager volQuotaMan = quotaMan.getVolumeQuotaManager(sMan);
+
             switch (key) {
 
             case locations:
@@ -565,9 +572,13 @@ public class MRCHelper {
                 return String.valueOf(sMan.getVolumeInfo().getDefaultUserQuota());
 
             case blockedspace:
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getBlockedSpace(null, null));
                 return String.valueOf(sMan.getVolumeBlockedSpace());
 
             case usedspace:
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getUsedSpace(null, null));
                 return String.valueOf(sMan.getVolumeUsedSpace());
 
             case userquotainfo:
@@ -577,7 +588,7 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No user specified!");
                 }
 
-                return JSONParser.writeJSON(sMan.getAllOwnerQuotaInfo(OwnerType.USER, subKey));
+                return JSONParser.writeJSON(getAllOwnerQuotaInfo(sMan, volQuotaMan, OwnerType.USER, subKey));
 
             case userquota:
                 if (subKey == null) {
@@ -595,6 +606,8 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No user specified!");
                 }
 
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getBlockedSpace(OwnerType.USER, subKey));
                 return String.valueOf(sMan.getUserBlockedSpace(subKey));
 
             case userusedspace:
@@ -604,6 +617,8 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No user specified!");
                 }
 
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getUsedSpace(OwnerType.USER, subKey));
                 return String.valueOf(sMan.getUserUsedSpace(subKey));
 
             case groupquotainfo:
@@ -613,7 +628,7 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No group specified!");
                 }
 
-                return JSONParser.writeJSON(sMan.getAllOwnerQuotaInfo(OwnerType.GROUP, subKey));
+                return JSONParser.writeJSON(getAllOwnerQuotaInfo(sMan, volQuotaMan, OwnerType.GROUP, subKey));
 
             case groupquota:
                 if (subKey == null) {
@@ -631,6 +646,8 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No group specified!");
                 }
 
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getBlockedSpace(OwnerType.GROUP, subKey));
                 return String.valueOf(sMan.getGroupBlockedSpace(subKey));
 
             case groupusedspace:
@@ -640,6 +657,8 @@ public class MRCHelper {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "No group specified!");
                 }
 
+                if (volQuotaMan != null)
+                    return String.valueOf(volQuotaMan.getUsedSpace(OwnerType.GROUP, subKey));
                 return String.valueOf(sMan.getGroupUsedSpace(subKey));
             }
         }
@@ -647,6 +666,16 @@ public class MRCHelper {
         return "";
     }
 
+    private static Map<String, Map<String, Long>> getAllOwnerQuotaInfo(StorageManager sMan,
+            VolumeQuotaManager volQuotaMan, OwnerType ownerType, String id) throws DatabaseException {
+
+        Map<String, Map<String, Long>> ownerQuotaInfo = sMan.getAllOwnerQuotaInfo(ownerType, id);
+        if (volQuotaMan != null)
+            volQuotaMan.applySpaceUsage(ownerType, ownerQuotaInfo);
+
+        return ownerQuotaInfo;
+    }
+
     public static void setSysAttrValue(MRCRequestDispatcher master, StorageManager sMan, long parentId,
             FileMetadata file, String keyString, String value, AtomicDBUpdate update)
                     throws UserException, DatabaseException {
@@ -798,8 +827,10 @@ public class MRCHelper {
             }
 
             // create snapshot
-            if (command.charAt(0) == 'c')
+            if (command.charAt(0) == 'c') {
+                master.getMrcQuotaManager().flushSpaceUsage(sMan);
                 vMan.createSnapshot(sMan.getVolumeInfo().getId(), name, parentId, file, command.equals("cr"));
+            }
 
             // delete snapshot
             else if (command.equals("d"))
@@ -1013,6 +1044,93 @@ public class MRCHelper {
         return result;
     }
 
+    /**
+     * Creates the POSIX stat information for a file or directory, as it is
+     * returned by 'getattr', 'readdir' and 'xtreemfs_getattrs' operations.
+     */
+    public static Stat createStat(FileAccessManager faMan, StorageManager sMan, VolumeInfo volume,
+            FileMetadata file, String userId, List<String> groupIds) throws DatabaseException, MRCException {
+
+        String linkTarget = sMan.getSoftlinkTarget(file.getId());
+        int mode = faMan.getPosixAccessMode(sMan, file, userId, groupIds);
+        mode |= linkTarget != null ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFLNK.getNumber()
+                : file.isDirectory() ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFDIR.getNumber()
+                        : ((file.getPerms() & GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO.getNumber()) != 0) ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO
+                                .getNumber()
+                                : GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFREG.getNumber();
+        long size = linkTarget != null ? linkTarget.length() : file.isDirectory() ? 0 : file.getSize();
+        int blkSize = 0;
+        if ((linkTarget == null) && (!file.isDirectory())) {
+            XLocList xlocList = file.getXLocList();
+            if ((xlocList != null) && (xlocList.getReplicaCount() > 0))
+                blkSize = xlocList.getReplica(0).getStripingPolicy().getStripeSize() * 1024;
+        }
+
+        final long newEtag = file.getMtime() + file.getCtime();
+
+        return Stat.newBuilder().setDev(volume.getId().hashCode()).setIno(file.getId()).setMode(mode)
+                .setNlink(file.getLinkCount()).setUserId(file.getOwnerId()).setGroupId(file.getOwningGroupId())
+                .setSize(size).setAtimeNs((long) file.getAtime() * (long) 1e9)
+                .setCtimeNs((long) file.getCtime() * (long) 1e9).setMtimeNs((long) file.getMtime() * (long) 1e9)
+                .setBlksize(blkSize).setTruncateEpoch(file.isDirectory() ? 0 : file.getEpoch())
+                .setAttributes((int) file.getW32Attrs()).setEtag(newEtag).build();
+    }
+
+    /**
+     * Returns all extended attributes of a file or directory that are visible
+     * to the given user, including global, user-specific and system
+     * attributes. Policy and volume attributes are included for the root
+     * directory.
+     */
+    public static Map<String, byte[]> getXAttrs(MRCRequestDispatcher master, StorageManager sMan,
+            FileAccessManager faMan, String path, FileMetadata file, String userId) throws DatabaseException,
+            UserException, JSONException {
+
+        Map<String, byte[]> attrs = new HashMap<String, byte[]>();
+
+        DatabaseResultSet<XAttr> myAttrs = sMan.getXAttrs(file.getId(), userId);
+        DatabaseResultSet<XAttr> globalAttrs = sMan.getXAttrs(file.getId(), StorageManager.GLOBAL_ID);
+
+        // include global attributes
+        while (globalAttrs.hasNext()) {
+            XAttr attr = globalAttrs.next();
+            attrs.put(attr.getKey(), attr.getValue());
+        }
+        globalAttrs.destroy();
+
+        // include individual user attributes
+        while (myAttrs.hasNext()) {
+            XAttr attr = myAttrs.next();
+            attrs.put(attr.getKey(), attr.getValue());
+        }
+        myAttrs.destroy();
+
+        // include system attributes
+        for (SysAttrs attr : SysAttrs.values()) {
+            String key = "xtreemfs." + attr.toString();
+            String value = getSysAttrValue(master.getConfig(), sMan, master.getOSDStatusManager(),
+                    master.getMrcQuotaManager(), faMan, path, file, attr.toString());
+            if (!value.equals(""))
+                attrs.put(key, value.getBytes());
+        }
+
+        // if file ID is root volume
+        if (file.getId() == 1) {
+
+            // include policy attributes
+            List<String> policyAttrNames = getSpecialAttrNames(sMan, POLICY_ATTR_PREFIX);
+            for (String attr : policyAttrNames)
+                attrs.put(attr, sMan.getXAttr(1, StorageManager.SYSTEM_UID, attr));
+
+            // include volume attributes
+            List<String> volAttrAttrNames = getSpecialAttrNames(sMan, VOL_ATTR_PREFIX);
+            for (String attr : volAttrAttrNames)
+                attrs.put(attr, sMan.getXAttr(1, StorageManager.SYSTEM_UID, attr));
+        }
+
+        return attrs;
+    }
+
     public static ServiceDataMap.Builder buildServiceDataMap(String... kvPairs) {
 
         assert (kvPairs.length % 2 == 0);
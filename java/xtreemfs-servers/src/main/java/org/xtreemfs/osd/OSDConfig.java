@@ -61,6 +61,7 @@ public class OSDConfig extends ServiceConfig {
             Parameter.FLEASE_LEASE_TIMEOUT_MS,
             Parameter.FLEASE_MESSAGE_TO_MS,
             Parameter.FLEASE_RETRIES,
+            Parameter.FLEASE_BATCH_WINDOW_MS,
             Parameter.POLICY_DIR,
             Parameter.CAPABILITY_SECRET,
             Parameter.SOCKET_SEND_BUFFER_SIZE,
@@ -82,7 +83,12 @@ public class OSDConfig extends ServiceConfig {
             Parameter.STORAGE_THREADS,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
-            Parameter.HEALTH_CHECK
+            Parameter.HEALTH_CHECK,
+            Parameter.RWR_RESET_MAX_OBJS_IN_FLIGHT,
+            Parameter.RWR_RESET_MAX_OBJS_IN_FLIGHT_PER_FILE,
+            Parameter.RWR_RESET_OBJS_PER_FETCH,
+            Parameter.RWR_RESET_MAX_BANDWIDTH_KB,
+            Parameter.RWR_THREADS
     };
     /*
      * @formatter:on   
@@ -215,6 +221,13 @@ public class OSDConfig extends ServiceConfig {
         return (Integer) parameter.get(Parameter.FLEASE_RETRIES);
     }
 
+    /**
+     * @return the time in ms for which Flease messages to the same OSD are batched
+     */
+    public int getFleaseBatchWindowMS() {
+        return (Integer) parameter.get(Parameter.FLEASE_BATCH_WINDOW_MS);
+    }
+
     /**
      * @param capabilitySecret
      *            the capabilitySecret to set
@@ -288,4 +301,28 @@ public class OSDConfig extends ServiceConfig {
     public String getHealthCheckScript() {
         return (String) parameter.get(Parameter.HEALTH_CHECK);
     }
+
+    public int getRWRResetMaxObjsInFlight() {
+        return (Integer) parameter.get(Parameter.RWR_RESET_MAX_OBJS_IN_FLIGHT);
+    }
+
+    public int getRWRResetMaxObjsInFlightPerFile() {
+        return (Integer) parameter.get(Parameter.RWR_RESET_MAX_OBJS_IN_FLIGHT_PER_FILE);
+    }
+
+    public int getRWRResetObjsPerFetch() {
+        return (Integer) parameter.get(Parameter.RWR_RESET_OBJS_PER_FETCH);
+    }
+
+    public int getRWRResetMaxBandwidthKB() {
+        return (Integer) parameter.get(Parameter.RWR_RESET_MAX_BANDWIDTH_KB);
+    }
+
+    public int getRWRThreads() {
+        return (Integer) parameter.get(Parameter.RWR_THREADS);
+    }
+
+    public void setRWRThreads(int rwrThreads) {
+        parameter.put(Parameter.RWR_THREADS, rwrThreads);
+    }
 }
@@ -82,6 +82,7 @@ import org.xtreemfs.osd.operations.InternalGetFileSizeOperation;
 import org.xtreemfs.osd.operations.InternalGetGmaxOperation;
 import org.xtreemfs.osd.operations.InternalRWRAuthStateInvalidatedOperation;
 import org.xtreemfs.osd.operations.InternalRWRAuthStateOperation;
+import org.xtreemfs.osd.operations.InternalRWRFetchObjectsOperation;
 import org.xtreemfs.osd.operations.InternalRWRFetchOperation;
 import org.xtreemfs.osd.operations.InternalRWRResetStatusOperation;
 import org.xtreemfs.osd.operations.InternalRWRStatusOperation;
@@ -90,6 +91,7 @@ import org.xtreemfs.osd.operations.InternalRWRUpdateOperation;
 import org.xtreemfs.osd.operations.InternalTruncateOperation;
 import org.xtreemfs.osd.operations.InvalidateXLocSetOperation;
 import org.xtreemfs.osd.operations.LocalReadOperation;
+import org.xtreemfs.osd.operations.LocalReadRangeOperation;
 import org.xtreemfs.osd.operations.LockAcquireOperation;
 import org.xtreemfs.osd.operations.LockCheckOperation;
 import org.xtreemfs.osd.operations.LockReleaseOperation;
@@ -102,9 +104,9 @@ import org.xtreemfs.osd.operations.TruncateOperation;
 import org.xtreemfs.osd.operations.VivaldiPingOperation;
 import org.xtreemfs.osd.operations.WriteOperation;
 import org.xtreemfs.osd.quota.OSDVoucherManager;
-import org.xtreemfs.osd.rwre.RWReplicationStage;
 import org.xtreemfs.osd.rwre.ReplicatedFileStateSimple;
 import org.xtreemfs.osd.rwre.ReplicatedFileStateSimple.ReplicatedFileStateSimpleFuture;
+import org.xtreemfs.osd.rwre.ShardedRWReplicationStage;
 import org.xtreemfs.osd.stages.DeletionStage;
 import org.xtreemfs.osd.stages.PreprocStage;
 import org.xtreemfs.osd.stages.ReplicationStage;
@@ -192,7 +194,7 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
     protected final CleanupVersionsThread               cvThread;
 
-    protected final RWReplicationStage                  rwrStage;
+    protected final ShardedRWReplicationStage           rwrStage;
 
     private final OSDVoucherManager                     osdVoucherManager;
 
@@ -355,7 +357,8 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         replStage = new ReplicationStage(this, config.getMaxRequestsQueueLength());
         replStage.setLifeCycleListener(this);
         
-        rwrStage = new RWReplicationStage(this, serverSSLopts, config.getMaxRequestsQueueLength());
+        rwrStage = new ShardedRWReplicationStage(this, serverSSLopts, config.getRWRThreads(),
+                config.getMaxRequestsQueueLength());
         rwrStage.setLifeCycleListener(this);
 
         tracingStage = new TracingStage(this, config.getMaxRequestsQueueLength());
@@ -509,6 +512,7 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
             statusServer.registerModule(new PrintStackTrace());
             statusServer.registerModule(new ReplicatedFileStatusPage());
             statusServer.registerModule(new ReplicatedFileStatusJSON());
+            statusServer.registerModule(new ReplicaResetStatusPage());
 
             if (config.getAdminPassword().length() > 0) {
                 statusServer.addAuthorizedUser("admin", config.getAdminPassword());
@@ -871,6 +875,9 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         op = new LocalReadOperation(this);
         operations.put(op.getProcedureId(), op);
 
+        op = new LocalReadRangeOperation(this);
+        operations.put(op.getProcedureId(), op);
+
         op = new CleanupStartOperation(this);
         operations.put(op.getProcedureId(), op);
 
@@ -919,6 +926,9 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         op = new InternalRWRFetchOperation(this);
         operations.put(op.getProcedureId(), op);
 
+        op = new InternalRWRFetchObjectsOperation(this);
+        operations.put(op.getProcedureId(), op);
+
         op = new GetFileIDListOperation(this);
         operations.put(op.getProcedureId(), op);
 
@@ -980,7 +990,7 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         return this.vStage;
     }
 
-    public RWReplicationStage getRWReplicationStage() {
+    public ShardedRWReplicationStage getRWReplicationStage() {
         return this.rwrStage;
     }
 
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.osd;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.common.statusserver.StatusServerModule;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.osd.rwre.RWReplicationStage;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Status page showing the progress and throughput of read-write replica
+ * resets.
+ */
+class ReplicaResetStatusPage extends StatusServerModule {
+
+    private OSDRequestDispatcher myDispatcher;
+
+    @Override
+    public String getDisplayName() {
+        return "OSD Replica Reset Progress";
+    }
+
+    @Override
+    public String getUriPath() {
+        return "/reset";
+    }
+
+    @Override
+    public boolean isAvailableForService(ServiceType service) {
+        return service == ServiceType.SERVICE_TYPE_OSD;
+    }
+
+    @Override
+    public void initialize(ServiceType service, Object serviceRequestDispatcher) {
+        assert (service == ServiceType.SERVICE_TYPE_OSD);
+        myDispatcher = (OSDRequestDispatcher) serviceRequestDispatcher;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+        try {
+            final StringBuffer sb = new StringBuffer();
+            final AtomicReference<Map<String, Map<String, String>>> result
+                = new AtomicReference<Map<String, Map<String, String>>>();
+            final AtomicReference<Boolean> done = new AtomicReference<Boolean>(false);
+            sb.append("<HTML><HEAD><TITLE>Replica Reset Progress</TITLE>");
+            sb.append("<STYLE type=\"text/css\">body,table,tr,td,h1 ");
+            sb.append("{font-family:Arial,Helvetica,sans-serif;}</STYLE></HEAD><BODY>");
+            sb.append("<H1>Replica Reset Progress</H1>");
+            sb.append("<TABLE border=\"1\">");
+            sb.append("<TR><TD><B>File ID</B></TD><TD><B>Progress</B></TD></TR>");
+            myDispatcher.getRWReplicationStage().getResetStatus(new RWReplicationStage.StatusCallback() {
+
+                @Override
+                public void statusComplete(Map<String, Map<String, String>> status) {
+                    synchronized (result) {
+                        result.set(status);
+                        done.set(true);
+                        result.notifyAll();
+                    }
+                }
+
+                @Override
+                public void failed(ErrorResponse ex) {
+                    synchronized (result) {
+                        result.set(null);
+                        done.set(true);
+                        result.notifyAll();
+                    }
+                }
+            });
+            synchronized (result) {
+                while (!done.get())
+                    result.wait();
+            }
+            Map<String, Map<String, String>> status = result.get();
+
+            if (status == null) {
+                throw new Throwable("Error on getting replica reset status.");
+            }
+
+            // show the summary first
+            appendRow(sb, RWReplicationStage.RESET_STATUS_TOTAL, status.remove(RWReplicationStage.RESET_STATUS_TOTAL),
+                    "#DDDDDD");
+            for (Entry<String, Map<String, String>> e : new TreeMap<String, Map<String, String>>(status).entrySet()) {
+                appendRow(sb, e.getKey(), e.getValue(), "#FFFF66");
+            }
+            sb.append("</TABLE></BODY></HTML>");
+            sendResponse(httpExchange, sb.toString());
+        } catch (Throwable ex) {
+            ex.printStackTrace();
+            httpExchange.sendResponseHeaders(500, 0);
+        }
+    }
+
+    private static void appendRow(StringBuffer sb, String name, Map<String, String> values, String bgcolor) {
+        sb.append("<TR><TD>");
+        sb.append(name);
+        sb.append("</TD><TD style=\"background-color:");
+        sb.append(bgcolor);
+        sb.append("\"><TABLE border=\"0\">");
+        for (Entry<String, String> e : new TreeMap<String, String>(values).entrySet()) {
+            sb.append("<TR><TD>");
+            sb.append(e.getKey());
+            sb.append("</TD><TD>");
+            sb.append(e.getValue());
+            sb.append("</TD></TR>\n");
+        }
+        sb.append("</TABLE></TD></TR>\n");
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.drain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.osd.drain.OSDDrain.FileInformation;
+import org.xtreemfs.osd.drain.OSDDrainCheckpoint.FileEntry;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+
+/**
+ * Moves the files of an OSD to other OSDs with a bounded number of concurrent per-file pipelines. Unlike
+ * {@link OSDDrain#drain(boolean)}, which processes all files phase by phase, each pipeline takes a single file
+ * through all steps, so that files are finished (and checkpointed) continuously and the failure of a file does
+ * not affect the others.
+ * <p>
+ * The number of active pipelines is adapted to the load of the drained OSD as reported to the DIR: it is halved
+ * while the load exceeds the configured maximum, and increased by one otherwise.
+ */
+public class ConcurrentOSDDrain {
+
+    public static final int          DEFAULT_NUM_PIPELINES = 8;
+
+    private static final int         MONITOR_INTERVAL_MS   = 10 * 1000;
+
+    private final OSDDrain           drain;
+
+    private final OSDDrainCheckpoint checkpoint;
+
+    private final int                maxPipelines;
+
+    /**
+     * the maximum load of the drained OSD in percent, or 0 if the drain should not be throttled
+     */
+    private final int                maxLoad;
+
+    private final ExecutorService    tPool;
+
+    private final Object             throttleLock;
+
+    private int                      allowedPipelines;
+
+    private int                      activePipelines;
+
+    private int                      numFiles;
+
+    private int                      numDone;
+
+    private int                      numFailed;
+
+    private final List<String>       unsafeFiles;
+
+    private long                     startTime;
+
+    /**
+     * @param checkpoint
+     *            the checkpoint to record the progress in, or null
+     * @param maxLoad
+     *            the maximum load of the drained OSD in percent, or 0 to disable throttling
+     */
+    public ConcurrentOSDDrain(OSDDrain drain, int numPipelines, OSDDrainCheckpoint checkpoint, int maxLoad) {
+        this.drain = drain;
+        this.checkpoint = checkpoint;
+        this.maxPipelines = Math.max(1, numPipelines);
+        this.maxLoad = maxLoad;
+        this.tPool = Executors.newFixedThreadPool(maxPipelines);
+        this.throttleLock = new Object();
+        this.allowedPipelines = maxPipelines;
+        this.activePipelines = 0;
+        this.unsafeFiles = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /**
+     * Moves all given files and waits until they have been processed.
+     *
+     * @return true if all files have been moved
+     */
+    public boolean drainFiles(List<FileInformation> fileInfos) throws InterruptedException {
+        synchronized (this) {
+            numFiles = fileInfos.size();
+            startTime = System.currentTimeMillis();
+        }
+
+        for (final FileInformation fileInfo : fileInfos) {
+            tPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        acquirePipeline();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        drainFile(fileInfo);
+                    } finally {
+                        releasePipeline();
+                    }
+                }
+            });
+        }
+        tPool.shutdown();
+
+        try {
+            while (!tPool.awaitTermination(MONITOR_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                adaptToLoad();
+                printProgress();
+            }
+        } catch (InterruptedException e) {
+            tPool.shutdownNow();
+            throw e;
+        }
+        printProgress();
+
+        synchronized (this) {
+            return numFailed == 0 && unsafeFiles.isEmpty();
+        }
+    }
+
+    public synchronized int getNumDone() {
+        return numDone;
+    }
+
+    public synchronized int getNumFailed() {
+        return numFailed;
+    }
+
+    /**
+     * Returns the IDs of the files whose changes could not be reverted after an error.
+     */
+    public List<String> getUnsafeFiles() {
+        synchronized (unsafeFiles) {
+            return new ArrayList<String>(unsafeFiles);
+        }
+    }
+
+    private void acquirePipeline() throws InterruptedException {
+        synchronized (throttleLock) {
+            while (activePipelines >= allowedPipelines) {
+                throttleLock.wait();
+            }
+            activePipelines++;
+        }
+    }
+
+    private void releasePipeline() {
+        synchronized (throttleLock) {
+            activePipelines--;
+            throttleLock.notifyAll();
+        }
+    }
+
+    private void adaptToLoad() {
+        if (maxLoad <= 0) {
+            return;
+        }
+
+        int load = drain.getServiceLoad();
+        if (load < 0) {
+            return;
+        }
+
+        synchronized (throttleLock) {
+            int allowed = load > maxLoad ? Math.max(1, allowedPipelines / 2) : Math.min(maxPipelines,
+                    allowedPipelines + 1);
+            if (allowed != allowedPipelines) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.tool, this,
+                        "load of OSD is %d%%, using %d concurrent pipelines", load, allowed);
+            }
+            allowedPipelines = allowed;
+            throttleLock.notifyAll();
+        }
+    }
+
+    private void printProgress() {
+        int done, failed, unsafe, total;
+        long elapsedMs;
+        synchronized (this) {
+            done = numDone;
+            failed = numFailed;
+            total = numFiles;
+            elapsedMs = Math.max(1, System.currentTimeMillis() - startTime);
+        }
+        unsafe = unsafeFiles.size();
+        int active;
+        synchronized (throttleLock) {
+            active = activePipelines;
+        }
+
+        int processed = done + failed + unsafe;
+        double filesPerS = processed * 1000.0 / elapsedMs;
+        String eta = processed == 0 ? "unknown" : String.format("%.0f min",
+                Math.ceil((total - processed) / filesPerS / 60));
+
+        System.out.println(String.format("drained %d of %d files (%d failed, %d unsafe), %d in progress, "
+            + "%.1f files/s, remaining time: %s", done, total, failed, unsafe, active, filesPerS, eta));
+    }
+
+    /**
+     * Takes a single file through all steps of the drain. Errors are handled per file: the changes made so far
+     * are reverted if possible, and the file is recorded as failed.
+     */
+    private void drainFile(FileInformation fileInfo) {
+        FileEntry entry = checkpoint == null ? null : checkpoint.getEntry(fileInfo.fileID);
+
+        boolean policyChanged = false;
+        boolean replicaAdded = false;
+        boolean removingOriginal = false;
+
+        try {
+            XLocSet xlocset = drain.updateReplicaInfo(fileInfo);
+
+            // continue where an interrupted drain stopped
+            if (entry != null && entry.oldReplicationPolicy != null) {
+                fileInfo.oldReplicationPolicy = entry.oldReplicationPolicy;
+                policyChanged = true;
+            }
+            // the replica has not been added if the xLocSet does not contain it
+            if (entry != null && entry.newReplicaOSD != null) {
+                for (Replica replica : xlocset.getReplicasList()) {
+                    if (replica.getOsdUuids(0).equals(entry.newReplicaOSD)) {
+                        fileInfo.newReplica = replica;
+                        replicaAdded = true;
+                    }
+                }
+            }
+
+            if (fileInfo.oldReplica == null) {
+                // the replica has already been removed before the drain was interrupted
+                if (policyChanged) {
+                    drain.changeReplicationUpdatePolicy(fileInfo, fileInfo.oldReplicationPolicy);
+                }
+                fileDone(fileInfo);
+                return;
+            }
+
+            if (!fileInfo.isReplicaChangeCoordinated && !policyChanged) {
+                if (checkpoint != null) {
+                    checkpoint.started(fileInfo.fileID, fileInfo.oldReplicationPolicy);
+                }
+                policyChanged = true;
+                drain.changeReplicationUpdatePolicy(fileInfo, ReplicaUpdatePolicies.REPL_UPDATE_PC_RONLY);
+            }
+
+            if (!replicaAdded) {
+                fileInfo.newReplica = drain.createReplicaForFile(fileInfo);
+                // record the chosen OSD first, so that a resumed drain recognizes the replica if the drain is
+                // interrupted after it has been added
+                if (checkpoint != null) {
+                    checkpoint.addingReplica(fileInfo.fileID, fileInfo.newReplica.getOsdUuids(0));
+                }
+                drain.addReplicaToFile(fileInfo, fileInfo.newReplica);
+                replicaAdded = true;
+            }
+
+            if (!fileInfo.isReplicaChangeCoordinated) {
+                // replicas of read-only files have to be complete before the original can be removed
+                drain.triggerReplication(fileInfo);
+                while (!drain.isNewReplicaComplete(fileInfo)) {
+                    Thread.sleep(OSDDrain.WAIT_FOR_REPLICA_COMPLETE_DELAY_S * 1000);
+                }
+            }
+
+            removingOriginal = true;
+            drain.removeReplica(fileInfo, fileInfo.oldReplica);
+
+            if (policyChanged) {
+                drain.changeReplicationUpdatePolicy(fileInfo, fileInfo.oldReplicationPolicy);
+            }
+
+            fileDone(fileInfo);
+
+        } catch (Exception e) {
+            if (Logging.isDebug()) {
+                Logging.logError(Logging.LEVEL_DEBUG, this, e);
+            }
+
+            if (removingOriginal) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.tool, this,
+                        "Could not remove the original replica or reset the replica update policy of file %s. "
+                            + "Please repair the file manually. Original error was: %s", fileInfo.fileID,
+                        e.getMessage());
+                fileUnsafe(fileInfo);
+                return;
+            }
+
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.tool, this, "Failed to move file %s: %s",
+                    fileInfo.fileID, e.getMessage());
+            revert(fileInfo, policyChanged, replicaAdded);
+        }
+    }
+
+    private void revert(FileInformation fileInfo, boolean policyChanged, boolean replicaAdded) {
+        try {
+            if (replicaAdded) {
+                drain.removeReplica(fileInfo, fileInfo.newReplica);
+            }
+            if (policyChanged) {
+                drain.changeReplicationUpdatePolicy(fileInfo, fileInfo.oldReplicationPolicy);
+            }
+        } catch (Exception e) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.tool, this,
+                    "Could not revert the changes to file %s. Please repair the file manually. "
+                        + "Original error was: %s", fileInfo.fileID, e.getMessage());
+            fileUnsafe(fileInfo);
+            return;
+        }
+
+        synchronized (this) {
+            numFailed++;
+        }
+        record(fileInfo, OSDDrainCheckpoint.FileState.FAILED);
+    }
+
+    private void fileDone(FileInformation fileInfo) {
+        synchronized (this) {
+            numDone++;
+        }
+        record(fileInfo, OSDDrainCheckpoint.FileState.DONE);
+    }
+
+    private void fileUnsafe(FileInformation fileInfo) {
+        unsafeFiles.add(fileInfo.fileID);
+        record(fileInfo, OSDDrainCheckpoint.FileState.UNSAFE);
+    }
+
+    private void record(FileInformation fileInfo, OSDDrainCheckpoint.FileState state) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            switch (state) {
+            case DONE:
+                checkpoint.done(fileInfo.fileID);
+                break;
+            case FAILED:
+                checkpoint.failed(fileInfo.fileID);
+                break;
+            case UNSAFE:
+                checkpoint.unsafe(fileInfo.fileID);
+                break;
+            default:
+                break;
+            }
+        } catch (IOException e) {
+            // the file is processed again on resume
+            Logging.logMessage(Logging.LEVEL_WARN, Category.tool, this,
+                    "Could not write the state of file %s to the checkpoint: %s", fileInfo.fileID, e.getMessage());
+        }
+    }
+}
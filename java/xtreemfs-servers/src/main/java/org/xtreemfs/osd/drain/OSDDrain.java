@@ -8,6 +8,7 @@
 
 package org.xtreemfs.osd.drain;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -119,7 +120,7 @@ public class OSDDrain {
 
     private UUIDResolver          resolver;
 
-    private final int             WAIT_FOR_REPLICA_COMPLETE_DELAY_S      = 5;
+    static final int              WAIT_FOR_REPLICA_COMPLETE_DELAY_S      = 5;
 
     private final int             WAIT_FOR_XLOC_SET_INSTALLATION_DELAY_S = 5;
 
@@ -208,6 +209,130 @@ public class OSDDrain {
 
     }
 
+    /**
+     * Try to remove the OSD by moving its files with several concurrent pipelines, see {@link ConcurrentOSDDrain}.
+     * 
+     * @param shutdown
+     *            If true the OSD will be shut down. Otherwise it will be locked for assigning of new files
+     *            but is still running.
+     * @param numPipelines
+     *            the maximum number of files moved concurrently
+     * @param checkpointFile
+     *            file to record the progress in, or null. If the file exists, an interrupted drain is resumed.
+     * @param maxLoad
+     *            the load of the OSD in percent above which the drain is slowed down, or 0
+     */
+    public void drain(boolean shutdown, int numPipelines, File checkpointFile, int maxLoad) {
+
+        OSDDrainCheckpoint checkpoint = null;
+        if (checkpointFile != null) {
+            try {
+                checkpoint = new OSDDrainCheckpoint(checkpointFile);
+            } catch (IOException e) {
+                System.err.println("ERROR: could not open checkpoint " + checkpointFile + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        try {
+            // set OSDServiceStatus to prevent further writing on this OSD
+            this.setServiceStatus(ServiceStatus.SERVICE_STATUS_TO_BE_REMOVED);
+
+            // get all files the OSD has
+            fileInfos = this.getFileListOfOSD();
+
+            // skip files which have already been processed by an interrupted drain
+            int numUnsafe = 0;
+            if (checkpoint != null) {
+                Iterator<FileInformation> it = fileInfos.iterator();
+                while (it.hasNext()) {
+                    if (checkpoint.isFinished(it.next().fileID)) {
+                        it.remove();
+                    }
+                }
+                numUnsafe = checkpoint.getNumFiles(OSDDrainCheckpoint.FileState.UNSAFE);
+            }
+
+            // get address of MRC which is responsible for every file
+            this.updateMRCAddresses(fileInfos);
+
+            // remove fileIDs which has no entry on MRC. Can happen because
+            // object files on OSDs will be deleted delayed.
+            fileInfos = this.removeNonExistingFileIDs(fileInfos);
+
+            ConcurrentOSDDrain concurrentDrain = new ConcurrentOSDDrain(this, numPipelines, checkpoint, maxLoad);
+            boolean success = concurrentDrain.drainFiles(fileInfos);
+            numUnsafe += concurrentDrain.getUnsafeFiles().size();
+
+            if (!success || numUnsafe > 0) {
+                String error = "Failed to move " + concurrentDrain.getNumFailed() + " files from the OSD.";
+                if (numUnsafe > 0) {
+                    error += " " + numUnsafe + " files have to be repaired manually"
+                            + (checkpoint != null ? " (marked as UNSAFE in the checkpoint)." : ":");
+                    if (checkpoint == null) {
+                        for (String fileID : concurrentDrain.getUnsafeFiles()) {
+                            error = error + "\n " + fileID;
+                        }
+                    }
+                }
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.tool, this, error);
+                printError();
+                this.setServiceStatus(ServiceStatus.SERVICE_STATUS_AVAIL);
+                return;
+            }
+
+            // shutdown osd
+            if (shutdown) {
+                this.shutdownOsd();
+            } else {
+                System.out.println("The OSD is now locked and objects stored on it copied to other OSDs."
+                        + " It is save to shutdown this OSD now!");
+            }
+
+        } catch (InterruptedException e) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.tool, this, "OSD drain was interrupted");
+            printError();
+        } catch (OSDDrainException e) {
+            this.handleException(e, true);
+            // set Service Status back to availalbe when an error occurs.
+            try {
+                this.setServiceStatus(ServiceStatus.SERVICE_STATUS_AVAIL);
+            } catch (OSDDrainException e1) {
+                this.handleException(e1, true);
+                System.out.println("Service Status couldn't set back to AVAILABLE. You have to do"
+                        + " this yourself.");
+            }
+        } finally {
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close();
+                } catch (IOException e) {
+                    Logging.logError(Logging.LEVEL_WARN, this, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the load of the OSD in percent as reported to the DIR, or -1 if it is unknown.
+     */
+    int getServiceLoad() {
+        try {
+            ServiceSet sSet = dirClient.xtreemfs_service_get_by_uuid(null, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, osdUUID.toString());
+            if (sSet.getServicesCount() == 0) {
+                return -1;
+            }
+            String load = KeyValuePairs.getValue(sSet.getServices(0).getData().getDataList(), "load");
+            return load == null ? -1 : Integer.parseInt(load);
+        } catch (Exception e) {
+            if (Logging.isDebug()) {
+                Logging.logError(Logging.LEVEL_DEBUG, this, e);
+            }
+            return -1;
+        }
+    }
+
     /**
      * Sets a new status to the Service with uuid. Throws Exception if something went wrong and does nothing
      * if the current status is equivalent to the new status.
@@ -315,9 +440,16 @@ public class OSDDrain {
      * @param fileInfos
      */
     public void updateMRCAddresses(List<FileInformation> fileInfos) throws OSDDrainException {
+        // all files of a volume are managed by the same MRC
+        Map<String, InetSocketAddress> volumeMRCAddresses = new HashMap<String, InetSocketAddress>();
+
         for (FileInformation fileInfo : fileInfos) {
 
             String volumeUUID = fileInfo.fileID.substring(0, fileInfo.fileID.indexOf(':'));
+            if (volumeMRCAddresses.containsKey(volumeUUID)) {
+                fileInfo.mrcAddress = volumeMRCAddresses.get(volumeUUID);
+                continue;
+            }
 
             ServiceSet sSet = null;
             String mrcUUIDString = null;
@@ -343,6 +475,7 @@ public class OSDDrain {
                 assert (ams.getMappings(0).getUuid().equalsIgnoreCase(mrcUUIDString));
                 InetAddress inetAddr = InetAddress.getByName(ams.getMappings(0).getAddress());
                 fileInfo.mrcAddress = new InetSocketAddress(inetAddr, ams.getMappings(0).getPort());
+                volumeMRCAddresses.put(volumeUUID, fileInfo.mrcAddress);
             } catch (Exception e) {
                 if (Logging.isDebug()) {
                     Logging.logError(Logging.LEVEL_WARN, this, e);
@@ -426,38 +559,11 @@ public class OSDDrain {
         LinkedList<FileInformation> finishedFileInfos = new LinkedList<FileInformation>();
 
         for (FileInformation fileInfo : fileInfos) {
-
-            // get Striping Policy
-            RPCResponse<XLocSet> xlocsetResp = null;
-            XLocSet xlocset = null;
             try {
-                
-                xtreemfs_get_xlocsetRequest xlocReq = xtreemfs_get_xlocsetRequest.newBuilder()
-                        .setFileId(fileInfo.fileID).build();
-                xlocsetResp = mrcClient
-                        .xtreemfs_get_xlocset(fileInfo.mrcAddress, password, userCreds, xlocReq);
-                xlocset = xlocsetResp.get();
-            } catch (Exception e) {
-                if (Logging.isDebug()) {
-                    Logging.logError(Logging.LEVEL_WARN, this, e);
-                }
+                updateReplicaInfo(fileInfo);
+            } catch (OSDDrainException e) {
                 throw new OSDDrainException(e.getMessage(), ErrorState.GET_REPLICA_INFO, fileInfos,
                         finishedFileInfos);
-            } finally {
-                if (xlocsetResp != null)
-                    xlocsetResp.freeBuffers();
-            }
-
-            fileInfo.isReplicaChangeCoordinated = (xlocset.getReplicasCount() > 1 
-                    && ReplicaUpdatePolicies.isRW(xlocset.getReplicaUpdatePolicy()));
-
-            fileInfo.oldReplicationPolicy = xlocset.getReplicaUpdatePolicy();
-
-            // find the replica for the given UUID
-            for (Replica replica : xlocset.getReplicasList()) {
-                if (replica.getOsdUuidsList().contains(osdUUID.toString())) {
-                    fileInfo.oldReplica = replica;
-                }
             }
             assert (fileInfo.oldReplica != null);
 
@@ -467,6 +573,46 @@ public class OSDDrain {
         return finishedFileInfos;
     }
 
+    /**
+     * Get the current replica information from the MRC for a single file. If the file has no replica on the
+     * OSD (anymore), oldReplica is set to null.
+     * 
+     * @return the current XLocSet of the file
+     */
+    XLocSet updateReplicaInfo(FileInformation fileInfo) throws OSDDrainException {
+        RPCResponse<XLocSet> xlocsetResp = null;
+        XLocSet xlocset = null;
+        try {
+            xtreemfs_get_xlocsetRequest xlocReq = xtreemfs_get_xlocsetRequest.newBuilder()
+                    .setFileId(fileInfo.fileID).build();
+            xlocsetResp = mrcClient.xtreemfs_get_xlocset(fileInfo.mrcAddress, password, userCreds, xlocReq);
+            xlocset = xlocsetResp.get();
+        } catch (Exception e) {
+            if (Logging.isDebug()) {
+                Logging.logError(Logging.LEVEL_WARN, this, e);
+            }
+            throw new OSDDrainException(e.getMessage(), ErrorState.GET_REPLICA_INFO);
+        } finally {
+            if (xlocsetResp != null)
+                xlocsetResp.freeBuffers();
+        }
+
+        fileInfo.isReplicaChangeCoordinated = (xlocset.getReplicasCount() > 1 
+                && ReplicaUpdatePolicies.isRW(xlocset.getReplicaUpdatePolicy()));
+
+        fileInfo.oldReplicationPolicy = xlocset.getReplicaUpdatePolicy();
+
+        // find the replica for the given UUID
+        fileInfo.oldReplica = null;
+        for (Replica replica : xlocset.getReplicasList()) {
+            if (replica.getOsdUuidsList().contains(osdUUID.toString())) {
+                fileInfo.oldReplica = replica;
+            }
+        }
+
+        return xlocset;
+    }
+
     /**
      * Handle files that are guaranteed to retain safe when adding or removing replicas
      * because they are coordinated by the MRC. At the moment this is done for r/w replicated
@@ -554,7 +700,7 @@ public class OSDDrain {
         return finishedFileInfos;
     }
 
-    private Replica createReplicaForFile(FileInformation fileInfo) throws OSDDrainException {
+    Replica createReplicaForFile(FileInformation fileInfo) throws OSDDrainException {
         // Get a suitable OSD for the new replica.
         RPCResponse<xtreemfs_get_suitable_osdsResponse> suitable_osdsResponseRPCResponse = null;
         xtreemfs_get_suitable_osdsResponse suitable_osdsResponse;
@@ -607,7 +753,7 @@ public class OSDDrain {
         return replica.build();
     }
 
-    private void addReplicaToFile(FileInformation fileInfo, Replica replica) throws OSDDrainException {
+    void addReplicaToFile(FileInformation fileInfo, Replica replica) throws OSDDrainException {
         RPCResponse<xtreemfs_replica_addResponse> response = null;
         try {
             xtreemfs_replica_addRequest replica_addRequest = xtreemfs_replica_addRequest.newBuilder()
@@ -732,7 +878,7 @@ public class OSDDrain {
         return finishedFileInfos;
     }
 
-    private void changeReplicationUpdatePolicy(FileInformation fileInfo, String policy) throws Exception {
+    void changeReplicationUpdatePolicy(FileInformation fileInfo, String policy) throws Exception {
         RPCResponse<?> respRepl = null;
         try {
             final xtreemfs_set_replica_update_policyRequest msg = xtreemfs_set_replica_update_policyRequest.newBuilder()
@@ -763,55 +909,65 @@ public class OSDDrain {
         List<FileInformation> finishedFileInfos = new LinkedList<FileInformation>();
 
         for (FileInformation fileInfo : fileInfos) {
-            // get FileCredentials to be able to read from the file
-            RPCResponse<FileCredentials> r1 = null;
             try {
-                r1 = mrcClient.xtreemfs_get_file_credentials(fileInfo.mrcAddress, password, userCreds,
-                                                             fileInfo.fileID);
-                fileInfo.fileCredentials = r1.get();
-            } catch (Exception e) {
-                if (Logging.isDebug()) {
-                    Logging.logError(Logging.LEVEL_WARN, this, e);
-                }
+                triggerReplication(fileInfo);
+            } catch (OSDDrainException e) {
                 throw new OSDDrainException(e.getMessage(), ErrorState.WAIT_FOR_REPLICATION, fileInfos,
                                             finishedFileInfos);
-            } finally {
-                if (r1 != null)
-                    r1.freeBuffers();
             }
 
+            finishedFileInfos.add(fileInfo);
+        }
+        return fileInfos;
+    }
+
+    /**
+     * Read one byte from the new replica of a single file to trigger its replication.
+     */
+    void triggerReplication(FileInformation fileInfo) throws OSDDrainException {
+        // get FileCredentials to be able to read from the file
+        RPCResponse<FileCredentials> r1 = null;
+        try {
+            r1 = mrcClient.xtreemfs_get_file_credentials(fileInfo.mrcAddress, password, userCreds,
+                                                         fileInfo.fileID);
+            fileInfo.fileCredentials = r1.get();
+        } catch (Exception e) {
+            if (Logging.isDebug()) {
+                Logging.logError(Logging.LEVEL_WARN, this, e);
+            }
+            throw new OSDDrainException(e.getMessage(), ErrorState.WAIT_FOR_REPLICATION);
+        } finally {
+            if (r1 != null)
+                r1.freeBuffers();
+        }
+
 
-            // read a single Byte from one object of every OSD the new replica
-            // is assigned to to trigger replication
-            StripingPolicyImpl spol = StripingPolicyImpl.getPolicy(fileInfo.newReplica, 0);
-            for (int i = 0; i < fileInfo.newReplica.getOsdUuidsCount(); i++) {
+        // read a single Byte from one object of every OSD the new replica
+        // is assigned to to trigger replication
+        StripingPolicyImpl spol = StripingPolicyImpl.getPolicy(fileInfo.newReplica, 0);
+        for (int i = 0; i < fileInfo.newReplica.getOsdUuidsCount(); i++) {
 
-                Iterator<Long> objs = spol.getObjectsOfOSD(i, 0, Long.MAX_VALUE);
-                long obj = objs.next();
+            Iterator<Long> objs = spol.getObjectsOfOSD(i, 0, Long.MAX_VALUE);
+            long obj = objs.next();
 
-                RPCResponse<ObjectData> r2 = null;
-                try {
-                    InetSocketAddress osd = new ServiceUUID(fileInfo.newReplica.getOsdUuids(i), resolver)
-                            .getAddress();
-                    r2 = osdClient.read(osd, password, userCreds, fileInfo.fileCredentials, fileInfo.fileID,
-                                        obj, 0, 0, 1);
-                    r2.get();
-                } catch (Exception e) {
-                    if (Logging.isDebug()) {
-                        Logging.logError(Logging.LEVEL_WARN, this, e);
-                    }
-                    throw new OSDDrainException(e.getMessage(), ErrorState.WAIT_FOR_REPLICATION, fileInfos,
-                                                finishedFileInfos);
-                } finally {
-                    if (r2 != null)
-                        r2.freeBuffers();
+            RPCResponse<ObjectData> r2 = null;
+            try {
+                InetSocketAddress osd = new ServiceUUID(fileInfo.newReplica.getOsdUuids(i), resolver)
+                        .getAddress();
+                r2 = osdClient.read(osd, password, userCreds, fileInfo.fileCredentials, fileInfo.fileID,
+                                    obj, 0, 0, 1);
+                r2.get();
+            } catch (Exception e) {
+                if (Logging.isDebug()) {
+                    Logging.logError(Logging.LEVEL_WARN, this, e);
                 }
-
+                throw new OSDDrainException(e.getMessage(), ErrorState.WAIT_FOR_REPLICATION);
+            } finally {
+                if (r2 != null)
+                    r2.freeBuffers();
             }
 
-            finishedFileInfos.add(fileInfo);
         }
-        return fileInfos;
     }
 
     /**
@@ -829,35 +985,8 @@ public class OSDDrain {
                     new LinkedList<FileInformation>();
             for (FileInformation fileInformation : fileInfos) {
                 try {
-                    // query the MRC for up to date meta data
-                    xtreemfs_get_xlocsetRequest xlocReq =
-                            xtreemfs_get_xlocsetRequest.newBuilder()
-                                    .setFileId(fileInformation.fileID).build();
-                    RPCResponse<XLocSet> xlocsetResp = mrcClient
-                            .xtreemfs_get_xlocset(fileInformation.mrcAddress,
-                                                  password, userCreds, xlocReq);
-                    XLocSet xlocset = xlocsetResp.get();
-
-                    // find the xlocset entry relevant for the new replica
-                    Replica newReplica = null;
-                    for (int i = 0; i < xlocset.getReplicasCount(); i++) {
-                        // as striping is not supported
-                        // (see createReplicaForFile),
-                        // it is sufficient to access index 0 in the OSD list
-                        // of the replica
-                        if (xlocset.getReplicas(i).getOsdUuids(0).
-                                equals(fileInformation.newReplica.getOsdUuids
-                                        (0))) {
-                            newReplica = xlocset.getReplicas(i);
-                            break;
-                        }
-                    }
-
-                    assert newReplica != null;
-
                     // check whether the current file is replicated already
-                    if (ReplicationFlags.isReplicaComplete(
-                            newReplica.getReplicationFlags())) {
+                    if (isNewReplicaComplete(fileInformation)) {
 
                         toBeRemovedFileInfos.add(fileInformation);
                         finishedFileInfos.add(fileInformation);
@@ -896,6 +1025,42 @@ public class OSDDrain {
         return finishedFileInfos;
     }
 
+    /**
+     * Checks at the MRC whether the new replica of a single file has fetched all objects.
+     */
+    boolean isNewReplicaComplete(FileInformation fileInformation) throws Exception {
+        // query the MRC for up to date meta data
+        xtreemfs_get_xlocsetRequest xlocReq = xtreemfs_get_xlocsetRequest.newBuilder()
+                .setFileId(fileInformation.fileID).build();
+        RPCResponse<XLocSet> xlocsetResp = null;
+        XLocSet xlocset;
+        try {
+            xlocsetResp = mrcClient.xtreemfs_get_xlocset(fileInformation.mrcAddress, password, userCreds,
+                    xlocReq);
+            xlocset = xlocsetResp.get();
+        } finally {
+            if (xlocsetResp != null)
+                xlocsetResp.freeBuffers();
+        }
+
+        // find the xlocset entry relevant for the new replica
+        Replica newReplica = null;
+        for (int i = 0; i < xlocset.getReplicasCount(); i++) {
+            // as striping is not supported
+            // (see createReplicaForFile),
+            // it is sufficient to access index 0 in the OSD list
+            // of the replica
+            if (xlocset.getReplicas(i).getOsdUuids(0).equals(fileInformation.newReplica.getOsdUuids(0))) {
+                newReplica = xlocset.getReplicas(i);
+                break;
+            }
+        }
+
+        assert newReplica != null;
+
+        return ReplicationFlags.isReplicaComplete(newReplica.getReplicationFlags());
+    }
+
     /**
      * removes replicas of all file in fileIDList which are on osdUUID
      *
@@ -927,7 +1092,7 @@ public class OSDDrain {
         }
     }
 
-    private void removeReplica(FileInformation fileInfo, Replica replica) throws OSDDrainException {
+    void removeReplica(FileInformation fileInfo, Replica replica) throws OSDDrainException {
         RPCResponse<xtreemfs_replica_removeResponse> response = null;
 
         String headOSD = replica.getOsdUuids(0);
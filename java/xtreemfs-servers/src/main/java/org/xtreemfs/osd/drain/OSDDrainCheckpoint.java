@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.drain;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Persistent checkpoint of a concurrent OSD drain. Changes to a file are appended to a journal before they are
+ * made at the MRC, and their completion right after, so that a drain that was interrupted can be resumed with
+ * the same checkpoint file. Each record is synced to disk before it is applied.
+ * <p>
+ * Each line of the journal consists of a record type, the file ID and an optional argument, separated by
+ * tabs. The last record of a file determines its state.
+ */
+public class OSDDrainCheckpoint {
+
+    public enum FileState {
+        /**
+         * the replica update policy of the file is about to be set to read-only; the argument is the original
+         * policy
+         */
+        STARTED,
+        /**
+         * the new replica is about to be added; the argument is the UUID of its head OSD. The replica has only
+         * been added if the xLocSet of the file contains a replica on this OSD.
+         */
+        ADDING_REPLICA,
+        /**
+         * the file has been moved from the OSD
+         */
+        DONE,
+        /**
+         * moving the file failed, but the changes have been reverted; the file will be drained again on resume
+         */
+        FAILED,
+        /**
+         * moving the file failed and the changes could not be reverted; the file has to be repaired manually
+         * and is skipped on resume
+         */
+        UNSAFE
+    }
+
+    public static class FileEntry {
+        public final FileState state;
+
+        /**
+         * original replica update policy of the file, if it has been changed by the drain
+         */
+        public final String    oldReplicationPolicy;
+
+        /**
+         * head OSD of the new replica, if it has been chosen
+         */
+        public final String    newReplicaOSD;
+
+        FileEntry(FileState state, String oldReplicationPolicy, String newReplicaOSD) {
+            this.state = state;
+            this.oldReplicationPolicy = oldReplicationPolicy;
+            this.newReplicaOSD = newReplicaOSD;
+        }
+    }
+
+    private static final String          SEPARATOR = "\t";
+
+    private final File                   file;
+
+    private final Map<String, FileEntry> entries;
+
+    private FileOutputStream             journal;
+
+    /**
+     * Opens the checkpoint file and replays its records. The file is created if it does not exist.
+     */
+    public OSDDrainCheckpoint(File file) throws IOException {
+        this.file = file;
+        this.entries = new HashMap<String, FileEntry>();
+
+        boolean terminated = true;
+        if (file.exists()) {
+            replay();
+            terminated = isTerminated();
+        }
+        journal = new FileOutputStream(file, true);
+        if (!terminated) {
+            // terminate an incomplete last line, so that it does not corrupt the next record
+            write("\n");
+        }
+    }
+
+    private boolean isTerminated() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() == 0) {
+                return true;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void replay() throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                String[] record = line.split(SEPARATOR, 3);
+                FileState state;
+                try {
+                    state = FileState.valueOf(record[0]);
+                } catch (IllegalArgumentException e) {
+                    state = null;
+                }
+                if (state == null || record.length < 2) {
+                    // the last line may be incomplete if the drain was killed while writing it
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.tool, this,
+                            "ignoring invalid record in line %d of checkpoint %s", lineNo, file);
+                    continue;
+                }
+                String arg = record.length > 2 ? record[2] : null;
+                apply(record[1], state, arg);
+            }
+        } catch (FileNotFoundException e) {
+            // nothing to replay
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    private void apply(String fileID, FileState state, String arg) {
+        FileEntry prev = entries.get(fileID);
+        switch (state) {
+        case STARTED:
+            entries.put(fileID, new FileEntry(state, arg, null));
+            break;
+        case ADDING_REPLICA:
+            entries.put(fileID, new FileEntry(state, prev == null ? null : prev.oldReplicationPolicy, arg));
+            break;
+        case FAILED:
+            // the changes have been reverted, so the file is drained from scratch
+            entries.remove(fileID);
+            break;
+        default:
+            entries.put(fileID, new FileEntry(state, null, null));
+        }
+    }
+
+    /**
+     * Returns the state of the file as recorded by the last drain, or null if the drain has not changed the
+     * file.
+     */
+    public synchronized FileEntry getEntry(String fileID) {
+        return entries.get(fileID);
+    }
+
+    /**
+     * Returns true if the file does not have to be processed again.
+     */
+    public synchronized boolean isFinished(String fileID) {
+        FileEntry entry = entries.get(fileID);
+        return entry != null && (entry.state == FileState.DONE || entry.state == FileState.UNSAFE);
+    }
+
+    public synchronized int getNumFiles(FileState state) {
+        int num = 0;
+        for (FileEntry entry : entries.values()) {
+            if (entry.state == state) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    public void started(String fileID, String oldReplicationPolicy) throws IOException {
+        append(fileID, FileState.STARTED, oldReplicationPolicy);
+    }
+
+    public void addingReplica(String fileID, String newReplicaOSD) throws IOException {
+        append(fileID, FileState.ADDING_REPLICA, newReplicaOSD);
+    }
+
+    public void done(String fileID) throws IOException {
+        append(fileID, FileState.DONE, null);
+    }
+
+    public void failed(String fileID) throws IOException {
+        append(fileID, FileState.FAILED, null);
+    }
+
+    public void unsafe(String fileID) throws IOException {
+        append(fileID, FileState.UNSAFE, null);
+    }
+
+    private synchronized void append(String fileID, FileState state, String arg) throws IOException {
+        StringBuilder record = new StringBuilder();
+        record.append(state.name()).append(SEPARATOR).append(fileID);
+        if (arg != null) {
+            record.append(SEPARATOR).append(arg);
+        }
+        record.append('\n');
+
+        // the record has to be persistent before the drain continues with the file
+        write(record.toString());
+
+        apply(fileID, state, arg);
+    }
+
+    private void write(String data) throws IOException {
+        journal.write(data.getBytes("UTF-8"));
+        journal.getFD().sync();
+    }
+
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+}
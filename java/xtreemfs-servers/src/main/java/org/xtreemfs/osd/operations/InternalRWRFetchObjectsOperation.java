@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.InvalidXLocationsException;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.stages.StorageStage.ReadObjectCallback;
+import org.xtreemfs.osd.storage.ObjectInformation;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_fetch_objectsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_fetch_objectsResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+/**
+ * Reads multiple objects of a file for a replica that is being reset. The
+ * objects are read in parallel, and their data is returned in a single
+ * response.
+ */
+public final class InternalRWRFetchObjectsOperation extends OSDOperation {
+
+    final String      sharedSecret;
+
+    final ServiceUUID localUUID;
+
+    public InternalRWRFetchObjectsOperation(OSDRequestDispatcher master) {
+        super(master);
+        sharedSecret = master.getConfig().getCapabilitySecret();
+        localUUID = master.getConfig().getUUID();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_RWR_FETCH_OBJECTS;
+    }
+
+    @Override
+    public void startRequest(final OSDRequest rq) {
+        final xtreemfs_rwr_fetch_objectsRequest args = (xtreemfs_rwr_fetch_objectsRequest) rq.getRequestArgs();
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "RWR fetch request for %d objects of file %s",
+                    args.getObjectsCount(), args.getFileId());
+        }
+
+        final int numObjects = args.getObjectsCount();
+        if (numObjects == 0) {
+            sendResult(rq, new ReusableBuffer[0], null);
+            return;
+        }
+
+        final ReusableBuffer[] objects = new ReusableBuffer[numObjects];
+        final AtomicInteger pending = new AtomicInteger(numObjects);
+        final ErrorResponse[] error = new ErrorResponse[1];
+
+        for (int i = 0; i < numObjects; i++) {
+            final int index = i;
+            master.getStorageStage().readObject(rq.getFileId(), args.getObjects(i).getObjectNumber(),
+                    rq.getLocationList().getLocalReplica().getStripingPolicy(), 0, -1, 0, rq,
+                    new ReadObjectCallback() {
+
+                        @Override
+                        public void readComplete(ObjectInformation result, ErrorResponse err) {
+                            synchronized (objects) {
+                                if (err != null) {
+                                    if (error[0] == null)
+                                        error[0] = err;
+                                } else
+                                    objects[index] = result.getData();
+                            }
+                            if (pending.decrementAndGet() == 0)
+                                sendResult(rq, objects, error[0]);
+                        }
+                    });
+        }
+    }
+
+    private void sendResult(final OSDRequest rq, ReusableBuffer[] objects, ErrorResponse error) {
+
+        if (error != null) {
+            for (ReusableBuffer object : objects)
+                BufferPool.free(object);
+            rq.sendError(error);
+            return;
+        }
+
+        // concatenate the data of all objects
+        xtreemfs_rwr_fetch_objectsResponse.Builder response = xtreemfs_rwr_fetch_objectsResponse.newBuilder();
+        int size = 0;
+        for (ReusableBuffer object : objects)
+            size += object == null ? 0 : object.remaining();
+
+        ReusableBuffer data = size == 0 ? null : BufferPool.allocate(size);
+        for (ReusableBuffer object : objects) {
+            if (object == null) {
+                response.addObjectLengths(0);
+                continue;
+            }
+            response.addObjectLengths(object.remaining());
+            data.put(object);
+            BufferPool.free(object);
+        }
+        if (data != null)
+            data.flip();
+
+        rq.sendSuccess(response.build(), data);
+    }
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        try {
+            xtreemfs_rwr_fetch_objectsRequest rpcrq = (xtreemfs_rwr_fetch_objectsRequest) rq.getRequestArgs();
+            rq.setFileId(rpcrq.getFileId());
+            rq.setCapability(new Capability(rpcrq.getFileCredentials().getXcap(), sharedSecret));
+            rq.setLocationList(new XLocations(rpcrq.getFileCredentials().getXlocs(), localUUID));
+
+            return null;
+        } catch (InvalidXLocationsException ex) {
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, ex.toString());
+        } catch (Throwable ex) {
+            return ErrorUtils.getInternalServerError(ex);
+        }
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return true;
+    }
+
+    @Override
+    public boolean bypassViewValidation() {
+        // like InternalRWRFetchOperation, this operation is used during a
+        // reset while the replicas are invalidated
+        return true;
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
@@ -74,7 +74,9 @@ public final class InternalRWRTruncateOperation extends OSDOperation {
 
     public void prepareLocalTruncate(final OSDRequest rq, final xtreemfs_rwr_truncateRequest args) {
         master.getRWReplicationStage().prepareOperation(args.getFileCredentials(), rq.getLocationList(), 0, args.getObjectVersion(),
-                RWReplicationStage.Operation.INTERNAL_TRUNCATE, new RWReplicationStage.RWReplicationCallback() {
+                RWReplicationStage.Operation.INTERNAL_TRUNCATE, args.getUpdateSequenceEpoch(),
+                // truncates without an epoch are not ordered
+                args.hasUpdateSequenceEpoch() ? args.getUpdateSequenceNumber() : 0, new RWReplicationStage.RWReplicationCallback() {
 
             @Override
             public void success(long newObjectVersion) {
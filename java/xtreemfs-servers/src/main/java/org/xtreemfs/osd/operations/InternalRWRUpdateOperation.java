@@ -72,7 +72,11 @@ public final class InternalRWRUpdateOperation extends OSDOperation {
 
     public void prepareLocalWrite(final OSDRequest rq, final xtreemfs_rwr_updateRequest args) {
         master.getRWReplicationStage().prepareOperation(args.getFileCredentials(), rq.getLocationList(),
-                args.getObjectNumber(), args.getObjectVersion(), RWReplicationStage.Operation.INTERNAL_UPDATE, new RWReplicationStage.RWReplicationCallback() {
+                args.getObjectNumber(), args.getObjectVersion(), RWReplicationStage.Operation.INTERNAL_UPDATE,
+                args.getUpdateSequenceEpoch(),
+                // updates without an epoch are not ordered
+                args.hasUpdateSequenceEpoch() ? args.getUpdateSequenceNumber() : 0,
+                new RWReplicationStage.RWReplicationCallback() {
 
             @Override
             public void success(long newObjectVersion) {
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.InvalidXLocationsException;
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.InternalObjectData;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.stages.StorageStage.ReadObjectCallback;
+import org.xtreemfs.osd.storage.ObjectInformation;
+import org.xtreemfs.osd.storage.ObjectInformation.ObjectStatus;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.InternalReadLocalRangeResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_internal_read_local_rangeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+/**
+ * Reads a range of objects stored on this OSD for the read-only replication.
+ * Like {@link LocalReadOperation}, complete objects are returned; the objects
+ * are read in parallel, and their data is returned in a single response.
+ */
+public final class LocalReadRangeOperation extends OSDOperation {
+
+    /** the maximum number of objects that can be read with a single request */
+    public static final int MAX_OBJECTS_PER_REQUEST = 256;
+
+    final String            sharedSecret;
+
+    final ServiceUUID       localUUID;
+
+    public LocalReadRangeOperation(OSDRequestDispatcher master) {
+        super(master);
+        sharedSecret = master.getConfig().getCapabilitySecret();
+        localUUID = master.getConfig().getUUID();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_INTERNAL_READ_LOCAL_RANGE;
+    }
+
+    @Override
+    public void startRequest(final OSDRequest rq) {
+        final xtreemfs_internal_read_local_rangeRequest args = (xtreemfs_internal_read_local_rangeRequest) rq
+                .getRequestArgs();
+
+        if (args.getObjectNumber() < 0) {
+            rq.sendError(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, "object number must be >= 0");
+            return;
+        }
+        final int numObjects = args.getNumObjects();
+        if (numObjects < 1 || numObjects > MAX_OBJECTS_PER_REQUEST) {
+            rq.sendError(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, "number of objects must be between 1 and "
+                + MAX_OBJECTS_PER_REQUEST);
+            return;
+        }
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "local read request for %d objects of file %s from %d",
+                    numObjects, args.getFileId(), args.getObjectNumber());
+        }
+
+        final StripingPolicyImpl sp = rq.getLocationList().getLocalReplica().getStripingPolicy();
+        final long versionTimestamp = rq.getCapability().getSnapConfig() == SnapConfig.SNAP_CONFIG_ACCESS_SNAP ? rq
+                .getCapability().getSnapTimestamp() : 0;
+
+        final InternalObjectData[] objects = new InternalObjectData[numObjects];
+        final AtomicInteger pending = new AtomicInteger(numObjects);
+        final ErrorResponse[] error = new ErrorResponse[1];
+
+        for (int i = 0; i < numObjects; i++) {
+            final int index = i;
+            final long objectNo = args.getObjectNumber() + (long) i * sp.getWidth();
+            master.getStorageStage().readObject(args.getFileId(), objectNo, sp, 0, -1, versionTimestamp, rq,
+                    new ReadObjectCallback() {
+
+                        @Override
+                        public void readComplete(ObjectInformation result, ErrorResponse err) {
+                            synchronized (objects) {
+                                if (err != null) {
+                                    if (error[0] == null)
+                                        error[0] = err;
+                                } else
+                                    objects[index] = getObjectData(result);
+                            }
+                            if (pending.decrementAndGet() == 0)
+                                sendResult(rq, objects, error[0]);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Converts a complete object like {@link LocalReadOperation} does.
+     */
+    private static InternalObjectData getObjectData(ObjectInformation result) {
+        if (result.getStatus() == ObjectStatus.EXISTS)
+            return new InternalObjectData(0, result.isChecksumInvalidOnOSD(), 0, result.getData());
+        else if (result.getStatus() == ObjectStatus.PADDING_OBJECT)
+            return result.getObjectData(false, 0, result.getStripeSize());
+        else
+            return new InternalObjectData(0, result.isChecksumInvalidOnOSD(), 0, null);
+    }
+
+    private void sendResult(final OSDRequest rq, InternalObjectData[] objects, ErrorResponse error) {
+
+        if (error != null) {
+            for (InternalObjectData object : objects) {
+                if (object != null)
+                    BufferPool.free(object.getData());
+            }
+            rq.sendError(error);
+            return;
+        }
+
+        // concatenate the data of all objects
+        InternalReadLocalRangeResponse.Builder response = InternalReadLocalRangeResponse.newBuilder();
+        int size = 0;
+        for (InternalObjectData object : objects)
+            size += object.getData() == null ? 0 : object.getData().remaining();
+
+        ReusableBuffer data = size == 0 ? null : BufferPool.allocate(size);
+        for (InternalObjectData object : objects) {
+            response.addObjects(object.getMetadata());
+            ReusableBuffer objectData = object.getData();
+            master.objectSent();
+            if (objectData == null) {
+                response.addObjectLengths(0);
+                continue;
+            }
+            response.addObjectLengths(objectData.remaining());
+            master.dataSent(objectData.remaining());
+            data.put(objectData);
+            BufferPool.free(objectData);
+        }
+        if (data != null)
+            data.flip();
+
+        rq.sendSuccess(response.build(), data);
+    }
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        try {
+            xtreemfs_internal_read_local_rangeRequest rpcrq = (xtreemfs_internal_read_local_rangeRequest) rq
+                    .getRequestArgs();
+            rq.setFileId(rpcrq.getFileId());
+            rq.setCapability(new Capability(rpcrq.getFileCredentials().getXcap(), sharedSecret));
+            rq.setLocationList(new XLocations(rpcrq.getFileCredentials().getXlocs(), localUUID));
+
+            return null;
+        } catch (InvalidXLocationsException ex) {
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, ex.toString());
+        } catch (Throwable ex) {
+            return ErrorUtils.getInternalServerError(ex);
+        }
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return true;
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
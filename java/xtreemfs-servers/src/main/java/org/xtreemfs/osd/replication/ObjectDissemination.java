@@ -30,6 +30,7 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResp
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
 import org.xtreemfs.osd.InternalObjectData;
 import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.replication.transferStrategies.TransferStrategy.NextRequest;
 import org.xtreemfs.osd.replication.transferStrategies.TransferStrategy.TransferStrategyException;
 import org.xtreemfs.osd.stages.Stage.StageRequest;
 import org.xtreemfs.osd.storage.CowPolicy;
@@ -221,6 +222,24 @@ public class ObjectDissemination {
 //            fileCompleted(file.fileID);
     }
 
+    /**
+     * passes the throughput of a request for several objects to the transfer strategy of the file
+     */
+    public void requestCompleted(String fileID, NextRequest request, long bytes, long durationNanos) {
+        ReplicatingFile file = filesInProgress.get(fileID);
+        if (file != null)
+            file.requestCompleted(request, bytes, durationNanos);
+    }
+
+    /**
+     * passes the error of a request for several objects to the transfer strategy of the file
+     */
+    public void requestFailed(String fileID, NextRequest request, ErrorResponse error) {
+        ReplicatingFile file = filesInProgress.get(fileID);
+        if (file != null)
+            file.requestFailed(request, error);
+    }
+
     /**
      * process all necessary actions, because object could not be fetched
      *
@@ -364,16 +383,8 @@ public class ObjectDissemination {
                 mrcUUID = keyValuePair.getValue();
             }
         }
-        DIR.AddressMappingSet addressMappingSet =
-                master.getDIRClient().xtreemfs_address_mappings_get(
-                        master.getConfig().getDirectoryService(),
-                        RPCAuthentication.authNone,
-                        RPCAuthentication.userService,
-                        mrcUUID);
-        DIR.AddressMapping mrcAddressMapping = addressMappingSet
-                .getMappings(0);
-        return new InetSocketAddress(mrcAddressMapping.getAddress(),
-                                     mrcAddressMapping.getPort());
+        // resolved via the UUID cache, which avoids a DIR request per file
+        return new ServiceUUID(mrcUUID).getAddress();
     }
 
     /**
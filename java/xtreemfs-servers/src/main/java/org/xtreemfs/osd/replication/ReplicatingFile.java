@@ -19,6 +19,7 @@ import java.util.List;
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.ServiceAvailability;
 import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.uuids.UUIDResolver;
 import org.xtreemfs.common.uuids.UnknownUUIDException;
 import org.xtreemfs.common.xloc.Replica;
 import org.xtreemfs.common.xloc.ReplicationFlags;
@@ -44,6 +45,7 @@ import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.operations.EventInsertPaddingObject;
 import org.xtreemfs.osd.operations.EventWriteObject;
 import org.xtreemfs.osd.operations.OSDOperation;
+import org.xtreemfs.osd.replication.transferStrategies.AdaptiveBulkStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.RandomStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.RarestFirstStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.SequentialPrefetchingStrategy;
@@ -60,6 +62,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.InternalReadLocalRangeResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.InternalReadLocalResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectList;
@@ -393,6 +396,8 @@ class ReplicatingFile {
             strategy = new SequentialPrefetchingStrategy(fileID, xLoc, osdAvailability);
         else if (ReplicationFlags.isRarestFirstStrategy(xLoc.getLocalReplica().getTransferStrategyFlags()))
             strategy = new RarestFirstStrategy(fileID, xLoc, osdAvailability);
+        else if (ReplicationFlags.isAdaptiveBulkStrategy(xLoc.getLocalReplica().getTransferStrategyFlags()))
+            strategy = new AdaptiveBulkStrategy(fileID, xLoc, osdAvailability);
         else
             throw new IllegalArgumentException("Set Replication Strategy not known ("
                 + xLoc.getLocalReplica().getTransferStrategyFlags() + ").");
@@ -401,6 +406,15 @@ class ReplicatingFile {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "%s - using strategy: %s",
                 fileID, strategy.getClass().getName());
         
+        // resolve the OSDs of all replicas with bulk requests instead of one request per OSD
+        List<String> osdUUIDs = new ArrayList<String>();
+        for (Replica replica : xLoc.getReplicas()) {
+            for (ServiceUUID osd : replica.getOSDs()) {
+                osdUUIDs.add(osd.toString());
+            }
+        }
+        UUIDResolver.prefetch(osdUUIDs);
+        
         // check if background replication is required
         isFullReplica = !xLoc.getLocalReplica().isPartialReplica();
         if (isFullReplica) {
@@ -537,13 +551,15 @@ class ReplicatingFile {
      * @throws TransferStrategyException
      */
     public void replicate() throws TransferStrategyException {
-        while (objectsInProgress.size() < maxObjectsInProgress) {
+        // if several objects are fetched per request, the limit applies to the number of requests
+        while (objectsInProgress.size() < maxObjectsInProgress * strategy.getObjectsPerRequest()) {
             strategy.selectNext();
             NextRequest next = strategy.getNext();
             
             if (next != null) { // there is something to fetch
                 // object replication is in progress
-                processObject(next.objectNo);
+                for (int i = 0; i < next.numObjects; i++)
+                    processObject(next.getObjectNo(i));
                 
                 if (Logging.isDebug())
                     if (next.attachObjectSet)
@@ -561,11 +577,21 @@ class ReplicatingFile {
                                            getNumberOfObjectsInProgress(),
                                            getNumberOfWaitingObjects());
                 
-                try {
-                    sendFetchObjectRequest(next.objectNo, next.osd, next.attachObjectSet);
-                } catch (IOException e) {
-                    // try other OSD
-                    objectsInProgress.get(next.objectNo).replicateObject();
+                if (next.numObjects > 1) {
+                    try {
+                        sendFetchObjectsRequest(next);
+                    } catch (IOException e) {
+                        // try other OSDs
+                        for (int i = 0; i < next.numObjects; i++)
+                            objectsInProgress.get(next.getObjectNo(i)).replicateObject();
+                    }
+                } else {
+                    try {
+                        sendFetchObjectRequest(next.objectNo, next.osd, next.attachObjectSet);
+                    } catch (IOException e) {
+                        // try other OSD
+                        objectsInProgress.get(next.objectNo).replicateObject();
+                    }
                 }
             } else
                 break;
@@ -723,6 +749,14 @@ class ReplicatingFile {
         cancelled = true;
     }
     
+    public void requestCompleted(NextRequest request, long bytes, long durationNanos) {
+        strategy.requestCompleted(request, bytes, durationNanos);
+    }
+
+    public void requestFailed(NextRequest request, ErrorResponse error) {
+        strategy.requestFailed(request, error);
+    }
+
     /**
      * 
      */
@@ -747,7 +781,7 @@ class ReplicatingFile {
         }
         
         // check that the load-restriction works
-        assert (objectsInProgress.size() <= MAX_MAX_OBJECTS_IN_PROGRESS);
+        assert (strategy.getObjectsPerRequest() > 1 || objectsInProgress.size() <= MAX_MAX_OBJECTS_IN_PROGRESS);
         
         OSDServiceClient client = master.getOSDClientForReplication();
         // IMPORTANT: stripe size must be the same in all striping policies
@@ -790,6 +824,84 @@ class ReplicatingFile {
         });
     }
     
+    /**
+     * Sends a RPC for reading a run of objects on another OSD.
+     */
+    private void sendFetchObjectsRequest(final NextRequest next) throws IOException {
+        // check capability validity and update capability if necessary
+        try {
+            checkCap();
+        } catch (IOException e1) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this,
+                "cannot update capability for file %s due to " + e1.getLocalizedMessage(), fileID);
+        }
+
+        OSDServiceClient client = master.getOSDClientForReplication();
+        FileCredentials fcred = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(xLoc.getXLocSet()).build();
+        final long startTime = System.nanoTime();
+        RPCResponse<InternalReadLocalRangeResponse> response = client.xtreemfs_internal_read_local_range(next.osd
+                .getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService, fcred, fileID,
+            next.objectNo, next.numObjects);
+
+        response.registerListener(new RPCResponseAvailableListener<InternalReadLocalRangeResponse>() {
+            @Override
+            public void responseAvailable(RPCResponse<InternalReadLocalRangeResponse> r) {
+                final long duration = System.nanoTime() - startTime;
+                InternalObjectData[] objects = new InternalObjectData[next.numObjects];
+                try {
+                    InternalReadLocalRangeResponse response = r.get();
+                    ReusableBuffer data = r.getData();
+                    if (response.getObjectsCount() != objects.length
+                        || response.getObjectLengthsCount() != objects.length)
+                        throw new IOException("invalid number of objects in response: "
+                            + response.getObjectsCount() + ", expected: " + objects.length);
+
+                    // copy the data of each object to a separate buffer
+                    int offset = 0;
+                    for (int i = 0; i < objects.length; i++) {
+                        int length = response.getObjectLengths(i);
+                        ReusableBuffer objectData = null;
+                        if (length > 0) {
+                            if (data == null || offset + length > data.limit())
+                                throw new IOException("response data is shorter than the object lengths");
+                            data.limit(offset + length);
+                            data.position(offset);
+                            objectData = BufferPool.allocate(length);
+                            objectData.put(data);
+                            objectData.flip();
+                            offset += length;
+                        }
+                        objects[i] = new InternalObjectData(response.getObjects(i), objectData);
+                    }
+                    master.getReplicationStage().internalObjectsFetched(fileID, next, objects, duration, null);
+                } catch (PBRPCException e) {
+                    freeObjects(objects);
+                    if (e.getErrorType() != ErrorType.INVALID_VIEW && e.getErrorType() != ErrorType.INVALID_PROC_ID) {
+                        osdAvailability.setServiceWasNotAvailable(next.osd);
+                    }
+                    master.getReplicationStage().internalObjectsFetched(fileID, next, null, duration,
+                            e.getErrorResponse());
+                } catch (IOException e) {
+                    freeObjects(objects);
+                    osdAvailability.setServiceWasNotAvailable(next.osd);
+                    master.getReplicationStage().internalObjectsFetched(fileID, next, null, duration,
+                            ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, e.toString()));
+                } catch (InterruptedException e) {
+                    // ignore
+                } finally {
+                    r.freeBuffers();
+                }
+            }
+        });
+    }
+
+    private static void freeObjects(InternalObjectData[] objects) {
+        for (InternalObjectData object : objects) {
+            if (object != null && object.getData() != null)
+                BufferPool.free(object.getData());
+        }
+    }
+
     /**
      * sends an error to all belonging clients (for all objects of the file)
      */
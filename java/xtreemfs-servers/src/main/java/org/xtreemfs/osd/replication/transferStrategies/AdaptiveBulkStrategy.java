@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.replication.transferStrategies;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.xtreemfs.common.ServiceAvailability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.Replica;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.REPL_FLAG;
+
+/**
+ * A sequential strategy for full replicas, which fetches runs of consecutive objects of the local OSD with a
+ * single request. The number of objects per request is adapted to the observed throughput: it is doubled
+ * as long as the throughput increases, and halved when it decreases. <br>
+ * Runs are only built if the source replica is striped like the local replica, as the source OSD must store
+ * all objects of the run.
+ */
+public class AdaptiveBulkStrategy extends SequentialStrategy {
+    /**
+     * identifies the strategy in replication flags
+     */
+    public static final REPL_FLAG   REPLICATION_FLAG           = REPL_FLAG.REPL_FLAG_STRATEGY_ADAPTIVE_BULK;
+
+    public static final int         MIN_OBJECTS_PER_REQUEST    = 2;
+
+    public static final int         MAX_OBJECTS_PER_REQUEST    = 64;
+
+    public static final int         INITIAL_OBJECTS_PER_REQUEST = 8;
+
+    /**
+     * the relative decrease of the throughput which reverses the direction in which the number of objects per
+     * request is adapted
+     */
+    private static final double     THROUGHPUT_TOLERANCE       = 0.1;
+
+    private int                     objectsPerRequest;
+
+    /**
+     * true, if the number of objects per request is increased
+     */
+    private boolean                 growing;
+
+    /**
+     * throughput of the last request of full length in bytes/s; 0 if unknown
+     */
+    private double                  lastThroughput;
+
+    /**
+     * OSDs which do not support fetching several objects with a single request
+     */
+    private final Set<ServiceUUID>  singleObjectOSDs;
+
+    public AdaptiveBulkStrategy(String fileId, XLocations xLoc, ServiceAvailability osdAvailability) {
+        super(fileId, xLoc, osdAvailability);
+        this.objectsPerRequest = INITIAL_OBJECTS_PER_REQUEST;
+        this.growing = true;
+        this.lastThroughput = 0;
+        this.singleObjectOSDs = new HashSet<ServiceUUID>();
+    }
+
+    @Override
+    protected NextRequest selectNextHook() throws TransferStrategyException {
+        NextRequest next = super.selectNextHook();
+        if (next == null || next.attachObjectSet || singleObjectOSDs.contains(next.osd))
+            return next;
+
+        Replica source = xLoc.getReplica(next.osd);
+        int width = xLoc.getLocalReplica().getStripingPolicy().getWidth();
+        if (source.getStripingPolicy().getWidth() != width)
+            return next;
+
+        // extend the run as long as the following objects of the local OSD must be fetched as well
+        next.objectNoStep = width;
+        while (next.numObjects < objectsPerRequest) {
+            long objectNo = next.getObjectNo(next.numObjects);
+            if (objectNo > lastObjectNo
+                || !(preferredObjects.contains(objectNo) || requiredObjects.contains(objectNo)))
+                break;
+
+            // like for the first object, the OSD will not be used a second time if the object cannot be
+            // fetched
+            getAvailableOSDsForObject(objectNo).remove(next.osd);
+            next.numObjects++;
+        }
+
+        return next;
+    }
+
+    @Override
+    public int getObjectsPerRequest() {
+        return objectsPerRequest;
+    }
+
+    @Override
+    public void requestCompleted(NextRequest request, long bytes, long durationNanos) {
+        // shorter runs (at the end of the file or before objects which are already being fetched) say little
+        // about the achievable throughput
+        if (request.numObjects < objectsPerRequest)
+            return;
+
+        double throughput = bytes * 1e9 / Math.max(1, durationNanos);
+        if (lastThroughput > 0 && throughput < lastThroughput * (1 - THROUGHPUT_TOLERANCE))
+            growing = !growing;
+        lastThroughput = throughput;
+
+        if (growing)
+            objectsPerRequest = Math.min(MAX_OBJECTS_PER_REQUEST, objectsPerRequest * 2);
+        else
+            objectsPerRequest = Math.max(MIN_OBJECTS_PER_REQUEST, objectsPerRequest / 2);
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "%s - %.0f KB/s with %d objects per request, using %d objects per request", fileID,
+                    throughput / 1024, request.numObjects, objectsPerRequest);
+    }
+
+    @Override
+    public void requestFailed(NextRequest request, ErrorResponse error) {
+        if (error.getErrorType() == ErrorType.INVALID_PROC_ID) {
+            // the OSD runs an older version; fetch the objects separately
+            singleObjectOSDs.add(request.osd);
+            for (int i = 0; i < request.numObjects; i++)
+                availableOSDsForObject.remove(request.getObjectNo(i));
+        } else {
+            objectsPerRequest = Math.max(MIN_OBJECTS_PER_REQUEST, objectsPerRequest / 2);
+            lastThroughput = 0;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Map;
 import org.xtreemfs.common.ServiceAvailability;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.osd.replication.ObjectSet;
 
 /**
@@ -34,6 +35,20 @@ public abstract class TransferStrategy {
          * if true, the OSD must return a list of all local available objects
          */
         public boolean     attachObjectSet = false;
+        /**
+         * number of objects to fetch with this request; if greater than 1, the
+         * objects objectNo + i * objectNoStep are fetched from the OSD with a
+         * single request
+         */
+        public int         numObjects      = 1;
+        public long        objectNoStep    = 1;
+
+        /**
+         * Returns the number of the i-th object fetched with this request.
+         */
+        public long getObjectNo(int i) {
+            return objectNo + i * objectNoStep;
+        }
 
         boolean isAllSet() {
             return (osd != null) && (objectNo != -1);
@@ -163,8 +178,9 @@ public abstract class TransferStrategy {
      */
     public NextRequest getNext() {
         if (next != null) {
-            // remove object from lists, so it can't be chosen twice
-            removeObjectFromList(next.objectNo);
+            // remove objects from lists, so they can't be chosen twice
+            for (int i = 0; i < next.numObjects; i++)
+                removeObjectFromList(next.getObjectNo(i));
         }
         return next;
     }
@@ -231,6 +247,36 @@ public abstract class TransferStrategy {
         return preferredObjects.isEmpty() && requiredObjects.isEmpty();
     }
 
+    /**
+     * Returns how many objects are fetched with a single request at most.
+     * 
+     * @return
+     */
+    public int getObjectsPerRequest() {
+        return 1;
+    }
+
+    /**
+     * Called when a request fetching several objects has been answered. Strategies may use it to adapt the
+     * number of objects per request.
+     * 
+     * @param request
+     *            the request returned by getNext()
+     * @param bytes
+     *            the amount of data received
+     * @param durationNanos
+     *            the time between sending the request and receiving the response
+     */
+    public void requestCompleted(NextRequest request, long bytes, long durationNanos) {
+    }
+
+    /**
+     * Called when a request fetching several objects has failed, before the objects are handed back to the
+     * strategy.
+     */
+    public void requestFailed(NextRequest request, ErrorResponse error) {
+    }
+
     /**
      * adds/updates the object set of the given OSD
      * 
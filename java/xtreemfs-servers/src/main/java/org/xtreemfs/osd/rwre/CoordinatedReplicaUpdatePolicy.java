@@ -49,6 +49,15 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
 
     private final OSDServiceClient client;
 
+    /** the sequence number of the last update sent to the backups since becoming primary */
+    private long                   updateSeq;
+
+    /**
+     * the master epoch of the lease under which the updates are sent, or
+     * IGNORE_MASTER_EPOCH if it is unknown and updates cannot be ordered
+     */
+    private long                   updateSeqEpoch = FleaseMessage.IGNORE_MASTER_EPOCH;
+
     public CoordinatedReplicaUpdatePolicy(List<ServiceUUID> remoteOSDUUIDs, String localUUID, String fileId,
             OSDServiceClient client) {
         super(remoteOSDUUIDs, fileId, localUUID);
@@ -323,6 +332,8 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
         final int numRequests = remoteOSDUUIDs.size();
         final int maxErrors = numRequests - numAcksRequired;
         
+        final long seq = nextUpdateSeq();
+        
         final RPCResponse[] responses = new RPCResponse[remoteOSDUUIDs.size()];
         final RPCResponseAvailableListener l = getResponseListener(callback, maxErrors, numAcksRequired, fileId, Operation.WRITE);
         try {
@@ -330,7 +341,8 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
                 responses[i] = client.xtreemfs_rwr_update(remoteOSDUUIDs.get(i).getAddress(),
                         RPCAuthentication.authNone, RPCAuthentication.userService,
                         credentials, credentials.getXcap().getFileId(), 0,
-                        objNo, objVersion, 0, data.getMetadata(), data.getData().createViewBuffer());
+                        objNo, objVersion, 0, data.getMetadata(), seq, getUpdateSeqEpoch(seq),
+                        data.getData().createViewBuffer());
                 responses[i].registerListener(l);
             }
         } catch (IOException ex) {
@@ -351,12 +363,15 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
         final int numRequests = remoteOSDUUIDs.size();
         final int maxErrors = numRequests - numAcksRequired;
 
+        final long seq = nextUpdateSeq();
+
         final RPCResponseAvailableListener l = getResponseListener(callback, maxErrors, numAcksRequired, fileId, Operation.TRUNCATE);
         final RPCResponse[] responses = new RPCResponse[remoteOSDUUIDs.size()];
         try {
             for (int i = 0; i < responses.length; i++) {
                 responses[i] = client.xtreemfs_rwr_truncate(remoteOSDUUIDs.get(i).getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService,
-                        credentials, credentials.getXcap().getFileId(), newFileSize, newObjectVersion);
+                        credentials, credentials.getXcap().getFileId(), newFileSize, newObjectVersion, seq,
+                        getUpdateSeqEpoch(seq));
                 responses[i].registerListener(l);
             }
         } catch (IOException ex) {
@@ -368,6 +383,18 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,"(R:%s) sent truncate update for %s", localUUID, fileId);
     }
 
+    /**
+     * Returns the sequence number of the next update sent to the backups, or
+     * 0 if updates are not ordered because the master epoch is unknown.
+     */
+    private long nextUpdateSeq() {
+        return updateSeqEpoch == FleaseMessage.IGNORE_MASTER_EPOCH ? 0 : ++updateSeq;
+    }
+
+    private long getUpdateSeqEpoch(long seq) {
+        return seq == 0 ? 0 : updateSeqEpoch;
+    }
+
     protected RPCResponseAvailableListener getResponseListener(final ClientOperationCallback callback,
             final int maxErrors, final int numAcksRequired, final String fileId, final Operation operation) {
 
@@ -484,6 +511,8 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
     @Override
     public boolean onPrimary(int masterEpoch) throws IOException {
         //no need to catch up on primary
+        updateSeq = 0;
+        updateSeqEpoch = masterEpoch;
         if (masterEpoch != FleaseMessage.IGNORE_MASTER_EPOCH) {
             this.localObjVersion = (long)masterEpoch << 32;
         }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Sends Flease messages to other OSDs. Messages to the same OSD are collected
+ * for a short time and sent with a single xtreemfs_rwr_flease_msg request, in
+ * which they are serialized one after another.
+ * <p>
+ * Messages are serialized when they are passed to the batcher, as Flease may
+ * modify them afterwards.
+ * <p>
+ * OSDs of older versions only process the first message of a batch. Batching
+ * is therefore disabled by default and has to be enabled explicitly once all
+ * OSDs of the replica sets support it.
+ */
+class FleaseMessageBatcher {
+
+    /** the maximum number of messages sent with a single request */
+    static final int                                           MAX_MESSAGES_PER_BATCH = 256;
+
+    private final OSDRequestDispatcher                         master;
+
+    private final OSDServiceClient                             client;
+
+    private final long                                         windowMs;
+
+    /** the serialized messages to be sent to each OSD */
+    private final Map<InetSocketAddress, List<ReusableBuffer>> batches;
+
+    private final Timer                                        timer;
+
+    /**
+     * @param windowMs
+     *            the time for which messages are collected, or 0 to send each
+     *            message right away
+     */
+    FleaseMessageBatcher(OSDRequestDispatcher master, OSDServiceClient client, long windowMs) {
+        this.master = master;
+        this.client = client;
+        this.windowMs = windowMs;
+        this.batches = new HashMap<InetSocketAddress, List<ReusableBuffer>>();
+        this.timer = windowMs > 0 ? new Timer("FleaseMsgBatcher", true) : null;
+    }
+
+    void send(FleaseMessage message, final InetSocketAddress recipient) {
+        ReusableBuffer data = BufferPool.allocate(message.getSize());
+        message.serialize(data);
+        data.flip();
+
+        if (windowMs == 0) {
+            List<ReusableBuffer> batch = new ArrayList<ReusableBuffer>(1);
+            batch.add(data);
+            sendBatch(recipient, batch);
+            return;
+        }
+
+        List<ReusableBuffer> full = null;
+        synchronized (batches) {
+            List<ReusableBuffer> batch = batches.get(recipient);
+            if (batch == null) {
+                batch = new ArrayList<ReusableBuffer>();
+                batches.put(recipient, batch);
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        flush(recipient);
+                    }
+                }, windowMs);
+            }
+            batch.add(data);
+
+            if (batch.size() >= MAX_MESSAGES_PER_BATCH) {
+                full = batches.remove(recipient);
+            }
+        }
+
+        if (full != null) {
+            sendBatch(recipient, full);
+        }
+    }
+
+    void shutdown() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        synchronized (batches) {
+            for (List<ReusableBuffer> batch : batches.values()) {
+                for (ReusableBuffer data : batch) {
+                    BufferPool.free(data);
+                }
+            }
+            batches.clear();
+        }
+    }
+
+    private void flush(InetSocketAddress recipient) {
+        List<ReusableBuffer> batch;
+        synchronized (batches) {
+            batch = batches.remove(recipient);
+        }
+        // The batch may already have been sent because it was full.
+        if (batch != null) {
+            sendBatch(recipient, batch);
+        }
+    }
+
+    private void sendBatch(InetSocketAddress recipient, List<ReusableBuffer> batch) {
+        ReusableBuffer data = pack(batch);
+        try {
+            // Single messages are sent with 0 as the number of messages, like
+            // OSDs that do not support batches.
+            RPCResponse r = client.xtreemfs_rwr_flease_msg(recipient, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, master.getHostName(), master.getConfig().getPort(),
+                    batch.size() == 1 ? 0 : batch.size(), data);
+            r.registerListener(new RPCResponseAvailableListener() {
+
+                @Override
+                public void responseAvailable(RPCResponse r) {
+                    r.freeBuffers();
+                }
+            });
+        } catch (IOException ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
+    }
+
+    /**
+     * Concatenates serialized messages to the payload of a single request. The
+     * buffers of the messages are freed.
+     */
+    static ReusableBuffer pack(List<ReusableBuffer> batch) {
+        if (batch.size() == 1) {
+            return batch.get(0);
+        }
+
+        int size = 0;
+        for (ReusableBuffer msg : batch) {
+            size += msg.remaining();
+        }
+        ReusableBuffer data = BufferPool.allocate(size);
+        for (ReusableBuffer msg : batch) {
+            data.put(msg);
+            BufferPool.free(msg);
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Parses the messages of a request payload built by {@link #pack(List)}.
+     * 
+     * @param numMessages
+     *            the number of messages sent with the request; OSDs that do not
+     *            support batches send 0
+     */
+    static List<FleaseMessage> unpack(ReusableBuffer data, int numMessages) {
+        final int count = Math.max(1, numMessages);
+        List<FleaseMessage> messages = new ArrayList<FleaseMessage>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new FleaseMessage(data));
+        }
+        return messages;
+    }
+
+}
@@ -11,27 +11,28 @@ package org.xtreemfs.osd.rwre;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.uuids.UnknownUUIDException;
 import org.xtreemfs.common.xloc.XLocations;
-import org.xtreemfs.foundation.SSLOptions;
+import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.ASCIIString;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.flease.Flease;
-import org.xtreemfs.foundation.flease.FleaseConfig;
-import org.xtreemfs.foundation.flease.FleaseMessageSenderInterface;
 import org.xtreemfs.foundation.flease.FleaseStage;
-import org.xtreemfs.foundation.flease.FleaseStatusListener;
-import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
 import org.xtreemfs.foundation.flease.proposer.FleaseException;
 import org.xtreemfs.foundation.flease.proposer.FleaseListener;
@@ -39,7 +40,6 @@ import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
-import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC;
@@ -68,13 +68,21 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.XLocSetVersionState;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_fetch_objectsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
 
 /**
+ * Processes the replicated files of one shard of the
+ * {@link ShardedRWReplicationStage}. All state of a replicated file is owned
+ * by the shard the file ID is mapped to, so that the operations for a file
+ * are processed in order by a single thread.
  * 
  * @author bjko
  */
-public class RWReplicationStage extends Stage implements FleaseMessageSenderInterface {
+public class RWReplicationStage extends Stage {
+
+    /** the key of the summary in the reset status */
+    public static final String RESET_STATUS_TOTAL             = "(all files)";
 
     public static final int STAGEOP_REPLICATED_WRITE          = 1;
     public static final int STAGEOP_CLOSE                     = 2;
@@ -92,11 +100,14 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
     public static final int STAGEOP_FORCE_RESET               = 16;
     public static final int STAGEOP_INTERNAL_MAXOBJ_AVAIL     = 17;
     public static final int STAGEOP_INTERNAL_BACKUP_AUTHSTATE = 18;
+    public static final int STAGEOP_INTERNAL_RESUME_FETCH     = 19;
 
     public static final int STAGEOP_SETVIEW                   = 21;
     public static final int STAGEOP_INVALIDATEVIEW            = 22;
     public static final int STAGEOP_INVALIDATED_RESET         = 23;
     public static final int STAGEOP_GET_REPLICATED_FILE_STATE  = 24;
+    public static final int STAGEOP_GET_RESET_STATUS          = 25;
+    public static final int STAGEOP_INTERNAL_UPDATE_GAP       = 26;
 
     public  static enum Operation {
         READ,
@@ -106,8 +117,6 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         INTERNAL_TRUNCATE
     };
 
-    private final RPCNIOSocketClient               client;
-
     private final OSDServiceClient                 osdClient;
 
     private final Map<String, ReplicatedFileState> files;
@@ -118,110 +127,67 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private final FleaseStage                      fstage;
 
-    private final RPCNIOSocketClient               fleaseClient;
-
-    private final OSDServiceClient                 fleaseOsdClient;
-
     private final ASCIIString                      localID;
 
-    private int                                    numObjsInFlight;
-
-    private static final int                       MAX_OBJS_IN_FLIGHT         = 10;
-
     private static final int                       MAX_PENDING_PER_FILE       = 10;
 
     private static final int                       MAX_EXTERNAL_REQUESTS_IN_Q = 250;
 
+    /**
+     * the maximum number of updates per file that are held back on a backup
+     * because their predecessors have not been received yet
+     */
+    static final int                               MAX_BUFFERED_UPDATES_PER_FILE = 64;
+
+    /**
+     * the time after which a backup stops waiting for a missing update and
+     * applies the subsequent ones
+     */
+    private static final long                      UPDATE_GAP_TIMEOUT_MS      = 1000;
+
     private final Queue<ReplicatedFileState>       filesInReset;
 
-    private final FleaseMasterEpochThread          masterEpochThread;
+    private final ResetFetchScheduler              fetchScheduler;
+
+    /**
+     * resumes fetching objects once the reset bandwidth limit permits it, and
+     * stops waiting for missing updates
+     */
+    private final Timer                            timer;
+
+    private boolean                                fetchResumeScheduled;
+
+    /** OSDs that do not support fetching multiple objects with one request */
+    private final Set<String>                      singleFetchOSDs;
 
     private final AtomicInteger                    externalRequestsInQueue;
 
-    public RWReplicationStage(OSDRequestDispatcher master, SSLOptions sslOpts, int maxRequestsQueueLength)
-            throws IOException {
-        super("RWReplSt", maxRequestsQueueLength);
+    /** true while buffered updates are being applied, to avoid recursion */
+    private boolean                                applyingBufferedUpdates;
+
+    RWReplicationStage(OSDRequestDispatcher master, String name, OSDServiceClient osdClient, FleaseStage fstage,
+            ResetFetchScheduler fetchScheduler, int maxRequestsQueueLength) {
+        super(name, maxRequestsQueueLength);
         this.master = master;
-        client = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage");
-        fleaseClient = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage (flease)");
-        osdClient = new OSDServiceClient(client, null);
-        fleaseOsdClient = new OSDServiceClient(fleaseClient, null);
+        this.osdClient = osdClient;
+        this.fstage = fstage;
+        this.fetchScheduler = fetchScheduler;
         files = new HashMap<String, ReplicatedFileState>();
         cellToFileId = new HashMap<ASCIIString, String>();
-        numObjsInFlight = 0;
         filesInReset = new LinkedList<ReplicatedFileState>();
+        timer = new Timer(name + "Timer", true);
+        singleFetchOSDs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
         externalRequestsInQueue = new AtomicInteger(0);
 
         localID = new ASCIIString(master.getConfig().getUUID().toString());
-
-        masterEpochThread = new FleaseMasterEpochThread(master.getStorageStage().getStorageLayout(),
-                maxRequestsQueueLength);
-
-        FleaseConfig fcfg = new FleaseConfig(master.getConfig().getFleaseLeaseToMS(), master.getConfig()
-                .getFleaseDmaxMS(), master.getConfig().getFleaseMsgToMS(), null, localID.toString(), master.getConfig()
-                .getFleaseRetries());
-
-        fstage = new FleaseStage(fcfg, master.getConfig().getObjDir() + "/", this, false,
-                new FleaseViewChangeListenerInterface() {
-
-                    @Override
-                    public void viewIdChangeEvent(ASCIIString cellId, int viewId, boolean onProposal) {
-                        eventViewIdChanged(cellId, viewId, onProposal);
-                    }
-                }, new FleaseStatusListener() {
-
-                    @Override
-                    public void statusChanged(ASCIIString cellId, Flease lease) {
-                        // FIXME: change state
-                        eventLeaseStateChanged(cellId, lease, null);
-                    }
-
-                    @Override
-                    public void leaseFailed(ASCIIString cellID, FleaseException error) {
-                        // change state
-                        // flush pending requests
-                        eventLeaseStateChanged(cellID, null, error);
-                    }
-                }, masterEpochThread);
-        fstage.setLifeCycleListener(master);
-    }
-
-    @Override
-    public void start() {
-        masterEpochThread.start();
-        client.start();
-        fleaseClient.start();
-        fstage.start();
-        super.start();
     }
 
     @Override
     public void shutdown() {
-        client.shutdown();
-        fleaseClient.shutdown();
-        fstage.shutdown();
-        masterEpochThread.shutdown();
+        timer.cancel();
         super.shutdown();
     }
 
-    @Override
-    public void waitForStartup() throws Exception {
-        masterEpochThread.waitForStartup();
-        client.waitForStartup();
-        fleaseClient.waitForStartup();
-        fstage.waitForStartup();
-        super.waitForStartup();
-    }
-
-    @Override
-    public void waitForShutdown() throws Exception {
-        client.waitForShutdown();
-        fleaseClient.waitForShutdown();
-        fstage.waitForShutdown();
-        masterEpochThread.waitForShutdown();
-        super.waitForShutdown();
-    }
-
     public void eventReplicaStateAvailable(String fileId, ReplicaStatus localState, ErrorResponse error) {
         this.enqueueOperation(STAGEOP_INTERNAL_STATEAVAIL, new Object[] { fileId, localState, error }, null, null);
     }
@@ -234,8 +200,10 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         this.enqueueOperation(STAGEOP_INTERNAL_DELETE_COMPLETE, new Object[] { fileId, error }, null, null);
     }
 
-    void eventObjectFetched(String fileId, ObjectVersionMapping object, InternalObjectData data, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, object, data, error }, null, null);
+    void eventObjectFetched(String fileId, String osdUUID, ObjectVersionMapping object, InternalObjectData data,
+            ErrorResponse error) {
+        this.enqueueOperation(STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, object, data, error, osdUUID },
+                null, null);
     }
 
     void eventSetAuthState(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
@@ -258,17 +226,6 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 credentials, xloc }, null, null);
     }
 
-    void eventViewIdChanged(ASCIIString cellId, int viewId, boolean onProposal) {
-        if (onProposal) {
-            // Newer views encountered on lease proposals are ignored, because they could revalidate a removed Replica,
-            // that had been primary trying to renew its lease.
-            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
-                    "New view (%d) encountered on lease proposal for %s is ignored.", viewId, cellId);
-        } else {
-            master.getPreprocStage().updateXLocSetFromFlease(cellId, viewId);
-        }
-    }
-
     private void executeSetAuthState(final ReplicaStatus localState, final AuthoritativeReplicaState authState,
             ReplicatedFileState state, final String fileId) {
         // Calculate what we need to do locally based on the local state.
@@ -506,7 +463,10 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private void fetchObjects() {
 
-        while (numObjsInFlight < MAX_OBJS_IN_FLIGHT) {
+        // Files in reset are served in turns. Files that have reached their limit of objects in flight are skipped;
+        // if all files have been skipped in a row, no further objects can be fetched at the moment.
+        int numSkipped = 0;
+        while (fetchScheduler.hasCapacity() && numSkipped < filesInReset.size()) {
 
             ReplicatedFileState fileInReset = filesInReset.poll();
             if (fileInReset == null)
@@ -521,12 +481,17 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 continue;
             }
 
-            // Remove an object from the queue and process it
-            if (!file.getObjectsToFetch().isEmpty()) {
-                ObjectVersionMapping o = file.getObjectsToFetch().remove(0);
-                file.incrementNumObjectsPending();
-                numObjsInFlight++;
-                fetchObject(file, o);
+            // Remove the next objects from the queue and fetch them
+            ResetFetchScheduler.Fetch fetch = fetchScheduler.nextFetch(file.getObjectsToFetch(),
+                    file.getNumObjectsPending());
+            if (fetch != null) {
+                for (int i = 0; i < fetch.objects.size(); i++) {
+                    file.incrementNumObjectsPending();
+                }
+                fetchObjects(file, fetch);
+                numSkipped = 0;
+            } else {
+                numSkipped++;
             }
 
             // If there are still missing objects, return the file to the reset queue
@@ -541,12 +506,146 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 doResetComplete(file);
             }
         }
+
+        // If the bandwidth limit has been reached, resume fetching once it permits further fetches.
+        if (!fetchResumeScheduled && !filesInReset.isEmpty()) {
+            long delay = fetchScheduler.getThrottleDelay();
+            if (delay > 0) {
+                fetchResumeScheduled = true;
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        enqueueOperation(STAGEOP_INTERNAL_RESUME_FETCH, new Object[] {}, null, null);
+                    }
+                }, delay);
+            }
+        }
+    }
+
+    private void processResumeFetch(StageRequest method) {
+        fetchResumeScheduled = false;
+        fetchObjects();
     }
 
-    private void fetchObject(final ReplicatedFileState state, final ObjectVersionMapping record) {
+    private void fetchObjects(final ReplicatedFileState state, final ResetFetchScheduler.Fetch fetch) {
         final String fileId = state.getFileId();
+        final String osdUUID = fetch.osdUUID;
+
+        if (osdUUID == null) {
+            for (ObjectVersionMapping record : fetch.objects) {
+                eventObjectFetched(fileId, osdUUID, record, null, ErrorUtils.getErrorResponse(ErrorType.ERRNO,
+                        POSIXErrno.POSIX_ERROR_EIO, "no replica has object " + record.getObjectNumber()));
+            }
+            return;
+        }
+
+        // Fetch single objects and objects from OSDs that do not support fetching multiple objects separately.
+        if (fetch.objects.size() == 1 || singleFetchOSDs.contains(osdUUID)) {
+            for (ObjectVersionMapping record : fetch.objects) {
+                fetchObject(fileId, state.getCredentials(), osdUUID, record);
+            }
+            return;
+        }
+
+        final FileCredentials credentials = state.getCredentials();
         try {
-            final ServiceUUID osd = new ServiceUUID(record.getOsdUuidsList().get(0));
+            List<ObjectVersion> objects = new ArrayList<ObjectVersion>(fetch.objects.size());
+            for (ObjectVersionMapping record : fetch.objects) {
+                objects.add(ObjectVersion.newBuilder().setObjectNumber(record.getObjectNumber())
+                        .setObjectVersion(record.getObjectVersion()).build());
+            }
+
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                        "(R:%s) file %s, fetch %d objects from %s", localID, fileId, objects.size(), osdUUID);
+
+            RPCResponse<xtreemfs_rwr_fetch_objectsResponse> r = osdClient.xtreemfs_rwr_fetch_objects(new ServiceUUID(
+                    osdUUID).getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService, credentials,
+                    fileId, objects);
+            r.registerListener(new RPCResponseAvailableListener<xtreemfs_rwr_fetch_objectsResponse>() {
+
+                @Override
+                public void responseAvailable(RPCResponse<xtreemfs_rwr_fetch_objectsResponse> r) {
+                    ReusableBuffer data = null;
+                    ReusableBuffer[] objectData = new ReusableBuffer[fetch.objects.size()];
+                    try {
+                        xtreemfs_rwr_fetch_objectsResponse response = r.get();
+                        data = r.getData();
+                        if (response.getObjectLengthsCount() != objectData.length) {
+                            throw new IOException("invalid number of objects in response: "
+                                    + response.getObjectLengthsCount() + ", expected: " + objectData.length);
+                        }
+
+                        // Copy the data of each object to a separate buffer.
+                        int offset = 0;
+                        for (int i = 0; i < objectData.length; i++) {
+                            int length = response.getObjectLengths(i);
+                            if (length == 0) {
+                                continue;
+                            }
+                            if (data == null || offset + length > data.limit()) {
+                                throw new IOException("response data is shorter than the object lengths");
+                            }
+                            data.limit(offset + length);
+                            data.position(offset);
+                            objectData[i] = BufferPool.allocate(length);
+                            objectData[i].put(data);
+                            objectData[i].flip();
+                            offset += length;
+                        }
+
+                        for (int i = 0; i < objectData.length; i++) {
+                            eventObjectFetched(fileId, osdUUID, fetch.objects.get(i), new InternalObjectData(0, false,
+                                    0, objectData[i]), null);
+                        }
+                    } catch (PBRPCException ex) {
+                        freeAll(objectData);
+                        if (ex.getErrorType() == ErrorType.INVALID_PROC_ID) {
+                            // The OSD runs an older version; fall back to fetching the objects separately.
+                            singleFetchOSDs.add(osdUUID);
+                            for (ObjectVersionMapping record : fetch.objects) {
+                                fetchObject(fileId, credentials, osdUUID, record);
+                            }
+                        } else {
+                            ErrorResponse error = ErrorUtils.getErrorResponse(ex.getErrorType(), ex.getPOSIXErrno(),
+                                    ex.toString(), ex);
+                            for (ObjectVersionMapping record : fetch.objects) {
+                                eventObjectFetched(fileId, osdUUID, record, null, error);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        freeAll(objectData);
+                        ErrorResponse error = ErrorUtils.getErrorResponse(ErrorType.IO_ERROR,
+                                POSIXErrno.POSIX_ERROR_NONE, ex.toString(), ex);
+                        for (ObjectVersionMapping record : fetch.objects) {
+                            eventObjectFetched(fileId, osdUUID, record, null, error);
+                        }
+                    } finally {
+                        BufferPool.free(data);
+                        r.freeBuffers();
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            ErrorResponse error = ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO,
+                    ex.toString(), ex);
+            for (ObjectVersionMapping record : fetch.objects) {
+                eventObjectFetched(fileId, osdUUID, record, null, error);
+            }
+        }
+    }
+
+    private static void freeAll(ReusableBuffer[] buffers) {
+        for (int i = 0; i < buffers.length; i++) {
+            BufferPool.free(buffers[i]);
+            buffers[i] = null;
+        }
+    }
+
+    private void fetchObject(final String fileId, FileCredentials credentials, final String osdUUID,
+            final ObjectVersionMapping record) {
+        try {
+            final ServiceUUID osd = new ServiceUUID(osdUUID);
             // fetch that object
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
@@ -554,7 +653,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                         record.getObjectNumber(), record.getObjectVersion(), osd);
 
             RPCResponse r = osdClient.xtreemfs_rwr_fetch(osd.getAddress(), RPCAuthentication.authNone,
-                    RPCAuthentication.userService, state.getCredentials(), fileId, record.getObjectNumber(),
+                    RPCAuthentication.userService, credentials, fileId, record.getObjectNumber(),
                     record.getObjectVersion());
             r.registerListener(new RPCResponseAvailableListener() {
 
@@ -563,7 +662,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     try {
                         ObjectData metadata = (ObjectData) r.get();
                         InternalObjectData data = new InternalObjectData(metadata, r.getData());
-                        eventObjectFetched(fileId, record, data, null);
+                        eventObjectFetched(fileId, osdUUID, record, data, null);
                     } catch (PBRPCException ex) {
                         // Transform exception into correct ErrorResponse.
                         // TODO(mberlin): Generalize this functionality by returning "Throwable" instead of
@@ -571,12 +670,14 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                         //                The "ErrorResponse" shall be created in the last 'step' at the
                         //                invocation of failed().
                         eventObjectFetched(fileId,
+                                           osdUUID,
                                            record,
                                            null,
                                            ErrorUtils.getErrorResponse(ex.getErrorType(), ex.getPOSIXErrno(), ex.toString(), ex));
                     } catch (Exception ex) {
                         eventObjectFetched(
                                 fileId,
+                                           osdUUID,
                                            record,
                                            null,
                                            ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_NONE, ex.toString(), ex));
@@ -586,7 +687,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 }
             });
         } catch (IOException ex) {
-            eventObjectFetched(fileId, record, null,
+            eventObjectFetched(fileId, osdUUID, record, null,
                     ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString(), ex));
         }
 
@@ -598,8 +699,10 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             final ObjectVersionMapping record = (ObjectVersionMapping) method.getArgs()[1];
             final InternalObjectData data = (InternalObjectData) method.getArgs()[2];
             final ErrorResponse error = (ErrorResponse) method.getArgs()[3];
+            final String osdUUID = (String) method.getArgs()[4];
 
-            numObjsInFlight--;
+            fetchScheduler.objectFetched(osdUUID, (error == null && data.getData() != null) ? data.getData()
+                    .remaining() : 0);
 
             ReplicatedFileState state = files.get(fileId);
             if (state != null) {
@@ -636,6 +739,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     master.replicatedDataReceived(bytes);
 
                     state.decrementNumObjectsPending();
+                    state.objectFetched(bytes);
                     state.getPolicy().objectFetched(record.getObjectVersion());
                     if (Logging.isDebug())
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
@@ -887,8 +991,21 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     public void prepareOperation(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
             Operation op, RWReplicationCallback callback, OSDRequest request) {
-        this.enqueueExternalOperation(STAGEOP_PREPAREOP, new Object[] { credentials, xloc, objNo, objVersion, op },
-                request, null, callback);
+        prepareOperation(credentials, xloc, objNo, objVersion, op, 0, 0, callback, request);
+    }
+
+    /**
+     * Prepares an operation. For updates received from the primary
+     * ({@link Operation#INTERNAL_UPDATE}, {@link Operation#INTERNAL_TRUNCATE}),
+     * <code>updateSeq</code> is the position of the update in the primary's
+     * sequence of updates, or 0 if unknown, and <code>updateEpoch</code> the
+     * master epoch of the primary's lease, which identifies the sequence.
+     * Updates are applied in this order.
+     */
+    public void prepareOperation(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
+            Operation op, long updateEpoch, long updateSeq, RWReplicationCallback callback, OSDRequest request) {
+        this.enqueueExternalOperation(STAGEOP_PREPAREOP, new Object[] { credentials, xloc, objNo, objVersion, op,
+                updateEpoch, updateSeq }, request, null, callback);
     }
 
     public void replicatedWrite(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
@@ -908,44 +1025,20 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         this.enqueueOperation(STAGEOP_CLOSE, new Object[] { fileId }, null, null);
     }
 
-    public void receiveFleaseMessage(ReusableBuffer message, InetSocketAddress sender) {
-        // this.enqueueOperation(STAGEOP_PROCESS_FLEASE_MSG, new Object[]{message,sender}, null, null);
-        try {
-            FleaseMessage msg = new FleaseMessage(message);
-            BufferPool.free(message);
-            msg.setSender(sender);
-            fstage.receiveMessage(msg);
-        } catch (Exception ex) {
-            Logging.logError(Logging.LEVEL_ERROR, this, ex);
-        }
-    }
-
     public void getStatus(StatusCallback callback) {
         this.enqueueOperation(STAGEOP_GETSTATUS, new Object[] {}, null, callback);
     }
 
-    public static interface StatusCallback extends RWReplicationFailableCallback {
-        public void statusComplete(Map<String, Map<String, String>> status);
+    /**
+     * Retrieves the progress of all replica resets. The status contains an entry for each file whose replica is
+     * being reset, and an entry with the key {@link #RESET_STATUS_TOTAL} that summarizes all resets.
+     */
+    public void getResetStatus(StatusCallback callback) {
+        this.enqueueOperation(STAGEOP_GET_RESET_STATUS, new Object[] {}, null, callback);
     }
 
-    @Override
-    public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
-        ReusableBuffer data = BufferPool.allocate(message.getSize());
-        message.serialize(data);
-        data.flip();
-        try {
-            RPCResponse r = fleaseOsdClient.xtreemfs_rwr_flease_msg(recipient, RPCAuthentication.authNone,
-                    RPCAuthentication.userService, master.getHostName(), master.getConfig().getPort(), data);
-            r.registerListener(new RPCResponseAvailableListener() {
-
-                @Override
-                public void responseAvailable(RPCResponse r) {
-                    r.freeBuffers();
-                }
-            });
-        } catch (IOException ex) {
-            Logging.logError(Logging.LEVEL_ERROR, this, ex);
-        }
+    public static interface StatusCallback extends RWReplicationFailableCallback {
+        public void statusComplete(Map<String, Map<String, String>> status);
     }
 
     @Override
@@ -977,6 +1070,9 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         case STAGEOP_INTERNAL_BACKUP_AUTHSTATE: processBackupAuthoritativeState(method); break;
         case STAGEOP_FORCE_RESET: processForceReset(method); break;
         case STAGEOP_GETSTATUS: processGetStatus(method); break;
+        case STAGEOP_GET_RESET_STATUS: processGetResetStatus(method); break;
+        case STAGEOP_INTERNAL_RESUME_FETCH: processResumeFetch(method); break;
+        case STAGEOP_INTERNAL_UPDATE_GAP: processUpdateGapTimeout(method); break;
         case STAGEOP_SETVIEW: processSetView(method); break;
         case STAGEOP_INVALIDATEVIEW: processInvalidateReplica(method); break;
         case STAGEOP_INVALIDATED_RESET: processInvalidatedReplicaReset(method); break;
@@ -1185,6 +1281,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             final XLocations loc = (XLocations) method.getArgs()[1];
             final Long objVersion = (Long) method.getArgs()[3];
             final Operation op = (Operation) method.getArgs()[4];
+            final Long updateEpoch = (Long) method.getArgs()[5];
+            final Long updateSeq = (Long) method.getArgs()[6];
 
             final String fileId = credentials.getXcap().getFileId();
 
@@ -1228,23 +1326,34 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 }
                 }
 
+                // The primary may send several updates without waiting for the previous ones to be acknowledged.
+                // Updates that overtook their predecessors are held back until the predecessors have been applied.
+                if (updateSeq > 0 && !state.isNextUpdate(updateEpoch, updateSeq)) {
+                    bufferUpdate(state, updateSeq, method);
+                    return;
+                }
+
                 if (!state.getPolicy().acceptRemoteUpdate(objVersion)) {
                     Logging.logMessage(Logging.LEVEL_WARN, Category.replication, this,
                             "received outdated object version %d for file %s", objVersion, fileId);
                     callback.failed(ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_EIO,
                             "outdated object version for update rejected"));
-                    return;
-                }
-                boolean needsReset = state.getPolicy().onRemoteUpdate(objVersion, state.getState());
-                if (Logging.isDebug()) {
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "%s needs reset: %s", fileId,
-                            needsReset);
-                }
-                if (needsReset) {
-                    state.addPendingRequest(method);
-                    doReset(state, objVersion);
                 } else {
-                    callback.success(0);
+                    boolean needsReset = state.getPolicy().onRemoteUpdate(objVersion, state.getState());
+                    if (Logging.isDebug()) {
+                        Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "%s needs reset: %s",
+                                fileId, needsReset);
+                    }
+                    if (needsReset) {
+                        state.addPendingRequest(method);
+                        doReset(state, objVersion);
+                    } else {
+                        callback.success(0);
+                    }
+                }
+
+                if (updateSeq > 0) {
+                    applyBufferedUpdates(state, false);
                 }
             } else {
                 state.setCredentials(credentials);
@@ -1306,6 +1415,92 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
 
+    private void bufferUpdate(ReplicatedFileState state, long updateSeq, StageRequest method) {
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "(R:%s) holding back update %d for %s, waiting for update %d", localID, updateSeq,
+                    state.getFileId(), state.getNextUpdateSeq());
+        }
+        // updates held back under a previous primary are no longer waited for
+        if (state.hasReleasedUpdates()) {
+            applyBufferedUpdates(state, false);
+        }
+        if (state.bufferUpdate(updateSeq, method)) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.replication, this,
+                    "(R:%s) too many updates held back for %s, skipping missing update %d", localID,
+                    state.getFileId(), state.getNextUpdateSeq());
+            applyBufferedUpdates(state, true);
+        } else if (state.getNumBufferedUpdates() == 1) {
+            scheduleUpdateGapTimeout(state);
+        }
+    }
+
+    private void scheduleUpdateGapTimeout(ReplicatedFileState state) {
+        final String fileId = state.getFileId();
+        final long epoch = state.getUpdateEpoch();
+        final long missingSeq = state.getNextUpdateSeq();
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                enqueueOperation(STAGEOP_INTERNAL_UPDATE_GAP, new Object[] { fileId, epoch, missingSeq }, null,
+                        null);
+            }
+        }, UPDATE_GAP_TIMEOUT_MS);
+    }
+
+    /**
+     * Applies the buffered updates of a file that are next in sequence.
+     * 
+     * @param skipGap
+     *            if true, the missing predecessors of the first buffered update
+     *            are no longer waited for
+     */
+    private void applyBufferedUpdates(ReplicatedFileState state, boolean skipGap) {
+        if (applyingBufferedUpdates) {
+            return;
+        }
+
+        applyingBufferedUpdates = true;
+        try {
+            boolean applied = false;
+            StageRequest next;
+            while ((state.getState() == ReplicaState.BACKUP || state.getState() == ReplicaState.PRIMARY)
+                    && (next = state.removeNextBufferedUpdate(skipGap)) != null) {
+                processPrepareOp(next);
+                skipGap = false;
+                applied = true;
+            }
+
+            // wait for the next missing update, if any
+            if (applied && state.getNumBufferedUpdates() > 0) {
+                scheduleUpdateGapTimeout(state);
+            }
+        } finally {
+            applyingBufferedUpdates = false;
+        }
+    }
+
+    private void processUpdateGapTimeout(StageRequest method) {
+        final String fileId = (String) method.getArgs()[0];
+        final Long epoch = (Long) method.getArgs()[1];
+        final Long missingSeq = (Long) method.getArgs()[2];
+
+        ReplicatedFileState state = files.get(fileId);
+        if (state == null || !state.isWaitingForUpdate(epoch, missingSeq)) {
+            return;
+        }
+
+        if (state.getState() == ReplicaState.BACKUP || state.getState() == ReplicaState.PRIMARY) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.replication, this,
+                    "(R:%s) update %d for %s not received, applying %d subsequent updates", localID, missingSeq,
+                    fileId, state.getNumBufferedUpdates());
+            applyBufferedUpdates(state, true);
+        } else {
+            // the missing update may still be pending
+            scheduleUpdateGapTimeout(state);
+        }
+    }
+
     private void processGetStatus(StageRequest method) {
         final StatusCallback callback = (StatusCallback) method.getCallback();
         try {
@@ -1320,6 +1515,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 fStatus.put("policy", fState.getPolicy().getClass().getSimpleName());
                 fStatus.put("peers (OSDs)", fState.getPolicy().getRemoteOSDUUIDs().toString());
                 fStatus.put("pending requests", String.valueOf(fState.sizeOfPendingRequests()));
+                fStatus.put("held back updates", String.valueOf(fState.getNumBufferedUpdates()));
                 fStatus.put("cellId", cellId.toString());
                 String primary = "unknown";
                 if ((fState.getLease() != null) && (!fState.getLease().isEmptyLease())) {
@@ -1343,6 +1539,46 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
     
+    private void processGetResetStatus(StageRequest method) {
+        final StatusCallback callback = (StatusCallback) method.getCallback();
+        try {
+            Map<String, Map<String, String>> status = new HashMap<String, Map<String, String>>();
+            final long now = TimeSync.getLocalSystemTime();
+
+            int numFiles = 0;
+            long numObjectsRemaining = 0;
+            for (ReplicatedFileState fState : files.values()) {
+                if (fState.getState() != ReplicaState.RESET || fState.getObjectsToFetch() == null) {
+                    continue;
+                }
+                numFiles++;
+                numObjectsRemaining += fState.getObjectsToFetch().size();
+
+                final long duration = Math.max(1, now - fState.getResetStartTime());
+                Map<String, String> fStatus = new HashMap<String, String>();
+                fStatus.put("objects fetched", fState.getNumObjectsFetched() + " of "
+                        + fState.getNumObjectsToFetchTotal());
+                fStatus.put("objects in flight", String.valueOf(fState.getNumObjectsPending()));
+                fStatus.put("objects queued", String.valueOf(fState.getObjectsToFetch().size()));
+                fStatus.put("bytes fetched", String.valueOf(fState.getNumBytesFetched()));
+                fStatus.put("duration", (duration / 1000) + " s");
+                fStatus.put("throughput", String.format("%.2f MB/s", fState.getNumBytesFetched() * 1000.0 / duration
+                        / 1024 / 1024));
+                status.put(fState.getFileId(), fStatus);
+            }
+
+            Map<String, String> total = fetchScheduler.getStatus();
+            total.put("files in reset", String.valueOf(numFiles));
+            total.put("objects queued", String.valueOf(numObjectsRemaining));
+            status.put(RESET_STATUS_TOTAL, total);
+
+            callback.statusComplete(status);
+        } catch (Exception ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+            callback.statusComplete(null);
+        }
+    }
+
     /**
      * Set the viewId associated with the fileId/cellId. This will close open cells.
      * 
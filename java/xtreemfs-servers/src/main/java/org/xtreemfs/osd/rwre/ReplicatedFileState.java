@@ -15,10 +15,12 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.uuids.UUIDResolver;
 import org.xtreemfs.common.uuids.UnknownUUIDException;
 import org.xtreemfs.common.xloc.Replica;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.flease.Flease;
 import org.xtreemfs.foundation.flease.FleaseStage;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
@@ -72,6 +74,14 @@ public class ReplicatedFileState {
 
     private int                        numObjectsPending;
 
+    private int                        numObjectsToFetchTotal;
+
+    private int                        numObjectsFetched;
+
+    private long                       numBytesFetched;
+
+    private long                       resetStartTime;
+
     private boolean                    primaryReset;
 
     private boolean                    forceReset;
@@ -84,10 +94,14 @@ public class ReplicatedFileState {
 
     private boolean                    invalidatedReset;
 
+    /** orders the updates received from the primary */
+    private final UpdateSequencer<StageRequest> updateSequencer;
+
     public ReplicatedFileState(String fileId, XLocations locations, ServiceUUID localUUID, FleaseStage fstage,
             OSDServiceClient client) throws UnknownUUIDException, IOException {
         queuedData = new AtomicInteger();
         pendingRequests = new LinkedList<StageRequest>();
+        updateSequencer = new UpdateSequencer<StageRequest>(RWReplicationStage.MAX_BUFFERED_UPDATES_PER_FILE);
         this.fileId = fileId;
         this.state = ReplicaState.INITIALIZING;
         this.primaryReset = false;
@@ -99,12 +113,16 @@ public class ReplicatedFileState {
         this.invalidatedReset = false;
 
         remoteOSDs = new ArrayList<ServiceUUID>(locations.getNumReplicas() - 1);
+        List<String> remoteUUIDs = new ArrayList<String>(locations.getNumReplicas() - 1);
         for (Replica r : locations.getReplicas()) {
             final ServiceUUID headOSD = r.getHeadOsd();
             if (headOSD.equals(localUUID))
                 continue;
             remoteOSDs.add(headOSD);
+            remoteUUIDs.add(headOSD.toString());
         }
+        // resolve all remote OSDs with a single request instead of one request per OSD
+        UUIDResolver.prefetch(remoteUUIDs);
 
         policy = ReplicaUpdatePolicy.newReplicaUpdatePolicy(locations.getReplicaUpdatePolicy(), remoteOSDs, localUUID.toString(),
                 fileId, client);
@@ -160,6 +178,42 @@ public class ReplicatedFileState {
         --numObjectsPending;
     }
 
+    /**
+     * Records that a missing object has been fetched during a reset.
+     */
+    public void objectFetched(int bytes) {
+        ++numObjectsFetched;
+        numBytesFetched += bytes;
+    }
+
+    /**
+     * @return the number of missing objects at the start of the current reset
+     */
+    public int getNumObjectsToFetchTotal() {
+        return numObjectsToFetchTotal;
+    }
+
+    /**
+     * @return the number of objects fetched during the current reset
+     */
+    public int getNumObjectsFetched() {
+        return numObjectsFetched;
+    }
+
+    /**
+     * @return the number of bytes fetched during the current reset
+     */
+    public long getNumBytesFetched() {
+        return numBytesFetched;
+    }
+
+    /**
+     * @return the local time at which the current reset started
+     */
+    public long getResetStartTime() {
+        return resetStartTime;
+    }
+
     /**
      * @return the primaryReset
      */
@@ -260,9 +314,71 @@ public class ReplicatedFileState {
                     ((RWReplicationFailableCallback) callback).failed(error);
                 }
             }
+            for (StageRequest rq : updateSequencer.getBufferedUpdates()) {
+                Object callback = rq.getCallback();
+                if (callback != null && callback instanceof RWReplicationFailableCallback) {
+                    ((RWReplicationFailableCallback) callback).failed(error);
+                }
+            }
         }
 
         pendingRequests.clear();
+        updateSequencer.clear();
+    }
+
+    /**
+     * Checks whether an update from the primary is the next one in sequence
+     * and may thus be applied (see
+     * {@link UpdateSequencer#isNextUpdate(long, long)}).
+     */
+    public boolean isNextUpdate(long updateEpoch, long updateSeq) {
+        return updateSequencer.isNextUpdate(updateEpoch, updateSeq);
+    }
+
+    /**
+     * Holds back an update that has been received before its predecessors.
+     * 
+     * @return true if too many updates are held back, so that the gap should
+     *         be skipped
+     */
+    public boolean bufferUpdate(long updateSeq, StageRequest request) {
+        return updateSequencer.bufferUpdate(updateSeq, request);
+    }
+
+    /**
+     * Retrieves and removes the held back update that is next in sequence
+     * (see {@link UpdateSequencer#removeNextBufferedUpdate(boolean)}).
+     */
+    public StageRequest removeNextBufferedUpdate(boolean skipGap) {
+        return updateSequencer.removeNextBufferedUpdate(skipGap);
+    }
+
+    /**
+     * Checks whether updates are still held back because the update with the
+     * given epoch and sequence number has not been received.
+     */
+    public boolean isWaitingForUpdate(long updateEpoch, long updateSeq) {
+        return updateSequencer.isWaitingFor(updateEpoch, updateSeq);
+    }
+
+    /**
+     * Checks whether updates held back under a previous primary are waiting
+     * to be applied.
+     */
+    public boolean hasReleasedUpdates() {
+        return updateSequencer.hasReleasedUpdates();
+    }
+
+    public long getUpdateEpoch() {
+        return updateSequencer.getEpoch();
+    }
+
+    public long getNextUpdateSeq() {
+        return updateSequencer.getNextUpdateSeq();
+    }
+
+    public int getNumBufferedUpdates() {
+        return updateSequencer.getNumBufferedUpdates();
     }
 
     /**
@@ -309,6 +425,10 @@ public class ReplicatedFileState {
      */
     public void setObjectsToFetch(List<ObjectVersionMapping> objectsToFetch) {
         this.objectsToFetch = objectsToFetch;
+        this.numObjectsToFetchTotal = objectsToFetch.size();
+        this.numObjectsFetched = 0;
+        this.numBytesFetched = 0;
+        this.resetStartTime = TimeSync.getLocalSystemTime();
     }
 
     /**
@@ -18,7 +18,7 @@ public class ReplicatedFileStateSimple {
         ReplicatedFileStateSimple state = null;
         boolean                   available = false;
 
-        public ReplicatedFileStateSimpleFuture(RWReplicationStage rwrStage, String fileId) {
+        public ReplicatedFileStateSimpleFuture(ShardedRWReplicationStage rwrStage, String fileId) {
             rwrStage.getReplicatedFileState(fileId, this, null);
         }
 
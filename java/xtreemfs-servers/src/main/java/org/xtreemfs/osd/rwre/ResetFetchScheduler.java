@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping;
+
+/**
+ * Decides which missing objects are fetched from which OSD while replicas are
+ * being reset.
+ * <p>
+ * The number of objects in flight is limited for the whole OSD and for each
+ * file, so that files in reset are served in turns. Each fetch requests
+ * several objects from the same OSD, which is chosen among the up-to-date
+ * replicas of the first missing object as the one with the fewest objects in
+ * flight. Optionally, the bandwidth used for fetching objects is limited by
+ * means of a token bucket.
+ * <p>
+ * Not thread-safe; all methods must be invoked by the replication stage.
+ */
+class ResetFetchScheduler {
+
+    /** the number of objects scanned for a fetch per object to fetch */
+    private static final int           SCAN_FACTOR          = 4;
+
+    /** the period over which the throughput is averaged */
+    private static final long          THROUGHPUT_WINDOW_MS = 10000;
+
+    private final int                  maxObjsInFlight;
+
+    private final int                  maxObjsInFlightPerFile;
+
+    private final int                  objsPerFetch;
+
+    /** the bandwidth limit in bytes per second, or 0 if unlimited */
+    private final long                 maxBytesPerSecond;
+
+    private final Map<String, Integer> objsInFlightPerOSD;
+
+    private int                        objsInFlight;
+
+    private long                       tokens;
+
+    private long                       lastRefill;
+
+    private long                       numObjsFetched;
+
+    private long                       numBytesFetched;
+
+    private long                       windowStart;
+
+    private long                       windowStartBytes;
+
+    private double                     throughput;
+
+    /**
+     * A set of objects that are fetched from an OSD with a single request.
+     */
+    static final class Fetch {
+
+        final String                     osdUUID;
+
+        final List<ObjectVersionMapping> objects;
+
+        Fetch(String osdUUID, List<ObjectVersionMapping> objects) {
+            this.osdUUID = osdUUID;
+            this.objects = objects;
+        }
+    }
+
+    ResetFetchScheduler(int maxObjsInFlight, int maxObjsInFlightPerFile, int objsPerFetch, long maxBytesPerSecond) {
+        this.maxObjsInFlight = Math.max(1, maxObjsInFlight);
+        this.maxObjsInFlightPerFile = Math.max(1, maxObjsInFlightPerFile);
+        this.objsPerFetch = Math.max(1, objsPerFetch);
+        this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        this.objsInFlightPerOSD = new HashMap<String, Integer>();
+        this.lastRefill = TimeSync.getLocalSystemTime();
+        this.windowStart = lastRefill;
+        this.tokens = this.maxBytesPerSecond;
+    }
+
+    /**
+     * Checks whether further objects may be fetched.
+     */
+    boolean hasCapacity() {
+        return objsInFlight < maxObjsInFlight && getThrottleDelay() == 0;
+    }
+
+    /**
+     * Returns the time in ms until the bandwidth limit permits further
+     * fetches, or 0 if fetches are permitted.
+     */
+    long getThrottleDelay() {
+
+        if (maxBytesPerSecond == 0)
+            return 0;
+
+        long now = TimeSync.getLocalSystemTime();
+        if (now > lastRefill) {
+            tokens = Math.min(maxBytesPerSecond, tokens + (now - lastRefill) * maxBytesPerSecond / 1000);
+            lastRefill = now;
+        }
+
+        return tokens > 0 ? 0 : 1 + (-tokens * 1000) / maxBytesPerSecond;
+    }
+
+    /**
+     * Removes the next objects to fetch from a file's list of missing
+     * objects.
+     *
+     * @param missing
+     *            the missing objects of the file
+     * @param numObjsPending
+     *            the number of objects of the file in flight
+     * @return the objects and the OSD to fetch them from, or <code>null</code>
+     *         if no objects of the file may be fetched at the moment
+     */
+    Fetch nextFetch(List<ObjectVersionMapping> missing, int numObjsPending) {
+
+        int max = Math.min(objsPerFetch, Math.min(maxObjsInFlight - objsInFlight, maxObjsInFlightPerFile
+            - numObjsPending));
+        if (max <= 0 || missing.isEmpty())
+            return null;
+
+        // choose the least loaded OSD among those that have the first object
+        ObjectVersionMapping first = missing.get(0);
+        String osdUUID = null;
+        int minLoad = Integer.MAX_VALUE;
+        for (String uuid : first.getOsdUuidsList()) {
+            int load = getObjsInFlight(uuid);
+            if (load < minLoad) {
+                minLoad = load;
+                osdUUID = uuid;
+            }
+        }
+
+        // add further objects that can be fetched from the same OSD
+        List<ObjectVersionMapping> objects = new ArrayList<ObjectVersionMapping>(max);
+        Iterator<ObjectVersionMapping> it = missing.iterator();
+        for (int scanned = 0; it.hasNext() && objects.size() < max && scanned < max * SCAN_FACTOR; scanned++) {
+            ObjectVersionMapping object = it.next();
+            if (object == first || object.getOsdUuidsList().contains(osdUUID)) {
+                objects.add(object);
+                it.remove();
+            }
+        }
+
+        objsInFlight += objects.size();
+        objsInFlightPerOSD.put(osdUUID, getObjsInFlight(osdUUID) + objects.size());
+
+        return new Fetch(osdUUID, objects);
+    }
+
+    /**
+     * Records that a fetched object has been received or that fetching it
+     * has failed.
+     */
+    void objectFetched(String osdUUID, int bytes) {
+
+        objsInFlight--;
+        int load = getObjsInFlight(osdUUID) - 1;
+        if (load > 0)
+            objsInFlightPerOSD.put(osdUUID, load);
+        else
+            objsInFlightPerOSD.remove(osdUUID);
+
+        if (bytes > 0) {
+            tokens -= bytes;
+            numObjsFetched++;
+            numBytesFetched += bytes;
+        }
+
+        updateThroughput();
+    }
+
+    private int getObjsInFlight(String osdUUID) {
+        Integer load = objsInFlightPerOSD.get(osdUUID);
+        return load == null ? 0 : load;
+    }
+
+    private void updateThroughput() {
+        long now = TimeSync.getLocalSystemTime();
+        if (now - windowStart >= THROUGHPUT_WINDOW_MS) {
+            throughput = (numBytesFetched - windowStartBytes) * 1000.0 / (now - windowStart);
+            windowStart = now;
+            windowStartBytes = numBytesFetched;
+        }
+    }
+
+    /**
+     * Returns the status of the scheduler for display purposes.
+     */
+    Map<String, String> getStatus() {
+
+        updateThroughput();
+
+        Map<String, String> status = new HashMap<String, String>();
+        status.put("objects in flight", objsInFlight + " (max. " + maxObjsInFlight + ", max. "
+            + maxObjsInFlightPerFile + " per file, " + objsPerFetch + " per request)");
+        status.put("objects in flight per OSD", objsInFlightPerOSD.toString());
+        status.put("objects fetched", String.valueOf(numObjsFetched));
+        status.put("bytes fetched", String.valueOf(numBytesFetched));
+        status.put("throughput", String.format("%.2f MB/s", throughput / 1024 / 1024));
+        status.put("bandwidth limit", maxBytesPerSecond == 0 ? "none" : String.format("%.2f MB/s",
+            maxBytesPerSecond / 1024.0 / 1024.0));
+
+        return status;
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.LifeCycleListener;
+import org.xtreemfs.foundation.SSLOptions;
+import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.flease.Flease;
+import org.xtreemfs.foundation.flease.FleaseConfig;
+import org.xtreemfs.foundation.flease.FleaseMessageSenderInterface;
+import org.xtreemfs.foundation.flease.FleaseStage;
+import org.xtreemfs.foundation.flease.FleaseStatusListener;
+import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.flease.proposer.FleaseException;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.osd.InternalObjectData;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.rwre.RWReplicationStage.GetReplicatedFileStateCallback;
+import org.xtreemfs.osd.rwre.RWReplicationStage.Operation;
+import org.xtreemfs.osd.rwre.RWReplicationStage.RWReplicationCallback;
+import org.xtreemfs.osd.rwre.RWReplicationStage.StatusCallback;
+import org.xtreemfs.osd.stages.PreprocStage.InvalidateXLocSetCallback;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.AuthoritativeReplicaState;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.XLocSetVersionState;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Distributes the replicated files of the OSD across several
+ * {@link RWReplicationStage}s. Each file is assigned to a shard by the hash of
+ * its file ID, in the same way as the storage stage assigns files to its
+ * storage threads. All operations and lease events of a file are processed by
+ * its shard, which preserves the order of the operations per file.
+ * <p>
+ * The shards share the RPC clients and the Flease stage. Lease events are
+ * routed to the shard of the file that the Flease cell belongs to. The limits
+ * for fetching objects during replica resets are divided among the shards.
+ */
+public class ShardedRWReplicationStage implements FleaseMessageSenderInterface {
+
+    private final OSDRequestDispatcher    master;
+
+    private final RWReplicationStage[]    shards;
+
+    private final RPCNIOSocketClient      client;
+
+    private final RPCNIOSocketClient      fleaseClient;
+
+    private final FleaseMessageBatcher    fleaseBatcher;
+
+    private final FleaseStage             fstage;
+
+    private final FleaseMasterEpochThread masterEpochThread;
+
+    public ShardedRWReplicationStage(OSDRequestDispatcher master, SSLOptions sslOpts, int numShards,
+            int maxRequestsQueueLength) throws IOException {
+        this.master = master;
+        client = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage");
+        fleaseClient = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage (flease)");
+        OSDServiceClient osdClient = new OSDServiceClient(client, null);
+        fleaseBatcher = new FleaseMessageBatcher(master, new OSDServiceClient(fleaseClient, null), master
+                .getConfig().getFleaseBatchWindowMS());
+
+        final OSDConfig config = master.getConfig();
+        final ASCIIString localID = new ASCIIString(config.getUUID().toString());
+
+        masterEpochThread = new FleaseMasterEpochThread(master.getStorageStage().getStorageLayout(),
+                maxRequestsQueueLength);
+
+        FleaseConfig fcfg = new FleaseConfig(config.getFleaseLeaseToMS(), config.getFleaseDmaxMS(),
+                config.getFleaseMsgToMS(), null, localID.toString(), config.getFleaseRetries());
+
+        fstage = new FleaseStage(fcfg, config.getObjDir() + "/", this, false,
+                new FleaseViewChangeListenerInterface() {
+
+                    @Override
+                    public void viewIdChangeEvent(ASCIIString cellId, int viewId, boolean onProposal) {
+                        eventViewIdChanged(cellId, viewId, onProposal);
+                    }
+                }, new FleaseStatusListener() {
+
+                    @Override
+                    public void statusChanged(ASCIIString cellId, Flease lease) {
+                        getShard(cellId).eventLeaseStateChanged(cellId, lease, null);
+                    }
+
+                    @Override
+                    public void leaseFailed(ASCIIString cellID, FleaseException error) {
+                        getShard(cellID).eventLeaseStateChanged(cellID, null, error);
+                    }
+                }, masterEpochThread);
+        fstage.setLifeCycleListener(master);
+
+        // Each shard gets the max. queue length, as it is possible that one shard gets the whole load.
+        int numberOfShards = Math.max(1, numShards);
+        long maxResetBandwidth = config.getRWRResetMaxBandwidthKB() * 1024L;
+        shards = new RWReplicationStage[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            ResetFetchScheduler fetchScheduler = new ResetFetchScheduler(Math.max(1,
+                    config.getRWRResetMaxObjsInFlight() / numberOfShards),
+                    config.getRWRResetMaxObjsInFlightPerFile(), config.getRWRResetObjsPerFetch(),
+                    maxResetBandwidth == 0 ? 0 : Math.max(1, maxResetBandwidth / numberOfShards));
+            shards[i] = new RWReplicationStage(master, numberOfShards == 1 ? "RWReplSt" : "RWReplSt" + i, osdClient,
+                    fstage, fetchScheduler, maxRequestsQueueLength);
+        }
+    }
+
+    public void setLifeCycleListener(LifeCycleListener listener) {
+        for (RWReplicationStage shard : shards)
+            shard.setLifeCycleListener(listener);
+    }
+
+    public void start() {
+        masterEpochThread.start();
+        client.start();
+        fleaseClient.start();
+        fstage.start();
+        for (RWReplicationStage shard : shards)
+            shard.start();
+    }
+
+    public void shutdown() {
+        client.shutdown();
+        fleaseBatcher.shutdown();
+        fleaseClient.shutdown();
+        fstage.shutdown();
+        masterEpochThread.shutdown();
+        for (RWReplicationStage shard : shards)
+            shard.shutdown();
+    }
+
+    public void waitForStartup() throws Exception {
+        masterEpochThread.waitForStartup();
+        client.waitForStartup();
+        fleaseClient.waitForStartup();
+        fstage.waitForStartup();
+        for (RWReplicationStage shard : shards)
+            shard.waitForStartup();
+    }
+
+    public void waitForShutdown() throws Exception {
+        client.waitForShutdown();
+        fleaseClient.waitForShutdown();
+        fstage.waitForShutdown();
+        masterEpochThread.waitForShutdown();
+        for (RWReplicationStage shard : shards)
+            shard.waitForShutdown();
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    public int getQueueLength() {
+        int len = 0;
+        for (RWReplicationStage shard : shards)
+            len += shard.getQueueLength();
+        return len;
+    }
+
+    private RWReplicationStage getShard(String fileId) {
+
+        // calculate a hash value from the file ID and return the responsible shard
+        assert (fileId != null);
+        int hash = fileId.hashCode();
+        if (hash == Integer.MIN_VALUE) {
+            return shards[0];
+        }
+        return shards[Math.abs(hash) % shards.length];
+    }
+
+    private RWReplicationStage getShard(ASCIIString cellId) {
+        return getShard(ReplicaUpdatePolicy.cellToFileId(cellId));
+    }
+
+    private static String getFileId(FileCredentials credentials) {
+        return credentials.getXcap().getFileId();
+    }
+
+    public void eventReplicaStateAvailable(String fileId, ReplicaStatus localState, ErrorResponse error) {
+        getShard(fileId).eventReplicaStateAvailable(fileId, localState, error);
+    }
+
+    public void eventForceReset(FileCredentials credentials, XLocations xloc) {
+        getShard(getFileId(credentials)).eventForceReset(credentials, xloc);
+    }
+
+    public void eventDeleteObjectsComplete(String fileId, ErrorResponse error) {
+        getShard(fileId).eventDeleteObjectsComplete(fileId, error);
+    }
+
+    public void eventBackupReplicaReset(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
+            FileCredentials credentials, XLocations xloc) {
+        getShard(fileId).eventBackupReplicaReset(fileId, authState, localState, credentials, xloc);
+    }
+
+    void eventViewIdChanged(ASCIIString cellId, int viewId, boolean onProposal) {
+        if (onProposal) {
+            // Newer views encountered on lease proposals are ignored, because they could revalidate a removed Replica,
+            // that had been primary trying to renew its lease.
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "New view (%d) encountered on lease proposal for %s is ignored.", viewId, cellId);
+        } else {
+            master.getPreprocStage().updateXLocSetFromFlease(cellId, viewId);
+        }
+    }
+
+    public void prepareOperation(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
+            Operation op, RWReplicationCallback callback, OSDRequest request) {
+        getShard(getFileId(credentials)).prepareOperation(credentials, xloc, objNo, objVersion, op, callback,
+                request);
+    }
+
+    public void prepareOperation(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
+            Operation op, long updateEpoch, long updateSeq, RWReplicationCallback callback, OSDRequest request) {
+        getShard(getFileId(credentials)).prepareOperation(credentials, xloc, objNo, objVersion, op, updateEpoch,
+                updateSeq, callback, request);
+    }
+
+    public void replicatedWrite(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
+            InternalObjectData data, ReusableBuffer createdViewBuffer, RWReplicationCallback callback,
+            OSDRequest request) {
+        getShard(getFileId(credentials)).replicatedWrite(credentials, xloc, objNo, objVersion, data,
+                createdViewBuffer, callback, request);
+    }
+
+    public void replicateTruncate(FileCredentials credentials, XLocations xloc, long newFileSize,
+            long newObjectVersion, RWReplicationCallback callback, OSDRequest request) {
+        getShard(getFileId(credentials)).replicateTruncate(credentials, xloc, newFileSize, newObjectVersion,
+                callback, request);
+    }
+
+    public void fileClosed(String fileId) {
+        getShard(fileId).fileClosed(fileId);
+    }
+
+    public void setView(String fileId, ASCIIString cellId, XLocSetVersionState versionState) {
+        getShard(fileId).setView(fileId, cellId, versionState);
+    }
+
+    public void invalidateReplica(String fileId, FileCredentials fileCreds, XLocations xLoc,
+            InvalidateXLocSetCallback callback) {
+        getShard(fileId).invalidateReplica(fileId, fileCreds, xLoc, callback);
+    }
+
+    public void invalidatedReplicaReset(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
+            FileCredentials credentials, XLocations xloc, OSDRequest request) {
+        getShard(fileId).invalidatedReplicaReset(fileId, authState, localState, credentials, xloc, request);
+    }
+
+    public void getReplicatedFileState(String fileId, GetReplicatedFileStateCallback callback, OSDRequest request) {
+        getShard(fileId).getReplicatedFileState(fileId, callback, request);
+    }
+
+    public void receiveFleaseMessage(ReusableBuffer message, InetSocketAddress sender) {
+        receiveFleaseMessages(message, 1, sender);
+    }
+
+    /**
+     * Passes Flease messages that have been received with a single request to the Flease stage.
+     * 
+     * @param messages
+     *            the messages, serialized one after another
+     * @param numMessages
+     *            the number of messages, or 0 if the sender does not support
+     *            batches
+     */
+    public void receiveFleaseMessages(ReusableBuffer messages, int numMessages, InetSocketAddress sender) {
+        try {
+            for (FleaseMessage msg : FleaseMessageBatcher.unpack(messages, numMessages)) {
+                msg.setSender(sender);
+                fstage.receiveMessage(msg);
+            }
+        } catch (Exception ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        } finally {
+            BufferPool.free(messages);
+        }
+    }
+
+    @Override
+    public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
+        fleaseBatcher.send(message, recipient);
+    }
+
+    /**
+     * Retrieves the status of all replicated files from all shards.
+     */
+    public void getStatus(StatusCallback callback) {
+        StatusCollector collector = new StatusCollector(callback);
+        for (int i = 0; i < shards.length; i++)
+            shards[i].getStatus(collector.getShardCallback(i));
+    }
+
+    /**
+     * Retrieves the progress of all replica resets from all shards. The status contains an entry for each file
+     * whose replica is being reset, and an entry with the key {@link RWReplicationStage#RESET_STATUS_TOTAL} that
+     * summarizes the resets of all shards.
+     */
+    public void getResetStatus(StatusCallback callback) {
+        StatusCollector collector = new StatusCollector(callback);
+        for (int i = 0; i < shards.length; i++)
+            shards[i].getResetStatus(collector.getShardCallback(i));
+    }
+
+    /**
+     * Merges the status of all shards and passes it to a callback once all
+     * shards have reported their status.
+     */
+    private final class StatusCollector {
+
+        private final StatusCallback                   callback;
+
+        private final Map<String, Map<String, String>> status;
+
+        private final Map<String, String>              total;
+
+        private int                                    numPending;
+
+        private boolean                                failed;
+
+        StatusCollector(StatusCallback callback) {
+            this.callback = callback;
+            this.status = new HashMap<String, Map<String, String>>();
+            this.total = new HashMap<String, String>();
+            this.numPending = shards.length;
+        }
+
+        StatusCallback getShardCallback(final int shardNo) {
+            return new StatusCallback() {
+
+                @Override
+                public void statusComplete(Map<String, Map<String, String>> shardStatus) {
+                    shardStatusComplete(shardNo, shardStatus);
+                }
+
+                @Override
+                public void failed(ErrorResponse ex) {
+                    shardStatusComplete(shardNo, null);
+                }
+            };
+        }
+
+        private synchronized void shardStatusComplete(int shardNo, Map<String, Map<String, String>> shardStatus) {
+
+            if (shardStatus == null) {
+                failed = true;
+            } else {
+                // the summaries of several shards are merged into one, with the entries prefixed by the shard
+                Map<String, String> shardTotal = shardStatus.remove(RWReplicationStage.RESET_STATUS_TOTAL);
+                if (shardTotal != null) {
+                    for (Entry<String, String> e : shardTotal.entrySet()) {
+                        total.put(shards.length == 1 ? e.getKey() : "shard " + shardNo + ": " + e.getKey(),
+                                e.getValue());
+                    }
+                }
+                status.putAll(shardStatus);
+            }
+
+            if (--numPending > 0)
+                return;
+
+            if (failed) {
+                callback.statusComplete(null);
+            } else {
+                if (!total.isEmpty())
+                    status.put(RWReplicationStage.RESET_STATUS_TOTAL, total);
+                callback.statusComplete(status);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Orders the updates a backup receives from the primary of a file by their
+ * sequence numbers. Each primary numbers its updates starting at 1, and tags
+ * them with the master epoch of its lease, which identifies the sequence.
+ * Updates that arrive before their predecessors are held back until the
+ * predecessors have been applied, or until the gap is skipped because a
+ * predecessor did not arrive in time or too many updates are held back.
+ * <p>
+ * The class is not thread-safe; it is only accessed by the replication
+ * stage.
+ *
+ * @param <T>
+ *            the type of the updates
+ */
+class UpdateSequencer<T> {
+
+    /** the epoch of a sequencer that has not received any update yet */
+    static final long               UNKNOWN_EPOCH = -1;
+
+    /** the maximum number of updates that are held back */
+    private final int               maxBufferedUpdates;
+
+    /** the master epoch of the current sequence */
+    private long                    epoch;
+
+    /** the sequence number of the next update expected from the primary */
+    private long                    nextUpdateSeq;
+
+    /** updates of the current sequence that have been received before their predecessors, by sequence number */
+    private final TreeMap<Long, T>  bufferedUpdates;
+
+    /** held back updates of previous sequences, which are no longer waited for */
+    private final LinkedList<T>     releasedUpdates;
+
+    UpdateSequencer(int maxBufferedUpdates) {
+        this.maxBufferedUpdates = maxBufferedUpdates;
+        this.bufferedUpdates = new TreeMap<Long, T>();
+        this.releasedUpdates = new LinkedList<T>();
+        this.epoch = UNKNOWN_EPOCH;
+    }
+
+    /**
+     * Checks whether an update from the primary is the next one in sequence
+     * and may thus be applied. If so, the next expected sequence number is
+     * advanced. An update of a newer epoch starts a new sequence, which
+     * begins at 1; updates held back in the previous sequence are released
+     * (see {@link #removeNextBufferedUpdate(boolean)}). Updates of an older
+     * epoch, or older than the next expected one, are passed, so that they
+     * are rejected or accepted based on their object versions.
+     *
+     * @param updateEpoch
+     *            the master epoch under which the update was sent
+     * @param updateSeq
+     *            the sequence number of the update
+     * @return true if the update may be applied, false if it has to wait
+     *         for its predecessors
+     */
+    boolean isNextUpdate(long updateEpoch, long updateSeq) {
+        if (updateEpoch < epoch) {
+            return true;
+        }
+        if (updateEpoch > epoch) {
+            releasedUpdates.addAll(bufferedUpdates.values());
+            bufferedUpdates.clear();
+            epoch = updateEpoch;
+            nextUpdateSeq = 1;
+        }
+        if (updateSeq == nextUpdateSeq) {
+            nextUpdateSeq++;
+            return true;
+        }
+        return updateSeq < nextUpdateSeq;
+    }
+
+    /**
+     * Holds back an update of the current sequence that has been received
+     * before its predecessors.
+     *
+     * @return true if more updates than permitted are held back, in which
+     *         case the gap should be skipped
+     */
+    boolean bufferUpdate(long updateSeq, T update) {
+        bufferedUpdates.put(updateSeq, update);
+        return bufferedUpdates.size() > maxBufferedUpdates;
+    }
+
+    /**
+     * Retrieves and removes the next held back update that may be applied.
+     * Released updates of previous sequences are returned first.
+     *
+     * @param skipGap
+     *            if true, missing predecessors are no longer waited for and
+     *            the held back update with the lowest sequence number becomes
+     *            the next one
+     * @return the update or null if the next update has not been received
+     *         yet
+     */
+    T removeNextBufferedUpdate(boolean skipGap) {
+        if (!releasedUpdates.isEmpty()) {
+            return releasedUpdates.removeFirst();
+        }
+        if (bufferedUpdates.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, T> first = bufferedUpdates.firstEntry();
+        if (!skipGap && first.getKey() != nextUpdateSeq) {
+            return null;
+        }
+        bufferedUpdates.remove(first.getKey());
+        nextUpdateSeq = first.getKey() + 1;
+        return first.getValue();
+    }
+
+    /**
+     * Checks whether updates are still held back because the update with the
+     * given epoch and sequence number has not been received.
+     */
+    boolean isWaitingFor(long updateEpoch, long updateSeq) {
+        return !bufferedUpdates.isEmpty() && epoch == updateEpoch && nextUpdateSeq == updateSeq;
+    }
+
+    /**
+     * Checks whether updates of previous sequences have been released and
+     * not yet retrieved.
+     */
+    boolean hasReleasedUpdates() {
+        return !releasedUpdates.isEmpty();
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    long getNextUpdateSeq() {
+        return nextUpdateSeq;
+    }
+
+    /**
+     * Returns the number of held back updates, including released ones.
+     */
+    int getNumBufferedUpdates() {
+        return bufferedUpdates.size() + releasedUpdates.size();
+    }
+
+    /**
+     * Returns all held back updates, including released ones.
+     */
+    Collection<T> getBufferedUpdates() {
+        List<T> updates = new ArrayList<T>(releasedUpdates);
+        updates.addAll(bufferedUpdates.values());
+        return updates;
+    }
+
+    /**
+     * Drops all held back updates and forgets the sequence, e.g. after the
+     * replica failed. As it is unknown which updates will still be received,
+     * the next update starts a new sequence at 1, even in the same epoch; if
+     * its predecessors do not arrive, the gap is skipped after the timeout.
+     */
+    void clear() {
+        bufferedUpdates.clear();
+        releasedUpdates.clear();
+        epoch = UNKNOWN_EPOCH;
+        nextUpdateSeq = 0;
+    }
+}
@@ -23,6 +23,7 @@ import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.replication.ObjectDissemination;
 import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.replication.transferStrategies.TransferStrategy.NextRequest;
 import org.xtreemfs.osd.storage.CowPolicy;
 import org.xtreemfs.osd.storage.ObjectInformation;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectList;
@@ -50,6 +51,8 @@ public class ReplicationStage extends Stage {
 
     public static final int STAGEOP_START_NEW_REPLICATION_FOR_FILE = 4;
 
+    public static final int STAGEOP_INTERNAL_OBJECTS_FETCHED = 5;
+
     private OSDRequestDispatcher master;
 
     private ObjectDissemination disseminationLayer;
@@ -96,6 +99,21 @@ public class ReplicationStage extends Stage {
                 data, objectList, error }, null, null);
     }
 
+    /**
+     * Checks the response to a request for several objects from a replica.
+     * Only for internal use.
+     * @param data
+     *            the fetched objects in the order of the request; null, if an
+     *            error occurred
+     * @param durationNanos
+     *            the time between sending the request and receiving the response
+     */
+    public void internalObjectsFetched(String fileId, NextRequest request, InternalObjectData[] data,
+            long durationNanos, ErrorResponse error) {
+        this.enqueueOperation(STAGEOP_INTERNAL_OBJECTS_FETCHED, new Object[] { fileId, request, data,
+                durationNanos, error }, null, null);
+    }
+
     /**
      * Stops replication for file.
      * Only for internal use. 
@@ -126,6 +144,10 @@ public class ReplicationStage extends Stage {
                 processInternalObjectFetched(rq);
                 break;
             }
+            case STAGEOP_INTERNAL_OBJECTS_FETCHED: {
+                processInternalObjectsFetched(rq);
+                break;
+            }
             case STAGEOP_CANCEL_REPLICATION_FOR_FILE: {
                 processInternalCancelFile(rq);
                 break;
@@ -169,6 +191,36 @@ public class ReplicationStage extends Stage {
         ObjectList objectList = (ObjectList) rq.getArgs()[4];
         final ErrorResponse error = (ErrorResponse) rq.getArgs()[5];
 
+        processObjectFetched(fileId, objectNo, usedOSD, data, objectList, error);
+    }
+
+    private void processInternalObjectsFetched(StageRequest rq) {
+        String fileId = (String) rq.getArgs()[0];
+        final NextRequest request = (NextRequest) rq.getArgs()[1];
+        InternalObjectData[] data = (InternalObjectData[]) rq.getArgs()[2];
+        long durationNanos = (Long) rq.getArgs()[3];
+        final ErrorResponse error = (ErrorResponse) rq.getArgs()[4];
+
+        if (error != null) {
+            disseminationLayer.requestFailed(fileId, request, error);
+        } else {
+            long bytes = 0;
+            for (InternalObjectData object : data) {
+                if (object.getData() != null)
+                    bytes += object.getData().limit();
+            }
+            disseminationLayer.requestCompleted(fileId, request, bytes, durationNanos);
+        }
+
+        // handle the objects like objects fetched with separate requests
+        for (int i = 0; i < request.numObjects; i++) {
+            processObjectFetched(fileId, request.getObjectNo(i), request.osd, data == null ? null : data[i], null,
+                    error);
+        }
+    }
+
+    private void processObjectFetched(String fileId, long objectNo, final ServiceUUID usedOSD,
+            InternalObjectData data, ObjectList objectList, final ErrorResponse error) {
         if (error != null) {
             if (error.getErrorType() == ErrorType.INVALID_VIEW) {
                 // it could happen the request is rejected, because the XLoc is outdated caused by removing
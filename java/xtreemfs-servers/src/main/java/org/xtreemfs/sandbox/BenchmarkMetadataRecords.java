@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.File;
+
+import org.xtreemfs.babudb.BabuDBFactory;
+import org.xtreemfs.babudb.api.BabuDB;
+import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.DBAdminHelper;
+
+/**
+ * Compares the cost of stat and readdir per directory entry for volumes with
+ * separate and packed file metadata records.
+ * <p>
+ * Usage: BenchmarkMetadataRecords [numFiles] [dbDir] [rounds]
+ */
+public class BenchmarkMetadataRecords {
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+
+        try {
+            int numFiles = (args.length > 0) ? Integer.valueOf(args[0]) : 100000;
+            String path = (args.length > 1) ? args[1] : "/tmp/xtreemfs-mdbench";
+            int rounds = (args.length > 2) ? Integer.valueOf(args[2]) : 5;
+            Logging.start(Logging.LEVEL_ERROR, Category.all);
+            TimeSync timeSync = TimeSync.initializeLocal(0);
+
+            File dbDir = new File(path);
+            FSUtils.delTree(dbDir);
+            dbDir.mkdirs();
+
+            BabuDB database = BabuDBFactory.createBabuDB(new BabuDBConfig(path, path, 2, 1024 * 1024 * 16,
+                5 * 60, SyncMode.ASYNC, 300, 1000, false, 16, 1024 * 1024 * 512));
+
+            StorageManager separate = createVolume(database, "separate", numFiles);
+            StorageManager packed = createVolume(database, "packed", numFiles);
+            DBAdminHelper.convertToPackedRecords(packed, BATCH_SIZE);
+
+            // move all records from the in-memory overlay to the on-disk index
+            database.getCheckpointer().checkpoint();
+
+            System.out.println("files: " + numFiles + ", rounds: " + rounds);
+            for (int i = 0; i < rounds; i++) {
+                System.out.println("round " + i);
+                System.out.printf("  stat    separate: %8.1f ns/entry, packed: %8.1f ns/entry%n",
+                    stat(separate, numFiles), stat(packed, numFiles));
+                System.out.printf("  readdir separate: %8.1f ns/entry, packed: %8.1f ns/entry%n",
+                    readdir(separate, numFiles), readdir(packed, numFiles));
+            }
+
+            database.shutdown();
+            FSUtils.delTree(dbDir);
+            timeSync.close();
+
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static StorageManager createVolume(BabuDB database, String name, int numFiles) throws Exception {
+
+        BabuDBStorageManager sMan = new BabuDBStorageManager(database, name, name, (short) 1, new short[] { 1 },
+            new short[0], "me", "myGrp", 511, null, null, false, 0, null);
+
+        long fileId = 1;
+        for (int i = 0; i < numFiles; i += BATCH_SIZE) {
+
+            // updates without a listener are executed synchronously
+            AtomicDBUpdate update = sMan.createAtomicDBUpdate(null, null);
+            for (int j = i; j < Math.min(i + BATCH_SIZE, numFiles); j++)
+                sMan.createFile(++fileId, 1, "file" + j, 0, 0, 0, "me", "myGrp", 511, 0, j, false, 0, 0, update);
+            sMan.setLastFileId(fileId, update);
+            update.execute();
+        }
+
+        return sMan;
+    }
+
+    private static double stat(StorageManager sMan, int numFiles) throws Exception {
+
+        long size = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < numFiles; i++)
+            size += sMan.getMetadata(1, "file" + i).getSize();
+        long t1 = System.nanoTime();
+
+        if (size < 0)
+            System.out.println(size);
+
+        return (double) (t1 - t0) / numFiles;
+    }
+
+    private static double readdir(StorageManager sMan, int numFiles) throws Exception {
+
+        int count = 0;
+        long size = 0;
+        String lastChildName = null;
+
+        long t0 = System.nanoTime();
+        for (;;) {
+            DatabaseResultSet<FileMetadata> children = sMan.getChildren(1, lastChildName, BATCH_SIZE);
+            int num = 0;
+            while (children.hasNext()) {
+                FileMetadata child = children.next();
+                size += child.getSize();
+                lastChildName = child.getFileName();
+                num++;
+            }
+            children.destroy();
+
+            count += num;
+            if (num < BATCH_SIZE)
+                break;
+        }
+        long t1 = System.nanoTime();
+
+        if (count != numFiles || size < 0)
+            System.out.println("unexpected number of entries: " + count);
+
+        return (double) (t1 - t0) / count;
+    }
+
+}
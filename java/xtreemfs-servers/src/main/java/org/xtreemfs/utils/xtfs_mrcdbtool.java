@@ -52,6 +52,8 @@ public class xtfs_mrcdbtool {
         oMrc.urlDefaultPort = PORTS.MRC_PBRPC_PORT_DEFAULT.getNumber();
         oMrc.urlDefaultProtocol = Schemes.SCHEME_PBRPC;
         options.put("mrc", oMrc);
+        options.put("binary", new CliOption(CliOption.OPTIONTYPE.SWITCH,
+            "create a binary dump, which is written and restored in parallel", ""));
         
         try {
             CLIParser.parseCLI(args, options, arguments);
@@ -147,7 +149,7 @@ public class xtfs_mrcdbtool {
                 RPCResponse<?> r = null;
                 try {
                     r = client.xtreemfs_dump_database(null, passwdAuth, RPCAuthentication.userService,
-                        dumpFile);
+                        dumpFile, options.get("binary").switchValue);
                     r.get();
                 } finally {
                     if (r != null)
@@ -157,7 +159,7 @@ public class xtfs_mrcdbtool {
                 RPCResponse<?> r = null;
                 try {
                     r = client.xtreemfs_restore_database(null, passwdAuth, RPCAuthentication.userService,
-                        dumpFile);
+                        dumpFile, false);
                     r.get();
                 } finally {
                     if (r != null)
@@ -185,7 +187,7 @@ public class xtfs_mrcdbtool {
     
     public static void usage(Map<String, CliOption> options) {
         System.out.println("usage: xtfs_mrcdbtool [options] dump|restore <dump_file>\n");
-        System.out.println("  " + "<dump_file> the file for the dump\n");
+        System.out.println("  " + "<dump_file> the file for the dump; binary dumps are directories\n");
         System.out.println("  " + "options:");
         
         utils.printOptions(options);
@@ -7,6 +7,7 @@
  */
 package org.xtreemfs.utils;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
@@ -29,6 +30,7 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.foundation.util.CLIParser;
 import org.xtreemfs.foundation.util.CLIParser.CliOption;
 import org.xtreemfs.foundation.util.OutputUtils;
+import org.xtreemfs.osd.drain.ConcurrentOSDDrain;
 import org.xtreemfs.osd.drain.OSDDrain;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
@@ -71,6 +73,14 @@ public class xtfs_remove_osd {
             options.put("dir", oDir);
             options.put("s", new CliOption(CliOption.OPTIONTYPE.SWITCH, "shutdown OSD", ""));
             options.put("d", new CliOption(CliOption.OPTIONTYPE.SWITCH, "enbable debug output", ""));
+            options.put("thrs", new CliOption(CliOption.OPTIONTYPE.NUMBER,
+                    "number of files moved concurrently (default=" + ConcurrentOSDDrain.DEFAULT_NUM_PIPELINES + ")",
+                    "n"));
+            options.put("-checkpoint", new CliOption(CliOption.OPTIONTYPE.STRING,
+                    "file to record the progress in; an interrupted drain is resumed if the file exists", "<file>"));
+            options.put("-max_load", new CliOption(CliOption.OPTIONTYPE.NUMBER,
+                    "load of the OSD in percent above which fewer files are moved concurrently (default=disabled)",
+                    "n"));
             CLIParser.parseCLI(args, options, arguments);
 
             // start logging
@@ -92,6 +102,12 @@ public class xtfs_remove_osd {
             }
 
             boolean shutdown = options.get("s").switchValue;
+            int numPipelines = options.get("thrs").numValue != null ? options.get("thrs").numValue.intValue()
+                    : ConcurrentOSDDrain.DEFAULT_NUM_PIPELINES;
+            File checkpointFile = options.get("-checkpoint").stringValue != null ? new File(
+                    options.get("-checkpoint").stringValue) : null;
+            int maxLoad = options.get("-max_load").numValue != null ? options.get("-max_load").numValue.intValue()
+                    : 0;
             String password = (options.get(utils.OPTION_ADMIN_PASS).stringValue != null) ? options
                     .get(utils.OPTION_ADMIN_PASS).stringValue : "";
             if (password.equals("-")) {
@@ -187,7 +203,7 @@ public class xtfs_remove_osd {
 
             xtfs_remove_osd removeOsd = new xtfs_remove_osd(dirAddrs, osdUUID, sslOptions, password);
             removeOsd.initialize();
-            removeOsd.drainOSD(shutdown);
+            removeOsd.drainOSD(shutdown, numPipelines, checkpointFile, maxLoad);
             removeOsd.shutdown();
 
             System.exit(0);
@@ -296,6 +312,16 @@ public class xtfs_remove_osd {
         osdDrain.drain(shutdown);
     }
 
+    /**
+     * Removes (drain) an OSD by moving several files concurrently.
+     * 
+     * @throws Exception
+     */
+    public void drainOSD(boolean shutdown, int numPipelines, File checkpointFile, int maxLoad) throws Exception {
+        OSDDrain osdDrain = new OSDDrain(dir, osd, mrc, osdUUID, authHeader, credentials, resolver);
+        osdDrain.drain(shutdown, numPipelines, checkpointFile, maxLoad);
+    }
+
     /**
      * Prints the error <code>message</code> and delegates to usage() if "printUsage" is true.
      * 
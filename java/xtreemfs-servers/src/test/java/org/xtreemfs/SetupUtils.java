@@ -227,6 +227,10 @@ public class SetupUtils {
     }
     
     public static BabuDBConfig createMRC1dbsConfig() throws IOException {
+        return createMRC1dbsConfig(SyncMode.ASYNC);
+    }
+    
+    public static BabuDBConfig createMRC1dbsConfig(SyncMode syncMode) throws IOException {
         Properties props = new Properties();
         props.setProperty("babudb.debug.level", "" + DEBUG_LEVEL);
         props.setProperty("debug.categories",
@@ -234,7 +238,7 @@ public class SetupUtils {
         props.setProperty("babudb.cfgFile", "config.db");
         props.setProperty("babudb.baseDir", TEST_DIR + "/mrc0");
         props.setProperty("babudb.logDir", TEST_DIR + "/test-brain0.log");
-        props.setProperty("babudb.sync", "" + SyncMode.ASYNC);
+        props.setProperty("babudb.sync", "" + syncMode);
         props.setProperty("babudb.worker.maxQueueLength", "500");
         props.setProperty("babudb.worker.numThreads", "2");
         props.setProperty("babudb.maxLogfileSize", "16777216");
@@ -104,6 +104,20 @@ public class TestEnvironment {
         return dirClient;
     }
     
+    /**
+     * @return the DIR, if it has been started
+     */
+    public DIRRequestDispatcher getDIRService() {
+        return dirService;
+    }
+    
+    /**
+     * @return the MRC, if it has been started
+     */
+    public MRCRequestDispatcher getMRCService() {
+        return mrc;
+    }
+    
     /**
      * @return the mrcClient
      */
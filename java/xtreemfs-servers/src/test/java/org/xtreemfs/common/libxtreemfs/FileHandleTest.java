@@ -8,6 +8,8 @@ package org.xtreemfs.common.libxtreemfs;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -496,4 +498,57 @@ public class FileHandleTest {
         volume.close();
         client.shutdown();
     }
+
+    @Test
+    public void testReadWriteByteBuffer() throws Exception {
+        final String volumeName = "testReadWriteByteBuffer";
+
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        // Open a volume.
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName);
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        // Open a file.
+        FileHandle fileHandle = volume.openFile(userCredentials, "/bla.tzt",
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_SYNC.getNumber());
+
+        // Write more than one stripe from a direct buffer, starting at a position other than 0.
+        final int headerLength = 10;
+        final int dataLength = defaultStripingPolicy.getStripeSize() * 1024 + 1000;
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(headerLength + dataLength);
+        for (int i = 0; i < writeBuffer.capacity(); i++) {
+            writeBuffer.put((byte) i);
+        }
+        writeBuffer.position(headerLength);
+
+        int writtenBytes = fileHandle.write(userCredentials, writeBuffer, dataLength, 0);
+        assertEquals(dataLength, writtenBytes);
+        assertEquals(headerLength + dataLength, writeBuffer.position());
+        assertEquals(dataLength, volume.getAttr(userCredentials, "/bla.tzt").getSize());
+
+        // Read the data back into a direct and a heap buffer.
+        ByteBuffer[] readBuffers = new ByteBuffer[] { ByteBuffer.allocateDirect(headerLength + dataLength + 100),
+                ByteBuffer.allocate(headerLength + dataLength + 100) };
+        for (ByteBuffer readBuffer : readBuffers) {
+            readBuffer.position(headerLength);
+            int readCount = fileHandle.read(userCredentials, readBuffer, dataLength + 100, 0);
+            assertEquals(dataLength, readCount);
+            assertEquals(headerLength + dataLength, readBuffer.position());
+            for (int i = headerLength; i < headerLength + dataLength; i++) {
+                assertEquals(writeBuffer.get(i), readBuffer.get(i));
+            }
+        }
+
+        fileHandle.close();
+        volume.close();
+        client.shutdown();
+    }
 }
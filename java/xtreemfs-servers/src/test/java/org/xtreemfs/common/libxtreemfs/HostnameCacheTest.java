@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+
+public class HostnameCacheTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    /**
+     * Resolves addresses from a map and counts the lookups.
+     */
+    private static class TestHostnameCache extends HostnameCache {
+
+        final Map<String, String> hostnames = new HashMap<String, String>();
+
+        int                       lookups;
+
+        TestHostnameCache(int maxEntries, long ttlMs, long negativeTtlMs) {
+            super(maxEntries, ttlMs, negativeTtlMs);
+        }
+
+        @Override
+        protected String resolve(String address) throws UnknownHostException {
+            lookups++;
+            if (address.startsWith("invalid")) {
+                throw new UnknownHostException(address);
+            }
+            return hostnames.get(address);
+        }
+    }
+
+    @Test
+    public void testCachedLookups() throws Exception {
+        TestHostnameCache cache = new TestHostnameCache(10, 60 * 1000, 60 * 1000);
+        cache.hostnames.put("10.0.0.1", "osd1");
+
+        assertEquals("osd1", cache.getHostname("10.0.0.1"));
+        assertEquals("osd1", cache.getHostname("10.0.0.1"));
+        assertEquals(1, cache.lookups);
+
+        // Addresses without hostname are cached as well.
+        assertNull(cache.getHostname("10.0.0.2"));
+        assertNull(cache.getHostname("10.0.0.2"));
+        assertEquals(2, cache.lookups);
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        TestHostnameCache cache = new TestHostnameCache(10, 60 * 1000, 100);
+        cache.hostnames.put("10.0.0.1", "osd1");
+
+        assertEquals("osd1", cache.getHostname("10.0.0.1"));
+        assertNull(cache.getHostname("10.0.0.2"));
+        assertEquals(2, cache.lookups);
+
+        // The hostname has been added to the DNS in the meantime.
+        cache.hostnames.put("10.0.0.2", "osd2");
+        Thread.sleep(200);
+
+        // Only the address without hostname has expired.
+        assertEquals("osd1", cache.getHostname("10.0.0.1"));
+        assertEquals("osd2", cache.getHostname("10.0.0.2"));
+        assertEquals(3, cache.lookups);
+    }
+
+    @Test
+    public void testFailedLookupsAreNotCached() throws Exception {
+        TestHostnameCache cache = new TestHostnameCache(10, 60 * 1000, 60 * 1000);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getHostname("invalid");
+                fail("lookup of invalid address succeeded");
+            } catch (UnknownHostException e) {
+                // expected
+            }
+        }
+        assertEquals(2, cache.lookups);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        TestHostnameCache cache = new TestHostnameCache(3, 60 * 1000, 60 * 1000);
+        for (int i = 0; i < 10; i++) {
+            cache.hostnames.put("10.0.0." + i, "osd" + i);
+            assertEquals("osd" + i, cache.getHostname("10.0.0." + i));
+        }
+        assertEquals(3, cache.size());
+        assertEquals(10, cache.lookups);
+
+        // The least recently used entries have been evicted.
+        assertEquals("osd9", cache.getHostname("10.0.0.9"));
+        assertEquals(10, cache.lookups);
+        assertEquals("osd0", cache.getHostname("10.0.0.0"));
+        assertEquals(11, cache.lookups);
+    }
+}
@@ -13,6 +13,8 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
 
 import org.junit.Before;
@@ -623,6 +625,82 @@ public class MetadataCacheTest {
         assertNull(metadataCache.getDirEntries("foobar", 0, 1));
     }
 
+    @Test
+    public void testLeaseExtendsTTL() throws Exception {
+        metadataCache = new MetadataCache(100, 1);
+        assertEquals(1, metadataCache.getTTL());
+
+        // A lease longer than the configured TTL extends it.
+        metadataCache.setLease(3600, System.currentTimeMillis() / 1000 + 3600);
+        assertEquals(3600, metadataCache.getTTL());
+
+        Stat aStat = getIntializedStatBuilder().setSize(333).build();
+        DirectoryEntries entries = getDummyDirEntries();
+        metadataCache.updateStat("foobar", aStat);
+        metadataCache.updateDirEntries("foobar", entries);
+        Thread.sleep(2000);
+        assertEquals(aStat, metadataCache.getStat("foobar"));
+        assertEquals(entries, metadataCache.getDirEntries("foobar", 0, 1));
+
+        // After the lease was lost, all entries are removed and new entries expire after the configured TTL again.
+        metadataCache.setLease(0, 0);
+        assertEquals(1, metadataCache.getTTL());
+        assertNull(metadataCache.getStat("foobar"));
+        metadataCache.updateStat("foobar", aStat);
+        Thread.sleep(2000);
+        assertNull(metadataCache.getStat("foobar"));
+    }
+
+    @Test
+    public void testShortLeaseKeepsTTL() throws Exception {
+        metadataCache = new MetadataCache(100, 3600);
+        metadataCache.setLease(60, System.currentTimeMillis() / 1000 + 60);
+        assertEquals(3600, metadataCache.getTTL());
+    }
+
+    @Test
+    public void testExpiredLease() throws Exception {
+        metadataCache = new MetadataCache(100, 1);
+        metadataCache.setLease(3600, System.currentTimeMillis() / 1000 + 1);
+        assertEquals(3600, metadataCache.getTTL());
+
+        Stat aStat = getIntializedStatBuilder().setSize(333).build();
+        metadataCache.updateStat("foobar", aStat);
+        metadataCache.updateDirEntries("foobar", getDummyDirEntries());
+        metadataCache.updateXAttrs("foobar", getDummyXattrs());
+        assertEquals(aStat, metadataCache.getStat("foobar"));
+
+        // Without a renewal, nothing cached under the lease can be trusted once it expired.
+        Thread.sleep(2000);
+        assertEquals(1, metadataCache.getTTL());
+        assertNull(metadataCache.getStat("foobar"));
+        assertNull(metadataCache.getDirEntries("foobar", 0, 1));
+        assertNull(metadataCache.getXAttrs("foobar"));
+        assertEquals(0, metadataCache.size());
+    }
+
+    @Test
+    public void testInvalidateFileIds() throws Exception {
+        metadataCache = new MetadataCache(100, 3600);
+        Stat fileStat = getIntializedStatBuilder().setIno(5).build();
+        Stat otherStat = getIntializedStatBuilder().setIno(6).build();
+        DirectoryEntries entries = DirectoryEntries.newBuilder()
+                .addEntries(DirectoryEntry.newBuilder().setName("file").setStbuf(fileStat)).build();
+        DirectoryEntries otherEntries = DirectoryEntries.newBuilder()
+                .addEntries(DirectoryEntry.newBuilder().setName("other").setStbuf(otherStat)).build();
+        metadataCache.updateStat("dir/file", fileStat);
+        metadataCache.updateStat("dir/other", otherStat);
+        metadataCache.updateDirEntries("dir", entries);
+        metadataCache.updateDirEntries("dir2", otherEntries);
+
+        metadataCache.invalidateFileIds(new HashSet<Long>(Arrays.asList(5L, 7L)));
+
+        assertNull(metadataCache.getStat("dir/file"));
+        assertNull(metadataCache.getDirEntries("dir", 0, 1));
+        assertEquals(otherStat, metadataCache.getStat("dir/other"));
+        assertEquals(otherEntries, metadataCache.getDirEntries("dir2", 0, 1));
+    }
+
     @Test
     public void testGetNonExistingDirEntries() throws Exception {
         assertNull(metadataCache.getDirEntries("do not exist", 0, 100));
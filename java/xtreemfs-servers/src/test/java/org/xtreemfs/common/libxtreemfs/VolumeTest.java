@@ -16,6 +16,7 @@ import static org.junit.Assert.fail;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -44,6 +45,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replicas;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
@@ -653,6 +655,93 @@ public class VolumeTest {
         assertEquals("1", xattr);
     }
 
+    @Test
+    public void testPrefetchAttrs() throws Exception {
+        VOLUME_NAME = "testPrefetchAttrs";
+        final String DIR = "/prefetch";
+        final int NUM_FILES = 5;
+
+        Options prefetchOptions = new Options();
+        prefetchOptions.setReaddirPrefetchXAttrs(true);
+        prefetchOptions.setBulkStatChunkSize(2);
+
+        client.createVolume(mrcAddress, auth, userCredentials, VOLUME_NAME);
+        Volume volume = client.openVolume(VOLUME_NAME, null, prefetchOptions);
+
+        volume.createDirectory(userCredentials, DIR, 0777);
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < NUM_FILES; i++) {
+            String path = DIR + "/file" + i;
+            FileHandle fh = volume.openFile(userCredentials, path, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                    | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+            fh.write(userCredentials, new byte[i], i, 0);
+            fh.close();
+            volume.setXAttr(userCredentials, path, "foo", "bar" + i, XATTR_FLAGS.XATTR_FLAGS_CREATE);
+            paths.add(path);
+        }
+
+        // readDir prefetches the attributes of all entries in chunks of two.
+        DirectoryEntries entries = volume.readDir(userCredentials, DIR, 0, 0, false);
+        assertEquals(NUM_FILES + 2, entries.getEntriesCount());
+
+        for (int i = 0; i < NUM_FILES; i++) {
+            assertEquals(i, volume.getAttr(userCredentials, paths.get(i)).getSize());
+            assertEquals("bar" + i, volume.getXAttr(userCredentials, paths.get(i), "foo"));
+            assertEquals("1",
+                    volume.getXAttr(userCredentials, paths.get(i), "xtreemfs." + SysAttrs.object_type.toString()));
+        }
+
+        // Nonexisting paths do not fail the whole request.
+        paths.add(DIR + "/doesnotexist");
+        volume.prefetchAttrs(userCredentials, paths, false);
+        for (int i = 0; i < NUM_FILES; i++) {
+            assertEquals(i, volume.getAttr(userCredentials, paths.get(i)).getSize());
+        }
+
+        volume.close();
+    }
+
+    @Test
+    public void testListReplicasOfManyFiles() throws Exception {
+        VOLUME_NAME = "testListReplicasOfManyFiles";
+        final String DIR = "/replicas";
+        final int NUM_FILES = 5;
+
+        Options bulkOptions = new Options();
+        bulkOptions.setBulkStatChunkSize(2);
+
+        client.createVolume(mrcAddress, auth, userCredentials, VOLUME_NAME);
+        Volume volume = client.openVolume(VOLUME_NAME, null, bulkOptions);
+
+        volume.createDirectory(userCredentials, DIR, 0777);
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < NUM_FILES; i++) {
+            String path = DIR + "/file" + i;
+            FileHandle fh = volume.openFile(userCredentials, path, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                    | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+            fh.write(userCredentials, new byte[10], 10, 0);
+            fh.close();
+            paths.add(path);
+        }
+
+        // Directories and nonexisting paths are omitted.
+        paths.add(DIR);
+        paths.add(DIR + "/doesnotexist");
+
+        Map<String, Replicas> replicas = volume.listReplicas(userCredentials, paths);
+        assertEquals(NUM_FILES, replicas.size());
+        for (int i = 0; i < NUM_FILES; i++) {
+            Replicas expected = volume.listReplicas(userCredentials, paths.get(i));
+            assertEquals(expected, replicas.get(paths.get(i)));
+
+            List<StripeLocation> locations = volume.getStripeLocations(replicas.get(paths.get(i)), 0, 10);
+            assertEquals(1, locations.size());
+            assertEquals(expected.getReplicas(0).getOsdUuids(0), locations.get(0).getUuids()[0]);
+        }
+
+        volume.close();
+    }
+
     @Test(expected = PosixErrorException.class)
     public void testReadLinkWithoutLink() throws Exception {
         VOLUME_NAME = "testReadLinkWithoutLink";
@@ -7,8 +7,10 @@
  */
 package org.xtreemfs.common.uuid;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.After;
@@ -94,4 +96,57 @@ public class UUIDResolverTest {
         // System.out.println(uuid);
     }
 
+    @Test
+    public void testBulkAndNegativeCaching() throws Exception {
+        List<AddressMapping.Builder> mpgs = NetUtils.getReachableEndpoints(32636, "http");
+
+        AddressMappingSet.Builder ams = AddressMappingSet.newBuilder();
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            ams.addMappings(mpgs.get(0).clone().setUuid("BULK_UUID_" + i).build());
+            uuids.add("BULK_UUID_" + i);
+        }
+        RPCResponse<addressMappingSetResponse> r = testEnv.getDirClient().xtreemfs_address_mappings_set(null,
+                RPCAuthentication.authNone, RPCAuthentication.userService, ams.build());
+        r.get();
+        uuids.add("UNKNOWN_UUID");
+
+        // all UUIDs are fetched with a single request
+        UUIDResolver.Statistics before = UUIDResolver.getStatistics();
+        UUIDResolver.prefetch(uuids);
+        UUIDResolver.Statistics after = UUIDResolver.getStatistics();
+        assertEquals(before.numRequests + 1, after.numRequests);
+        assertEquals(before.numFetchedUUIDs + 4, after.numFetchedUUIDs);
+
+        // the fetched UUIDs are resolved from the cache
+        for (int i = 0; i < 3; i++) {
+            new ServiceUUID("BULK_UUID_" + i).resolve();
+        }
+
+        // the unknown UUID is not looked up again during its backoff
+        for (int i = 0; i < 2; i++) {
+            try {
+                new ServiceUUID("UNKNOWN_UUID").resolve();
+                fail("returned result for unknown address mapping");
+            } catch (UnknownUUIDException ex) {
+                // expected
+            }
+        }
+
+        UUIDResolver.Statistics stats = UUIDResolver.getStatistics();
+        assertEquals(after.numRequests, stats.numRequests);
+        assertEquals(after.numHits + 3, stats.numHits);
+        assertEquals(after.numNegativeHits + 2, stats.numNegativeHits);
+
+        // the UUID is looked up again after the backoff
+        Thread.sleep(UUIDResolver.NEGATIVE_BACKOFF_MIN_MS + 100);
+        try {
+            new ServiceUUID("UNKNOWN_UUID").resolve();
+            fail("returned result for unknown address mapping");
+        } catch (UnknownUUIDException ex) {
+            // expected
+        }
+        assertEquals(after.numRequests + 1, UUIDResolver.getStatistics().numRequests);
+    }
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.dir.data.ServiceRecord;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceChanges;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+
+public class ServiceRegistryCacheTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private static ServiceRecord createRecord(String uuid, ServiceType type, long lastUpdatedS) {
+        ServiceDataMap data = ServiceDataMap.newBuilder()
+                .addData(KeyValuePair.newBuilder().setKey("free").setValue("1000")).build();
+        return new ServiceRecord(Service.newBuilder().setType(type).setUuid(uuid).setName("service " + uuid)
+                .setVersion(1).setLastUpdatedS(lastUpdatedS).setData(data).build());
+    }
+
+    private static String getSecondsSinceLastUpdate(Service service) {
+        for (KeyValuePair kvp : service.getData().getDataList()) {
+            if (kvp.getKey().equals(ServiceRegistryCache.SECONDS_SINCE_LAST_UPDATE)) {
+                return kvp.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testServicesByType() throws Exception {
+        List<ServiceRecord> records = new ArrayList<ServiceRecord>();
+        records.add(createRecord("osd2", ServiceType.SERVICE_TYPE_OSD, 100));
+        records.add(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 100));
+        records.add(createRecord("mrc1", ServiceType.SERVICE_TYPE_MRC, 90));
+        ServiceRegistryCache cache = new ServiceRegistryCache(records);
+
+        assertEquals(3, cache.size());
+
+        ServiceSet osds = cache.getServices(ServiceType.SERVICE_TYPE_OSD, 110);
+        assertEquals(2, osds.getServicesCount());
+        assertEquals("osd1", osds.getServices(0).getUuid());
+        assertEquals("osd2", osds.getServices(1).getUuid());
+        assertEquals("10", getSecondsSinceLastUpdate(osds.getServices(0)));
+        assertEquals(110, osds.getTimestampS());
+        assertEquals(cache.getVersion(ServiceType.SERVICE_TYPE_OSD), osds.getRegistryVersion());
+
+        ServiceSet all = cache.getServices(ServiceType.SERVICE_TYPE_MIXED, 110);
+        assertEquals(3, all.getServicesCount());
+        assertEquals("20", getSecondsSinceLastUpdate(all.getServices(0)));
+
+        assertEquals(0, cache.getServices(ServiceType.SERVICE_TYPE_VOLUME, 110).getServicesCount());
+
+        ServiceSet byName = cache.getServicesByName("service mrc1", 110);
+        assertEquals(1, byName.getServicesCount());
+        assertEquals("mrc1", byName.getServices(0).getUuid());
+
+        // the attribute is not stored in the cache
+        assertNull(getSecondsSinceLastUpdate(cache.get("osd1")));
+    }
+
+    @Test
+    public void testVersions() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(new ArrayList<ServiceRecord>());
+        cache.put(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 100));
+
+        long osdVersion = cache.getVersion(ServiceType.SERVICE_TYPE_OSD);
+        long mrcVersion = cache.getVersion(ServiceType.SERVICE_TYPE_MRC);
+        long mixedVersion = cache.getVersion(ServiceType.SERVICE_TYPE_MIXED);
+
+        // a change of an MRC does not affect the OSDs
+        cache.put(createRecord("mrc1", ServiceType.SERVICE_TYPE_MRC, 100));
+        assertEquals(osdVersion, cache.getVersion(ServiceType.SERVICE_TYPE_OSD));
+        assertTrue(cache.getVersion(ServiceType.SERVICE_TYPE_MRC) > mrcVersion);
+        assertTrue(cache.getVersion(ServiceType.SERVICE_TYPE_MIXED) > mixedVersion);
+
+        // updates and removals of OSDs change the version of the OSDs
+        cache.put(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 120));
+        long updatedVersion = cache.getVersion(ServiceType.SERVICE_TYPE_OSD);
+        assertTrue(updatedVersion > osdVersion);
+        assertEquals(1, cache.getServices(ServiceType.SERVICE_TYPE_OSD, 120).getServicesCount());
+
+        cache.remove("osd1");
+        assertTrue(cache.getVersion(ServiceType.SERVICE_TYPE_OSD) > updatedVersion);
+        assertEquals(0, cache.getServices(ServiceType.SERVICE_TYPE_OSD, 120).getServicesCount());
+        assertNull(cache.get("osd1"));
+
+        // removing an unknown service does not change anything
+        long version = cache.getVersion(ServiceType.SERVICE_TYPE_MIXED);
+        cache.remove("osd1");
+        assertEquals(version, cache.getVersion(ServiceType.SERVICE_TYPE_MIXED));
+    }
+
+    @Test
+    public void testTypeChange() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(new ArrayList<ServiceRecord>());
+        cache.put(createRecord("uuid1", ServiceType.SERVICE_TYPE_OSD, 100));
+        long osdVersion = cache.getVersion(ServiceType.SERVICE_TYPE_OSD);
+
+        cache.put(createRecord("uuid1", ServiceType.SERVICE_TYPE_MRC, 100));
+        assertTrue(cache.getVersion(ServiceType.SERVICE_TYPE_OSD) > osdVersion);
+        assertEquals(0, cache.getServices(ServiceType.SERVICE_TYPE_OSD, 100).getServicesCount());
+        assertEquals(1, cache.getServices(ServiceType.SERVICE_TYPE_MRC, 100).getServicesCount());
+        assertFalse(cache.getServices(ServiceType.SERVICE_TYPE_MRC, 100).getNotModified());
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        List<ServiceRecord> records = new ArrayList<ServiceRecord>();
+        records.add(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 100));
+        records.add(createRecord("osd2", ServiceType.SERVICE_TYPE_OSD, 100));
+        ServiceRegistryCache cache = new ServiceRegistryCache(records);
+
+        final List<ServiceType> notified = new ArrayList<ServiceType>();
+        cache.setChangeListener(new ServiceRegistryCache.ChangeListener() {
+            @Override
+            public void servicesChanged(ServiceType type) {
+                notified.add(type);
+            }
+        });
+
+        long known = cache.getVersion(ServiceType.SERVICE_TYPE_OSD);
+        assertNull(cache.getChanges(ServiceType.SERVICE_TYPE_OSD, known, 100));
+
+        cache.put(createRecord("osd3", ServiceType.SERVICE_TYPE_OSD, 110));
+        cache.put(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 110));
+        cache.remove("osd2");
+        cache.put(createRecord("mrc1", ServiceType.SERVICE_TYPE_MRC, 110));
+        assertEquals(4, notified.size());
+        assertEquals(ServiceType.SERVICE_TYPE_MRC, notified.get(3));
+
+        ServiceChanges changes = cache.getChanges(ServiceType.SERVICE_TYPE_OSD, known, 120);
+        assertFalse(changes.getFull());
+        assertEquals(cache.getVersion(ServiceType.SERVICE_TYPE_OSD), changes.getRegistryVersion());
+        assertEquals(120, changes.getTimestampS());
+        assertEquals(2, changes.getServicesCount());
+        assertEquals("osd1", changes.getServices(0).getUuid());
+        assertEquals("osd3", changes.getServices(1).getUuid());
+        assertEquals("10", getSecondsSinceLastUpdate(changes.getServices(0)));
+        assertEquals(1, changes.getRemovedUuidsCount());
+        assertEquals("osd2", changes.getRemovedUuids(0));
+
+        // versions of the initial load and of other incarnations are not known
+        changes = cache.getChanges(ServiceType.SERVICE_TYPE_OSD, 0, 120);
+        assertTrue(changes.getFull());
+        assertEquals(2, changes.getServicesCount());
+        changes = cache.getChanges(ServiceType.SERVICE_TYPE_OSD, Long.MAX_VALUE, 120);
+        assertTrue(changes.getFull());
+    }
+
+    @Test
+    public void testTruncatedChanges() throws Exception {
+        ServiceRegistryCache cache = new ServiceRegistryCache(new ArrayList<ServiceRecord>());
+        cache.put(createRecord("osd1", ServiceType.SERVICE_TYPE_OSD, 100));
+        long known = cache.getVersion(ServiceType.SERVICE_TYPE_OSD);
+        long knownMixed = cache.getVersion(ServiceType.SERVICE_TYPE_MIXED);
+
+        for (int i = 0; i < ServiceRegistryCache.MAX_LOGGED_CHANGES; i++) {
+            cache.put(createRecord("mrc1", ServiceType.SERVICE_TYPE_MRC, 100 + i));
+        }
+
+        // the OSD has not changed, so the dropped change is not needed
+        assertNull(cache.getChanges(ServiceType.SERVICE_TYPE_OSD, known, 100));
+        ServiceChanges changes = cache.getChanges(ServiceType.SERVICE_TYPE_MIXED, knownMixed, 100);
+        assertFalse(changes.getFull());
+        assertEquals(1, changes.getServicesCount());
+
+        cache.put(createRecord("mrc1", ServiceType.SERVICE_TYPE_MRC, 100));
+        changes = cache.getChanges(ServiceType.SERVICE_TYPE_MIXED, knownMixed, 100);
+        assertTrue(changes.getFull());
+        assertEquals(2, changes.getServicesCount());
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+
+/**
+ * Measures how fast changes of simulated OSDs reach a number of simulated MRCs, and how many requests the MRCs
+ * send to the DIR, when the MRCs watch the DIR for changes and when they poll it.
+ * <p>
+ * All OSDs send heartbeats at the rate of 1000 OSDs with the regular heartbeat interval. In each round, the
+ * first OSD changes its data, and the time until all MRCs have seen the change is measured.
+ */
+public class ServiceWatchTest {
+    @Rule
+    public final TestRule       testLog            = TestHelper.testLog;
+
+    private static final int    NUM_OSDS           = 1000;
+
+    private static final int    NUM_MRCS           = 8;
+
+    private static final int    NUM_ROUNDS         = 20;
+
+    /** interval between heartbeats of different OSDs, so that each OSD sends a heartbeat every 60 s */
+    private static final long   HEARTBEAT_DELAY_MS = 60 * 1000 / NUM_OSDS;
+
+    private static final int    POLL_INTERVAL_MS   = 1000;
+
+    private static final int    WATCH_DELAY_MS     = 100;
+
+    /** has to be shorter than the request timeout of the test RPC client */
+    private static final int    WATCH_TIMEOUT_MS   = 5 * 1000;
+
+    private static final long   MAX_CONVERGENCE_MS = 20 * 1000;
+
+    private static final String ROUND_KEY          = "round";
+
+    private TestEnvironment     testEnv;
+
+    private DIRClient           dirClient;
+
+    /** the current versions of the OSD registrations */
+    private long[]              versions;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testEnv = new TestEnvironment(new TestEnvironment.Services[] { TestEnvironment.Services.DIR_SERVICE,
+                TestEnvironment.Services.TIME_SYNC, TestEnvironment.Services.RPC_CLIENT });
+        testEnv.start();
+
+        dirClient = new DIRClient(testEnv.getDirClient(), new InetSocketAddress[] { testEnv.getDIRAddress() }, 3,
+                1000);
+
+        versions = new long[NUM_OSDS];
+        for (int i = 0; i < NUM_OSDS; i++) {
+            registerOSD(i, 0);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testEnv.shutdown();
+    }
+
+    @Test
+    public void testWatchConvergence() throws Exception {
+        runRounds("watch", true);
+
+        // deregistered OSDs are removed from the watched sets
+        List<SimulatedMRC> mrcs = startMRCs(true);
+        try {
+            for (SimulatedMRC mrc : mrcs) {
+                waitFor(mrc, getUUID(1), 0);
+            }
+            dirClient.xtreemfs_service_deregister(null, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, getUUID(1));
+            for (SimulatedMRC mrc : mrcs) {
+                waitFor(mrc, getUUID(1), -1);
+            }
+
+            // the watched sets match the registry
+            ServiceSet osds = dirClient.xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD);
+            assertEquals(NUM_OSDS - 1, osds.getServicesCount());
+            for (SimulatedMRC mrc : mrcs) {
+                assertEquals(getUUIDs(osds), getUUIDs(mrc.getOSDs()));
+            }
+        } finally {
+            stopMRCs(mrcs);
+        }
+    }
+
+    @Test
+    public void testPollingConvergence() throws Exception {
+        runRounds("polling", false);
+    }
+
+    /**
+     * Changes the first OSD in each round and waits until all MRCs have seen the change, while the other OSDs
+     * send heartbeats.
+     */
+    private void runRounds(String mode, boolean watch) throws Exception {
+        List<SimulatedMRC> mrcs = startMRCs(watch);
+        HeartbeatSimulator heartbeats = new HeartbeatSimulator();
+        heartbeats.start();
+
+        long maxConvergenceMs = 0;
+        long totalConvergenceMs = 0;
+        long startRequests = testEnv.getDIRService().getNumRequests();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (int round = 1; round <= NUM_ROUNDS; round++) {
+                registerOSD(0, round);
+                long changeTime = System.currentTimeMillis();
+
+                for (SimulatedMRC mrc : mrcs) {
+                    waitFor(mrc, getUUID(0), round);
+                }
+
+                long convergenceMs = System.currentTimeMillis() - changeTime;
+                maxConvergenceMs = Math.max(maxConvergenceMs, convergenceMs);
+                totalConvergenceMs += convergenceMs;
+            }
+        } finally {
+            heartbeats.shutdown();
+            stopMRCs(mrcs);
+        }
+
+        long durationMs = Math.max(1, System.currentTimeMillis() - startTime);
+        long queries = testEnv.getDIRService().getNumRequests() - startRequests - NUM_ROUNDS
+            - heartbeats.getNumHeartbeats();
+        System.out.println(String.format("%s: %d OSDs, %d MRCs, convergence avg %d ms, max %d ms, "
+            + "%.1f queries/s at the DIR, %d heartbeats", mode, NUM_OSDS, NUM_MRCS, totalConvergenceMs
+            / NUM_ROUNDS, maxConvergenceMs, queries * 1000.0 / durationMs, heartbeats.getNumHeartbeats()));
+
+        for (SimulatedMRC mrc : mrcs) {
+            assertFalse(mrc.failed);
+        }
+    }
+
+    /**
+     * Waits until the MRC knows the given round of the OSD, or until it does not know the OSD if round is -1.
+     */
+    private static void waitFor(SimulatedMRC mrc, String uuid, int round) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (round == -1 ? mrc.getRound(uuid) != -1 : mrc.getRound(uuid) < round) {
+            assertFalse(mrc.failed);
+            assertTrue("MRC did not see the change in time",
+                    System.currentTimeMillis() - start < MAX_CONVERGENCE_MS);
+            Thread.sleep(5);
+        }
+    }
+
+    private List<SimulatedMRC> startMRCs(boolean watch) {
+        List<SimulatedMRC> mrcs = new ArrayList<SimulatedMRC>();
+        for (int i = 0; i < NUM_MRCS; i++) {
+            SimulatedMRC mrc = new SimulatedMRC(watch);
+            mrc.start();
+            mrcs.add(mrc);
+        }
+        return mrcs;
+    }
+
+    private void stopMRCs(List<SimulatedMRC> mrcs) throws InterruptedException {
+        for (SimulatedMRC mrc : mrcs) {
+            mrc.shutdown();
+        }
+        for (SimulatedMRC mrc : mrcs) {
+            mrc.join();
+        }
+    }
+
+    private static String getUUID(int osd) {
+        return "osd" + osd;
+    }
+
+    private static Set<String> getUUIDs(ServiceSet services) {
+        Set<String> uuids = new TreeSet<String>();
+        for (Service service : services.getServicesList()) {
+            uuids.add(service.getUuid());
+        }
+        return uuids;
+    }
+
+    private void registerOSD(int osd, int round) throws Exception {
+        ServiceDataMap data = ServiceDataMap.newBuilder()
+                .addData(KeyValuePair.newBuilder().setKey("free").setValue("1000000000"))
+                .addData(KeyValuePair.newBuilder().setKey(ROUND_KEY).setValue(Integer.toString(round))).build();
+        Service service = Service.newBuilder().setType(ServiceType.SERVICE_TYPE_OSD).setUuid(getUUID(osd))
+                .setName("OSD " + osd).setVersion(versions[osd]).setLastUpdatedS(0).setData(data).build();
+
+        versions[osd] = dirClient.xtreemfs_service_register(null, RPCAuthentication.authNone,
+                RPCAuthentication.userService, service).getNewVersion();
+    }
+
+    /**
+     * Updates the registrations of all OSDs except for the first one in turn.
+     */
+    private class HeartbeatSimulator extends Thread {
+
+        private volatile boolean quit;
+
+        private volatile int     numHeartbeats;
+
+        @Override
+        public void run() {
+            int osd = 1;
+            try {
+                while (!quit) {
+                    registerOSD(osd, 0);
+                    numHeartbeats++;
+                    osd = osd == NUM_OSDS - 1 ? 1 : osd + 1;
+                    Thread.sleep(HEARTBEAT_DELAY_MS);
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        int getNumHeartbeats() {
+            return numHeartbeats;
+        }
+
+        void shutdown() throws InterruptedException {
+            quit = true;
+            join();
+        }
+    }
+
+    /**
+     * Keeps the set of OSDs up to date like the OSDStatusManager of an MRC.
+     */
+    private class SimulatedMRC extends Thread {
+
+        final boolean               watch;
+
+        private volatile ServiceSet osds;
+
+        private volatile boolean    quit;
+
+        volatile boolean            failed;
+
+        SimulatedMRC(boolean watch) {
+            this.watch = watch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                osds = dirClient.xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
+                        RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD);
+
+                while (!quit) {
+                    if (watch) {
+                        osds = dirClient.xtreemfs_service_watch(null, RPCAuthentication.authNone,
+                                RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD, osds, WATCH_DELAY_MS,
+                                WATCH_TIMEOUT_MS);
+                    } else {
+                        Thread.sleep(POLL_INTERVAL_MS);
+                        osds = dirClient.xtreemfs_service_get_by_type_if_modified(null,
+                                RPCAuthentication.authNone, RPCAuthentication.userService,
+                                ServiceType.SERVICE_TYPE_OSD, osds);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            } catch (Exception e) {
+                if (!quit) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+        }
+
+        Service getService(String uuid) {
+            for (Service service : getOSDs().getServicesList()) {
+                if (service.getUuid().equals(uuid)) {
+                    return service;
+                }
+            }
+            return null;
+        }
+
+        int getRound(String uuid) {
+            Service service = getService(uuid);
+            if (service == null) {
+                return -1;
+            }
+            for (KeyValuePair kvp : service.getData().getDataList()) {
+                if (kvp.getKey().equals(ROUND_KEY)) {
+                    return Integer.parseInt(kvp.getValue());
+                }
+            }
+            return -1;
+        }
+
+        ServiceSet getOSDs() {
+            ServiceSet set = osds;
+            return set == null ? ServiceSet.getDefaultInstance() : set;
+        }
+
+        void shutdown() {
+            quit = true;
+            interrupt();
+        }
+    }
+}
@@ -10,6 +10,7 @@ package org.xtreemfs.mrc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -32,9 +33,13 @@ import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DBAccessResultListener;
+import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageManager;
+import org.xtreemfs.mrc.database.babudb.DentryCache;
 import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.DBAdminHelper;
 import org.xtreemfs.mrc.utils.Path;
 import org.xtreemfs.SetupUtils;
 import org.xtreemfs.TestEnvironment;
@@ -410,6 +415,261 @@ public class BabuDBStorageManagerTest {
         
     }
     
+    @Test
+    public void testContinuedReaddir() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final long w32Attrs = Long.MIN_VALUE;
+        exc = null;
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createDir(1, 0, "root", 0, 0, 0, userId, groupId, perms, w32Attrs, update).getId();
+        update.execute();
+        waitForResponse();
+        
+        // create 25 nested files, some of which have names that are prefixes
+        // of other names
+        for (int i = 0; i < 25; i++) {
+            
+            update = mngr.createAtomicDBUpdate(listener, null);
+            mngr.createFile(i + 2, 1, "entry" + i, 0, 0, 0, userId, groupId, perms, w32Attrs, 0, false, 0, 0,
+                update);
+            update.execute();
+            waitForResponse();
+        }
+        
+        // list the directory in chunks, each of which continues after the
+        // last child of the previous chunk
+        List<String> names = new LinkedList<String>();
+        String lastChildName = null;
+        for (;;) {
+            
+            DatabaseResultSet<FileMetadata> children = mngr.getChildren(1, lastChildName, 4);
+            int count = 0;
+            while (children.hasNext()) {
+                lastChildName = children.next().getFileName();
+                names.add(lastChildName);
+                count++;
+            }
+            children.destroy();
+            
+            assertTrue(count <= 4);
+            if (count < 4)
+                break;
+        }
+        
+        assertEquals(25, names.size());
+        for (int i = 0; i < 25; i++)
+            assertTrue(names.contains("entry" + i));
+        
+        // continuing after the last child returns nothing
+        DatabaseResultSet<FileMetadata> children = mngr.getChildren(1, lastChildName, 4);
+        assertFalse(children.hasNext());
+        children.destroy();
+    }
+    
+    @Test
+    public void testCachedPathResolution() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final long w32Attrs = Long.MIN_VALUE;
+        exc = null;
+        
+        DentryCache cache = new DentryCache(100);
+        mngr.setDentryCache(cache);
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        long dirId = mngr.createDir(1, 0, "dir", 0, 0, 0, userId, groupId, perms, w32Attrs, update).getId();
+        update.execute();
+        waitForResponse();
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createFile(2, dirId, "file.txt", 0, 0, 0, userId, groupId, perms, w32Attrs, 4711, false, 3, 4,
+            update);
+        update.execute();
+        waitForResponse();
+        
+        // the first resolution populates the cache, the second one is served
+        // from it
+        FileMetadata[] md = mngr.resolvePath(new Path("dir/file.txt"));
+        assertEquals(4711, md[1].getSize());
+        assertEquals(0, cache.getHits());
+        
+        md = mngr.resolvePath(new Path("dir/file.txt"));
+        assertEquals(4711, md[1].getSize());
+        assertEquals(2, cache.getHits());
+        
+        // modifications of returned objects must not affect the cache
+        md[1].setSize(1);
+        assertEquals(4711, mngr.getMetadata(dirId, "file.txt").getSize());
+        
+        // updates invalidate the cache
+        update = mngr.createAtomicDBUpdate(listener, null);
+        md[1].setSize(815);
+        mngr.setMetadata(md[1], FileMetadata.FC_METADATA, update);
+        update.execute();
+        waitForResponse();
+        assertEquals(815, mngr.resolvePath(new Path("dir/file.txt"))[1].getSize());
+        
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.delete(dirId, "file.txt", update);
+        update.execute();
+        waitForResponse();
+        assertNull(mngr.resolvePath(new Path("dir/file.txt"))[1]);
+    }
+    
+    @Test
+    public void testDeferredFileSizes() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final long w32Attrs = Long.MIN_VALUE;
+        exc = null;
+        
+        mngr.setDeferFileSizes(true);
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        long dirId = mngr.createDir(1, 0, "dir", 0, 0, 0, userId, groupId, perms, w32Attrs, update).getId();
+        update.execute();
+        waitForResponse();
+        update = mngr.createAtomicDBUpdate(listener, null);
+        long fileId = mngr.createFile(2, dirId, "file.txt", 0, 0, 0, userId, groupId, perms, w32Attrs, 4711, false,
+            3, 4, update).getId();
+        update.execute();
+        waitForResponse();
+        long volSize = mngr.getVolumeInfo().getVolumeSize();
+        
+        // only sizes exceeding the current size are deferred
+        assertTrue(mngr.setFileSizeDeferred(mngr.getMetadata(fileId), 5000, 10));
+        assertFalse(mngr.setFileSizeDeferred(mngr.getMetadata(fileId), 4800, 11));
+        assertTrue(mngr.hasDeferredFileSizes());
+        assertTrue(mngr.hasDeferredFileSize(fileId));
+        assertFalse(mngr.hasDeferredFileSize(dirId));
+        
+        // deferred sizes are visible through all lookups
+        assertEquals(5000, mngr.getMetadata(fileId).getSize());
+        assertEquals(10, mngr.getMetadata(fileId).getMtime());
+        assertEquals(5000, mngr.getMetadata(dirId, "file.txt").getSize());
+        assertEquals(5000, mngr.resolvePath(new Path("dir/file.txt"))[1].getSize());
+        DatabaseResultSet<FileMetadata> children = mngr.getChildren(dirId, 0, Integer.MAX_VALUE);
+        assertEquals(5000, children.next().getSize());
+        children.destroy();
+        assertEquals(volSize + 289, mngr.getVolumeInfo().getVolumeSize());
+        
+        // flushing writes the file and the volume size
+        update = mngr.createAtomicDBUpdate(listener, null);
+        assertEquals(2, mngr.flushFileSizes(update));
+        update.execute();
+        waitForResponse();
+        assertFalse(mngr.hasDeferredFileSizes());
+        assertFalse(mngr.hasDeferredFileSize(fileId));
+        
+        mngr.setDeferFileSizes(false);
+        assertEquals(5000, mngr.getMetadata(fileId).getSize());
+        assertEquals(volSize + 289, mngr.getVolumeInfo().getVolumeSize());
+    }
+    
+    @Test
+    public void testPackedRecords() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final long w32Attrs = Long.MIN_VALUE;
+        exc = null;
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        long dirId = mngr.createDir(1, 0, "dir", 0, 0, 0, userId, groupId, perms, w32Attrs, update).getId();
+        update.execute();
+        waitForResponse();
+        
+        // create a nested directory and 10 nested files in the old format
+        for (int i = 0; i < 10; i++) {
+            update = mngr.createAtomicDBUpdate(listener, null);
+            mngr.createFile(i + 2, dirId, "file" + i, 0, 0, 0, userId, groupId, perms, w32Attrs, 100 + i, false,
+                0, 0, update);
+            update.execute();
+            waitForResponse();
+        }
+        update = mngr.createAtomicDBUpdate(listener, null);
+        long subDirId = mngr.createDir(12, dirId, "sub", 0, 0, 0, userId, groupId, perms, w32Attrs, update)
+                .getId();
+        mngr.createFile(13, subDirId, "nested.txt", 0, 0, 0, userId, groupId, perms, w32Attrs, 4711, false, 0, 0,
+            update);
+        update.execute();
+        waitForResponse();
+        
+        assertEquals(StorageManager.RECORD_FORMAT_SEPARATE, mngr.getRecordFormat());
+        
+        // convert all records in batches of four
+        assertEquals(13, DBAdminHelper.convertToPackedRecords(mngr, 4));
+        assertEquals(StorageManager.RECORD_FORMAT_PACKED, mngr.getRecordFormat());
+        assertEquals(0, DBAdminHelper.convertToPackedRecords(mngr, 4));
+        
+        // all metadata remains accessible
+        assertEquals(105, mngr.getMetadata(dirId, "file5").getSize());
+        assertEquals(userId, mngr.getMetadata(dirId, "file5").getOwnerId());
+        assertEquals("nested.txt", mngr.getMetadata(13).getFileName());
+        assertEquals(4711, mngr.resolvePath(new Path("dir/sub/nested.txt"))[2].getSize());
+        
+        DatabaseResultSet<FileMetadata> children = mngr.getChildren(dirId, 0, Integer.MAX_VALUE);
+        int count = 0;
+        while (children.hasNext()) {
+            FileMetadata child = children.next();
+            if (!child.isDirectory())
+                assertEquals(100 + Integer.parseInt(child.getFileName().substring(4)), child.getSize());
+            count++;
+        }
+        children.destroy();
+        assertEquals(11, count);
+        
+        // modifications of either part of the metadata preserve the other
+        // part
+        FileMetadata file = mngr.getMetadata(dirId, "file3");
+        file.setSize(815);
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.setMetadata(file, FileMetadata.FC_METADATA, update);
+        update.execute();
+        waitForResponse();
+        
+        file = mngr.getMetadata(dirId, "file3");
+        assertEquals(815, file.getSize());
+        file.setPerms(448);
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.setMetadata(file, FileMetadata.RC_METADATA, update);
+        update.execute();
+        waitForResponse();
+        
+        file = mngr.getMetadata(dirId, "file3");
+        assertEquals(815, file.getSize());
+        assertEquals(448, file.getPerms());
+        
+        // new files are created in the packed format
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createFile(14, dirId, "new.txt", 0, 0, 0, userId, groupId, perms, w32Attrs, 42, false, 0, 0, update);
+        update.execute();
+        waitForResponse();
+        assertEquals(42, mngr.getMetadata(14).getSize());
+        
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.delete(dirId, "new.txt", update);
+        update.execute();
+        waitForResponse();
+        assertNull(mngr.getMetadata(dirId, "new.txt"));
+        
+        // converting back is not supported
+        try {
+            mngr.setRecordFormat(StorageManager.RECORD_FORMAT_SEPARATE, mngr.createAtomicDBUpdate(null, null));
+            assertTrue(false);
+        } catch (DatabaseException exc) {
+            // expected
+        }
+    }
+    
     private void waitForResponse() throws Exception {
         
         synchronized (lock) {
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
+import org.xtreemfs.TestEnvironment.Services;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.mrc.utils.BinaryDBDump;
+import org.xtreemfs.mrc.utils.DBAdminHelper;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+public class BinaryDBDumpTest {
+    @Rule
+    public final TestRule        testLog     = TestHelper.testLog;
+
+    private static final int     NUM_VOLUMES = 3;
+
+    private static final int     NUM_DIRS    = 50;
+
+    private TestEnvironment      testEnv;
+
+    private MRCRequestDispatcher mrc1;
+
+    private MRCRequestDispatcher mrc2;
+
+    private MRCServiceClient     client;
+
+    private InetSocketAddress    mrcAddress;
+
+    private UserCredentials      uc;
+
+    private File                 dumpDir;
+
+    public BinaryDBDumpTest() {
+        Logging.start(SetupUtils.DEBUG_LEVEL);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testEnv = new TestEnvironment(Services.DIR_CLIENT, Services.TIME_SYNC, Services.UUID_RESOLVER,
+                Services.MRC_CLIENT, Services.DIR_SERVICE);
+        testEnv.start();
+
+        mrc1 = new MRCRequestDispatcher(SetupUtils.createMRC1Config(), SetupUtils.createMRC1dbsConfig());
+        mrc1.startup();
+
+        client = testEnv.getMrcClient();
+        mrcAddress = SetupUtils.getMRC1Addr();
+        uc = UserCredentials.newBuilder().setUsername("userXY").addGroups("groupZ").build();
+
+        dumpDir = new File(SetupUtils.TEST_DIR, "binary-dump");
+        FSUtils.delTree(dumpDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mrc2 != null)
+            mrc2.shutdown();
+        mrc1.shutdown();
+        testEnv.shutdown();
+    }
+
+    @Test
+    public void testDumpRestore() throws Exception {
+
+        createVolumes();
+
+        List<StorageManager> sMans = new ArrayList<StorageManager>(mrc1.getVolumeManager().getStorageManagers());
+        assertEquals(NUM_VOLUMES, sMans.size());
+
+        // use small chunks, so that indices are split across several chunks
+        BinaryDBDump.dump(sMans, dumpDir, 4, 1024);
+        assertTrue(BinaryDBDump.isBinaryDump(dumpDir));
+
+        int numChunks = 0;
+        boolean splitIndex = false;
+        for (String name : dumpDir.list()) {
+            if (name.equals(BinaryDBDump.MANIFEST_FILE))
+                continue;
+            numChunks++;
+            if (!name.endsWith(".0"))
+                splitIndex = true;
+        }
+        assertTrue(numChunks > NUM_VOLUMES * sMans.get(0).getNumIndices());
+        assertTrue(splitIndex);
+
+        startSecondMRC();
+        VolumeManager vMan = mrc2.getVolumeManager();
+        BinaryDBDump.restore(vMan, mrc2.getFileAccessManager(), dumpDir, 4, 16);
+
+        // the restored volumes have to contain exactly the dumped records
+        assertEquals(NUM_VOLUMES, vMan.getStorageManagers().size());
+        for (StorageManager sMan : sMans) {
+            StorageManager restored = vMan.getStorageManager(sMan.getVolumeInfo().getId());
+            assertEquals(sMan.getVolumeInfo().getName(), restored.getVolumeInfo().getName());
+            for (int i = 0; i < sMan.getNumIndices(); i++)
+                assertRecordsEqual(getRecords(sMan, i), getRecords(restored, i));
+
+            assertTrue(restored.getMetadata(1).isDirectory());
+            assertEquals("dir" + (NUM_DIRS - 1),
+                restored.getMetadata(1, "dir" + (NUM_DIRS - 1)).getFileName());
+        }
+    }
+
+    @Test
+    public void testRestoreRecordFormat() throws Exception {
+
+        createVolumes();
+
+        // store the records of one volume in the packed format
+        StorageManager packed = mrc1.getVolumeManager().getStorageManagerByName("vol0");
+        DBAdminHelper.convertToPackedRecords(packed, 16);
+        assertEquals(StorageManager.RECORD_FORMAT_PACKED, packed.getRecordFormat());
+
+        List<StorageManager> sMans = new ArrayList<StorageManager>(mrc1.getVolumeManager().getStorageManagers());
+        BinaryDBDump.dump(sMans, dumpDir, 4, 1024);
+
+        startSecondMRC();
+        VolumeManager vMan = mrc2.getVolumeManager();
+        BinaryDBDump.restore(vMan, mrc2.getFileAccessManager(), dumpDir, 4, 16);
+
+        // each restored volume has to write records in the format of its
+        // restored records, regardless of the format it was created with
+        for (StorageManager sMan : sMans) {
+            StorageManager restored = vMan.getStorageManager(sMan.getVolumeInfo().getId());
+            assertEquals(sMan.getRecordFormat(), restored.getRecordFormat());
+        }
+        assertEquals(StorageManager.RECORD_FORMAT_PACKED, vMan.getStorageManagerByName("vol0").getRecordFormat());
+        assertEquals(StorageManager.RECORD_FORMAT_SEPARATE, vMan.getStorageManagerByName("vol1").getRecordFormat());
+    }
+
+    @Test
+    public void testTruncatedChunk() throws Exception {
+
+        createVolumes();
+        BinaryDBDump.dump(new ArrayList<StorageManager>(mrc1.getVolumeManager().getStorageManagers()), dumpDir, 4,
+            1024);
+
+        // cut off the end of a chunk, as if it had not been written completely
+        RandomAccessFile raf = new RandomAccessFile(getChunk(), "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        startSecondMRC();
+        try {
+            BinaryDBDump.restore(mrc2.getVolumeManager(), mrc2.getFileAccessManager(), dumpDir, 4, 16);
+            fail("restored truncated dump");
+        } catch (IOException exc) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+
+        createVolumes();
+        BinaryDBDump.dump(new ArrayList<StorageManager>(mrc1.getVolumeManager().getStorageManagers()), dumpDir, 4,
+            1024);
+
+        // overwrite the header of a chunk
+        RandomAccessFile raf = new RandomAccessFile(getChunk(), "rw");
+        raf.writeLong(0);
+        raf.close();
+
+        startSecondMRC();
+        try {
+            BinaryDBDump.restore(mrc2.getVolumeManager(), mrc2.getFileAccessManager(), dumpDir, 4, 16);
+            fail("restored corrupt dump");
+        } catch (IOException exc) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testIncompleteDump() throws Exception {
+
+        createVolumes();
+        BinaryDBDump.dump(new ArrayList<StorageManager>(mrc1.getVolumeManager().getStorageManagers()), dumpDir, 4,
+            1024);
+
+        // a dump without manifest is not recognized as a binary dump
+        assertTrue(new File(dumpDir, BinaryDBDump.MANIFEST_FILE).delete());
+        assertFalse(BinaryDBDump.isBinaryDump(dumpDir));
+    }
+
+    private void createVolumes() throws Exception {
+        for (int i = 0; i < NUM_VOLUMES; i++) {
+            String volumeName = "vol" + i;
+            invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+                AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX, getDefaultStripingPolicy(), "", 0775,
+                volumeName, "", "", new LinkedList<KeyValuePair>(), 0));
+
+            for (int j = 0; j < NUM_DIRS; j++) {
+                String dir = "dir" + j;
+                invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, dir, 0775));
+                invokeSync(client.symlink(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "/" + dir, dir
+                    + "/link"));
+                invokeSync(client.setxattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, dir,
+                    "user.attr", "value" + j, ByteString.copyFromUtf8("value" + j), 0));
+            }
+        }
+    }
+
+    private void startSecondMRC() throws Exception {
+        mrc2 = new MRCRequestDispatcher(SetupUtils.createMRC2Config(), SetupUtils.createMRC2dbsConfig());
+        mrc2.startup();
+    }
+
+    private File getChunk() {
+        for (File file : dumpDir.listFiles())
+            if (!file.getName().equals(BinaryDBDump.MANIFEST_FILE))
+                return file;
+        throw new AssertionError("dump does not contain any chunks");
+    }
+
+    private static List<byte[][]> getRecords(StorageManager sMan, int index) throws Exception {
+        List<byte[][]> records = new LinkedList<byte[][]>();
+        DatabaseResultSet<byte[][]> it = sMan.getRecords(index);
+        try {
+            while (it.hasNext())
+                records.add(it.next());
+        } finally {
+            it.destroy();
+        }
+        return records;
+    }
+
+    private static void assertRecordsEqual(List<byte[][]> expected, List<byte[][]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i)[0], actual.get(i)[0]);
+            assertArrayEquals(expected.get(i)[1], actual.get(i)[1]);
+        }
+    }
+
+    private static <T extends Message> T invokeSync(RPCResponse<T> response) throws Exception {
+        try {
+            return response.get();
+        } finally {
+            response.freeBuffers();
+        }
+    }
+
+    private static StripingPolicy getDefaultStripingPolicy() {
+        return StripingPolicy.newBuilder().setType(StripingPolicyType.STRIPING_POLICY_RAID0).setStripeSize(1000)
+                .setWidth(1).build();
+    }
+
+}
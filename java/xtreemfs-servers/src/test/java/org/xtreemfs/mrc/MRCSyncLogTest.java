@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
+import org.xtreemfs.TestEnvironment.Services;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.timestampResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
+
+import com.google.protobuf.Message;
+
+/**
+ * Tests an MRC with a synchronous database log, whose responses are sent by a
+ * separate completion thread once the disk logger has flushed the updates.
+ */
+public class MRCSyncLogTest {
+    @Rule
+    public final TestRule        testLog    = TestHelper.testLog;
+
+    private static final String  VOLUME     = "testVolume";
+
+    private static final int     NUM_DIRS   = 200;
+
+    private TestEnvironment      testEnv;
+
+    private MRCRequestDispatcher mrc1;
+
+    private MRCServiceClient     client;
+
+    private InetSocketAddress    mrcAddress;
+
+    private UserCredentials      uc;
+
+    public MRCSyncLogTest() {
+        Logging.start(SetupUtils.DEBUG_LEVEL);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testEnv = new TestEnvironment(Services.DIR_CLIENT, Services.TIME_SYNC, Services.UUID_RESOLVER,
+                Services.MRC_CLIENT, Services.DIR_SERVICE);
+        testEnv.start();
+
+        startMRC();
+
+        client = testEnv.getMrcClient();
+        mrcAddress = SetupUtils.getMRC1Addr();
+        uc = UserCredentials.newBuilder().setUsername("userXY").addGroups("groupZ").build();
+
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX, getDefaultStripingPolicy(), "", 0775, VOLUME, "",
+            "", new LinkedList<KeyValuePair>(), 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mrc1.shutdown();
+        testEnv.shutdown();
+    }
+
+    @Test
+    public void testConcurrentUpdatesVisibleAfterResponse() throws Exception {
+
+        final StorageManager sMan = mrc1.getVolumeManager().getStorageManagerByName(VOLUME);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch responses = new CountDownLatch(NUM_DIRS);
+
+        // send all requests at once, so that their updates are flushed in
+        // groups by the disk logger
+        for (int i = 0; i < NUM_DIRS; i++) {
+            final String dir = "dir" + i;
+            RPCResponse<timestampResponse> r = client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, VOLUME,
+                dir, 0775);
+            r.registerListener(new RPCResponseAvailableListener<timestampResponse>() {
+                @Override
+                public void responseAvailable(RPCResponse<timestampResponse> r) {
+                    try {
+                        r.get();
+                        // the update has to be visible once it has been
+                        // acknowledged
+                        if (sMan.getMetadata(1, dir) == null)
+                            errors.add(dir + " not visible after response");
+                    } catch (Exception exc) {
+                        errors.add(dir + ": " + exc);
+                    } finally {
+                        r.freeBuffers();
+                        responses.countDown();
+                    }
+                }
+            });
+        }
+
+        assertTrue(responses.await(60, TimeUnit.SECONDS));
+        assertEquals(Collections.<String> emptyList(), errors);
+
+        // all directories plus "." and ".."
+        assertEquals(NUM_DIRS + 2, listRootDir().getEntriesCount());
+    }
+
+    @Test
+    public void testUpdatesPersistedAfterRestart() throws Exception {
+
+        List<RPCResponse<timestampResponse>> rs = new ArrayList<RPCResponse<timestampResponse>>();
+        for (int i = 0; i < NUM_DIRS; i++)
+            rs.add(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, VOLUME, "dir" + i, 0775));
+        for (RPCResponse<timestampResponse> r : rs)
+            invokeSync(r);
+
+        // restart the MRC on the same database
+        mrc1.shutdown();
+        startMRC();
+
+        StorageManager sMan = mrc1.getVolumeManager().getStorageManagerByName(VOLUME);
+        for (int i = 0; i < NUM_DIRS; i++)
+            assertNotNull(sMan.getMetadata(1, "dir" + i));
+        assertEquals(NUM_DIRS + 2, listRootDir().getEntriesCount());
+    }
+
+    private void startMRC() throws Exception {
+        mrc1 = new MRCRequestDispatcher(SetupUtils.createMRC1Config(),
+            SetupUtils.createMRC1dbsConfig(SyncMode.FSYNC));
+        mrc1.startup();
+    }
+
+    private DirectoryEntries listRootDir() throws Exception {
+        return invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, VOLUME, "", -1,
+            NUM_DIRS + 10, true, 0, ""));
+    }
+
+    private static <T extends Message> T invokeSync(RPCResponse<T> response) throws Exception {
+        try {
+            return response.get();
+        } finally {
+            response.freeBuffers();
+        }
+    }
+
+    private static StripingPolicy getDefaultStripingPolicy() {
+        return StripingPolicy.newBuilder().setType(StripingPolicyType.STRIPING_POLICY_RAID0).setStripeSize(1000)
+                .setWidth(1).build();
+    }
+
+}
@@ -9,6 +9,7 @@
 package org.xtreemfs.mrc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -36,8 +37,12 @@ import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.metadata.ReplicationPolicy;
+import org.xtreemfs.mrc.quota.QuotaManager;
+import org.xtreemfs.mrc.quota.VolumeQuotaManager;
 import org.xtreemfs.mrc.utils.Converter;
+import org.xtreemfs.mrc.utils.MRCHelper.GlobalFileIdResolver;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
@@ -57,8 +62,10 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Volumes;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XAttr;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.listxattrResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursive_statusResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_set_replica_update_policyRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
 import org.xtreemfs.SetupUtils;
@@ -275,11 +282,11 @@ public class MRCTest {
         // test 'readDir' and 'stat'
         
         DirectoryEntries entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-            volumeName, "", -1, 1000, false, 0));
+            volumeName, "", -1, 1000, false, 0, ""));
         assertEquals(4, entrySet.getEntriesCount());
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ""));
         assertEquals(12, entrySet.getEntriesCount());
         
         Stat stat = invokeSync(
@@ -300,7 +307,7 @@ public class MRCTest {
         invokeSync(client.unlink(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir/test3.txt"));
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ""));
         assertEquals(11, entrySet.getEntriesCount());
         
         invokeSync(client.rmdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "anotherDir"));
@@ -318,7 +325,7 @@ public class MRCTest {
             AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
             volumeName, "", "", getKVList(), 0));
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "/", -1, 1000,
-            false, 0));
+            false, 0, ""));
     }
     
     @Test
@@ -579,6 +586,116 @@ public class MRCTest {
         }
     }
     
+    @Test
+    public void testRmdirRecursive() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX, getDefaultStripingPolicy(), "", 0775,
+            volumeName, "", "", getKVList(), 0));
+        
+        // create a tree with more entries than fit into a single batch, which
+        // are distributed across several directories
+        final int numDirs = 3;
+        final int numFilesPerDir = 400;
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree", 0775));
+        for (int i = 0; i < numDirs; i++) {
+            invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/dir" + i, 0775));
+            for (int j = 0; j < numFilesPerDir; j++)
+                invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/dir" + i
+                    + "/file" + j, FileAccessManager.O_CREAT, 0644, 0, getDefaultCoordinates()));
+        }
+        
+        // create three links to a file, two of which are deleted in the same
+        // batch
+        invokeSync(client.link(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/dir0/file0",
+            "tree/dir0/link0"));
+        invokeSync(client.link(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/dir0/file0",
+            "outside"));
+        assertEquals(3, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "outside", -1)).getStbuf()
+                .getNlink());
+        
+        xtreemfs_rmdir_recursive_statusResponse status = rmdirRecursive(uc, volumeName, "tree");
+        assertEquals(numDirs * numFilesPerDir + 1, status.getDeletedFiles());
+        assertEquals(numDirs + 1, status.getDeletedDirs());
+        assertEquals(0, status.getFailedEntries());
+        assertEquals(0, status.getPendingOsdDeletions());
+        assertFalse(status.hasError());
+        
+        // only the link outside of the tree remains
+        assertEquals(1, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "outside", -1)).getStbuf()
+                .getNlink());
+        assertTree(mrcAddress, uid, gids, volumeName, "", "outside");
+        
+        // deleting a nonexistent directory fails immediately
+        try {
+            invokeSync(client.xtreemfs_rmdir_recursive(mrcAddress, RPCAuthentication.authNone, uc, volumeName,
+                "tree"));
+            fail("the deletion of a nonexistent directory should fail");
+        } catch (PBRPCException exc) {
+            assertEquals(POSIXErrno.POSIX_ERROR_ENOENT, exc.getPOSIXErrno());
+        }
+    }
+    
+    @Test
+    public void testRmdirRecursiveNoPerm() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        final UserCredentials uc2 = createUserCredentials("otherUser", createGIDs("otherGroup"));
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX, getDefaultStripingPolicy(), "", 0777,
+            volumeName, "", "", getKVList(), 0));
+        
+        // create a tree with a subtree that the user may not delete
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree", 0777));
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/a", 0755));
+        invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "tree/a/file",
+            FileAccessManager.O_CREAT, 0644, 0, getDefaultCoordinates()));
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc2, volumeName, "tree/locked", 0755));
+        invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc2, volumeName, "tree/locked/file",
+            FileAccessManager.O_CREAT, 0644, 0, getDefaultCoordinates()));
+        
+        xtreemfs_rmdir_recursive_statusResponse status = rmdirRecursive(uc, volumeName, "tree");
+        assertEquals(1, status.getDeletedFiles());
+        assertEquals(1, status.getDeletedDirs());
+        assertEquals(1, status.getFailedEntries());
+        assertFalse(status.hasError());
+        
+        // the skipped subtree and its ancestor remain
+        assertTree(mrcAddress, uid, gids, volumeName, "", "tree", "tree/locked", "tree/locked/file");
+        
+        // the task is not visible to other users
+        long taskId = invokeSync(
+            client.xtreemfs_rmdir_recursive(mrcAddress, RPCAuthentication.authNone, uc2, volumeName,
+                "tree/locked")).getTaskId();
+        try {
+            invokeSync(client.xtreemfs_rmdir_recursive_status(mrcAddress, RPCAuthentication.authNone, uc, taskId));
+            fail("the status of a task started by a different user should not be returned");
+        } catch (PBRPCException exc) {
+            assertEquals(POSIXErrno.POSIX_ERROR_EPERM, exc.getPOSIXErrno());
+        }
+        waitForRmdirRecursive(uc2, taskId);
+        assertTree(mrcAddress, uid, gids, volumeName, "", "tree");
+        
+        // the root directory of a volume cannot be deleted
+        try {
+            invokeSync(client.xtreemfs_rmdir_recursive(mrcAddress, RPCAuthentication.authNone, uc, volumeName, ""));
+            fail("the root directory should not be deletable");
+        } catch (PBRPCException exc) {
+            assertEquals(POSIXErrno.POSIX_ERROR_EPERM, exc.getPOSIXErrno());
+        }
+    }
+    
     @Test
     public void testOpen() throws Exception {
         
@@ -861,7 +978,7 @@ public class MRCTest {
         
         final UserCredentials ucS = createUserCredentials("someone", createGIDs("somegroup"));
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, ucS, noACVolumeName,
-            "newDir/newFile", -1, 1000, false, 0)));
+            "newDir/newFile", -1, 1000, false, 0, "")));
         
         // VOLUME policy
         
@@ -898,7 +1015,7 @@ public class MRCTest {
         
         // check permissions by opening the file
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, "")));
         
         try {
             invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir2",
@@ -958,14 +1075,14 @@ public class MRCTest {
         // readdir on "/newDir"; should fail for any user now
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
@@ -976,14 +1093,14 @@ public class MRCTest {
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient search permissions");
         } catch (PBRPCException exc) {
         }
@@ -994,11 +1111,11 @@ public class MRCTest {
         
         // access should be granted to others now
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir", -1,
-            1000, false, 0));
+            1000, false, 0, ""));
         
         // check permissions
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, "")));
         
         // check permissions
         assertNotNull(invokeSync(client.getattr(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName,
@@ -1011,7 +1128,7 @@ public class MRCTest {
         // owner of 'newDir' should still not have access rights
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
@@ -1183,6 +1300,177 @@ public class MRCTest {
         assertEquals(32L, stat.getSize());
     }
     
+    @Test
+    public void testBulkFileSizeUpdate() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
+            volumeName, "", "", getKVList(), 0));
+        
+        XCap cap1 = invokeSync(
+            client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file1",
+                FileAccessManager.O_CREAT | FileAccessManager.O_RDWR, 0644, 0, getDefaultCoordinates()))
+                .getCreds().getXcap();
+        XCap cap2 = invokeSync(
+            client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file2",
+                FileAccessManager.O_CREAT | FileAccessManager.O_RDWR, 0644, 0, getDefaultCoordinates()))
+                .getCreds().getXcap();
+        
+        // update the sizes of both files with a single request; updates that
+        // close a file or carry an invalid capability are rejected without
+        // affecting the others
+        List<xtreemfs_update_file_sizeRequest> updates = new LinkedList<xtreemfs_update_file_sizeRequest>();
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(100, 0))
+                .setXcap(cap1).build());
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(200, 0))
+                .setXcap(cap2).build());
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(300, 0))
+                .setXcap(cap1).setCloseFile(true).build());
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(400, 0))
+                .setXcap(cap2.toBuilder().setServerSignature("invalid")).build());
+        
+        xtreemfs_update_file_sizesResponse resp = invokeSync(client.xtreemfs_update_file_sizes(mrcAddress,
+            RPCAuthentication.authNone, RPCAuthentication.userService, updates));
+        assertEquals(2, resp.getFailedUpdatesCount());
+        assertEquals(2, resp.getFailedUpdates(0));
+        assertEquals(3, resp.getFailedUpdates(1));
+        
+        assertEquals(100L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file1", -1)).getStbuf()
+                .getSize());
+        assertEquals(200L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file2", -1)).getStbuf()
+                .getSize());
+        
+        // smaller sizes of the same epoch are ignored, larger ones are applied
+        updates.clear();
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(50, 0))
+                .setXcap(cap1).build());
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(250, 0))
+                .setXcap(cap2).build());
+        resp = invokeSync(client.xtreemfs_update_file_sizes(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, updates));
+        assertEquals(0, resp.getFailedUpdatesCount());
+        
+        assertEquals(100L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file1", -1)).getStbuf()
+                .getSize());
+        assertEquals(250L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file2", -1)).getStbuf()
+                .getSize());
+        
+        // closing a file keeps the size reported by the bulk update
+        invokeSync(client.xtreemfs_update_file_size(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(
+                createFSResponse(100, 0)).setXcap(cap1).setCloseFile(true).build()));
+        assertEquals(100L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file1", -1)).getStbuf()
+                .getSize());
+    }
+    
+    @Test
+    public void testSingleFileSizeUpdateWrittenThrough() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
+            volumeName, "", "", getKVList(), 0));
+        
+        XCap cap = invokeSync(
+            client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file",
+                FileAccessManager.O_CREAT | FileAccessManager.O_RDWR, 0644, 0, getDefaultCoordinates()))
+                .getCreds().getXcap();
+        
+        StorageManager sMan = testEnv.getMRCService().getVolumeManager().getStorageManagerByName(volumeName);
+        long fileId = new GlobalFileIdResolver(cap.getFileId()).getLocalFileId();
+        
+        // a size sent on fsync is not collected in memory
+        invokeSync(client.xtreemfs_update_file_size(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(
+                createFSResponse(100, 0)).setXcap(cap).build()));
+        assertFalse(sMan.hasDeferredFileSize(fileId));
+        assertEquals(100L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file", -1)).getStbuf()
+                .getSize());
+        
+        // a size collected from a periodic update is persisted on fsync, even
+        // if fsync reports the same size
+        List<xtreemfs_update_file_sizeRequest> updates = new LinkedList<xtreemfs_update_file_sizeRequest>();
+        updates.add(xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(createFSResponse(200, 0))
+                .setXcap(cap).build());
+        invokeSync(client.xtreemfs_update_file_sizes(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, updates));
+        invokeSync(client.xtreemfs_update_file_size(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(
+                createFSResponse(200, 0)).setXcap(cap).build()));
+        assertFalse(sMan.hasDeferredFileSize(fileId));
+        assertEquals(200L, invokeSync(
+            client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file", -1)).getStbuf()
+                .getSize());
+    }
+    
+    @Test
+    public void testQuotaSpaceUsageWrittenThrough() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
+            volumeName, "", "", getKVList(), 0));
+        invokeSync(client.setxattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "",
+            "xtreemfs.quota", "100000000", ByteString.copyFrom("100000000".getBytes()), 0));
+        
+        StorageManager sMan = testEnv.getMRCService().getVolumeManager().getStorageManagerByName(volumeName);
+        QuotaManager quotaMan = testEnv.getMRCService().getMrcQuotaManager();
+        VolumeQuotaManager volQuotaMan = quotaMan.getVolumeQuotaManagerById(sMan.getVolumeInfo().getId());
+        
+        // the space blocked for a voucher is written along with the voucher,
+        // so that it is not lost in a crash
+        XCap cap = invokeSync(
+            client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file",
+                FileAccessManager.O_CREAT | FileAccessManager.O_RDWR, 0644, 0, getDefaultCoordinates()))
+                .getCreds().getXcap();
+        assertTrue(volQuotaMan.getBlockedSpace(null, null) > 0);
+        assertFalse(volQuotaMan.hasDirtySpaceUsage());
+        assertEquals(volQuotaMan.getBlockedSpace(null, null), sMan.getVolumeBlockedSpace());
+        assertEquals(volQuotaMan.getUsedSpace(null, null), sMan.getVolumeUsedSpace());
+        
+        // the same holds for the used space once the file has been closed
+        invokeSync(client.xtreemfs_update_file_size(mrcAddress, RPCAuthentication.authNone,
+            RPCAuthentication.userService, xtreemfs_update_file_sizeRequest.newBuilder().setOsdWriteResponse(
+                createFSResponse(100, 0)).setXcap(cap).setCloseFile(true).build()));
+        assertFalse(volQuotaMan.hasDirtySpaceUsage());
+        assertEquals(volQuotaMan.getBlockedSpace(null, null), sMan.getVolumeBlockedSpace());
+        assertEquals(volQuotaMan.getUsedSpace(null, null), sMan.getVolumeUsedSpace());
+        
+        // deferred space usage is written by a flush (which may also have
+        // been executed by the flush thread in the meantime)
+        quotaMan.setDeferPersistence(true);
+        try {
+            invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file2",
+                FileAccessManager.O_CREAT | FileAccessManager.O_RDWR, 0644, 0, getDefaultCoordinates()));
+            
+            quotaMan.flushSpaceUsage(sMan);
+            assertFalse(volQuotaMan.hasDirtySpaceUsage());
+            assertEquals(volQuotaMan.getBlockedSpace(null, null), sMan.getVolumeBlockedSpace());
+            assertEquals(volQuotaMan.getUsedSpace(null, null), sMan.getVolumeUsedSpace());
+        } finally {
+            quotaMan.setDeferPersistence(false);
+        }
+    }
+    
     @Test
     public void testDefaultStripingPolicies() throws Exception {
         
@@ -1574,7 +1862,7 @@ public class MRCTest {
             // if the path points to a directory, check whether the number of
             // subdirectories is correct
             DirectoryEntries dir = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-                volumeName, path, -1, 1000, false, 0));
+                volumeName, path, -1, 1000, false, 0, ""));
             int size = dir.getEntriesCount();
             
             int count = 0;
@@ -1601,6 +1889,27 @@ public class MRCTest {
         }
     }
     
+    private xtreemfs_rmdir_recursive_statusResponse rmdirRecursive(UserCredentials uc, String volumeName,
+        String path) throws Exception {
+        long taskId = invokeSync(
+            client.xtreemfs_rmdir_recursive(mrcAddress, RPCAuthentication.authNone, uc, volumeName, path))
+                .getTaskId();
+        return waitForRmdirRecursive(uc, taskId);
+    }
+    
+    private xtreemfs_rmdir_recursive_statusResponse waitForRmdirRecursive(UserCredentials uc, long taskId)
+        throws Exception {
+        for (int i = 0; i < 600; i++) {
+            xtreemfs_rmdir_recursive_statusResponse status = invokeSync(client.xtreemfs_rmdir_recursive_status(
+                mrcAddress, RPCAuthentication.authNone, uc, taskId));
+            if (status.getFinished())
+                return status;
+            Thread.sleep(100);
+        }
+        fail("recursive deletion #" + taskId + " did not finish");
+        return null;
+    }
+    
     private static List<String> createGIDs(String gid) {
         List<String> list = new LinkedList<String>();
         list.add(gid);
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.mrc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.fsetattrRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.renameRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_renew_metadata_leaseResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_rmdir_recursiveRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizesRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceConstants;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestHelper;
+
+public class MetadataLeaseManagerTest {
+
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL);
+    }
+
+    @Test
+    public void testRenewLease() {
+        final long epoch = 42;
+        MetadataLeaseManager leaseMan = new MetadataLeaseManager(epoch, 4, 300, null);
+
+        // an initial renewal always invalidates everything
+        xtreemfs_renew_metadata_leaseResponse resp = leaseMan.renewLease("vol", 0, 0);
+        assertTrue(resp.getInvalidateAll());
+        assertEquals(epoch, resp.getLeaseEpoch());
+        assertEquals(0, resp.getCurrentChange());
+        assertEquals(300, resp.getLeaseDurationS());
+
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_UNLINK,
+                unlinkRequest.newBuilder().setVolumeName("vol").setPath("dir/file").build());
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_RENAME, renameRequest.newBuilder()
+                .setVolumeName("vol").setSourcePath("/a").setTargetPath("/b/").build());
+        leaseMan.recordChange("otherVol", "x");
+
+        resp = leaseMan.renewLease("vol", epoch, 0);
+        assertFalse(resp.getInvalidateAll());
+        assertEquals(3, resp.getCurrentChange());
+        assertEquals(3, resp.getInvalidatedPathsCount());
+        assertEquals("/dir/file", resp.getInvalidatedPaths(0));
+        assertEquals("/a", resp.getInvalidatedPaths(1));
+        assertEquals("/b", resp.getInvalidatedPaths(2));
+
+        // no changes since the last renewal
+        resp = leaseMan.renewLease("vol", epoch, resp.getCurrentChange());
+        assertFalse(resp.getInvalidateAll());
+        assertEquals(0, resp.getInvalidatedPathsCount());
+
+        // the root of a recursively deleted subtree is recorded once the
+        // deletion has been accepted
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_XTREEMFS_RMDIR_RECURSIVE,
+                xtreemfs_rmdir_recursiveRequest.newBuilder().setVolumeName("vol").setPath("dir/").build());
+        resp = leaseMan.renewLease("vol", epoch, 3);
+        assertFalse(resp.getInvalidateAll());
+        assertEquals(4, resp.getCurrentChange());
+        assertEquals(1, resp.getInvalidatedPathsCount());
+        assertEquals("/dir", resp.getInvalidatedPaths(0));
+
+        // a lease from a different epoch is not valid anymore
+        resp = leaseMan.renewLease("vol", epoch + 1, 4);
+        assertTrue(resp.getInvalidateAll());
+        assertEquals(0, resp.getInvalidatedPathsCount());
+
+        // changes that no longer fit in the log lead to a complete invalidation
+        for (int i = 0; i < 5; i++)
+            leaseMan.recordChange("vol", "/f" + i);
+        resp = leaseMan.renewLease("vol", epoch, 4);
+        assertTrue(resp.getInvalidateAll());
+        assertEquals(9, resp.getCurrentChange());
+
+        resp = leaseMan.renewLease("vol", epoch, 6);
+        assertFalse(resp.getInvalidateAll());
+        assertEquals(3, resp.getInvalidatedPathsCount());
+        assertEquals("/f2", resp.getInvalidatedPaths(0));
+    }
+
+    @Test
+    public void testChangesOfOpenFiles() {
+        final long epoch = 42;
+        MetadataLeaseManager leaseMan = new MetadataLeaseManager(epoch, 4, 300, null) {
+            @Override
+            protected String getVolumeName(String volumeId) {
+                return volumeId.equals("volId") ? "vol" : null;
+            }
+        };
+
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_FSETATTR, fsetattrRequest.newBuilder()
+                .setCap(getXCap("volId:1")).buildPartial());
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_FTRUNCATE, getXCap("volId:2"));
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_XTREEMFS_UPDATE_FILE_SIZE, getUpdate("volId:3"));
+        // repeated changes of the same file are only recorded once
+        leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_XTREEMFS_UPDATE_FILE_SIZES,
+                xtreemfs_update_file_sizesRequest.newBuilder()
+                        .addUpdates(getUpdate("volId:3"))
+                        .addUpdates(getUpdate("volId:1"))
+                        .addUpdates(getUpdate("otherId:4"))
+                        .buildPartial());
+
+        xtreemfs_renew_metadata_leaseResponse resp = leaseMan.renewLease("vol", epoch, 0);
+        assertFalse(resp.getInvalidateAll());
+        assertEquals(5, resp.getCurrentChange());
+        assertEquals(0, resp.getInvalidatedPathsCount());
+        assertEquals(3, resp.getInvalidatedFileIdsCount());
+        assertEquals(2, resp.getInvalidatedFileIds(0));
+        assertEquals(3, resp.getInvalidatedFileIds(1));
+        assertEquals(1, resp.getInvalidatedFileIds(2));
+
+        // changes that no longer fit in the log lead to a complete invalidation
+        for (int i = 10; i < 15; i++)
+            leaseMan.requestExecuted(MRCServiceConstants.PROC_ID_FTRUNCATE, getXCap("volId:" + i));
+        resp = leaseMan.renewLease("vol", epoch, 5);
+        assertTrue(resp.getInvalidateAll());
+        assertEquals(10, resp.getCurrentChange());
+    }
+
+    private static XCap getXCap(String fileId) {
+        return XCap.newBuilder().setFileId(fileId).buildPartial();
+    }
+
+    private static xtreemfs_update_file_sizeRequest getUpdate(String fileId) {
+        return xtreemfs_update_file_sizeRequest.newBuilder().setXcap(getXCap(fileId)).buildPartial();
+    }
+
+}
@@ -600,6 +600,36 @@ public class OSDPolicyTest {
         }
     }
 
+    @Test
+    public void testLocationKeys() throws Exception {
+        
+        // clients in the same datacenter share a location key
+        Properties p = new Properties();
+        p.setProperty("datacenters", "A,B");
+        p.setProperty("distance.A-B", "10");
+        p.setProperty("A.addresses", "192.168.2.0/24");
+        p.setProperty("B.addresses", "192.168.3.0/24");
+        SortDCMapPolicy dcPolicy = new SortDCMapPolicy(p);
+        
+        Object keyA1 = dcPolicy.getLocationKey(InetAddress.getByName("192.168.2.1"), null);
+        Object keyA2 = dcPolicy.getLocationKey(InetAddress.getByName("192.168.2.200"), null);
+        Object keyB = dcPolicy.getLocationKey(InetAddress.getByName("192.168.3.1"), null);
+        assertEquals(keyA1, keyA2);
+        assertFalse(keyA1.equals(keyB));
+        
+        // clients in the same Vivaldi region share a location key
+        SortVivaldiPolicy vivaldiPolicy = new SortVivaldiPolicy();
+        
+        Object key1 = vivaldiPolicy.getLocationKey(null, VivaldiCoordinates.newBuilder().setXCoordinate(100.0)
+                .setYCoordinate(50.0).setLocalError(0.1).build());
+        Object key2 = vivaldiPolicy.getLocationKey(null, VivaldiCoordinates.newBuilder().setXCoordinate(101.0)
+                .setYCoordinate(51.0).setLocalError(0.1).build());
+        Object key3 = vivaldiPolicy.getLocationKey(null, VivaldiCoordinates.newBuilder().setXCoordinate(300.0)
+                .setYCoordinate(50.0).setLocalError(0.1).build());
+        assertEquals(key1, key2);
+        assertFalse(key1.equals(key3));
+    }
+    
     @Test
     public void testFileNamePrefixPolicy() throws Exception {
         ServiceDataMap.Builder sdm1 = ServiceDataMap.newBuilder();
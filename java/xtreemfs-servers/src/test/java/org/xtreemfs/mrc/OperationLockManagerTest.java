@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.mrc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.mrc.stages.OperationLockManager;
+
+public class OperationLockManagerTest {
+
+    @Rule
+    public final TestRule        testLog     = TestHelper.testLog;
+
+    private static final int     NUM_THREADS = 4;
+
+    private ExecutorService      executor;
+
+    private OperationLockManager lockMan;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(NUM_THREADS);
+        lockMan = new OperationLockManager(executor, NUM_THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSharedOperationsRunConcurrently() throws Exception {
+
+        // all shared operations have to be running at the same time to pass
+        // the barrier
+        final CountDownLatch barrier = new CountDownLatch(NUM_THREADS);
+        final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; i++) {
+            lockMan.execute("vol", true, new Runnable() {
+                @Override
+                public void run() {
+                    barrier.countDown();
+                    try {
+                        if (barrier.await(10, TimeUnit.SECONDS))
+                            done.countDown();
+                    } catch (InterruptedException e) {
+                        // test fails
+                    }
+                }
+            });
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExclusiveOperationsAreOrdered() throws Exception {
+
+        final int numOps = 200;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(numOps);
+
+        for (int i = 0; i < numOps; i++) {
+            final int opNo = i;
+            // interleave shared operations, which must not overlap with the
+            // exclusive ones
+            final boolean shared = i % 3 == 0;
+            lockMan.execute("vol", shared, new Runnable() {
+                @Override
+                public void run() {
+                    if (!shared) {
+                        if (running.incrementAndGet() != 1)
+                            overlap.set(true);
+                        order.add(opNo);
+                        running.decrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+
+        for (int i = 1; i < order.size(); i++)
+            assertTrue(order.get(i - 1) < order.get(i));
+    }
+
+    @Test
+    public void testVolumesAreIndependent() throws Exception {
+
+        final CountDownLatch blockVol1 = new CountDownLatch(1);
+        final CountDownLatch vol2Done = new CountDownLatch(1);
+
+        lockMan.execute("vol1", false, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockVol1.await(20, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+
+        // exclusive operations on another volume are not blocked
+        lockMan.execute("vol2", false, new Runnable() {
+            @Override
+            public void run() {
+                vol2Done.countDown();
+            }
+        });
+        assertTrue(vol2Done.await(10, TimeUnit.SECONDS));
+
+        // ... whereas operations on the same volume are
+        final CountDownLatch vol1Done = new CountDownLatch(1);
+        lockMan.execute("vol1", true, new Runnable() {
+            @Override
+            public void run() {
+                vol1Done.countDown();
+            }
+        });
+        assertFalse(vol1Done.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, lockMan.getNumPendingOperations());
+
+        blockVol1.countDown();
+        assertTrue(vol1Done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGlobalOperationsRunAlone() throws Exception {
+
+        final int numOps = 100;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(numOps);
+
+        for (int i = 0; i < numOps; i++) {
+            final boolean global = i % 10 == 0;
+            lockMan.execute(global ? null : "vol" + (i % 4), true, new Runnable() {
+                @Override
+                public void run() {
+                    int concurrent = running.incrementAndGet();
+                    if (global && concurrent != 1)
+                        overlap.set(true);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    if (running.get() != concurrent && global)
+                        overlap.set(true);
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+
+        // operations are released after their completion has been signaled
+        for (int i = 0; i < 100 && lockMan.getNumRunningOperations() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, lockMan.getNumRunningOperations());
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.mrc.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.quota.QuotaConstants;
+
+public class SpaceAccountTest {
+
+    @Rule
+    public final TestRule       testLog     = TestHelper.testLog;
+
+    private static final long   QUOTA       = 1000;
+
+    private static final long   VOUCHER     = 10;
+
+    private static final int    NUM_THREADS = 8;
+
+    private static final int    NUM_OPS     = 200000;
+
+    @Test
+    public void testTryBlockSpace() {
+        SpaceAccount account = new SpaceAccount(SpaceAccount.Type.VOLUME, null, 900, 50);
+
+        assertTrue(account.tryBlockSpace(50, QUOTA));
+        assertEquals(100, account.getBlockedSpace());
+        assertFalse(account.tryBlockSpace(1, QUOTA));
+        assertEquals(100, account.getBlockedSpace());
+
+        // used space freed by other requests becomes available
+        account.addUsedSpace(-1);
+        assertTrue(account.tryBlockSpace(1, QUOTA));
+        assertTrue(account.tryBlockSpace(1, QuotaConstants.UNLIMITED_QUOTA));
+        assertTrue(account.isBlockedSpaceModified());
+    }
+
+    /**
+     * Requests concurrently block space, convert it into used space when the
+     * voucher is cleared, and free used space. Further requests increase the
+     * used space directly, provided that the quota is not exceeded. A checker
+     * verifies that the sum of used and blocked space never exceeds the quota.
+     */
+    @Test
+    public void testConcurrentBlockAndClear() throws Exception {
+
+        final SpaceAccount account = new SpaceAccount(SpaceAccount.Type.USER, "user", 0, 0);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger blocked = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(2 * NUM_THREADS);
+
+        Thread checker = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    synchronized (account) {
+                        long sum = account.getUsedSpace() + account.getBlockedSpace();
+                        if (sum > QUOTA)
+                            errors.add("used and blocked space exceed the quota: " + sum);
+                    }
+                }
+            }
+        };
+        checker.start();
+
+        for (int i = 0; i < NUM_THREADS; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < NUM_OPS; j++) {
+                            if (!account.tryBlockSpace(VOUCHER, QUOTA))
+                                continue;
+                            blocked.incrementAndGet();
+
+                            // clear the voucher as VolumeQuotaManager does
+                            synchronized (account) {
+                                account.addUsedSpace(VOUCHER);
+                                account.addBlockedSpace(-VOUCHER);
+                            }
+
+                            // delete the file again
+                            account.addUsedSpace(-VOUCHER);
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < NUM_OPS; j++) {
+                            boolean added;
+                            synchronized (account) {
+                                added = account.getUsedSpace() + account.getBlockedSpace() + VOUCHER <= QUOTA;
+                                if (added)
+                                    account.addUsedSpace(VOUCHER);
+                            }
+                            if (added)
+                                account.addUsedSpace(-VOUCHER);
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        finished.await();
+        done.set(true);
+        checker.join();
+
+        assertEquals(Collections.<String> emptyList(), errors);
+        assertTrue(blocked.get() > 0);
+        assertEquals(0, account.getUsedSpace());
+        assertEquals(0, account.getBlockedSpace());
+    }
+
+}
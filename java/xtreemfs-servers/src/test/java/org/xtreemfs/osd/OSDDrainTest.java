@@ -41,6 +41,7 @@ import org.xtreemfs.osd.OSD;
 import org.xtreemfs.osd.OSDConfig;
 import org.xtreemfs.osd.drain.OSDDrain;
 import org.xtreemfs.osd.drain.OSDDrain.FileInformation;
+import org.xtreemfs.osd.drain.OSDDrainCheckpoint;
 import org.xtreemfs.osd.drain.OSDDrainException;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceStatus;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
@@ -342,6 +343,93 @@ public class OSDDrainTest {
 
     }
 
+    @Test
+    public void testConcurrentRemoveOSD() throws Exception {
+
+        // start only one OSD to ensure that all file lay on the same OSD (easier to make assertions)
+        osdServer.add(new OSD(osdConfig1));
+
+        final int NUMBER_OF_FILES = 10;
+
+        final Client c = new Client(new InetSocketAddress[] { testEnv.getDIRAddress() }, 15000, 300000, null);
+        c.start();
+
+        c.createVolume(VOLNAME, authHeader, uc, sp.getPolicy(), AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL,
+                0777);
+
+        Volume volume = c.getVolume(VOLNAME, uc);
+
+        final int SIZE = 1024 * 200;
+        byte[] data = new byte[SIZE];
+        for (int j = 0; j < SIZE; j++) {
+            data[j] = 'f';
+        }
+
+        File files[] = new File[NUMBER_OF_FILES];
+        for (int i = 0; i < NUMBER_OF_FILES; i++) {
+            files[i] = volume.getFile("foo" + i);
+            files[i].createFile();
+
+            RandomAccessFile raf = files[i].open("rw", 0777);
+            raf.write(data, 0, data.length);
+            raf.flush();
+            raf.close();
+        }
+
+        // start second OSD
+        osdServer.add(new OSD(osdConfig2));
+
+        // wait until the OSD is registered and known to the MRC
+        Thread.sleep(10 * 1000);
+
+        java.io.File checkpointFile = java.io.File.createTempFile("osddrain", ".checkpoint");
+        checkpointFile.delete();
+        try {
+            osdDrain.drain(false, 4, checkpointFile, 0);
+
+            for (File file : files) {
+                assertEquals(1, file.getNumReplicas());
+                assertEquals(ReplicaUpdatePolicies.REPL_UPDATE_PC_NONE, file.getReplicaUpdatePolicy());
+                assertNotEquals(osdConfig1.getUUID().toString(), file.getReplica(0).getOSDUuid(0));
+            }
+
+            // all files are recorded as moved in the checkpoint
+            OSDDrainCheckpoint checkpoint = new OSDDrainCheckpoint(checkpointFile);
+            assertEquals(NUMBER_OF_FILES, checkpoint.getNumFiles(OSDDrainCheckpoint.FileState.DONE));
+            checkpoint.close();
+        } finally {
+            checkpointFile.delete();
+        }
+
+        // test if files are the same like before
+        for (int i = 0; i < NUMBER_OF_FILES; i++) {
+            RandomAccessFile raf = files[i].open("r", 0777);
+
+            raf.read(data, 0, data.length);
+            raf.close();
+
+            for (int j = 0; j < SIZE; j++) {
+                assertEquals('f', data[j]);
+            }
+        }
+
+        // tidy up
+        for (File file : files) {
+            file.delete();
+        }
+
+        c.deleteVolume(VOLNAME, authHeader, uc);
+        c.stop();
+
+        for (OSD osd : osdServer) {
+            osd.shutdown();
+        }
+        osdServer.clear();
+
+        TimeSync.initializeLocal(50).waitForStartup();
+
+    }
+
     @Test
     public void testRemoveOSDWithRWR() throws Exception {
         osdServer.add(new OSD(osdConfig1));
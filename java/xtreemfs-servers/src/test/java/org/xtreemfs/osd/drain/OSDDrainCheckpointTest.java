@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.drain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.osd.drain.OSDDrainCheckpoint.FileEntry;
+import org.xtreemfs.osd.drain.OSDDrainCheckpoint.FileState;
+
+public class OSDDrainCheckpointTest {
+
+    private File file;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("drain", ".checkpoint");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        OSDDrainCheckpoint checkpoint = new OSDDrainCheckpoint(file);
+        checkpoint.started("vol:1", ReplicaUpdatePolicies.REPL_UPDATE_PC_NONE);
+        checkpoint.addingReplica("vol:1", "osd2");
+        checkpoint.started("vol:2", ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ);
+        checkpoint.done("vol:2");
+        checkpoint.started("vol:3", ReplicaUpdatePolicies.REPL_UPDATE_PC_NONE);
+        checkpoint.failed("vol:3");
+        checkpoint.addingReplica("vol:4", "osd3");
+        checkpoint.unsafe("vol:5");
+        checkpoint.close();
+
+        // simulate a drain that was killed while writing a record
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("ADDING_REP".getBytes());
+        out.close();
+
+        checkpoint = new OSDDrainCheckpoint(file);
+
+        FileEntry entry = checkpoint.getEntry("vol:1");
+        assertEquals(FileState.ADDING_REPLICA, entry.state);
+        assertEquals(ReplicaUpdatePolicies.REPL_UPDATE_PC_NONE, entry.oldReplicationPolicy);
+        assertEquals("osd2", entry.newReplicaOSD);
+        assertFalse(checkpoint.isFinished("vol:1"));
+
+        assertTrue(checkpoint.isFinished("vol:2"));
+
+        // reverted files are drained again
+        assertNull(checkpoint.getEntry("vol:3"));
+
+        entry = checkpoint.getEntry("vol:4");
+        assertNull(entry.oldReplicationPolicy);
+        assertEquals("osd3", entry.newReplicaOSD);
+
+        assertTrue(checkpoint.isFinished("vol:5"));
+        assertEquals(1, checkpoint.getNumFiles(FileState.UNSAFE));
+        assertNull(checkpoint.getEntry("vol:6"));
+
+        checkpoint.done("vol:1");
+        checkpoint.close();
+
+        checkpoint = new OSDDrainCheckpoint(file);
+        assertTrue(checkpoint.isFinished("vol:1"));
+        assertEquals(2, checkpoint.getNumFiles(FileState.DONE));
+        checkpoint.close();
+    }
+}
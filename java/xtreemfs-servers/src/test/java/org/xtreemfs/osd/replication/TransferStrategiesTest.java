@@ -32,6 +32,7 @@ import org.xtreemfs.common.xloc.ReplicationFlags;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.replication.transferStrategies.AdaptiveBulkStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.RandomStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.SequentialPrefetchingStrategy;
 import org.xtreemfs.osd.replication.transferStrategies.SequentialStrategy;
@@ -357,6 +358,67 @@ public class TransferStrategiesTest {
         }
     }
 
+    /**
+     * Test method for {@link org.xtreemfs.osd.replication.transferStrategies.AdaptiveBulkStrategy#selectNext()}.
+     */
+    @Test
+    public void testSelectNextForAdaptiveBulkTransfer() {
+        AdaptiveBulkStrategy strategy = new AdaptiveBulkStrategy(fileID, xLoc, new ServiceAvailability());
+        this.strategy = strategy;
+        final int stripeWidth = xLoc.getLocalReplica().getStripingPolicy().getWidth();
+
+        // objects of the first OSD of the local replica; object 60 is missing
+        for (long object = 0; object < 100; object += stripeWidth) {
+            if (object != 60)
+                this.strategy.addObject(object, false);
+        }
+        long objectsCount = this.strategy.getObjectsCount();
+
+        try {
+            // a run of the initial length
+            this.strategy.selectNext();
+            NextRequest next = this.strategy.getNext();
+            assertEquals(0, next.objectNo);
+            assertEquals(AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST, next.numObjects);
+            assertEquals(stripeWidth, next.objectNoStep);
+            assertEquals(xLoc.getReplica(1).getOSDForObject(next.objectNo), next.osd);
+            objectsCount -= next.numObjects;
+            assertEquals(objectsCount, this.strategy.getObjectsCount());
+
+            // the throughput is unknown => more objects per request
+            strategy.requestCompleted(next, 1024 * 1024, 1000 * 1000);
+            assertEquals(AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST * 2, strategy.getObjectsPerRequest());
+
+            // the run ends before the missing object
+            this.strategy.selectNext();
+            next = this.strategy.getNext();
+            assertEquals(AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST * stripeWidth, next.objectNo);
+            assertEquals(60, next.getObjectNo(next.numObjects));
+            objectsCount -= next.numObjects;
+            assertEquals(objectsCount, this.strategy.getObjectsCount());
+
+            // a short run does not change the number of objects per request
+            strategy.requestCompleted(next, 1, 1000 * 1000 * 1000);
+            assertEquals(AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST * 2, strategy.getObjectsPerRequest());
+
+            // a lower throughput reverses the direction
+            next.numObjects = strategy.getObjectsPerRequest();
+            strategy.requestCompleted(next, 1024 * 1024, 2000 * 1000);
+            assertEquals(AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST, strategy.getObjectsPerRequest());
+
+            // the remaining objects
+            while (this.strategy.getObjectsCount() > 0) {
+                this.strategy.selectNext();
+                next = this.strategy.getNext();
+                assertTrue(next.numObjects <= AdaptiveBulkStrategy.INITIAL_OBJECTS_PER_REQUEST);
+            }
+            this.strategy.selectNext();
+            assertNull(this.strategy.getNext());
+        } catch (TransferStrategyException e) {
+            fail(e.getLocalizedMessage());
+        }
+    }
+
     // /**
     // * Test method for {@link org.xtreemfs.osd.replication.transferStrategies.RarestFirstStrategy#selectNext()}.
     // */
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.flease.comm.ProposalNumber;
+
+public class FleaseMessageBatcherTest {
+
+    @Test
+    public void testBatchDeliversAllMessages() throws Exception {
+        final int numMessages = 10;
+
+        List<ReusableBuffer> batch = new ArrayList<ReusableBuffer>();
+        for (int i = 0; i < numMessages; i++) {
+            batch.add(serialize(createMessage(i)));
+        }
+
+        ReusableBuffer data = FleaseMessageBatcher.pack(batch);
+        List<FleaseMessage> messages = FleaseMessageBatcher.unpack(data, numMessages);
+
+        assertEquals(numMessages, messages.size());
+        for (int i = 0; i < numMessages; i++) {
+            FleaseMessage msg = messages.get(i);
+            assertEquals(new ASCIIString("cell" + i), msg.getCellId());
+            assertEquals(FleaseMessage.MsgType.MSG_PREPARE, msg.getMsgType());
+            assertEquals(i, msg.getProposalNo().getProposalNo());
+        }
+        assertEquals(0, data.remaining());
+        BufferPool.free(data);
+    }
+
+    @Test
+    public void testSingleMessage() throws Exception {
+        List<ReusableBuffer> batch = new ArrayList<ReusableBuffer>();
+        batch.add(serialize(createMessage(7)));
+
+        ReusableBuffer data = FleaseMessageBatcher.pack(batch);
+        // OSDs that do not support batches send 0 as the number of messages
+        List<FleaseMessage> messages = FleaseMessageBatcher.unpack(data, 0);
+
+        assertEquals(1, messages.size());
+        assertEquals(new ASCIIString("cell7"), messages.get(0).getCellId());
+        assertEquals(0, data.remaining());
+        BufferPool.free(data);
+    }
+
+    private static FleaseMessage createMessage(int i) {
+        FleaseMessage msg = new FleaseMessage(FleaseMessage.MsgType.MSG_PREPARE);
+        msg.setCellId(new ASCIIString("cell" + i));
+        msg.setProposalNo(new ProposalNumber(i, 1));
+        msg.setPrevProposalNo(ProposalNumber.EMPTY_PROPOSAL_NUMBER);
+        msg.setSendTimestamp(System.currentTimeMillis());
+        return msg;
+    }
+
+    private static ReusableBuffer serialize(FleaseMessage msg) {
+        ReusableBuffer data = BufferPool.allocate(msg.getSize());
+        msg.serialize(data);
+        data.flip();
+        return data;
+    }
+
+}
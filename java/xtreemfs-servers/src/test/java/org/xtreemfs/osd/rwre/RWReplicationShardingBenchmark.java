@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.osd.OSD;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Measures the throughput of replicated writes to many files on three OSDs
+ * depending on the number of threads of the RW replication stage
+ * ("rwr.threads").
+ * <p>
+ * This is a benchmark rather than a test and therefore not executed with the
+ * other tests. The number of files, the number of requests in flight and the
+ * duration of each run can be set with the system properties
+ * "benchmark.files", "benchmark.inflight" and "benchmark.duration_s".
+ */
+public class RWReplicationShardingBenchmark {
+    @Rule
+    public final TestRule       testLog     = TestHelper.testLog;
+
+    private static final int    NUM_OSDS    = 3;
+
+    private static final int[]  NUM_SHARDS  = { 1, 2, 4, 8 };
+
+    private static final int    OBJECT_SIZE = 4 * 1024;
+
+    private final int           numFiles    = Integer.getInteger("benchmark.files", 1000);
+
+    private final int           numInFlight = Integer.getInteger("benchmark.inflight", 256);
+
+    private final int           durationS   = Integer.getInteger("benchmark.duration_s", 20);
+
+    private TestEnvironment     testEnv;
+
+    private OSD[]               osds;
+
+    private OSDConfig[]         configs;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testEnv = new TestEnvironment(new TestEnvironment.Services[] { TestEnvironment.Services.DIR_SERVICE,
+                TestEnvironment.Services.TIME_SYNC, TestEnvironment.Services.UUID_RESOLVER,
+                TestEnvironment.Services.OSD_CLIENT });
+        testEnv.start();
+    }
+
+    @After
+    public void tearDown() {
+        stopOSDs();
+        testEnv.shutdown();
+    }
+
+    @Test
+    public void benchmarkReplicatedWrites() throws Exception {
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("%8s %12s %12s%n", "threads", "writes/s", "errors"));
+
+        for (int numShards : NUM_SHARDS) {
+            startOSDs(numShards);
+            long[] result = runWrites("SHARDS" + numShards);
+            stopOSDs();
+
+            results.append(String.format("%8d %12.1f %12d%n", numShards, result[0] / (double) durationS, result[1]));
+        }
+
+        System.out.println("replicated writes to " + numFiles + " files with " + numInFlight
+                + " requests in flight, " + durationS + " s per run:");
+        System.out.print(results);
+    }
+
+    private void startOSDs(int numShards) throws Exception {
+        configs = SetupUtils.createMultipleOSDConfigs(NUM_OSDS);
+        osds = new OSD[NUM_OSDS];
+        for (int i = 0; i < NUM_OSDS; i++) {
+            FSUtils.delTree(new java.io.File(configs[i].getObjDir()));
+            configs[i].setRWRThreads(numShards);
+            osds[i] = new OSD(configs[i]);
+        }
+    }
+
+    private void stopOSDs() {
+        if (osds != null) {
+            for (OSD osd : osds) {
+                if (osd != null)
+                    osd.shutdown();
+            }
+            osds = null;
+        }
+    }
+
+    /**
+     * Writes objects to all files in turns for the configured duration, after
+     * each file has been written once to acquire the leases.
+     *
+     * @return the number of successful and failed writes in the measured
+     *         period
+     */
+    private long[] runWrites(String volumeId) throws Exception {
+
+        final OSDServiceClient client = testEnv.getOSDClient();
+        final InetSocketAddress primary = new InetSocketAddress("localhost", configs[0].getPort());
+
+        List<Replica> replicas = new LinkedList<Replica>();
+        for (OSDConfig osd : configs) {
+            replicas.add(Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, OBJECT_SIZE / 1024))
+                    .setReplicationFlags(0).addOsdUuids(osd.getUUID().toString()).build());
+        }
+        XLocSet locSet = XLocSet.newBuilder().setReadOnlyFileSize(0)
+                .setReplicaUpdatePolicy(ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ).setVersion(1)
+                .addAllReplicas(replicas).build();
+
+        FileCredentials[] credentials = new FileCredentials[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            Capability cap = new Capability(volumeId + ":" + i, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(),
+                    600, System.currentTimeMillis(), "", 0, false, SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0,
+                    configs[0].getCapabilitySecret());
+            credentials[i] = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(locSet).build();
+        }
+
+        final Semaphore inFlight = new Semaphore(numInFlight);
+        final AtomicLong numSuccessful = new AtomicLong();
+        final AtomicLong numFailed = new AtomicLong();
+        final ObjectData objData = ObjectData.newBuilder().setChecksum(0).setZeroPadding(0)
+                .setInvalidChecksumOnOsd(false).build();
+
+        RPCResponseAvailableListener<OSDWriteResponse> listener = new RPCResponseAvailableListener<OSDWriteResponse>() {
+
+            @Override
+            public void responseAvailable(RPCResponse<OSDWriteResponse> r) {
+                try {
+                    r.get();
+                    numSuccessful.incrementAndGet();
+                } catch (Exception ex) {
+                    numFailed.incrementAndGet();
+                } finally {
+                    r.freeBuffers();
+                    inFlight.release();
+                }
+            }
+        };
+
+        // open all files and acquire the leases
+        for (int i = 0; i < numFiles; i++) {
+            inFlight.acquire();
+            write(client, primary, credentials[i], 0, objData, listener);
+        }
+        inFlight.acquire(numInFlight);
+        inFlight.release(numInFlight);
+        numSuccessful.set(0);
+        numFailed.set(0);
+
+        // measure the throughput
+        long end = System.currentTimeMillis() + durationS * 1000L;
+        long objNo = 0;
+        for (int i = 0; System.currentTimeMillis() < end; i++) {
+            if (i == numFiles) {
+                i = 0;
+                objNo++;
+            }
+            inFlight.acquire();
+            write(client, primary, credentials[i], objNo, objData, listener);
+        }
+        long successful = numSuccessful.get();
+        long failed = numFailed.get();
+
+        inFlight.acquire(numInFlight);
+        return new long[] { successful, failed };
+    }
+
+    private static void write(OSDServiceClient client, InetSocketAddress osd, FileCredentials credentials,
+            long objNo, ObjectData objData, RPCResponseAvailableListener<OSDWriteResponse> listener)
+            throws Exception {
+        ReusableBuffer data = BufferPool.allocate(OBJECT_SIZE);
+        data.position(OBJECT_SIZE);
+        data.flip();
+        RPCResponse<OSDWriteResponse> r = client.write(osd, RPCAuthentication.authNone,
+                RPCAuthentication.userService, credentials, credentials.getXcap().getFileId(), objNo, 0, 0, 0,
+                objData, data);
+        r.registerListener(listener);
+    }
+
+}
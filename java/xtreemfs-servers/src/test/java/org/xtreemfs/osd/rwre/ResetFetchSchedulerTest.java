@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping;
+
+public class ResetFetchSchedulerTest {
+    @Rule
+    public final TestRule   testLog = TestHelper.testLog;
+
+    private static TimeSync timeSync;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL);
+        timeSync = TimeSync.initializeLocal(50);
+        timeSync.waitForStartup();
+    }
+
+    @AfterClass
+    public static void shutdownTest() throws Exception {
+        timeSync.close();
+    }
+
+    private static List<ObjectVersionMapping> createObjects(int num, String... osds) {
+        List<ObjectVersionMapping> objects = new LinkedList<ObjectVersionMapping>();
+        for (int i = 0; i < num; i++) {
+            ObjectVersionMapping.Builder object = ObjectVersionMapping.newBuilder().setObjectNumber(i)
+                    .setObjectVersion(1);
+            for (String osd : osds)
+                object.addOsdUuids(osd);
+            objects.add(object.build());
+        }
+        return objects;
+    }
+
+    @Test
+    public void testBatchesAndLimits() throws Exception {
+
+        ResetFetchScheduler scheduler = new ResetFetchScheduler(10, 6, 4, 0);
+        List<ObjectVersionMapping> missing = createObjects(20, "osd1");
+
+        // fetches contain up to 4 objects, and up to 6 objects per file
+        ResetFetchScheduler.Fetch fetch = scheduler.nextFetch(missing, 0);
+        assertEquals("osd1", fetch.osdUUID);
+        assertEquals(4, fetch.objects.size());
+        assertEquals(0, fetch.objects.get(0).getObjectNumber());
+        assertEquals(3, fetch.objects.get(3).getObjectNumber());
+        assertEquals(16, missing.size());
+
+        fetch = scheduler.nextFetch(missing, 4);
+        assertEquals(2, fetch.objects.size());
+        assertNull(scheduler.nextFetch(missing, 6));
+
+        // another file may use the remaining capacity of the OSD
+        List<ObjectVersionMapping> other = createObjects(20, "osd1");
+        assertEquals(4, scheduler.nextFetch(other, 0).objects.size());
+        assertFalse(scheduler.hasCapacity());
+        assertNull(scheduler.nextFetch(other, 4));
+
+        scheduler.objectFetched("osd1", 1024);
+        assertTrue(scheduler.hasCapacity());
+        assertEquals(1, scheduler.nextFetch(other, 4).objects.size());
+    }
+
+    @Test
+    public void testReplicaSelection() throws Exception {
+
+        ResetFetchScheduler scheduler = new ResetFetchScheduler(100, 100, 2, 0);
+        List<ObjectVersionMapping> missing = createObjects(8, "osd1", "osd2");
+
+        // fetches are spread across the OSDs that have the objects
+        ResetFetchScheduler.Fetch first = scheduler.nextFetch(missing, 0);
+        ResetFetchScheduler.Fetch second = scheduler.nextFetch(missing, 2);
+        assertFalse(first.osdUUID.equals(second.osdUUID));
+
+        // objects that are not available on the chosen OSD are skipped
+        missing = createObjects(1, "osd1", "osd2");
+        missing.addAll(createObjects(1, "osd3"));
+        missing.addAll(createObjects(1, "osd1", "osd2"));
+        ResetFetchScheduler.Fetch fetch = scheduler.nextFetch(missing, 0);
+        assertEquals(2, fetch.objects.size());
+        assertEquals(1, missing.size());
+        assertEquals("osd3", missing.get(0).getOsdUuids(0));
+    }
+
+    @Test
+    public void testBandwidthLimit() throws Exception {
+
+        ResetFetchScheduler scheduler = new ResetFetchScheduler(100, 100, 1, 1024 * 1024);
+        List<ObjectVersionMapping> missing = createObjects(10, "osd1");
+
+        assertTrue(scheduler.hasCapacity());
+        scheduler.nextFetch(missing, 0);
+        scheduler.objectFetched("osd1", 2 * 1024 * 1024);
+
+        // the bucket is empty for roughly one second
+        assertFalse(scheduler.hasCapacity());
+        long delay = scheduler.getThrottleDelay();
+        assertTrue(delay > 0 && delay <= 1001);
+
+        Thread.sleep(delay + 10);
+        assertTrue(scheduler.hasCapacity());
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ordering of updates on a backup. The updates are handled like in
+ * RWReplicationStage: updates that are not next in sequence are held back,
+ * and held back updates are applied once their predecessors have been
+ * applied, the gap timeout fired or the buffer limit was exceeded. Updates
+ * are named "epoch:seq".
+ */
+public class UpdateSequencerTest {
+
+    private UpdateSequencer<String> sequencer;
+
+    private List<String>            applied;
+
+    @Before
+    public void setUp() {
+        sequencer = new UpdateSequencer<String>(RWReplicationStage.MAX_BUFFERED_UPDATES_PER_FILE);
+        applied = new ArrayList<String>();
+    }
+
+    @Test
+    public void testInOrder() {
+        receive(1, 1, 2, 3, 4, 5);
+
+        assertApplied("1:1", "1:2", "1:3", "1:4", "1:5");
+        assertEquals(6, sequencer.getNextUpdateSeq());
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        receive(1, 1, 3, 5, 4);
+        assertApplied("1:1");
+        assertEquals(3, sequencer.getNumBufferedUpdates());
+        assertTrue(sequencer.isWaitingFor(1, 2));
+
+        receive(1, 2);
+        assertApplied("1:1", "1:2", "1:3", "1:4", "1:5");
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+        assertEquals(6, sequencer.getNextUpdateSeq());
+        assertFalse(sequencer.isWaitingFor(1, 6));
+    }
+
+    @Test
+    public void testFirstUpdateArrivesLate() {
+        // the first updates of a sequence are held back until update 1 has
+        // been received, also if the sequence is not known yet
+        receive(1, 2, 3);
+        assertApplied();
+        assertTrue(sequencer.isWaitingFor(1, 1));
+
+        receive(1, 1);
+        assertApplied("1:1", "1:2", "1:3");
+
+        // and not reordered afterwards
+        receive(1, 4);
+        assertApplied("1:1", "1:2", "1:3", "1:4");
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+    }
+
+    @Test
+    public void testOutdatedUpdatesArePassed() {
+        receive(1, 1, 2, 3);
+
+        // older updates are passed, so that their object versions decide
+        assertTrue(sequencer.isNextUpdate(1, 2));
+        assertEquals(4, sequencer.getNextUpdateSeq());
+    }
+
+    @Test
+    public void testNewPrimary() {
+        receive(1, 1, 2, 3, 4);
+
+        // update 1 of the old primary arrives late and does not restart the
+        // sequence
+        assertTrue(sequencer.isNextUpdate(1, 1));
+        assertEquals(5, sequencer.getNextUpdateSeq());
+
+        // a new primary starts a new sequence with a newer epoch
+        receive(2, 2, 1, 3);
+        assertApplied("1:1", "1:2", "1:3", "1:4", "2:1", "2:2", "2:3");
+        assertEquals(2, sequencer.getEpoch());
+        assertEquals(4, sequencer.getNextUpdateSeq());
+
+        // updates of the old primary are passed, so that their object
+        // versions decide
+        assertTrue(sequencer.isNextUpdate(1, 5));
+        assertEquals(4, sequencer.getNextUpdateSeq());
+    }
+
+    @Test
+    public void testNewPrimaryReleasesHeldBackUpdates() {
+        receive(1, 1, 3, 4);
+        assertApplied("1:1");
+
+        // the old primary's missing update will not be waited for anymore
+        receive(2, 2);
+        assertTrue(sequencer.hasReleasedUpdates());
+        assertFalse(sequencer.isWaitingFor(1, 2));
+        assertTrue(sequencer.isWaitingFor(2, 1));
+        applyBufferedUpdates(false);
+        assertApplied("1:1", "1:3", "1:4");
+        assertEquals(1, sequencer.getNumBufferedUpdates());
+
+        receive(2, 1);
+        assertApplied("1:1", "1:3", "1:4", "2:1", "2:2");
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+    }
+
+    @Test
+    public void testClear() {
+        receive(1, 1, 2, 3, 4, 6);
+        assertEquals(1, sequencer.getNumBufferedUpdates());
+
+        // held back updates are dropped when the replica failed, and the
+        // sequence is unknown afterwards
+        sequencer.clear();
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+        assertEquals(UpdateSequencer.UNKNOWN_EPOCH, sequencer.getEpoch());
+
+        // the next update is not applied before its predecessors
+        receive(1, 8);
+        assertApplied("1:1", "1:2", "1:3", "1:4");
+        assertTrue(sequencer.isWaitingFor(1, 1));
+
+        // until the gap timeout fired
+        gapTimeout(1, 1);
+        assertApplied("1:1", "1:2", "1:3", "1:4", "1:8");
+        assertEquals(9, sequencer.getNextUpdateSeq());
+    }
+
+    @Test
+    public void testGapTimeout() {
+        receive(1, 1, 3, 4, 6);
+        assertApplied("1:1");
+
+        // the timeout scheduled for update 2 fires
+        assertTrue(sequencer.isWaitingFor(1, 2));
+        gapTimeout(1, 2);
+        assertApplied("1:1", "1:3", "1:4");
+
+        // the timeout that has been scheduled for update 5 fires
+        assertFalse(sequencer.isWaitingFor(1, 2));
+        assertTrue(sequencer.isWaitingFor(1, 5));
+        gapTimeout(1, 5);
+        assertApplied("1:1", "1:3", "1:4", "1:6");
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+        assertFalse(sequencer.isWaitingFor(1, 7));
+
+        // the missing update arrives late and is passed
+        assertTrue(sequencer.isNextUpdate(1, 2));
+        assertEquals(7, sequencer.getNextUpdateSeq());
+    }
+
+    @Test
+    public void testGapTimeoutOfPreviousEpoch() {
+        receive(1, 1, 3);
+        assertTrue(sequencer.isWaitingFor(1, 2));
+
+        receive(2, 1, 3);
+        applyBufferedUpdates(false);
+
+        // a timeout scheduled in the previous epoch does not skip updates of
+        // the new one
+        assertFalse(sequencer.isWaitingFor(1, 2));
+        assertTrue(sequencer.isWaitingFor(2, 2));
+    }
+
+    @Test
+    public void testBufferLimit() {
+        final int limit = RWReplicationStage.MAX_BUFFERED_UPDATES_PER_FILE;
+        assertEquals(64, limit);
+
+        receive(1, 1);
+        for (long seq = 3; seq < limit + 2; seq++) {
+            receive(1, seq);
+        }
+        assertApplied("1:1");
+        assertEquals(limit - 1, sequencer.getNumBufferedUpdates());
+
+        // exceeding the limit skips the gap
+        receive(1, limit + 2);
+        receive(1, limit + 3);
+        assertEquals(0, sequencer.getNumBufferedUpdates());
+        assertEquals(limit + 2, applied.size());
+        assertEquals("1:" + (limit + 3), applied.get(applied.size() - 1));
+        assertEquals(limit + 4, sequencer.getNextUpdateSeq());
+    }
+
+    @Test
+    public void testRemoveWithoutPredecessor() {
+        receive(1, 1, 3);
+        assertNull(sequencer.removeNextBufferedUpdate(false));
+        assertEquals("1:3", sequencer.removeNextBufferedUpdate(true));
+        assertNull(sequencer.removeNextBufferedUpdate(true));
+    }
+
+    private void receive(long epoch, long... updateSeqs) {
+        for (long updateSeq : updateSeqs) {
+            if (!sequencer.isNextUpdate(epoch, updateSeq)) {
+                if (sequencer.bufferUpdate(updateSeq, epoch + ":" + updateSeq)) {
+                    applyBufferedUpdates(true);
+                }
+                continue;
+            }
+            applied.add(epoch + ":" + updateSeq);
+            applyBufferedUpdates(false);
+        }
+    }
+
+    private void gapTimeout(long epoch, long missingSeq) {
+        if (sequencer.isWaitingFor(epoch, missingSeq)) {
+            applyBufferedUpdates(true);
+        }
+    }
+
+    private void applyBufferedUpdates(boolean skipGap) {
+        String next;
+        while ((next = sequencer.removeNextBufferedUpdate(skipGap)) != null) {
+            // held back updates are processed again
+            String[] update = next.split(":");
+            assertTrue(sequencer.isNextUpdate(Long.parseLong(update[0]), Long.parseLong(update[1])));
+            applied.add(next);
+            skipGap = false;
+        }
+    }
+
+    private void assertApplied(String... updates) {
+        assertEquals(Arrays.asList(updates), applied);
+    }
+}